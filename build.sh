@@ -1,3 +1,3 @@
-javac -d bin -cp "lib/*" core/src/main/java/io/github/jayhost/*.java
+javac -d bin -cp "lib/*" $(find core/src/main/java -name '*.java')
 javac -d bin -cp "lib/*" lwjgl3/src/main/java/io/github/jayhost/lwjgl3/*.java
 # lwjgl3/src/main/java/io.github.jayhost.lwjgl3.Lwjgl3Launcher 
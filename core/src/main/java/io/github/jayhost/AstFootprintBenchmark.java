@@ -0,0 +1,99 @@
+// ========================================================================
+// io/github/jayhost/AstFootprintBenchmark.java
+//
+// Compares the retained heap of the compact AST with the previous
+// representation (ArrayList-backed lists, one node with a line number per
+// occurrence) on a large generated script.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AstFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int targetMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        String source = ParserBenchmark.generateScript(targetMegabytes * 1024 * 1024);
+
+        System.out.println("\n--- AST Footprint Benchmark ---");
+        System.out.printf("Script size: %.2f MB%n", source.length() / (1024.0 * 1024.0));
+
+        // Intern every symbol up front so the symbol table is not counted.
+        new Parser(source).parseMultiple();
+
+        long before = usedHeap();
+        List<Expr> compact = new Parser(source).parseMultiple();
+        long compactBytes = usedHeap() - before;
+
+        before = usedHeap();
+        List<Object> legacy = new ArrayList<>();
+        for (Expr form : compact) legacy.add(toLegacy(form, 1));
+        long legacyBytes = usedHeap() - before;
+
+        System.out.println("=====================================");
+        System.out.println("Top-level forms: " + compact.size() + " (" + legacy.size() + " legacy)");
+        System.out.printf("Legacy AST:  %8.2f MB (%.1f bytes/form)%n",
+                legacyBytes / 1048576.0, (double) legacyBytes / legacy.size());
+        System.out.printf("Compact AST: %8.2f MB (%.1f bytes/form)%n",
+                compactBytes / 1048576.0, (double) compactBytes / compact.size());
+        System.out.printf("Reduction:   %.1f%%%n", 100.0 * (legacyBytes - compactBytes) / legacyBytes);
+        System.out.println("=====================================");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Rebuilds a form the way the old reader did: a fresh node with a line
+     * number per occurrence, a fresh String per symbol, and lists grown
+     * element by element in an ArrayList.
+     */
+    private static Object toLegacy(Expr expr, int line) {
+        if (expr instanceof ListExpr list) {
+            List<Object> elements = new ArrayList<>();
+            for (int i = 0; i < list.size(); i++) elements.add(toLegacy(list.get(i), list.line()));
+            return new LegacyList(elements, list.line());
+        } else if (expr instanceof NumberExpr num) {
+            return new LegacyNumber(num.value, line);
+        } else if (expr instanceof SymbolExpr sym) {
+            return new LegacySymbol(new StringBuilder(sym.name()).toString(), line);
+        } else if (expr instanceof StringExpr str) {
+            return new LegacyString(new StringBuilder(str.value).toString(), line);
+        }
+        return new LegacySymbol(new StringBuilder(expr.toString()).toString(), line);
+    }
+
+    private abstract static class LegacyExpr {
+        final int line;
+        LegacyExpr(int line) { this.line = line; }
+    }
+
+    private static final class LegacyNumber extends LegacyExpr {
+        final double value;
+        LegacyNumber(double value, int line) { super(line); this.value = value; }
+    }
+
+    private static final class LegacyString extends LegacyExpr {
+        final String value;
+        LegacyString(String value, int line) { super(line); this.value = value; }
+    }
+
+    private static final class LegacySymbol extends LegacyExpr {
+        final String name;
+        LegacySymbol(String name, int line) { super(line); this.name = name; }
+    }
+
+    private static final class LegacyList extends LegacyExpr {
+        final List<Object> elements;
+        LegacyList(List<Object> elements, int line) { super(line); this.elements = elements; }
+    }
+}
@@ -4,9 +4,10 @@ public class BinaryExpr extends Expr {
     public final Expr left;
     public final Token operator;
     public final Expr right;
+    public final int line;
 
     public BinaryExpr(Expr left, Token operator, Expr right, int line) {
-        super(line);
+        this.line = line;
         this.left = left;
         this.operator = operator;
         this.right = right;
@@ -0,0 +1,606 @@
+// ========================================================================
+// io/github/jayhost/BoundsTree.java
+//
+// A bounding-volume hierarchy over entity world bounds, kept up to date
+// as entities move, and the frustum query the renderer culls with.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A dynamic AABB tree in the style of Box2D's: every entity is a leaf,
+ * every inner node bounds its two children, and insertions pick the
+ * sibling that grows the tree's surface area least, with AVL-style
+ * rotations keeping it balanced. Nodes are rows of parallel arrays and
+ * entities are found by their {@link EntityRegistry#slot slot}, so nothing
+ * is allocated once the arrays have grown.
+ * <p>
+ * A leaf stores the entity's exact bounds and, for the tree, a fattened
+ * copy. {@link #set} only reinserts a leaf when the exact bounds leave the
+ * fat ones, so an entity that moves a little each frame costs a
+ * containment check.
+ * <p>
+ * {@link #cull} collects the entities whose exact bounds touch a frustum.
+ * A subtree whose box lies outside a plane is skipped and one entirely
+ * inside is taken whole, without testing what is under it. Large trees are
+ * searched in parallel: the top levels are walked on the calling thread,
+ * the subtrees below are handed to a fork-join pool, and their results are
+ * joined in tree order. The result, its order and the counters are the
+ * same however many threads take part, so a headless check can compare
+ * runs exactly.
+ * <p>
+ * Not thread-safe: call everything from one thread.
+ */
+public final class BoundsTree {
+    private static final int NULL = -1;
+    /** Trees with fewer leaves than this are culled on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 2048;
+    /** Levels walked on the calling thread before the rest is split up. */
+    private static final int SPLIT_DEPTH = 5;
+
+    private static final int OUTSIDE = 0, INTERSECTS = 1, INSIDE = 2;
+
+    // Node rows. A leaf has left == NULL; a free node links to the next through parent.
+    private float[] minX, minY, minZ, maxX, maxY, maxZ;
+    private int[] parent, left, right, height, entities;
+    // Exact bounds of leaves, by node.
+    private float[] tightMinX, tightMinY, tightMinZ, tightMaxX, tightMaxY, tightMaxZ;
+    private int capacity;
+    private int root = NULL;
+    private int freeList = NULL;
+    private int nodeCount;
+    private int leafCount;
+    /** The leaf of each entity slot, or NULL. */
+    private int[] leafBySlot = new int[64];
+
+    private float margin = 0.1f;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // Results of the last cull.
+    private int[] visible = new int[64];
+    private int visibleCount;
+    private int tested;
+    private final Search main = new Search();
+    private Search[] searches = new Search[0];
+    private int[] seedNodes = new int[64];
+    private int[] seedKinds = new int[64];
+    private int seedCount;
+
+    public BoundsTree() {
+        allocate(64);
+        Arrays.fill(leafBySlot, NULL);
+    }
+
+    /** Sets how far, as a fraction of their size, leaf boxes are fattened. */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    /** Sets the pool large culls are split across, or null to stay on the calling thread. */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Adds {@code entity} with the given world bounds, or updates the bounds it has. */
+    public void set(int entity, float x0, float y0, float z0, float x1, float y1, float z1) {
+        int slot = EntityRegistry.slot(entity);
+        if (slot >= leafBySlot.length) {
+            int old = leafBySlot.length;
+            leafBySlot = Arrays.copyOf(leafBySlot, Math.max(slot + 1, old * 2));
+            Arrays.fill(leafBySlot, old, leafBySlot.length, NULL);
+        }
+        int leaf = leafBySlot[slot];
+        if (leaf != NULL && entities[leaf] != entity) {
+            // The slot was reused without the old entity being removed.
+            removeLeaf(leaf);
+            free(leaf);
+            leafCount--;
+            leaf = NULL;
+        }
+        boolean fits = leaf != NULL
+                && x0 >= minX[leaf] && y0 >= minY[leaf] && z0 >= minZ[leaf]
+                && x1 <= maxX[leaf] && y1 <= maxY[leaf] && z1 <= maxZ[leaf];
+        if (leaf == NULL) {
+            leaf = allocateNode();
+            entities[leaf] = entity;
+            leafBySlot[slot] = leaf;
+            leafCount++;
+        } else if (!fits) {
+            removeLeaf(leaf);
+        }
+        tightMinX[leaf] = x0;
+        tightMinY[leaf] = y0;
+        tightMinZ[leaf] = z0;
+        tightMaxX[leaf] = x1;
+        tightMaxY[leaf] = y1;
+        tightMaxZ[leaf] = z1;
+        if (fits) return;
+        float mx = (x1 - x0) * margin, my = (y1 - y0) * margin, mz = (z1 - z0) * margin;
+        minX[leaf] = x0 - mx;
+        minY[leaf] = y0 - my;
+        minZ[leaf] = z0 - mz;
+        maxX[leaf] = x1 + mx;
+        maxY[leaf] = y1 + my;
+        maxZ[leaf] = z1 + mz;
+        insertLeaf(leaf);
+    }
+
+    /** Removes {@code entity} from the tree, if it is in it. */
+    public void remove(int entity) {
+        int slot = EntityRegistry.slot(entity);
+        if (slot >= leafBySlot.length) return;
+        int leaf = leafBySlot[slot];
+        if (leaf == NULL || entities[leaf] != entity) return;
+        leafBySlot[slot] = NULL;
+        removeLeaf(leaf);
+        free(leaf);
+        leafCount--;
+    }
+
+    public boolean contains(int entity) {
+        int slot = EntityRegistry.slot(entity);
+        return slot < leafBySlot.length && leafBySlot[slot] != NULL && entities[leafBySlot[slot]] == entity;
+    }
+
+    /**
+     * Copies the exact bounds of {@code entity} into {@code out} as minimum
+     * x, y, z then maximum x, y, z.
+     * @return False, leaving {@code out} alone, if the entity is not in the tree.
+     */
+    public boolean bounds(int entity, float[] out) {
+        if (!contains(entity)) return false;
+        int leaf = leafBySlot[EntityRegistry.slot(entity)];
+        out[0] = tightMinX[leaf];
+        out[1] = tightMinY[leaf];
+        out[2] = tightMinZ[leaf];
+        out[3] = tightMaxX[leaf];
+        out[4] = tightMaxY[leaf];
+        out[5] = tightMaxZ[leaf];
+        return true;
+    }
+
+    /** Number of entities in the tree. */
+    public int size() {
+        return leafCount;
+    }
+
+    /** Height of the tree; a single leaf has height 0. */
+    public int height() {
+        return root == NULL ? -1 : height[root];
+    }
+
+    // ---------------------------------------------------------------- culling
+
+    /**
+     * Finds every entity whose bounds are on the inner side of all six
+     * planes, each given as (nx, ny, nz, d) with n.p + d >= 0 inside, the
+     * convention of libGDX's {@code Frustum}.
+     * @return The number of entities found; they are in {@link #visible()}.
+     */
+    public int cull(float[] planes) {
+        visibleCount = 0;
+        tested = 0;
+        if (root == NULL) return 0;
+        int threads = pool == null ? 1 : pool.getParallelism();
+        if (threads < 2 || leafCount < PARALLEL_THRESHOLD) {
+            main.reset();
+            main.visit(root, planes);
+            append(main);
+            tested = main.tested;
+            return visibleCount;
+        }
+        // Walk the top of the tree here, noting the subtrees to search further in tree order.
+        seedCount = 0;
+        tested = seed(root, 0, planes);
+        int searchCount = 0;
+        for (int i = 0; i < seedCount; i++) if (seedKinds[i] == INTERSECTS) searchCount++;
+        if (searches.length < searchCount) {
+            Search[] grown = Arrays.copyOf(searches, searchCount);
+            for (int i = searches.length; i < searchCount; i++) grown[i] = new Search();
+            searches = grown;
+        }
+        for (int i = 0, s = 0; i < seedCount; i++) {
+            if (seedKinds[i] == INTERSECTS) searches[s++].start(seedNodes[i]);
+        }
+        pool.invoke(new Split(planes, 0, searchCount));
+        for (int i = 0, s = 0; i < seedCount; i++) {
+            if (seedKinds[i] == INSIDE) {
+                main.reset();
+                main.takeAll(seedNodes[i]);
+                append(main);
+            } else {
+                Search search = searches[s++];
+                append(search);
+                tested += search.tested;
+            }
+        }
+        return visibleCount;
+    }
+
+    /** The entities found by the last {@link #cull}, from index 0. */
+    public int[] visible() {
+        return visible;
+    }
+
+    public int visibleCount() {
+        return visibleCount;
+    }
+
+    /** Boxes tested against the frustum by the last {@link #cull}, inner nodes and leaves. */
+    public int tested() {
+        return tested;
+    }
+
+    /** Entities the last {@link #cull} left out. */
+    public int culled() {
+        return leafCount - visibleCount;
+    }
+
+    /**
+     * Classifies the top {@link #SPLIT_DEPTH} levels under {@code node}, and
+     * records, in tree order, the subtrees that are inside or still need a
+     * search.
+     * @return The number of boxes tested.
+     */
+    private int seed(int node, int depth, float[] planes) {
+        int result = classify(node, planes);
+        if (result == OUTSIDE) return 1;
+        if (result == INSIDE || left[node] == NULL) {
+            addSeed(node, INSIDE);
+            return 1;
+        }
+        if (depth == SPLIT_DEPTH) {
+            // Tested here already, so the search starts with the children.
+            addSeed(node, INTERSECTS);
+            return 1;
+        }
+        return 1 + seed(left[node], depth + 1, planes) + seed(right[node], depth + 1, planes);
+    }
+
+    private void addSeed(int node, int kind) {
+        if (seedCount == seedNodes.length) {
+            seedNodes = Arrays.copyOf(seedNodes, seedCount * 2);
+            seedKinds = Arrays.copyOf(seedKinds, seedCount * 2);
+        }
+        seedNodes[seedCount] = node;
+        seedKinds[seedCount++] = kind;
+    }
+
+    private void append(Search search) {
+        int n = search.count;
+        if (visibleCount + n > visible.length) visible = Arrays.copyOf(visible, Math.max(visibleCount + n, visible.length * 2));
+        System.arraycopy(search.out, 0, visible, visibleCount, n);
+        visibleCount += n;
+    }
+
+    /** Runs the searches from {@code from} to {@code to}, splitting the range across the pool. */
+    private final class Split extends RecursiveAction {
+        private final float[] planes;
+        private final int from, to;
+
+        Split(float[] planes, int from, int to) {
+            this.planes = planes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from == to) return;
+                Search search = searches[from];
+                search.visit(left[search.start], planes);
+                search.visit(right[search.start], planes);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Split(planes, from, mid), new Split(planes, mid, to));
+        }
+    }
+
+    /** One thread's depth-first search of a subtree, with its own stack and output. */
+    private final class Search {
+        int start;
+        int[] out = new int[64];
+        int count;
+        int tested;
+        private int[] stack = new int[64];
+        /** Separate from {@code stack}, which still holds the search that found the subtree. */
+        private int[] subtree = new int[64];
+
+        void reset() {
+            count = 0;
+            tested = 0;
+        }
+
+        void start(int node) {
+            reset();
+            start = node;
+        }
+
+        /** Emits the visible entities under {@code from}, left to right. */
+        void visit(int from, float[] planes) {
+            int top = 0;
+            stack[top++] = from;
+            while (top > 0) {
+                int node = stack[--top];
+                tested++;
+                int result = classify(node, planes);
+                if (result == OUTSIDE) continue;
+                if (left[node] == NULL) {
+                    emit(entities[node]);
+                } else if (result == INSIDE) {
+                    takeAll(node);
+                } else {
+                    stack = ensure(stack, top + 2);
+                    stack[top++] = right[node];
+                    stack[top++] = left[node];
+                }
+            }
+        }
+
+        /** Emits every entity under {@code from} without testing, left to right. */
+        void takeAll(int from) {
+            int top = 0;
+            subtree[top++] = from;
+            while (top > 0) {
+                int node = subtree[--top];
+                if (left[node] == NULL) {
+                    emit(entities[node]);
+                } else {
+                    subtree = ensure(subtree, top + 2);
+                    subtree[top++] = right[node];
+                    subtree[top++] = left[node];
+                }
+            }
+        }
+
+        private void emit(int entity) {
+            if (count == out.length) out = Arrays.copyOf(out, count * 2);
+            out[count++] = entity;
+        }
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    /** Where the box of {@code node} lies relative to the frustum; leaves use their exact bounds. */
+    private int classify(int node, float[] planes) {
+        float x0, y0, z0, x1, y1, z1;
+        if (left[node] == NULL) {
+            x0 = tightMinX[node]; y0 = tightMinY[node]; z0 = tightMinZ[node];
+            x1 = tightMaxX[node]; y1 = tightMaxY[node]; z1 = tightMaxZ[node];
+        } else {
+            x0 = minX[node]; y0 = minY[node]; z0 = minZ[node];
+            x1 = maxX[node]; y1 = maxY[node]; z1 = maxZ[node];
+        }
+        boolean inside = true;
+        for (int p = 0; p < 24; p += 4) {
+            float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2], d = planes[p + 3];
+            // The corner furthest along the normal; if even it is behind, the box is outside.
+            float far = nx * (nx >= 0 ? x1 : x0) + ny * (ny >= 0 ? y1 : y0) + nz * (nz >= 0 ? z1 : z0) + d;
+            if (far < 0) return OUTSIDE;
+            float near = nx * (nx >= 0 ? x0 : x1) + ny * (ny >= 0 ? y0 : y1) + nz * (nz >= 0 ? z0 : z1) + d;
+            if (near < 0) inside = false;
+        }
+        return inside ? INSIDE : INTERSECTS;
+    }
+
+    // ---------------------------------------------------------------- tree maintenance
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+        // Descend to the sibling that makes the tree's total surface area grow least.
+        int index = root;
+        while (left[index] != NULL) {
+            int child1 = left[index], child2 = right[index];
+            float area = area(index);
+            float combined = unionArea(index, leaf);
+            float cost = 2 * combined;
+            float inheritance = 2 * (combined - area);
+            float cost1 = unionArea(child1, leaf) - (left[child1] == NULL ? 0 : area(child1)) + inheritance;
+            float cost2 = unionArea(child2, leaf) - (left[child2] == NULL ? 0 : area(child2)) + inheritance;
+            if (cost < cost1 && cost < cost2) break;
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        height[newParent] = height[sibling] + 1;
+        left[newParent] = sibling;
+        right[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        if (oldParent == NULL) {
+            root = newParent;
+        } else if (left[oldParent] == sibling) {
+            left[oldParent] = newParent;
+        } else {
+            right[oldParent] = newParent;
+        }
+        refitUpwards(newParent);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+        int p = parent[leaf];
+        int grandParent = parent[p];
+        int sibling = left[p] == leaf ? right[p] : left[p];
+        free(p);
+        if (grandParent == NULL) {
+            root = sibling;
+            parent[sibling] = NULL;
+            return;
+        }
+        if (left[grandParent] == p) left[grandParent] = sibling;
+        else right[grandParent] = sibling;
+        parent[sibling] = grandParent;
+        refitUpwards(grandParent);
+    }
+
+    /** Rebalances and refits every node from {@code index} to the root. */
+    private void refitUpwards(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            int a = left[index], b = right[index];
+            height[index] = 1 + Math.max(height[a], height[b]);
+            union(index, a, b);
+            index = parent[index];
+        }
+    }
+
+    /** Rotates {@code a} if one side is more than one level taller; returns the subtree's new root. */
+    private int balance(int a) {
+        if (left[a] == NULL || height[a] < 2) return a;
+        int b = left[a], c = right[a];
+        int balance = height[c] - height[b];
+        if (balance > 1) {
+            // Rotate c up.
+            int f = left[c], g = right[c];
+            left[c] = a;
+            parent[c] = parent[a];
+            parent[a] = c;
+            replaceChild(parent[c], a, c);
+            if (height[f] > height[g]) {
+                right[c] = f;
+                right[a] = g;
+                parent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+                height[a] = 1 + Math.max(height[b], height[g]);
+                height[c] = 1 + Math.max(height[a], height[f]);
+            } else {
+                right[c] = g;
+                right[a] = f;
+                parent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+                height[a] = 1 + Math.max(height[b], height[f]);
+                height[c] = 1 + Math.max(height[a], height[g]);
+            }
+            return c;
+        }
+        if (balance < -1) {
+            // Rotate b up.
+            int d = left[b], e = right[b];
+            left[b] = a;
+            parent[b] = parent[a];
+            parent[a] = b;
+            replaceChild(parent[b], a, b);
+            if (height[d] > height[e]) {
+                right[b] = d;
+                left[a] = e;
+                parent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+                height[a] = 1 + Math.max(height[c], height[e]);
+                height[b] = 1 + Math.max(height[a], height[d]);
+            } else {
+                right[b] = e;
+                left[a] = d;
+                parent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+                height[a] = 1 + Math.max(height[c], height[d]);
+                height[b] = 1 + Math.max(height[a], height[e]);
+            }
+            return b;
+        }
+        return a;
+    }
+
+    private void replaceChild(int p, int oldChild, int newChild) {
+        if (p == NULL) {
+            root = newChild;
+        } else if (left[p] == oldChild) {
+            left[p] = newChild;
+        } else {
+            right[p] = newChild;
+        }
+    }
+
+    private void union(int target, int a, int b) {
+        minX[target] = Math.min(minX[a], minX[b]);
+        minY[target] = Math.min(minY[a], minY[b]);
+        minZ[target] = Math.min(minZ[a], minZ[b]);
+        maxX[target] = Math.max(maxX[a], maxX[b]);
+        maxY[target] = Math.max(maxY[a], maxY[b]);
+        maxZ[target] = Math.max(maxZ[a], maxZ[b]);
+    }
+
+    /** Half the surface area of a node's box. */
+    private float area(int n) {
+        float dx = maxX[n] - minX[n], dy = maxY[n] - minY[n], dz = maxZ[n] - minZ[n];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private float unionArea(int a, int b) {
+        float dx = Math.max(maxX[a], maxX[b]) - Math.min(minX[a], minX[b]);
+        float dy = Math.max(maxY[a], maxY[b]) - Math.min(minY[a], minY[b]);
+        float dz = Math.max(maxZ[a], maxZ[b]) - Math.min(minZ[a], minZ[b]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL) {
+            if (nodeCount == capacity) allocate(capacity * 2);
+            freeList = nodeCount++;
+            parent[freeList] = NULL;
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        left[node] = NULL;
+        right[node] = NULL;
+        height[node] = 0;
+        return node;
+    }
+
+    private void free(int node) {
+        parent[node] = freeList;
+        left[node] = NULL;
+        height[node] = -1;
+        freeList = node;
+    }
+
+    private void allocate(int size) {
+        capacity = size;
+        minX = grow(minX, size);
+        minY = grow(minY, size);
+        minZ = grow(minZ, size);
+        maxX = grow(maxX, size);
+        maxY = grow(maxY, size);
+        maxZ = grow(maxZ, size);
+        tightMinX = grow(tightMinX, size);
+        tightMinY = grow(tightMinY, size);
+        tightMinZ = grow(tightMinZ, size);
+        tightMaxX = grow(tightMaxX, size);
+        tightMaxY = grow(tightMaxY, size);
+        tightMaxZ = grow(tightMaxZ, size);
+        parent = grow(parent, size);
+        left = grow(left, size);
+        right = grow(right, size);
+        height = grow(height, size);
+        entities = grow(entities, size);
+    }
+
+    private static float[] grow(float[] array, int size) {
+        return array == null ? new float[size] : Arrays.copyOf(array, size);
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return array == null ? new int[size] : Arrays.copyOf(array, size);
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.jayhost;
+
+/**
+ * Thrown at a safepoint when a script runs past the budget it was given by
+ * {@link ScriptBudget}, unwinding it back to the host.
+ */
+public class BudgetExceededException extends RuntimeException {
+    public BudgetExceededException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -36,10 +36,50 @@ public class BytecodeGenerator {
             mv.visitFieldInsn(PUTFIELD, className, e.getKey(), e.getValue().getDescriptor());
         }
         mv.visitInsn(RETURN);
-        mv.visitMaxs(0, 0);
+        mv.visitMaxs(2, slot);
         mv.visitEnd();
     }
 
+    /**
+     * Declares a static final field per link and writes a {@code <clinit>}
+     * that fills them from {@link Linker#take(Class)} and then calls
+     * {@code initMethod}, if any.
+     */
+    public static void createLinkage(ClassWriter cw, String className, List<Link> links, String initMethod) {
+        if (links.isEmpty() && initMethod == null) return;
+        for (int i = 0; i < links.size(); i++) {
+            cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "$link" + i,
+                    links.get(i).fieldDescriptor(), null, null).visitEnd();
+        }
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        if (!links.isEmpty()) {
+            mv.visitLdcInsn(Type.getObjectType(className));
+            mv.visitMethodInsn(INVOKESTATIC, "io/github/jayhost/Linker", "take",
+                    "(Ljava/lang/Class;)[Ljava/lang/Object;", false);
+            for (int i = 0; i < links.size(); i++) {
+                String desc = links.get(i).fieldDescriptor();
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(i);
+                mv.visitInsn(AALOAD);
+                mv.visitTypeInsn(CHECKCAST, Type.getType(desc).getInternalName());
+                mv.visitFieldInsn(PUTSTATIC, className, "$link" + i, desc);
+            }
+            mv.visitInsn(POP);
+        }
+        if (initMethod != null) {
+            mv.visitMethodInsn(INVOKESTATIC, className, initMethod, "()V", false);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(3, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Adds the static helpers generated code calls for truthiness and the
+     * built-in operators. Their frames and max values are written out by
+     * hand, so the class writer does not need to compute any.
+     */
     public static void addRuntimeHelpers(ClassWriter cw) {
         addIsTruthyHelper(cw);
         addBinaryOpHelper(cw, "op_add", DADD);
@@ -64,8 +104,10 @@ public class BytecodeGenerator {
         mv.visitInsn(ICONST_1);
         mv.visitJumpInsn(GOTO, endLbl);
         mv.visitLabel(falseLbl);
+        mv.visitFrame(F_NEW, 1, new Object[]{"java/lang/Object"}, 0, new Object[0]);
         mv.visitInsn(ICONST_0);
         mv.visitLabel(endLbl);
+        mv.visitFrame(F_NEW, 1, new Object[]{"java/lang/Object"}, 1, new Object[]{INTEGER});
         mv.visitInsn(IRETURN);
         mv.visitMaxs(2, 1);
         mv.visitEnd();
@@ -102,9 +144,12 @@ public class BytecodeGenerator {
         mv.visitJumpInsn(jump, trueLbl);
         mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
         mv.visitJumpInsn(GOTO, endLbl);
+        Object[] args = {"java/lang/Object", "java/lang/Object"};
         mv.visitLabel(trueLbl);
+        mv.visitFrame(F_NEW, 2, args, 0, new Object[0]);
         mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
         mv.visitLabel(endLbl);
+        mv.visitFrame(F_NEW, 2, args, 1, new Object[]{"java/lang/Boolean"});
         mv.visitInsn(ARETURN);
         mv.visitMaxs(4, 2);
         mv.visitEnd();
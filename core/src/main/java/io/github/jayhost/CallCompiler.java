@@ -6,7 +6,6 @@
 package io.github.jayhost;
 
 import org.objectweb.asm.MethodVisitor;
-import java.util.List;
 import static org.objectweb.asm.Opcodes.*;
 
 public class CallCompiler {
@@ -19,35 +18,46 @@ public class CallCompiler {
     }
 
     public void compileFunctionCall(ListExpr callExpr, MethodVisitor mv) {
-        if (callExpr.elements.get(0) instanceof SymbolExpr sym && Helpers.isBuiltIn(sym.name)) {
+        if (callExpr.get(0) instanceof SymbolExpr sym && Helpers.isBuiltIn(sym.symbol)) {
             compileBuiltInOperator(callExpr, mv);
             return;
         }
 
-        int argc = callExpr.elements.size() - 1;
+        FrameTracker frames = ctx.frames;
+        int argc = callExpr.size() - 1;
         mv.visitLdcInsn(argc);
+        frames.push(INTEGER);
         mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        frames.replace(1, "[Ljava/lang/Object;");
         for (int i = 0; i < argc; i++) {
             mv.visitInsn(DUP);
+            frames.dup();
             mv.visitLdcInsn(i);
-            parent.compileExpression(callExpr.elements.get(i + 1), mv);
+            frames.push(INTEGER);
+            parent.compileExpression(callExpr.get(i + 1), mv);
             mv.visitInsn(AASTORE);
+            frames.pop(3);
         }
-        parent.compileExpression(callExpr.elements.get(0), mv);
+        parent.compileExpression(callExpr.get(0), mv);
         mv.visitInsn(SWAP);
+        frames.swap();
         mv.visitMethodInsn(INVOKEINTERFACE, "io/github/jayhost/LispCallable",
                            "apply", "([Ljava/lang/Object;)Ljava/lang/Object;", true);
+        frames.invoke(INVOKEINTERFACE, "([Ljava/lang/Object;)Ljava/lang/Object;");
     }
     
+    /** Operators fold left, so {@code (+ a b c)} is {@code (+ (+ a b) c)}. */
     private void compileBuiltInOperator(ListExpr opExpr, MethodVisitor mv) {
-        String opName = ((SymbolExpr) opExpr.elements.get(0)).name;
-        for (int i = 1; i < opExpr.elements.size(); i++) {
-            parent.compileExpression(opExpr.elements.get(i), mv);
-        }
-        String helperMethod = Helpers.getValidMethodNameForOperator(opName);
-        String descriptor = opName.equals("string-concat") 
+        Symbol op = ((SymbolExpr) opExpr.get(0)).symbol;
+        String helperMethod = Helpers.getValidMethodNameForOperator(op);
+        String descriptor = op.id == Symbols.STRING_CONCAT
             ? "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/String;"
             : "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
-        mv.visitMethodInsn(INVOKESTATIC, parent.getRootClassName(), helperMethod, descriptor, false);
+        parent.compileExpression(opExpr.get(1), mv);
+        for (int i = 2; i < opExpr.size(); i++) {
+            parent.compileExpression(opExpr.get(i), mv);
+            mv.visitMethodInsn(INVOKESTATIC, ctx.className, helperMethod, descriptor, false);
+            ctx.frames.invoke(INVOKESTATIC, descriptor);
+        }
     }
 }
@@ -6,70 +6,76 @@
 // ========================================================================
 package io.github.jayhost;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class CaptureAnalyzer {
 
-    public static Set<String> findCapturedVars(Expr expr, Set<String> localScope, LispJitCompiler compiler) {
-        Set<String> captured = new HashSet<>();
-        find(expr, localScope, captured, compiler);
+    /**
+     * Finds the free variables of {@code expr} given the function's parameters.
+     * The result is ordered by first occurrence, which is also the order of the
+     * closure's constructor arguments.
+     */
+    public static Set<Symbol> findCapturedVars(Expr expr, List<SymbolExpr> params, Environment.Snapshot env) {
+        LocalScope localScope = new LocalScope();
+        for (SymbolExpr p : params) localScope.bind(p.symbol, 0);
+        Set<Symbol> captured = new LinkedHashSet<>();
+        find(expr, localScope, captured, env);
         return captured;
     }
 
-    private static void find(Expr expr, Set<String> localScope, Set<String> captured, LispJitCompiler compiler) {
-        Environment env = compiler.getEnvironment();
-
+    private static void find(Expr expr, LocalScope localScope, Set<Symbol> captured, Environment.Snapshot env) {
         if (expr instanceof SymbolExpr sym) {
-            String n = sym.name;
+            Symbol n = sym.symbol;
             if (!Helpers.isBuiltIn(n) && !localScope.contains(n) &&
-                !env.functionTable.containsKey(n) && !env.globalVarTable.containsKey(n)) {
+                !env.isFunction(n) && !env.isGlobalVar(n)) {
                 captured.add(n);
             }
         } else if (expr instanceof ListExpr list) {
-            if (list.elements.isEmpty()) return;
-            String opName = (list.elements.get(0) instanceof SymbolExpr)
-                ? ((SymbolExpr) list.elements.get(0)).name : "";
+            if (list.isEmpty()) return;
+            int op = (list.get(0) instanceof SymbolExpr head) ? head.symbol.id : -1;
 
-            switch (opName) {
-                case "let":
-                    analyzeLet(list, localScope, captured, compiler);
+            switch (op) {
+                case Symbols.LET:
+                    analyzeLet(list, localScope, captured, env);
                     break;
-                case "lambda":
+                case Symbols.LAMBDA:
                     // Lambdas are opaque; their bodies are analyzed when they are compiled,
                     // not during capture analysis of an outer scope.
-                    break; 
-                case "if":
-                case "java-call":
+                    break;
+                case Symbols.IF:
+                case Symbols.JAVA_CALL:
                     // FIXED: For 'if' and 'java-call', which are special syntax,
                     // we only analyze their arguments (from index 1 onwards) for captures.
-                    for (int i = 1; i < list.elements.size(); i++) {
-                        find(list.elements.get(i), localScope, captured, compiler);
+                    for (int i = 1; i < list.size(); i++) {
+                        find(list.get(i), localScope, captured, env);
                     }
                     break;
                 default:
                     // For a normal function call, we must analyze all elements.
                     // The first element is the function itself, which could be a captured closure.
-                    for (Expr element : list.elements) {
-                        find(element, localScope, captured, compiler);
+                    for (int i = 0; i < list.size(); i++) {
+                        find(list.get(i), localScope, captured, env);
                     }
                     break;
             }
         }
     }
 
-    private static void analyzeLet(ListExpr list, Set<String> localScope, Set<String> captured, LispJitCompiler compiler) {
-        Set<String> letScope = new HashSet<>(localScope);
-        ListExpr bindings = (ListExpr) list.elements.get(1);
-        for (int i = 0; i < bindings.elements.size(); i += 2) {
+    private static void analyzeLet(ListExpr list, LocalScope localScope, Set<Symbol> captured, Environment.Snapshot env) {
+        int mark = localScope.mark();
+        ListExpr bindings = (ListExpr) list.get(1);
+        for (int i = 0; i < bindings.size(); i += 2) {
             // Analyze the binding's value expression within the current scope.
-            find(bindings.elements.get(i + 1), letScope, captured, compiler);
+            find(bindings.get(i + 1), localScope, captured, env);
             // Then add the new variable to the scope for subsequent expressions.
-            letScope.add(((SymbolExpr) bindings.elements.get(i)).name);
+            localScope.bind(((SymbolExpr) bindings.get(i)).symbol, 0);
         }
         // Analyze the body of the 'let' with the newly extended scope.
-        for (int i = 2; i < list.elements.size(); i++) {
-            find(list.elements.get(i), letScope, captured, compiler);
+        for (int i = 2; i < list.size(); i++) {
+            find(list.get(i), localScope, captured, env);
         }
+        localScope.reset(mark);
     }
 }
@@ -0,0 +1,35 @@
+// ========================================================================
+// io/github/jayhost/ClassDefiner.java
+//
+// Strategy for turning generated bytecode into classes.
+// ========================================================================
+package io.github.jayhost;
+
+import io.github.jayhost.dynamic.HiddenClassDefiner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/**
+ * Defines generated classes. Generated code only refers to other generated
+ * classes through links, so it runs unchanged on either implementation.
+ */
+public interface ClassDefiner {
+
+    /** Defines {@code bytecode} without initializing it. */
+    Class<?> define(String name, byte[] bytecode) throws ReflectiveOperationException;
+
+    /** Runs the static initializer of a class returned by {@link #define}. */
+    void initialize(Class<?> cls) throws ReflectiveOperationException;
+
+    /** Returns a handle on a public constructor of a class returned by {@link #define}. */
+    MethodHandle constructor(Class<?> cls, MethodType type) throws ReflectiveOperationException;
+
+    /**
+     * Returns the hidden-class definer when the JVM supports it (Java 15+),
+     * and a {@link LoaderClassDefiner} otherwise.
+     */
+    static ClassDefiner create() {
+        return HiddenClassDefiner.isSupported() ? new HiddenClassDefiner() : new LoaderClassDefiner();
+    }
+}
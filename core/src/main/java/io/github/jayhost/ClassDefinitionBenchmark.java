@@ -0,0 +1,119 @@
+// ========================================================================
+// io/github/jayhost/ClassDefinitionBenchmark.java
+//
+// Compares hidden classes with the class-loader fallback: how long it takes
+// to define a generated class, and how much metaspace comes back once the
+// code is dropped while the session that compiled it is still alive.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.List;
+
+public class ClassDefinitionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        List<Expr> forms = new Parser(CompileScalingBenchmark.generateScript(20)).parseMultiple();
+
+        System.out.println("\n--- Class Definition Benchmark ---");
+        System.out.println("Recompiles per strategy: " + rounds);
+
+        // Warm up both paths so the first measurement does not pay for JIT.
+        run("warmup", new LoaderClassDefiner(), forms, 20, false);
+        run("warmup", ClassDefiner.create(), forms, 20, false);
+
+        System.out.println("=====================================");
+        run("Class loader", new LoaderClassDefiner(), forms, rounds, true);
+        if (ClassDefiner.create() instanceof LoaderClassDefiner) {
+            System.out.println("Hidden classes: not supported by this JVM");
+        } else {
+            run("Hidden classes", ClassDefiner.create(), forms, rounds, true);
+        }
+        System.out.println("=====================================");
+    }
+
+    /**
+     * Recompiles {@code forms} the way a REPL session does, with one compiler
+     * that stays alive, and measures what the recompiled code costs.
+     */
+    private static void run(String label, ClassDefiner definer, List<Expr> forms, int rounds,
+                            boolean report) throws Exception {
+        TimingDefiner timed = new TimingDefiner(definer);
+        LispJitCompiler compiler = new LispJitCompiler(new Environment(), timed);
+
+        settle();
+        long metaspaceBefore = metaspaceUsed();
+        long unloadedBefore = classLoading().getUnloadedClassCount();
+
+        for (int i = 0; i < rounds; i++) {
+            compiler.compile(forms).apply();
+        }
+        long metaspaceGrown = metaspaceUsed() - metaspaceBefore;
+
+        settle();
+        long metaspaceKept = metaspaceUsed() - metaspaceBefore;
+        long unloaded = classLoading().getUnloadedClassCount() - unloadedBefore;
+
+        if (!report) return;
+        System.out.println(label + ":");
+        System.out.printf("  define latency:  %.1f us/class (%d classes)%n",
+                timed.nanos / 1e3 / timed.classes, timed.classes);
+        System.out.printf("  metaspace grown: %.2f MB%n", metaspaceGrown / 1048576.0);
+        System.out.printf("  kept after GC:   %.2f MB (%d classes unloaded, session still alive)%n",
+                metaspaceKept / 1048576.0, unloaded);
+        compiler.getEnvironment(); // the session must outlive the measurement
+    }
+
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    private static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().equals("Metaspace")) return pool.getUsage().getUsed();
+        }
+        return 0;
+    }
+
+    private static ClassLoadingMXBean classLoading() {
+        return ManagementFactory.getClassLoadingMXBean();
+    }
+
+    /** Times {@link ClassDefiner#define} only; linking and initialization are the same for both. */
+    private static final class TimingDefiner implements ClassDefiner {
+        private final ClassDefiner delegate;
+        long nanos;
+        int classes;
+
+        TimingDefiner(ClassDefiner delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Class<?> define(String name, byte[] bytecode) throws ReflectiveOperationException {
+            long start = System.nanoTime();
+            Class<?> cls = delegate.define(name, bytecode);
+            nanos += System.nanoTime() - start;
+            classes++;
+            return cls;
+        }
+
+        @Override
+        public void initialize(Class<?> cls) throws ReflectiveOperationException {
+            delegate.initialize(cls);
+        }
+
+        @Override
+        public MethodHandle constructor(Class<?> cls, MethodType type) throws ReflectiveOperationException {
+            return delegate.constructor(cls, type);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+// ========================================================================
+// io/github/jayhost/CommandRing.java
+//
+// A bounded, lock-free queue of engine commands from any number of
+// producer threads to the one render thread that applies them.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Commands are stored field by field in preallocated parallel arrays, so
+ * queueing one allocates nothing and the consumer reads them in place.
+ * <p>
+ * Each slot carries a sequence number in the style of Vyukov's bounded
+ * queue. A producer claims the next position with a CAS on {@code tail},
+ * fills the slot and then publishes it by setting its sequence to
+ * position + 1. The consumer takes a slot once it sees that number, and
+ * hands it back to producers by setting the sequence to position +
+ * capacity, the number the producer one lap later waits for. Producers
+ * only contend on the CAS, and the consumer never writes shared state
+ * other than the sequences.
+ * <p>
+ * When the ring is full, {@link #offer} fails at once and counts the
+ * command as rejected. {@link #put} waits for the consumer instead, up to
+ * a timeout. A producer on the consumer's own thread must not wait, since
+ * nothing would ever drain the ring.
+ */
+public final class CommandRing {
+    /** Create {@code entity} from the model at {@code target} and place it at (x, y, z). */
+    public static final int SPAWN = 1;
+    /** Remove {@code entity}, or with entity 0 every entity of the model {@code target}. */
+    public static final int REMOVE = 2;
+    /** Set the position of {@code entity}, or of the model {@code target}'s entities, to (x, y, z). */
+    public static final int MOVE = 3;
+    /** Set the rotation of the entity or entities to yaw x, pitch y and roll z, in degrees. */
+    public static final int ROTATE = 4;
+    /** Start loading the model at {@code target} without placing it. */
+    public static final int PRELOAD = 5;
+
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Receives drained commands, one call per command, on the consumer thread. */
+    @FunctionalInterface
+    public interface Handler {
+        void command(int op, int entity, String target, float x, float y, float z);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final long[] sequence;
+    private final int[] ops;
+    private final int[] entities;
+    private final String[] targets;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+
+    private final AtomicLong tail = new AtomicLong();
+    /** Next position to consume; only the consumer touches it. */
+    private long head;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /** @param capacity Rounded up to a power of two. */
+    public CommandRing(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.sequence = new long[this.capacity];
+        for (int i = 0; i < this.capacity; i++) sequence[i] = i;
+        this.ops = new int[this.capacity];
+        this.entities = new int[this.capacity];
+        this.targets = new String[this.capacity];
+        this.xs = new float[this.capacity];
+        this.ys = new float[this.capacity];
+        this.zs = new float[this.capacity];
+    }
+
+    /**
+     * Queues a command if there is room. Safe from any thread.
+     * @return false, counted in {@link #rejected()}, if the ring is full.
+     */
+    public boolean offer(int op, int entity, String target, float x, float y, float z) {
+        long position = claim();
+        if (position < 0) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        publish(position, op, entity, target, x, y, z);
+        return true;
+    }
+
+    /**
+     * Queues a command, waiting up to {@code timeoutNanos} for the consumer to
+     * make room. Never call it on the consumer thread.
+     * @return false, counted in {@link #rejected()}, if the time ran out.
+     */
+    public boolean put(int op, int entity, String target, float x, float y, float z, long timeoutNanos) {
+        long position = claim();
+        if (position < 0) {
+            waits.incrementAndGet();
+            long deadline = System.nanoTime() + timeoutNanos;
+            for (int spins = 0; (position = claim()) < 0; spins++) {
+                if (System.nanoTime() - deadline >= 0) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                // Spin briefly first; the render thread usually drains within a frame.
+                if (spins < 100) Thread.onSpinWait();
+                else LockSupport.parkNanos(50_000);
+            }
+        }
+        publish(position, op, entity, target, x, y, z);
+        return true;
+    }
+
+    /** Claims the next position, or returns -1 if the ring is full. */
+    private long claim() {
+        for (;;) {
+            long position = tail.get();
+            long seq = (long) SEQUENCE.getAcquire(sequence, (int) position & mask);
+            long lag = seq - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) return position;
+            } else if (lag < 0) {
+                // The slot still holds the command from one lap ago.
+                return -1;
+            }
+            // Otherwise another producer took this position; try the next one.
+        }
+    }
+
+    private void publish(long position, int op, int entity, String target, float x, float y, float z) {
+        int i = (int) position & mask;
+        ops[i] = op;
+        entities[i] = entity;
+        targets[i] = target;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        SEQUENCE.setRelease(sequence, i, position + 1);
+    }
+
+    /**
+     * Hands every published command to {@code handler}, oldest first. Call it
+     * from the consumer thread only. The slot is released before the handler
+     * runs, so a handler that throws loses only its own command.
+     * @return The number of commands drained.
+     */
+    public int drain(Handler handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    /** Like {@link #drain(Handler)}, but stops after {@code max} commands. */
+    public int drain(Handler handler, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int i = (int) head & mask;
+            if ((long) SEQUENCE.getAcquire(sequence, i) != head + 1) break;
+            int op = ops[i];
+            int entity = entities[i];
+            String target = targets[i];
+            float x = xs[i], y = ys[i], z = zs[i];
+            targets[i] = null;
+            SEQUENCE.setRelease(sequence, i, head + capacity);
+            head++;
+            drained++;
+            handler.command(op, entity, target, x, y, z);
+        }
+        return drained;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Commands queued and not drained yet; approximate while producers are active. */
+    public int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head));
+    }
+
+    /** Commands dropped because the ring was full. */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /** Number of {@link #put} calls that found the ring full and had to wait. */
+    public long waits() {
+        return waits.get();
+    }
+}
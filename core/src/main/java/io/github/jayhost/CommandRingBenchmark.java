@@ -0,0 +1,128 @@
+// ========================================================================
+// io/github/jayhost/CommandRingBenchmark.java
+//
+// Measures command throughput from several producer threads to one
+// draining consumer, for the ring buffer and for the list-and-copy scheme
+// LispBridge used before it.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class CommandRingBenchmark {
+
+    private static final int COMMANDS = 4_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n--- Command Ring Benchmark ---");
+        System.out.println(COMMANDS + " commands per run, best of " + ROUNDS);
+        System.out.println("=====================================");
+        for (int producers : new int[]{1, 2, 4}) {
+            double ring = 0, lists = 0;
+            long waits = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                CommandRing commands = new CommandRing(4096);
+                ring = Math.max(ring, run(producers, new RingChannel(commands)));
+                waits = commands.waits();
+                lists = Math.max(lists, run(producers, new ListChannel()));
+            }
+            System.out.printf("%d producer(s): ring %6.1f M/s (%d full waits), lists %6.1f M/s%n",
+                    producers, ring, waits, lists);
+        }
+        System.out.printf("producer allocation: ring %.1f bytes/command, lists %.1f bytes/command%n",
+                allocationPerCommand(new RingChannel(new CommandRing(1 << 20))),
+                allocationPerCommand(new ListChannel()));
+        System.out.println("=====================================");
+    }
+
+    /** The two schemes behind one interface. */
+    private interface Channel {
+        void send(int i);
+        int drain();
+    }
+
+    private static final class RingChannel implements Channel {
+        private final CommandRing ring;
+        private final CommandRing.Handler sink = (op, entity, target, x, y, z) -> { };
+
+        RingChannel(CommandRing ring) {
+            this.ring = ring;
+        }
+
+        @Override public void send(int i) {
+            ring.put(CommandRing.MOVE, 0, "entity", i, 0, 0, Long.MAX_VALUE);
+        }
+
+        @Override public int drain() {
+            return ring.drain(sink);
+        }
+    }
+
+    /** The old LispBridge: a request object per command, copied out under a lock. */
+    private static final class ListChannel implements Channel {
+        private record Request(String path, float[] position) { }
+
+        private final ArrayList<Request> list = new ArrayList<>();
+
+        @Override public void send(int i) {
+            Request request = new Request("entity", new float[]{i, 0, 0});
+            synchronized (list) {
+                list.add(request);
+            }
+        }
+
+        @Override public int drain() {
+            List<Request> copy;
+            synchronized (list) {
+                copy = new ArrayList<>(list);
+                list.clear();
+            }
+            return copy.size();
+        }
+    }
+
+    /** Returns millions of commands per second from producer start to last drain. */
+    private static double run(int producers, Channel channel) throws Exception {
+        int perProducer = COMMANDS / producers;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < perProducer; i++) channel.send(i);
+            });
+            threads[p].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        long drained = 0;
+        long total = (long) perProducer * producers;
+        while (drained < total) {
+            int n = channel.drain();
+            drained += n;
+            if (n == 0) Thread.onSpinWait();
+        }
+        long elapsed = System.nanoTime() - begin;
+        for (Thread t : threads) t.join();
+        return total / (elapsed / 1e3);
+    }
+
+    private static double allocationPerCommand(Channel channel) {
+        int n = 500_000;
+        for (int i = 0; i < n; i++) channel.send(i); // warm up
+        channel.drain();
+        long before = allocatedBytes();
+        for (int i = 0; i < n; i++) channel.send(i);
+        long bytes = allocatedBytes() - before;
+        channel.drain();
+        return (double) bytes / n;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
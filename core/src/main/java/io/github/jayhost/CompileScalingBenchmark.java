@@ -0,0 +1,77 @@
+// ========================================================================
+// io/github/jayhost/CompileScalingBenchmark.java
+//
+// Measures how compile time of a script with many independent definitions
+// scales with the size of the compile pool.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class CompileScalingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int defCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        List<Expr> forms = new Parser(generateScript(defCount)).parseMultiple();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("\n--- Compile Scaling Benchmark ---");
+        System.out.println("Definitions: " + defCount + ", cores: " + cores);
+        System.out.println("=====================================");
+
+        double baseline = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            double ms = measure(forms, threads);
+            if (threads == 1) baseline = ms;
+            System.out.printf("%2d thread(s): %8.2f ms  speedup %.2fx%n", threads, ms, baseline / ms);
+            if (threads == cores) break;
+        }
+        System.out.println("=====================================");
+    }
+
+    /** Returns the best compile time in milliseconds with a pool of {@code threads}. */
+    private static double measure(List<Expr> forms, int threads) throws Exception {
+        ForkJoinPool pool = threads == 1 ? null : new ForkJoinPool(threads);
+        try {
+            Object expected = null;
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+                LispJitCompiler compiler = new LispJitCompiler(new Environment());
+                compiler.setCompilePool(pool);
+                long startTime = System.nanoTime();
+                LispCallable script = compiler.compile(forms);
+                long elapsed = System.nanoTime() - startTime;
+
+                Object result = script.apply();
+                if (expected == null) expected = result;
+                else if (!expected.equals(result)) throw new IllegalStateException("Result changed: " + result);
+                if (i >= WARMUP_ROUNDS) best = Math.min(best, elapsed);
+            }
+            return best / 1e6;
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /**
+     * Builds a script of arithmetic-heavy functions that call each other,
+     * with closures, followed by one expression that calls the last of them.
+     */
+    static String generateScript(int defCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(def (f0 x) (+ x 1))\n");
+        for (int i = 1; i < defCount; i++) {
+            sb.append("(def (f").append(i).append(" x)\n");
+            sb.append("  (let (a (* x 2) b (- x ").append(i % 13).append("))\n");
+            sb.append("    (if (< a b)\n");
+            sb.append("        ((lambda (y) (+ y a)) (f").append(i - 1).append(" b))\n");
+            sb.append("        (/ (+ a (f").append(i - 1).append(" b)) 2))))\n");
+        }
+        sb.append("(f").append(defCount - 1).append(" 3)\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+// ========================================================================
+// io/github/jayhost/Coroutine.java
+//
+// Base class of the state machines `defcoroutine` compiles to.
+// ========================================================================
+package io.github.jayhost;
+
+/**
+ * A script that runs a little each frame. {@code (defcoroutine (name params...) body...)}
+ * compiles its body into a subclass whose {@link #resume()} runs from the
+ * last {@code yield} or {@code wait-frames} to the next one and returns. The
+ * variables that live across those points are fields of the instance and
+ * {@link #state} says where to continue, so a suspended coroutine is just an
+ * object: no thread, no stack, and nothing allocated to resume it.
+ * <p>
+ * The global a {@code defcoroutine} defines holds an unstarted instance.
+ * Calling it like a function returns a new, unstarted coroutine with those
+ * arguments, which is then handed to a {@link CoroutineScheduler}.
+ */
+public abstract class Coroutine implements LispCallable {
+    /** Returned by {@link #resume()} once the body has run to the end. */
+    public static final int DONE = -1;
+
+    /** The resume point generated code continues from, or {@link #DONE}. */
+    protected int state;
+    /** The value of the body's last statement, once done. */
+    protected Object result;
+
+    /**
+     * Runs the body until it suspends or finishes.
+     * @return The number of frames to wait before the next resume, at least
+     *         1, or {@link #DONE}.
+     */
+    public abstract int resume() throws Exception;
+
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /** The value of the last statement of the body, or null if not done. */
+    public Object result() {
+        return result;
+    }
+
+    /** Converts the argument of {@code (wait-frames n)}; called by generated code. */
+    public static int frames(Object n) {
+        if (!(n instanceof Number number)) {
+            throw new IllegalArgumentException("wait-frames expects a number, got " + n);
+        }
+        double frames = number.doubleValue();
+        // Anything short of a frame still waits for the next one.
+        return frames >= Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, (int) Math.ceil(frames));
+    }
+}
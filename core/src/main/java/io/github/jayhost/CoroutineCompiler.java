@@ -0,0 +1,380 @@
+// ========================================================================
+// io/github/jayhost/CoroutineCompiler.java
+//
+// Compiles a `defcoroutine` into a resumable state-machine class.
+// ========================================================================
+package io.github.jayhost;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Turns {@code (defcoroutine (name params...) statement...)} into a subclass
+ * of {@link Coroutine}.
+ * <p>
+ * A statement is any expression, or one of the forms that may suspend:
+ * <ul>
+ *   <li>{@code (yield)} waits for the next frame;</li>
+ *   <li>{@code (wait-frames n)} waits {@code n} frames;</li>
+ *   <li>{@code (if c then else)} and {@code (let (bindings...) statement...)}
+ *   whose branches or body suspend;</li>
+ *   <li>{@code (name args...)}, a call of the coroutine itself, which starts
+ *   the body over with new arguments. This is how a coroutine loops; in
+ *   statement position the name always means the coroutine, even where a
+ *   local of the same name is in scope.</li>
+ * </ul>
+ * Suspending anywhere else, such as inside a function call or a lambda, is
+ * a compile error.
+ * <p>
+ * {@code resume()} copies the variables into locals, jumps to the point
+ * {@code state} names and runs the rest as ordinary compiled code. Each
+ * suspension stores the number of the point after it and returns; variables
+ * never change once bound, so a binding is written to its field once, when
+ * it is made, and nothing needs saving at the suspension itself.
+ */
+final class CoroutineCompiler {
+    private static final String BASE = "io/github/jayhost/Coroutine";
+
+    private final LispJitCompiler compiler;
+    private final Environment.Snapshot env;
+
+    private Symbol name;
+    private CompilationContext ctx;
+    private ExpressionCompiler expressions;
+    private MethodVisitor mv;
+    private int paramCount;
+    /** The next variable a statement-level {@code let} binds, by field number. */
+    private int nextVariable;
+    private Label start;
+    private final List<Label> resumePoints = new ArrayList<>();
+
+    CoroutineCompiler(LispJitCompiler compiler, Environment.Snapshot env) {
+        this.compiler = compiler;
+        this.env = env;
+    }
+
+    /** Class name for a {@code defcoroutine}; allocated by the caller so it is deterministic. */
+    static String classNameFor(String coroutineName) {
+        return "io/github/jayhost/dynamic/Coroutine_" + coroutineName + "_" +
+                LispJitCompiler.DYNAMIC_CLASS_COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Compiles {@code defList} into a class called {@code className}. As with
+     * {@link LambdaCompiler#compileFunction}, nested lambdas and then the class
+     * itself are appended to {@code output}.
+     */
+    void compile(ListExpr defList, String className, List<GeneratedClass> output) {
+        ListExpr proto = (ListExpr) defList.get(1);
+        name = ((SymbolExpr) proto.get(0)).symbol;
+        paramCount = proto.size() - 1;
+        List<Expr> body = defList.elements().subList(2, defList.size());
+
+        // Parameters and the variables of statement-level lets each get a
+        // field and a fixed slot: slot 1 + i holds field v<i>.
+        int variables = paramCount;
+        for (Expr statement : body) variables += countVariables(statement);
+
+        ctx = new CompilationContext(className, env, null, output);
+        ctx.classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, BASE, null);
+        BytecodeGenerator.addRuntimeHelpers(ctx.classWriter);
+        for (int i = 0; i < variables; i++) {
+            ctx.classWriter.visitField(ACC_PRIVATE, field(i), "Ljava/lang/Object;", null, null).visitEnd();
+        }
+        writeConstructors(className);
+        writeApply(className);
+
+        mv = ctx.classWriter.visitMethod(ACC_PUBLIC, "resume", "()I", null, null);
+        mv.visitCode();
+        FrameTracker frames = ctx.frames;
+        frames.beginNoArgs(className);
+        if (compiler.hasSafepoints()) {
+            mv.visitMethodInsn(INVOKESTATIC, "io/github/jayhost/ScriptBudget", "safepoint", "()V", false);
+            frames.invoke(INVOKESTATIC, "()V");
+        }
+        for (int i = 0; i < variables; i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            frames.push(className);
+            mv.visitFieldInsn(GETFIELD, className, field(i), "Ljava/lang/Object;");
+            frames.replace(1, "java/lang/Object");
+            mv.visitVarInsn(ASTORE, 1 + i);
+            frames.store(1 + i);
+        }
+        ctx.nextVarIndex = 1 + variables;
+        for (int i = 0; i < paramCount; i++) {
+            ctx.localVars.bind(((SymbolExpr) proto.get(1 + i)).symbol, 1 + i);
+        }
+        nextVariable = paramCount;
+        expressions = new ExpressionCompiler(compiler, ctx);
+
+        Label dispatch = new Label();
+        frames.jump(mv, GOTO, dispatch);
+        start = new Label();
+        resumePoints.add(start);
+        frames.label(mv, start, ctx.nextVarIndex);
+        compileBlock(body, 0, true);
+        finish();
+
+        // Jumped to on every resume: continue from the point `state` names.
+        Label finished = new Label();
+        frames.label(mv, dispatch, ctx.nextVarIndex);
+        loadThis();
+        mv.visitFieldInsn(GETFIELD, className, "state", "I");
+        frames.replace(1, INTEGER);
+        mv.visitTableSwitchInsn(0, resumePoints.size() - 1, finished, resumePoints.toArray(new Label[0]));
+        frames.pop(1);
+        frames.label(mv, finished, ctx.nextVarIndex);
+        mv.visitInsn(ICONST_M1);
+        frames.push(INTEGER);
+        mv.visitInsn(IRETURN);
+        frames.pop(1);
+
+        frames.visitMaxs(mv);
+        mv.visitEnd();
+        ctx.finishClass(null);
+    }
+
+    /**
+     * The constructors: {@code ()V} for the unstarted instance the global
+     * holds, and {@code ([Object)V} taking the arguments of a call.
+     */
+    private void writeConstructors(String className) {
+        MethodVisitor init = ctx.classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(1, 1);
+        init.visitEnd();
+
+        init = ctx.classWriter.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", "()V", false);
+        for (int i = 0; i < paramCount; i++) {
+            init.visitVarInsn(ALOAD, 0);
+            init.visitVarInsn(ALOAD, 1);
+            init.visitLdcInsn(i);
+            init.visitInsn(AALOAD);
+            init.visitFieldInsn(PUTFIELD, className, field(i), "Ljava/lang/Object;");
+        }
+        init.visitInsn(RETURN);
+        init.visitMaxs(4, 2);
+        init.visitEnd();
+    }
+
+    /** {@code apply(args)} returns a new, unstarted coroutine with those arguments. */
+    private void writeApply(String className) {
+        MethodVisitor apply = ctx.classWriter.visitMethod(ACC_PUBLIC | ACC_VARARGS, "apply",
+                "([Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        apply.visitCode();
+        apply.visitTypeInsn(NEW, className);
+        apply.visitInsn(DUP);
+        apply.visitVarInsn(ALOAD, 1);
+        apply.visitMethodInsn(INVOKESPECIAL, className, "<init>", "([Ljava/lang/Object;)V", false);
+        apply.visitInsn(ARETURN);
+        apply.visitMaxs(3, 2);
+        apply.visitEnd();
+    }
+
+    /** Compiles {@code statements[from..]}; the value of the last one is the result if {@code last}. */
+    private void compileBlock(List<Expr> statements, int from, boolean last) {
+        for (int i = from; i < statements.size(); i++) {
+            compileStatement(statements.get(i), last && i == statements.size() - 1);
+        }
+        if (from == statements.size() && last) storeResult(null);
+    }
+
+    private void compileStatement(Expr statement, boolean last) {
+        if (!suspends(statement)) {
+            requireNoSuspension(statement);
+            if (last) {
+                storeResult(statement);
+            } else {
+                expressions.compileExpression(statement, mv);
+                mv.visitInsn(POP);
+                ctx.frames.pop(1);
+            }
+            return;
+        }
+        ListExpr list = (ListExpr) statement;
+        switch (((SymbolExpr) list.get(0)).symbol.id) {
+            case Symbols.YIELD -> {
+                if (list.size() != 1) throw new IllegalArgumentException("yield takes no arguments, on line " + list.line());
+                mv.visitInsn(ICONST_1);
+                ctx.frames.push(INTEGER);
+                suspend(last);
+            }
+            case Symbols.WAIT_FRAMES -> {
+                if (list.size() != 2) throw new IllegalArgumentException("wait-frames takes one argument, on line " + list.line());
+                requireNoSuspension(list.get(1));
+                expressions.compileExpression(list.get(1), mv);
+                mv.visitMethodInsn(INVOKESTATIC, BASE, "frames", "(Ljava/lang/Object;)I", false);
+                ctx.frames.invoke(INVOKESTATIC, "(Ljava/lang/Object;)I");
+                suspend(last);
+            }
+            case Symbols.IF -> compileIf(list, last);
+            case Symbols.LET -> compileLet(list, last);
+            default -> restart(list);
+        }
+    }
+
+    /** Returns the frame count on the stack, resuming after this point next time. */
+    private void suspend(boolean last) {
+        FrameTracker frames = ctx.frames;
+        Label resumeAt = new Label();
+        loadThis();
+        mv.visitLdcInsn(resumePoints.size());
+        frames.push(INTEGER);
+        mv.visitFieldInsn(PUTFIELD, ctx.className, "state", "I");
+        frames.pop(2);
+        mv.visitInsn(IRETURN);
+        frames.pop(1);
+        resumePoints.add(resumeAt);
+        frames.label(mv, resumeAt, ctx.nextVarIndex);
+        if (last) storeResult(null);
+    }
+
+    private void compileIf(ListExpr ifExpr, boolean last) {
+        FrameTracker frames = ctx.frames;
+        Label elseLbl = new Label();
+        Label endLbl = new Label();
+        requireNoSuspension(ifExpr.get(1));
+        expressions.compileExpression(ifExpr.get(1), mv);
+        mv.visitMethodInsn(INVOKESTATIC, ctx.className, "isTruthy", "(Ljava/lang/Object;)Z", false);
+        frames.invoke(INVOKESTATIC, "(Ljava/lang/Object;)Z");
+        frames.jump(mv, IFEQ, elseLbl);
+        compileStatement(ifExpr.get(2), last);
+        frames.jump(mv, GOTO, endLbl);
+        frames.label(mv, elseLbl, ctx.nextVarIndex);
+        if (ifExpr.size() > 3) compileStatement(ifExpr.get(3), last);
+        else if (last) storeResult(null);
+        frames.label(mv, endLbl, ctx.nextVarIndex);
+    }
+
+    private void compileLet(ListExpr letExpr, boolean last) {
+        int originalLocals = ctx.localVars.mark();
+        ListExpr bindings = (ListExpr) letExpr.get(1);
+        for (int i = 0; i < bindings.size(); i += 2) {
+            requireNoSuspension(bindings.get(i + 1));
+            int variable = nextVariable++;
+            expressions.compileExpression(bindings.get(i + 1), mv);
+            mv.visitVarInsn(ASTORE, 1 + variable);
+            ctx.frames.store(1 + variable);
+            storeVariable(variable);
+            ctx.localVars.bind(((SymbolExpr) bindings.get(i)).symbol, 1 + variable);
+        }
+        compileBlock(letExpr.elements(), 2, last);
+        ctx.localVars.reset(originalLocals);
+    }
+
+    /** {@code (name args...)} in statement position: rebind the parameters and jump to the start. */
+    private void restart(ListExpr call) {
+        if (call.size() - 1 != paramCount) {
+            throw new IllegalArgumentException("Coroutine " + name + " expects " + paramCount
+                    + " arguments, got " + (call.size() - 1) + " on line " + call.line());
+        }
+        // Evaluate every argument before rebinding, as a call would.
+        for (int i = 1; i < call.size(); i++) {
+            requireNoSuspension(call.get(i));
+            expressions.compileExpression(call.get(i), mv);
+        }
+        for (int i = paramCount - 1; i >= 0; i--) {
+            mv.visitVarInsn(ASTORE, 1 + i);
+            ctx.frames.store(1 + i);
+        }
+        for (int i = 0; i < paramCount; i++) storeVariable(i);
+        ctx.frames.jump(mv, GOTO, start);
+        // Whatever follows is never reached, but still needs a frame to verify.
+        ctx.frames.label(mv, new Label(), ctx.nextVarIndex);
+    }
+
+    /** Copies the local of {@code variable} into its field. */
+    private void storeVariable(int variable) {
+        loadThis();
+        mv.visitVarInsn(ALOAD, 1 + variable);
+        ctx.frames.push("java/lang/Object");
+        mv.visitFieldInsn(PUTFIELD, ctx.className, field(variable), "Ljava/lang/Object;");
+        ctx.frames.pop(2);
+    }
+
+    /** Runs after the last statement: marks the coroutine done. */
+    private void finish() {
+        loadThis();
+        mv.visitInsn(ICONST_M1);
+        ctx.frames.push(INTEGER);
+        mv.visitFieldInsn(PUTFIELD, ctx.className, "state", "I");
+        ctx.frames.pop(2);
+        mv.visitInsn(ICONST_M1);
+        ctx.frames.push(INTEGER);
+        mv.visitInsn(IRETURN);
+        ctx.frames.pop(1);
+    }
+
+    /** Stores the value of {@code expr}, or null, as the coroutine's result. */
+    private void storeResult(Expr expr) {
+        loadThis();
+        if (expr != null) {
+            expressions.compileExpression(expr, mv);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+            ctx.frames.push(NULL);
+        }
+        mv.visitFieldInsn(PUTFIELD, ctx.className, "result", "Ljava/lang/Object;");
+        ctx.frames.pop(2);
+    }
+
+    private void loadThis() {
+        mv.visitVarInsn(ALOAD, 0);
+        ctx.frames.push(ctx.className);
+    }
+
+    private static String field(int variable) {
+        return "v" + variable;
+    }
+
+    /** Whether {@code statement} must be compiled here rather than as a plain expression. */
+    private boolean suspends(Expr statement) {
+        if (!(statement instanceof ListExpr list) || list.isEmpty()
+                || !(list.get(0) instanceof SymbolExpr head)) {
+            return false;
+        }
+        switch (head.symbol.id) {
+            case Symbols.YIELD:
+            case Symbols.WAIT_FRAMES:
+                return true;
+            case Symbols.IF:
+            case Symbols.LET:
+                for (int i = 2; i < list.size(); i++) if (suspends(list.get(i))) return true;
+                return false;
+            default:
+                return head.symbol == name;
+        }
+    }
+
+    /** Counts the variables {@link #compileLet} will bind for {@code statement}. */
+    private int countVariables(Expr statement) {
+        if (!suspends(statement)) return 0;
+        ListExpr list = (ListExpr) statement;
+        int id = ((SymbolExpr) list.get(0)).symbol.id;
+        if (id != Symbols.IF && id != Symbols.LET) return 0;
+        int count = id == Symbols.LET ? ((ListExpr) list.get(1)).size() / 2 : 0;
+        for (int i = 2; i < list.size(); i++) count += countVariables(list.get(i));
+        return count;
+    }
+
+    private static void requireNoSuspension(Expr expr) {
+        if (!(expr instanceof ListExpr list)) return;
+        if (!list.isEmpty() && list.get(0) instanceof SymbolExpr head
+                && (head.symbol.id == Symbols.YIELD || head.symbol.id == Symbols.WAIT_FRAMES)) {
+            throw new IllegalArgumentException(head.symbol + " is only allowed as a statement of a defcoroutine body,"
+                    + " on line " + list.line());
+        }
+        for (int i = 0; i < list.size(); i++) requireNoSuspension(list.get(i));
+    }
+}
@@ -0,0 +1,110 @@
+// ========================================================================
+// io/github/jayhost/CoroutineScheduler.java
+//
+// Resumes the coroutines that are due, once per frame, on the thread that
+// owns the frame.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs {@link Coroutine}s. Each one is an entry in two parallel arrays, the
+ * coroutine and the frame it wakes on, so {@link #tick()} is a scan that
+ * resumes the entries that are due and compares a number for the rest.
+ * Finished coroutines are swapped out with the last entry. Nothing is
+ * allocated per resume, so thousands of coroutines cost a frame only the
+ * code they actually run.
+ * <p>
+ * {@link #spawn} may be called from any thread, including from a coroutine
+ * during a tick; new coroutines first run on the next tick. Everything else
+ * belongs to the thread that calls {@link #tick()}.
+ */
+public final class CoroutineScheduler {
+    private static final CoroutineScheduler MAIN = new CoroutineScheduler();
+
+    private final ConcurrentLinkedQueue<Coroutine> spawned = new ConcurrentLinkedQueue<>();
+    private Coroutine[] running = new Coroutine[64];
+    private long[] wakeFrame = new long[64];
+    private int size;
+    private long frame;
+
+    /** The scheduler the game ticks every frame; {@code (go co)} spawns onto it. */
+    public static CoroutineScheduler main() {
+        return MAIN;
+    }
+
+    /** Called from Lisp as {@code (go co)}: starts {@code coroutine} on the main scheduler. */
+    public static Object spawnOnMain(Object coroutine) {
+        if (!(coroutine instanceof Coroutine co)) {
+            throw new IllegalArgumentException("go expects a coroutine, got " + coroutine);
+        }
+        MAIN.spawn(co);
+        return co;
+    }
+
+    /** Schedules {@code coroutine} to start on the next tick. Safe from any thread. */
+    public void spawn(Coroutine coroutine) {
+        spawned.add(coroutine);
+    }
+
+    /**
+     * Advances one frame and resumes every coroutine due on it. A coroutine
+     * that throws is reported and dropped; the others keep running.
+     * @return The number of coroutines resumed.
+     */
+    public int tick() {
+        frame++;
+        for (Coroutine co; (co = spawned.poll()) != null; ) {
+            if (size == running.length) {
+                running = Arrays.copyOf(running, size * 2);
+                wakeFrame = Arrays.copyOf(wakeFrame, size * 2);
+            }
+            running[size] = co;
+            wakeFrame[size++] = frame;
+        }
+
+        int resumed = 0;
+        for (int i = 0; i < size; ) {
+            if (wakeFrame[i] > frame) {
+                i++;
+                continue;
+            }
+            resumed++;
+            int wait;
+            try {
+                wait = running[i].resume();
+            } catch (Exception e) {
+                System.err.println("Coroutine failed: " + e);
+                wait = Coroutine.DONE;
+            }
+            if (wait == Coroutine.DONE) {
+                // Swap in the last entry and look at index i again.
+                running[i] = running[--size];
+                wakeFrame[i] = wakeFrame[size];
+                running[size] = null;
+            } else {
+                wakeFrame[i++] = frame + wait;
+            }
+        }
+        return resumed;
+    }
+
+    /** Number of coroutines started and not yet finished. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of ticks so far. */
+    public long frame() {
+        return frame;
+    }
+
+    /** Drops every coroutine, running or not yet started. */
+    public void clear() {
+        spawned.clear();
+        Arrays.fill(running, 0, size, null);
+        size = 0;
+    }
+}
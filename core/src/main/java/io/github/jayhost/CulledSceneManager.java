@@ -0,0 +1,70 @@
+// ========================================================================
+// io/github/jayhost/CulledSceneManager.java
+//
+// A scene manager that draws only the scenes the camera can see, while
+// still updating and casting shadows from every scene it holds.
+// ========================================================================
+package io.github.jayhost;
+
+import com.badlogic.gdx.graphics.g3d.RenderableProvider;
+import com.badlogic.gdx.graphics.g3d.utils.DepthShaderProvider;
+import com.badlogic.gdx.graphics.g3d.utils.ShaderProvider;
+import com.badlogic.gdx.utils.Array;
+import net.mgsx.gltf.scene3d.scene.SceneManager;
+
+/**
+ * The renderable list keeps every scene added to the manager, so
+ * {@link #update} advances all of their animations and the shadow pass
+ * inside {@link #render} lets a scene just off screen still cast its shadow
+ * into view. Only the depth pre-pass and the colour pass are limited to
+ * {@link #visible()}, which the owner refills every frame after culling.
+ */
+public class CulledSceneManager extends SceneManager {
+    private final Array<RenderableProvider> visible = new Array<>();
+    /** Holds the full list while a pass draws the visible one. */
+    private final Array<RenderableProvider> all = new Array<>();
+
+    public CulledSceneManager(ShaderProvider shaderProvider, DepthShaderProvider depthShaderProvider) {
+        super(shaderProvider, depthShaderProvider);
+    }
+
+    /** The scenes the depth and colour passes draw this frame. */
+    public Array<RenderableProvider> visible() {
+        return visible;
+    }
+
+    @Override
+    public void renderDepth() {
+        showVisible();
+        try {
+            super.renderDepth();
+        } finally {
+            showAll();
+        }
+    }
+
+    @Override
+    public void renderColors() {
+        showVisible();
+        try {
+            super.renderColors();
+        } finally {
+            showAll();
+        }
+    }
+
+    private void showVisible() {
+        Array<RenderableProvider> providers = getRenderableProviders();
+        all.clear();
+        all.addAll(providers);
+        providers.clear();
+        providers.addAll(visible);
+    }
+
+    private void showAll() {
+        Array<RenderableProvider> providers = getRenderableProviders();
+        providers.clear();
+        providers.addAll(all);
+        all.clear();
+    }
+}
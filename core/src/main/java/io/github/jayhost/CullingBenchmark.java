@@ -0,0 +1,198 @@
+// ========================================================================
+// io/github/jayhost/CullingBenchmark.java
+//
+// Culls 50,000 boxes against a camera frustum by testing every box, and
+// through the BoundsTree on one thread and in parallel, checking that all
+// three agree; then times keeping the tree up to date as boxes move.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class CullingBenchmark {
+
+    private static final int ENTITIES = 50_000;
+    private static final int FRAMES = 200;
+    private static final float WORLD = 500;
+
+    public static void main(String[] args) {
+        EntityRegistry registry = new EntityRegistry();
+        int[] entities = new int[ENTITIES];
+        float[] boxes = new float[ENTITIES * 6];
+        Random random = new Random(42);
+        for (int i = 0; i < ENTITIES; i++) {
+            entities[i] = registry.reserve();
+            float x = random.nextFloat() * WORLD, y = random.nextFloat() * 20, z = random.nextFloat() * WORLD;
+            float size = 0.5f + random.nextFloat() * 2;
+            setBox(boxes, i, x, y, z, size);
+        }
+        BoundsTree sequential = newTree(entities, boxes, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BoundsTree parallel = newTree(entities, boxes, pool);
+
+        float[][] planes = new float[FRAMES][];
+        for (int f = 0; f < FRAMES; f++) {
+            // Turn on the spot in the middle of the world, looking outwards like the game's camera.
+            double angle = f * 2 * Math.PI / FRAMES;
+            planes[f] = frustum(WORLD / 2, 10, WORLD / 2, Math.cos(angle), -0.1, Math.sin(angle),
+                    67, 1280 / 720.0, 0.1, 100);
+        }
+
+        System.out.println("\n--- Culling Benchmark ---");
+        System.out.println(ENTITIES + " boxes, tree height " + sequential.height() + ", best frame of " + FRAMES
+                + ", parallel on " + pool.getParallelism() + " threads (" + Runtime.getRuntime().availableProcessors()
+                + " cores)");
+        System.out.println("=====================================");
+        int[] bruteVisible = new int[ENTITIES];
+        int[] bruteCount = new int[1];
+        report("every box tested", measure(f -> bruteCount[0] = brute(boxes, entities, planes[f % FRAMES], bruteVisible)));
+        report("BoundsTree, 1 thread", measure(f -> sequential.cull(planes[f % FRAMES])));
+        report("BoundsTree, parallel", measure(f -> parallel.cull(planes[f % FRAMES])));
+        System.out.printf("last frame: %d visible, %d culled, %d boxes tested by the tree (%d without it)%n",
+                sequential.visibleCount(), sequential.culled(), sequential.tested(), ENTITIES);
+        System.out.println("results agree: " + agree(sequential, pool, boxes, entities, planes));
+
+        // Small moves stay inside the fattened boxes; large ones reinsert.
+        report("set, 1 in 10 boxes nudged", measure(f -> move(sequential, entities, boxes, f, 10, 0.01f)));
+        report("set, 1 in 10 boxes moved 10 units", measure(f -> move(sequential, entities, boxes, f, 10, 10)));
+        System.out.println("results agree after moving: " + agree(sequential, pool, boxes, entities, planes));
+        System.out.println("=====================================");
+        pool.shutdown();
+    }
+
+    private interface Frame {
+        void run(int frame);
+    }
+
+    private static BoundsTree newTree(int[] entities, float[] boxes, ForkJoinPool pool) {
+        BoundsTree tree = new BoundsTree();
+        tree.setPool(pool);
+        for (int i = 0; i < entities.length; i++) {
+            int b = i * 6;
+            tree.set(entities[i], boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+        }
+        return tree;
+    }
+
+    private static void setBox(float[] boxes, int i, float x, float y, float z, float size) {
+        int b = i * 6;
+        boxes[b] = x;
+        boxes[b + 1] = y;
+        boxes[b + 2] = z;
+        boxes[b + 3] = x + size;
+        boxes[b + 4] = y + size;
+        boxes[b + 5] = z + size;
+    }
+
+    /** Shifts every {@code stride}th box along x, back and forth, and tells the tree. */
+    private static void move(BoundsTree tree, int[] entities, float[] boxes, int frame, int stride, float step) {
+        float dx = (frame & 1) == 0 ? step : -step;
+        for (int i = frame % stride; i < entities.length; i += stride) {
+            int b = i * 6;
+            boxes[b] += dx;
+            boxes[b + 3] += dx;
+            tree.set(entities[i], boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+        }
+    }
+
+    /**
+     * The planes of a perspective camera at (px, py, pz) looking along
+     * (dx, dy, dz) with Y up, facing inwards like those of libGDX's
+     * {@code Frustum}, which needs the native libraries to compute.
+     */
+    private static float[] frustum(double px, double py, double pz, double dx, double dy, double dz,
+                                   double fieldOfView, double aspect, double near, double far) {
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        // right = direction x up, up' = right x direction
+        double rx = -dz, ry = 0, rz = dx;
+        length = Math.sqrt(rx * rx + rz * rz);
+        rx /= length;
+        rz /= length;
+        double ux = ry * dz - rz * dy, uy = rz * dx - rx * dz, uz = rx * dy - ry * dx;
+        double tanY = Math.tan(Math.toRadians(fieldOfView) / 2), tanX = tanY * aspect;
+        float[] out = new float[24];
+        plane(out, 0, dx, dy, dz, px + dx * near, py + dy * near, pz + dz * near);
+        plane(out, 1, -dx, -dy, -dz, px + dx * far, py + dy * far, pz + dz * far);
+        plane(out, 2, rx + dx * tanX, ry + dy * tanX, rz + dz * tanX, px, py, pz);
+        plane(out, 3, -rx + dx * tanX, -ry + dy * tanX, -rz + dz * tanX, px, py, pz);
+        plane(out, 4, ux + dx * tanY, uy + dy * tanY, uz + dz * tanY, px, py, pz);
+        plane(out, 5, -ux + dx * tanY, -uy + dy * tanY, -uz + dz * tanY, px, py, pz);
+        return out;
+    }
+
+    /** Writes the plane with normal (nx, ny, nz) through (x, y, z) as the {@code i}th. */
+    private static void plane(float[] out, int i, double nx, double ny, double nz, double x, double y, double z) {
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        out[i * 4] = (float) nx;
+        out[i * 4 + 1] = (float) ny;
+        out[i * 4 + 2] = (float) nz;
+        out[i * 4 + 3] = (float) -(nx * x + ny * y + nz * z);
+    }
+
+    /** Tests every box against every plane, as the managers' renderers would have to. */
+    private static int brute(float[] boxes, int[] entities, float[] planes, int[] out) {
+        int n = 0;
+        outer:
+        for (int i = 0; i < entities.length; i++) {
+            int b = i * 6;
+            for (int p = 0; p < 24; p += 4) {
+                float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+                float far = nx * (nx >= 0 ? boxes[b + 3] : boxes[b])
+                        + ny * (ny >= 0 ? boxes[b + 4] : boxes[b + 1])
+                        + nz * (nz >= 0 ? boxes[b + 5] : boxes[b + 2]) + planes[p + 3];
+                if (far < 0) continue outer;
+            }
+            out[n++] = entities[i];
+        }
+        return n;
+    }
+
+    /**
+     * Whether {@code tree} finds the same entities as testing every box, and
+     * the same ones in the same order, with the same counters, on one thread
+     * and on {@code pool}.
+     */
+    private static boolean agree(BoundsTree tree, ForkJoinPool pool, float[] boxes, int[] entities, float[][] planes) {
+        int[] expected = new int[entities.length];
+        for (float[] frame : planes) {
+            int n = brute(boxes, entities, frame, expected);
+            tree.setPool(null);
+            int[] first = Arrays.copyOf(tree.visible(), tree.cull(frame));
+            int tested = tree.tested();
+            tree.setPool(pool);
+            int[] second = Arrays.copyOf(tree.visible(), tree.cull(frame));
+            tree.setPool(null);
+            if (!Arrays.equals(first, second) || tested != tree.tested()) return false;
+            int[] sorted = first.clone();
+            Arrays.sort(sorted);
+            int[] reference = Arrays.copyOf(expected, n);
+            Arrays.sort(reference);
+            if (!Arrays.equals(sorted, reference)) return false;
+        }
+        return true;
+    }
+
+    /** @return {best ms per frame}. */
+    private static double measure(Frame frame) {
+        for (int f = 0; f < FRAMES; f++) frame.run(f); // warm up
+        long best = Long.MAX_VALUE;
+        for (int f = 0; f < FRAMES; f++) {
+            long start = System.nanoTime();
+            frame.run(f);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void report(String name, double ms) {
+        System.out.printf("%-40s %7.3f ms/frame%n", name, ms);
+    }
+}
@@ -0,0 +1,129 @@
+// ========================================================================
+// io/github/jayhost/EntityBatch.java
+//
+// A reusable buffer of entity spawns, stored column by column, that a
+// script fills and then submits to the render thread in one call.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Spawns as parallel primitive arrays: a path id and an x, y and z per
+ * entity. Adding an entity writes four array elements, so filling a batch
+ * allocates nothing once its arrays have grown, and the consumer walks the
+ * columns in a tight loop.
+ * <p>
+ * Batches are pooled. {@link #obtain()} hands out a recycled batch with its
+ * arrays still at their old size, so a script that loads a level the same
+ * way every time reaches a steady state without garbage. Once a batch is
+ * submitted it belongs to the render thread, which calls {@link #recycle()}
+ * when it is done with it; adding to it after that fails.
+ * <p>
+ * Paths are interned to small ids shared by every batch, so repeated paths
+ * cost nothing and the consumer can key per-model state by id.
+ */
+public final class EntityBatch {
+    private static final ConcurrentLinkedQueue<EntityBatch> POOL = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentHashMap<String, Integer> PATH_IDS = new ConcurrentHashMap<>();
+    private static volatile String[] paths = new String[16];
+
+    private int[] pathIds = new int[64];
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    private float[] zs = new float[64];
+    private int size;
+    private volatile boolean submitted;
+
+    private EntityBatch() {
+    }
+
+    /** Returns an empty batch, recycled if one is available. */
+    public static EntityBatch obtain() {
+        EntityBatch batch = POOL.poll();
+        return batch != null ? batch : new EntityBatch();
+    }
+
+    /** Appends a spawn of the model at {@code path} at (x, y, z). */
+    public EntityBatch add(String path, float x, float y, float z) {
+        if (submitted) throw new IllegalStateException("Batch was already submitted");
+        if (size == pathIds.length) {
+            int capacity = size * 2;
+            pathIds = Arrays.copyOf(pathIds, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+        }
+        pathIds[size] = pathId(path);
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        size++;
+        return this;
+    }
+
+    /** Marks the batch as handed over; called by whoever queues it. */
+    void markSubmitted() {
+        if (submitted) throw new IllegalStateException("Batch was already submitted");
+        submitted = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The path id column; entries from {@link #size()} on are stale. */
+    public int[] pathIds() {
+        return pathIds;
+    }
+
+    public float[] xs() {
+        return xs;
+    }
+
+    public float[] ys() {
+        return ys;
+    }
+
+    public float[] zs() {
+        return zs;
+    }
+
+    /** Empties the batch and returns it to the pool. Call it once the batch has been consumed. */
+    public void recycle() {
+        size = 0;
+        submitted = false;
+        POOL.add(this);
+    }
+
+    /** Returns the id of {@code path}, interning it on first use. */
+    public static int pathId(String path) {
+        Integer id = PATH_IDS.get(path);
+        return id != null ? id : internPath(path);
+    }
+
+    private static synchronized int internPath(String path) {
+        Integer id = PATH_IDS.get(path);
+        if (id != null) return id;
+        int next = PATH_IDS.size();
+        String[] table = paths;
+        if (next == table.length) table = Arrays.copyOf(table, next * 2);
+        table[next] = path;
+        // Publish the name before the id, so whoever sees the id can look it up.
+        paths = table;
+        PATH_IDS.put(path, next);
+        return next;
+    }
+
+    /** The path interned as {@code id}. */
+    public static String path(int id) {
+        return paths[id];
+    }
+
+    /** Number of distinct paths interned so far; every id is below this. */
+    public static int pathCount() {
+        return PATH_IDS.size();
+    }
+}
@@ -0,0 +1,114 @@
+// ========================================================================
+// io/github/jayhost/EntityBatchBenchmark.java
+//
+// Compares spawning props from a script one add-at call at a time with
+// filling and submitting an EntityBatch, for growing prop counts.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.management.ManagementFactory;
+
+public class EntityBatchBenchmark {
+
+    private static final String SOURCE =
+            "(def (fill-batch b i n) (if (< i n) (let (_ (batch-add b \"models/prop.gltf\" i 0 i))" +
+            " (fill-batch b (+ i 1) n)) b))\n" +
+            "(def (spawn-batch n) (batch-submit (fill-batch (make-batch) 0 n)))\n" +
+            // The same recursion with nothing in it: what the loop itself costs.
+            "(def (count-up b i n) (if (< i n) (count-up b (+ i 1) n) b))\n" +
+            "(def (spawn-each i n) (if (< i n) (let (_ (add-at \"models/prop.gltf\" i 0 i))" +
+            " (spawn-each (+ i 1) n)) n))\n";
+    private static final int ROUNDS = 10;
+
+    private static double consumed;
+
+    public static void main(String[] args) throws Exception {
+        // Recursion is the only loop, so run on a thread with room for it.
+        Thread thread = new Thread(null, () -> {
+            try {
+                run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, "benchmark", 512L << 20);
+        thread.start();
+        thread.join();
+    }
+
+    private static void run() throws Exception {
+        ReplSession session = new ReplSession();
+        session.eval(SOURCE);
+        LispCallable spawnBatch = (LispCallable) session.eval("spawn-batch");
+        LispCallable spawnEach = (LispCallable) session.eval("spawn-each");
+        LispCallable countUp = (LispCallable) session.eval("count-up");
+
+        System.out.println("\n--- Entity Batch Benchmark ---");
+        System.out.println("Per prop: script spawns plus render-thread consumption, best of " + ROUNDS);
+        System.out.println("=====================================");
+        // add-at is limited by the command ring, so it is measured in ring-sized chunks.
+        int chunk = LispBridge.commands().capacity();
+        for (int n : new int[]{1_000, 10_000, 100_000}) {
+            double[] batch = measure(n, () -> {
+                spawnBatch.apply((double) n);
+                consumeBatches();
+            });
+            double[] each = measure(n, () -> {
+                for (int done = 0; done < n; done += chunk) {
+                    spawnEach.apply((double) done, (double) Math.min(n, done + chunk));
+                    consumeCommands();
+                }
+            });
+            double[] loop = measure(n, () -> countUp.apply(null, 0.0, (double) n));
+            System.out.printf("%6d props: batch %6.1f ns, %5.1f B | add-at %6.1f ns, %5.1f B | loop alone %6.1f ns, %5.1f B%n",
+                    n, batch[0], batch[1], each[0], each[1], loop[0], loop[1]);
+        }
+        System.out.println("=====================================");
+        if (consumed == 42) System.out.println(); // keep the consumers' work alive
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    /** Returns {best ns per prop, bytes per prop of the best round}. */
+    private static double[] measure(int n, Run run) throws Exception {
+        double bestNanos = Double.MAX_VALUE, bytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            run.run();
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < bestNanos) {
+                bestNanos = elapsed;
+                bytes = allocatedBytes() - allocated;
+            }
+        }
+        return new double[]{bestNanos / n, bytes / n};
+    }
+
+    /** What Main does with a batch, minus the scene graph: walk the columns. */
+    private static void consumeBatches() {
+        for (EntityBatch batch; (batch = LispBridge.pollBatch()) != null; ) {
+            int[] ids = batch.pathIds();
+            float[] xs = batch.xs(), ys = batch.ys(), zs = batch.zs();
+            for (int i = 0, n = batch.size(); i < n; i++) {
+                consumed += ids[i] + xs[i] + ys[i] + zs[i];
+            }
+            batch.recycle();
+        }
+    }
+
+    /** Consumes commands and frees the handles add-at reserved, as Main does once an entity is gone. */
+    private static final CommandRing.Handler SINK = (op, entity, target, x, y, z) -> {
+        consumed += op + entity + x + y + z;
+        if (op == CommandRing.SPAWN) LispBridge.entities().free(entity);
+    };
+
+    private static void consumeCommands() {
+        LispBridge.commands().drain(SINK);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
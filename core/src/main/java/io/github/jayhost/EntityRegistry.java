@@ -0,0 +1,157 @@
+// ========================================================================
+// io/github/jayhost/EntityRegistry.java
+//
+// Hands out generational int handles for entities and keeps what the game
+// stores per entity packed in dense parallel arrays.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+
+/**
+ * A sparse set of entities. A handle packs a slot index in its low
+ * {@value #INDEX_BITS} bits and the slot's generation above them. Freeing
+ * a slot bumps its generation, so an old handle to a reused slot no longer
+ * matches and every lookup through it fails instead of reaching the new
+ * entity. A slot whose generation runs out is retired rather than wrapped.
+ * Handles are positive and never 0, so 0 can mean "no entity".
+ * <p>
+ * Per-entity data lives in dense columns: the handle, the model's path id,
+ * a layer and one object, packed at the front of the arrays. The slot's
+ * {@code sparse} entry points at its dense row; removing an entity moves
+ * the last row into the hole. Lookups and removals are a few array reads
+ * and writes and allocate nothing; iterating walks rows 0 to
+ * {@link #size()} with no gaps.
+ * <p>
+ * {@link #reserve()} and {@link #free} may be called from any thread, so a
+ * script can get its entity's handle before the render thread has created
+ * anything. Everything else, including {@link #attach}, belongs to the
+ * render thread.
+ */
+public final class EntityRegistry {
+    public static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    /** Generations run from 1 to this, keeping handles positive. */
+    private static final int MAX_GENERATION = (1 << (31 - INDEX_BITS)) - 1;
+
+    // Slot allocation, guarded by this.
+    private int[] generations = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slotCount;
+
+    // Dense rows; render thread only.
+    private int[] sparse = new int[64];
+    private int[] handles = new int[64];
+    private int[] pathIds = new int[64];
+    private int[] layers = new int[64];
+    private Object[] values = new Object[64];
+    private int size;
+
+    /** The slot index inside {@code handle}: stable for the entity's life and reused after it. */
+    public static int slot(int handle) {
+        return handle & INDEX_MASK;
+    }
+
+    /** Claims a slot and returns its handle. The entity exists once it is {@link #attach}ed. */
+    public synchronized int reserve() {
+        int index;
+        if (freeCount > 0) {
+            index = freeSlots[--freeCount];
+        } else {
+            if (slotCount > INDEX_MASK) throw new IllegalStateException("Too many entities: " + slotCount);
+            index = slotCount++;
+            if (index == generations.length) generations = Arrays.copyOf(generations, index * 2);
+            generations[index] = 1;
+        }
+        return generations[index] << INDEX_BITS | index;
+    }
+
+    /** Returns a reserved slot that was never attached, or one already detached. */
+    public synchronized void free(int handle) {
+        int index = handle & INDEX_MASK;
+        if (index >= slotCount || generations[index] != handle >>> INDEX_BITS) return;
+        if (generations[index] == MAX_GENERATION) return; // retired
+        generations[index]++;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = index;
+    }
+
+    /** Creates the entity {@code handle}, from {@link #reserve()}, with its data. */
+    public void attach(int handle, int pathId, int layer, Object value) {
+        int index = handle & INDEX_MASK;
+        if (index >= sparse.length) sparse = Arrays.copyOf(sparse, Math.max(index + 1, sparse.length * 2));
+        if (size == handles.length) {
+            int capacity = size * 2;
+            handles = Arrays.copyOf(handles, capacity);
+            pathIds = Arrays.copyOf(pathIds, capacity);
+            layers = Arrays.copyOf(layers, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        sparse[index] = size;
+        handles[size] = handle;
+        pathIds[size] = pathId;
+        layers[size] = layer;
+        values[size] = value;
+        size++;
+    }
+
+    /** The dense row of {@code handle}, or -1 if it is not a live entity. */
+    public int row(int handle) {
+        int index = handle & INDEX_MASK;
+        if (handle <= 0 || index >= sparse.length) return -1;
+        int row = sparse[index];
+        return row < size && handles[row] == handle ? row : -1;
+    }
+
+    public boolean contains(int handle) {
+        return row(handle) >= 0;
+    }
+
+    /**
+     * Removes the entity {@code handle} and frees its slot.
+     * @return Its row's value, or null if it was not live.
+     */
+    public Object remove(int handle) {
+        int row = row(handle);
+        if (row < 0) return null;
+        Object value = values[row];
+        int last = --size;
+        if (row != last) {
+            int moved = handles[last];
+            handles[row] = moved;
+            pathIds[row] = pathIds[last];
+            layers[row] = layers[last];
+            values[row] = values[last];
+            sparse[moved & INDEX_MASK] = row;
+        }
+        values[last] = null;
+        free(handle);
+        return value;
+    }
+
+    /** Number of live entities; rows run from 0 to this. */
+    public int size() {
+        return size;
+    }
+
+    public int handle(int row) {
+        return handles[row];
+    }
+
+    public int pathId(int row) {
+        return pathIds[row];
+    }
+
+    public int layer(int row) {
+        return layers[row];
+    }
+
+    public Object value(int row) {
+        return values[row];
+    }
+
+    public void setValue(int row, Object value) {
+        values[row] = value;
+    }
+}
@@ -6,9 +6,11 @@
 // ========================================================================
 package io.github.jayhost;
 
-import org.objectweb.asm.Type;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents the execution environment for the Lisp interpreter.
@@ -16,19 +18,207 @@ import java.util.Map;
  * This class holds the symbol tables for global variables and functions,
  * allowing state to be preserved across multiple calls to the JIT compiler
  * and shared between different components (e.g., a game and a REPL).
+ * The tables are arrays indexed by {@link Symbol#id}, so resolving a symbol
+ * is a bounds check and an array read rather than a string hash lookup.
+ * <p>
+ * The game thread and the REPL thread use one environment at the same time.
+ * All tables therefore live in an immutable {@link Snapshot}. Readers take the
+ * current snapshot with a single volatile read and never lock; writers copy
+ * the tables, apply their change and publish the new snapshot with a
+ * compare-and-set, retrying if another writer got there first. A compile
+ * works against one snapshot from start to finish, so it never sees half of
+ * another thread's definitions.
  */
 public class Environment {
 
-    /** Stores signatures of all globally defined functions. */
-    final Map<String, FunctionSignature> functionTable = new HashMap<>();
-
-    /** Stores types of all globally defined variables. */
-    final Map<String, Type> globalVarTable = new HashMap<>();
+    private final AtomicReference<Snapshot> current;
+    /** Globals mounted from a {@link StandardLibrary}; they cannot be redefined here. */
+    private final Snapshot library;
 
     /**
      * Constructs a new, empty environment.
      */
     public Environment() {
-        // The maps are initialized and ready for use.
+        this(Snapshot.EMPTY);
+    }
+
+    /**
+     * Constructs an environment that starts out as {@code library}. Nothing is
+     * copied: the tables are shared until the first definition of this
+     * environment, and the library's cells are shared for good.
+     */
+    Environment(Snapshot library) {
+        this.library = library;
+        this.current = new AtomicReference<>(library);
+    }
+
+    /** Returns the latest published version of the environment. */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    FunctionSignature getFunction(Symbol name) {
+        return snapshot().getFunction(name);
+    }
+
+    boolean isFunction(Symbol name) {
+        return snapshot().isFunction(name);
+    }
+
+    boolean isGlobalVar(Symbol name) {
+        return snapshot().isGlobalVar(name);
+    }
+
+    void defineFunction(Symbol name, FunctionSignature signature) {
+        define(Collections.singletonMap(name, signature), Collections.emptyList(), Collections.emptyMap());
+    }
+
+    void defineGlobalVar(Symbol name) {
+        define(Collections.emptyMap(), Collections.singletonList(name), Collections.emptyMap());
+    }
+
+    /**
+     * Publishes the definitions of one compile as a single new version. A
+     * function or variable replaces a macro of the same name.
+     * @return A snapshot that contains all of them.
+     */
+    Snapshot define(Map<Symbol, FunctionSignature> functions, Collection<Symbol> variables,
+                    Map<Symbol, Macro> macros) {
+        for (Symbol name : functions.keySet()) checkWritable(name);
+        for (Symbol name : variables) checkWritable(name);
+        for (Symbol name : macros.keySet()) checkWritable(name);
+        Snapshot prev, next;
+        do {
+            prev = current.get();
+            next = prev.with(functions, variables, macros);
+        } while (!current.compareAndSet(prev, next));
+        return next;
+    }
+
+    /** Returns the cell that holds the value of {@code name}, creating it on first use. */
+    GlobalCell cell(Symbol name) {
+        for (;;) {
+            Snapshot prev = current.get();
+            GlobalCell cell = prev.cell(name);
+            if (cell != null) return cell;
+            cell = new GlobalCell(name);
+            if (current.compareAndSet(prev, prev.withCell(cell))) return cell;
+        }
+    }
+
+    /**
+     * Library globals are shared by every environment they are mounted in, so
+     * redefining one here would change it for all of them.
+     */
+    private void checkWritable(Symbol name) {
+        if (library.isDefined(name) || library.macro(name) != null) {
+            throw new IllegalStateException(name + " is defined by the standard library and is read-only");
+        }
+    }
+
+    private static int capacityFor(int id) {
+        return Math.max(id + 1, SymbolTable.GLOBAL.size() + 64);
+    }
+
+    /**
+     * One immutable version of the environment. Its arrays are never written
+     * after it is published.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, new FunctionSignature[0], new boolean[0], new GlobalCell[0],
+                new Macro[0]);
+
+        private final long version;
+        /** Signatures of all globally defined functions, indexed by symbol id. */
+        private final FunctionSignature[] functions;
+        /** Which symbols are globally defined variables, indexed by symbol id. */
+        private final boolean[] variables;
+        /** Values of all globals, functions and variables alike, indexed by symbol id. */
+        private final GlobalCell[] cells;
+        /** Macros, indexed by symbol id. They exist only at compile time and have no cell. */
+        private final Macro[] macros;
+
+        private Snapshot(long version, FunctionSignature[] functions, boolean[] variables, GlobalCell[] cells,
+                         Macro[] macros) {
+            this.version = version;
+            this.functions = functions;
+            this.variables = variables;
+            this.cells = cells;
+            this.macros = macros;
+        }
+
+        /** Increases by one with every published change. */
+        public long version() {
+            return version;
+        }
+
+        FunctionSignature getFunction(Symbol name) {
+            return name.id < functions.length ? functions[name.id] : null;
+        }
+
+        boolean isFunction(Symbol name) {
+            return getFunction(name) != null;
+        }
+
+        boolean isGlobalVar(Symbol name) {
+            return name.id < variables.length && variables[name.id];
+        }
+
+        /** Whether {@code name} is a global function or variable in this version. */
+        public boolean isDefined(Symbol name) {
+            return isFunction(name) || isGlobalVar(name);
+        }
+
+        GlobalCell cell(Symbol name) {
+            return name.id < cells.length ? cells[name.id] : null;
+        }
+
+        Macro macro(Symbol name) {
+            return name.id < macros.length ? macros[name.id] : null;
+        }
+
+        private Snapshot with(Map<Symbol, FunctionSignature> newFunctions, Collection<Symbol> newVariables,
+                              Map<Symbol, Macro> newMacros) {
+            int maxId = -1;
+            for (Symbol s : newFunctions.keySet()) maxId = Math.max(maxId, s.id);
+            for (Symbol s : newVariables) maxId = Math.max(maxId, s.id);
+            for (Symbol s : newMacros.keySet()) maxId = Math.max(maxId, s.id);
+
+            FunctionSignature[] f = functions;
+            if (!newFunctions.isEmpty()) {
+                f = Arrays.copyOf(functions, grow(functions.length, maxId));
+                for (Map.Entry<Symbol, FunctionSignature> e : newFunctions.entrySet()) f[e.getKey().id] = e.getValue();
+            }
+            boolean[] v = variables;
+            if (!newVariables.isEmpty()) {
+                v = Arrays.copyOf(variables, grow(variables.length, maxId));
+                for (Symbol s : newVariables) v[s.id] = true;
+            }
+            Macro[] m = macros;
+            if (!newMacros.isEmpty() || shadowsMacro(newFunctions.keySet()) || shadowsMacro(newVariables)) {
+                m = Arrays.copyOf(macros, grow(macros.length, maxId));
+                for (Symbol s : newFunctions.keySet()) m[s.id] = null;
+                for (Symbol s : newVariables) m[s.id] = null;
+                for (Map.Entry<Symbol, Macro> e : newMacros.entrySet()) m[e.getKey().id] = e.getValue();
+            }
+            return new Snapshot(version + 1, f, v, cells, m);
+        }
+
+        private boolean shadowsMacro(Collection<Symbol> names) {
+            for (Symbol s : names) {
+                if (macro(s) != null) return true;
+            }
+            return false;
+        }
+
+        private Snapshot withCell(GlobalCell cell) {
+            GlobalCell[] c = Arrays.copyOf(cells, grow(cells.length, cell.name.id));
+            c[cell.name.id] = cell;
+            return new Snapshot(version + 1, functions, variables, c, macros);
+        }
+
+        private static int grow(int length, int id) {
+            return id < length ? length : capacityFor(id);
+        }
     }
 }
@@ -0,0 +1,140 @@
+// ========================================================================
+// io/github/jayhost/EnvironmentStressTest.java
+//
+// Hammers one Environment from many threads at once: raw writers defining
+// symbols, readers checking every snapshot they see, cell creation races,
+// and REPL sessions compiling and running code against the shared state.
+// Exits with status 1 if any invariant is broken.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EnvironmentStressTest {
+
+    private static final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+    public static void main(String[] args) throws Exception {
+        int symbolsPerWriter = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int writers = 4, readers = 4, sessions = 4;
+
+        Environment env = new Environment();
+        List<Symbol> shared = new ArrayList<>();
+        for (int i = 0; i < 256; i++) shared.add(SymbolTable.GLOBAL.intern("stress-shared-" + i));
+
+        System.out.println("\n--- Environment Stress Test ---");
+        System.out.printf("%d writers x %d symbols, %d readers, %d REPL sessions%n",
+                writers, symbolsPerWriter, readers, sessions);
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Thread> writerThreads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            writerThreads.add(thread(threads, "writer-" + w, start, () -> {
+                for (int i = 0; i < symbolsPerWriter; i++) {
+                    Symbol s = SymbolTable.GLOBAL.intern("stress-w" + id + "-" + i);
+                    if ((i & 1) == 0) env.defineFunction(s, new FunctionSignature(s.name, i % 4));
+                    else env.defineGlobalVar(s);
+                    // Every writer also races for the same shared cells.
+                    env.cell(shared.get(i % shared.size()));
+                    if (!env.snapshot().isDefined(s)) fail("own definition missing: " + s);
+                }
+            }));
+        }
+
+        for (int r = 0; r < readers; r++) {
+            thread(threads, "reader-" + r, start, () -> {
+                Environment.Snapshot last = env.snapshot();
+                List<Symbol> seen = new ArrayList<>();
+                while (writing.get()) {
+                    Environment.Snapshot now = env.snapshot();
+                    if (now.version() < last.version()) {
+                        fail("version went back from " + last.version() + " to " + now.version());
+                    }
+                    // Anything seen in an older version must still be there.
+                    for (Symbol s : seen) {
+                        if (!now.isDefined(s)) fail("definition disappeared: " + s);
+                    }
+                    if (seen.size() < 64) {
+                        for (int i = 0; i < 4; i++) {
+                            Symbol s = SymbolTable.GLOBAL.intern("stress-w" + i + "-0");
+                            if (now.isDefined(s) && !seen.contains(s)) seen.add(s);
+                        }
+                    }
+                    last = now;
+                }
+            });
+        }
+
+        for (int s = 0; s < sessions; s++) {
+            final int id = s;
+            thread(threads, "session-" + s, start, () -> {
+                ReplSession repl = new ReplSession(env);
+                for (int i = 0; i < 200; i++) {
+                    String fn = "stress-s" + id + "-f" + i;
+                    Object result = repl.eval("(def (" + fn + " x) (+ x " + i + ")) (" + fn + " 1)");
+                    if (!Double.valueOf(1 + i).equals(result)) fail(fn + " returned " + result);
+                    // Reads a global another session may be defining right now.
+                    repl.eval("(defvar stress-last " + i + ")");
+                }
+            });
+        }
+
+        long startTime = System.nanoTime();
+        for (Thread t : threads) t.start();
+        start.countDown();
+        for (Thread t : writerThreads) t.join();
+        writing.set(false);
+        for (Thread t : threads) t.join();
+        long elapsed = System.nanoTime() - startTime;
+
+        // After the dust settles every definition and every cell must be in place.
+        Environment.Snapshot end = env.snapshot();
+        for (int w = 0; w < writers; w++) {
+            for (int i = 0; i < symbolsPerWriter; i++) {
+                Symbol s = SymbolTable.GLOBAL.intern("stress-w" + w + "-" + i);
+                if (!end.isDefined(s)) fail("lost definition: " + s);
+            }
+        }
+        for (Symbol s : shared) {
+            if (env.cell(s) != end.cell(s) || end.cell(s) == null) fail("cell created twice: " + s);
+        }
+
+        System.out.printf("Finished in %.1f ms, final version %d%n", elapsed / 1e6, end.version());
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+        } else {
+            failures.stream().limit(20).forEach(f -> System.out.println("FAIL " + f));
+            System.out.println(failures.size() + " failure(s)");
+            System.exit(1);
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static Thread thread(List<Thread> threads, String name, CountDownLatch start, Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable e) {
+                fail(Thread.currentThread().getName() + ": " + e);
+            }
+        }, name);
+        threads.add(t);
+        return t;
+    }
+
+    private static void fail(String message) {
+        failures.add(message);
+    }
+}
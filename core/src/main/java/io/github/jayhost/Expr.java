@@ -1,12 +1,46 @@
 package io.github.jayhost;
 
+import java.util.AbstractList;
 import java.util.List;
 
+/**
+ * Immutable syntax tree node.
+ * <p>
+ * The tree is built to stay small when a large script is held in memory:
+ * lists are backed by exact-size arrays, and numbers, symbols and keywords
+ * are flyweights shared by every occurrence. Shared leaves cannot say where
+ * they occur, so only lists and string literals record a source position,
+ * packed into a single int (see {@link #pack(int, int)}).
+ */
 public abstract class Expr {
-    public final int line;
+    /** Position of nodes that do not record one. */
+    public static final int NO_POSITION = 0;
 
-    protected Expr(int line) {
-        this.line = line;
+    private static final int COLUMN_BITS = 12;
+    private static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+    private static final int MAX_LINE = (1 << (32 - COLUMN_BITS)) - 1;
+
+    protected Expr() {
+    }
+
+    /** Packed source position, or {@link #NO_POSITION}. */
+    public int pos() {
+        return NO_POSITION;
+    }
+
+    /** 1-based source line, or 0 if unknown. */
+    public int line() {
+        return pos() >>> COLUMN_BITS;
+    }
+
+    /** 1-based source column, or 0 if unknown. */
+    public int column() {
+        return pos() & MAX_COLUMN;
+    }
+
+    /** Packs a line and column into 20 and 12 bits; larger values saturate. */
+    static int pack(int line, int column) {
+        return (Math.min(line, MAX_LINE) << COLUMN_BITS) | Math.min(column, MAX_COLUMN);
     }
 
     // The Visitor pattern is not used by the JIT, but it's good practice
@@ -15,6 +49,7 @@ public abstract class Expr {
         R visitNumberExpr(NumberExpr expr);
         R visitStringExpr(StringExpr expr);
         R visitSymbolExpr(SymbolExpr expr);
+        R visitKeywordExpr(KeywordExpr expr);
         R visitListExpr(ListExpr expr);
         R visitBinaryExpr(BinaryExpr expr);
     }
@@ -22,37 +57,85 @@ public abstract class Expr {
 }
 
 class NumberExpr extends Expr {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final NumberExpr[] CACHE = new NumberExpr[CACHE_HIGH - CACHE_LOW + 1];
+    static {
+        for (int i = 0; i < CACHE.length; i++) CACHE[i] = new NumberExpr(i + CACHE_LOW);
+    }
+
     public final double value;
-    public NumberExpr(double value, int line) {
-        super(line);
+    private NumberExpr(double value) {
         this.value = value;
     }
+    /** Returns a shared node for small integral values and a fresh one otherwise. */
+    public static NumberExpr of(double value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH && value == (int) value
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0)) {
+            return CACHE[(int) value - CACHE_LOW];
+        }
+        return new NumberExpr(value);
+    }
     public <R> R accept(Visitor<R> visitor) { return visitor.visitNumberExpr(this); }
 }
 
 class StringExpr extends Expr {
     public final String value;
-    public StringExpr(String value, int line) {
-        super(line);
+    private final int pos;
+    public StringExpr(String value, int pos) {
         this.value = value;
+        this.pos = pos;
     }
+    @Override public int pos() { return pos; }
     public <R> R accept(Visitor<R> visitor) { return visitor.visitStringExpr(this); }
 }
 
 class SymbolExpr extends Expr {
-    public final String name;
-    public SymbolExpr(String name, int line) {
-        super(line);
-        this.name = name;
+    public final Symbol symbol;
+    SymbolExpr(Symbol symbol) {
+        this.symbol = symbol;
+    }
+    /** Returns the one node shared by every occurrence of {@code symbol}. */
+    public static SymbolExpr of(Symbol symbol) {
+        return symbol.expr();
     }
+    public String name() { return symbol.name; }
     public <R> R accept(Visitor<R> visitor) { return visitor.visitSymbolExpr(this); }
 }
 
+class KeywordExpr extends Expr {
+    public final Symbol symbol;
+    KeywordExpr(Symbol symbol) {
+        this.symbol = symbol;
+    }
+    /** Returns the one node shared by every occurrence of {@code :symbol}. */
+    public static KeywordExpr of(Symbol symbol) {
+        return symbol.keyword().expr;
+    }
+    public <R> R accept(Visitor<R> visitor) { return visitor.visitKeywordExpr(this); }
+}
+
 class ListExpr extends Expr {
-    public final List<Expr> elements;
-    public ListExpr(List<Expr> elements, int line) {
-        super(line);
-        this.elements = elements;
+    private final Expr[] items;
+    private final int pos;
+    /** Takes ownership of {@code items}; callers must not modify it afterwards. */
+    ListExpr(Expr[] items, int pos) {
+        this.items = items;
+        this.pos = pos;
+    }
+    public ListExpr(List<Expr> elements, int pos) {
+        this(elements.toArray(new Expr[0]), pos);
+    }
+    @Override public int pos() { return pos; }
+    public int size() { return items.length; }
+    public boolean isEmpty() { return items.length == 0; }
+    public Expr get(int index) { return items[index]; }
+    /** Read-only view of the elements. */
+    public List<Expr> elements() {
+        return new AbstractList<Expr>() {
+            @Override public Expr get(int index) { return items[index]; }
+            @Override public int size() { return items.length; }
+        };
     }
     public <R> R accept(Visitor<R> visitor) { return visitor.visitListExpr(this); }
 }
@@ -5,26 +5,45 @@
 // ========================================================================
 package io.github.jayhost;
 
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 import static org.objectweb.asm.Opcodes.*;
 
 public class ExpressionCompiler {
+    private static final Handle GLOBAL_BOOTSTRAP = new Handle(H_INVOKESTATIC, "io/github/jayhost/GlobalCell",
+            "bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+            + "Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+
     public final LispJitCompiler compiler;
     private final CompilationContext ctx;
+    private final FrameTracker frames;
+    private final SpecialFormCompiler specialForms;
+    private final CallCompiler calls;
 
     public ExpressionCompiler(LispJitCompiler compiler, CompilationContext ctx) {
         this.compiler = compiler;
         this.ctx = ctx;
+        this.frames = ctx.frames;
+        this.specialForms = new SpecialFormCompiler(this, ctx);
+        this.calls = new CallCompiler(this, ctx);
     }
 
     public void compileExpression(Expr expr, MethodVisitor mv) {
         if (expr instanceof NumberExpr num) {
             mv.visitLdcInsn(num.value);
+            frames.push(DOUBLE);
             mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+            frames.replace(1, "java/lang/Double");
         } else if (expr instanceof StringExpr str) {
             mv.visitLdcInsn(str.value);
+            frames.push("java/lang/String");
         } else if (expr instanceof SymbolExpr sym) {
-            compileSymbol(sym.name, mv);
+            compileSymbol(sym.symbol, mv);
+        } else if (expr instanceof KeywordExpr kw) {
+            mv.visitLdcInsn(kw.symbol.id);
+            frames.push(INTEGER);
+            mv.visitMethodInsn(INVOKESTATIC, "io/github/jayhost/Keyword", "of", "(I)Lio/github/jayhost/Keyword;", false);
+            frames.replace(1, "io/github/jayhost/Keyword");
         } else if (expr instanceof ListExpr list) {
             compileList(list, mv);
         } else {
@@ -33,34 +52,32 @@ public class ExpressionCompiler {
     }
 
     private void compileList(ListExpr list, MethodVisitor mv) {
-        if (list.elements.isEmpty()) { mv.visitInsn(ACONST_NULL); return; }
-        if (!(list.elements.get(0) instanceof SymbolExpr opSym)) {
-            new CallCompiler(this, ctx).compileFunctionCall(list, mv); return;
+        if (list.isEmpty()) { mv.visitInsn(ACONST_NULL); frames.push(NULL); return; }
+        if (!(list.get(0) instanceof SymbolExpr opSym)) {
+            calls.compileFunctionCall(list, mv); return;
         }
-        SpecialFormCompiler sfCompiler = new SpecialFormCompiler(this, ctx);
-        if (sfCompiler.compileSpecialForm(opSym.name, list, mv)) { return; }
-        new CallCompiler(this, ctx).compileFunctionCall(list, mv);
+        if (specialForms.compileSpecialForm(opSym.symbol, list, mv)) { return; }
+        calls.compileFunctionCall(list, mv);
     }
 
-    private void compileSymbol(String name, MethodVisitor mv) {
-        // Get the shared environment from the compiler
-        Environment env = compiler.getEnvironment();
+    void compileSymbol(Symbol name, MethodVisitor mv) {
+        Environment.Snapshot env = ctx.env;
 
-        if (ctx.localVars.containsKey(name)) {
-            mv.visitVarInsn(ALOAD, ctx.localVars.get(name));
+        int slot = ctx.localVars.lookup(name);
+        if (slot >= 0) {
+            mv.visitVarInsn(ALOAD, slot);
+            frames.push("java/lang/Object");
         } else if (ctx.capturedVars.contains(name)) {
             mv.visitVarInsn(ALOAD, 0);
-            mv.visitFieldInsn(GETFIELD, ctx.className, name, "Ljava/lang/Object;");
-        } else if (env.functionTable.containsKey(name)) { // <-- FIXED
-            mv.visitFieldInsn(GETSTATIC, getRootClassName(), name, "Lio/github/jayhost/LispCallable;");
-        } else if (env.globalVarTable.containsKey(name)) { // <-- FIXED
-            mv.visitFieldInsn(GETSTATIC, getRootClassName(), name, "Ljava/lang/Object;");
+            mv.visitFieldInsn(GETFIELD, ctx.className, name.name, "Ljava/lang/Object;");
+            frames.push("java/lang/Object");
+        } else if (env.isFunction(name) || env.isGlobalVar(name)) {
+            // Bound by GlobalCell.bootstrap to the cell held in the link field.
+            mv.visitInvokeDynamicInsn(name.name, "()Ljava/lang/Object;", GLOBAL_BOOTSTRAP,
+                    ctx.linkField(Link.global(name)));
+            frames.push("java/lang/Object");
         } else {
             throw new RuntimeException("Unresolved symbol: " + name);
         }
     }
-
-    String getRootClassName() {
-        return ctx.parentClassName != null ? ctx.parentClassName : ctx.className;
-    }
 }
@@ -0,0 +1,297 @@
+// ========================================================================
+// io/github/jayhost/FormReader.java
+//
+// Streams top-level forms out of a Reader or a memory-mapped file, one at
+// a time, so a script never has to be held in memory as a whole.
+// ========================================================================
+package io.github.jayhost;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Incremental reader that yields one top-level form per call to {@link #next()}.
+ * <p>
+ * Characters are pulled into a reusable buffer only until the current form is
+ * complete; the form is then handed to a {@link Parser} working directly on
+ * that slice of the buffer. The buffer only grows when a single form does not
+ * fit, so memory use is bounded by the largest form rather than the file.
+ */
+public final class FormReader implements Closeable {
+
+    private static final int INITIAL_BUFFER = 8192;
+
+    private final Reader in;
+    private char[] buf = new char[INITIAL_BUFFER];
+    private int pos;   // next character to scan
+    private int mark;  // start of the form being scanned; kept across refills
+    private int limit; // end of valid data in buf
+    private int line;
+    private int formLine;
+    private long formOffset;
+    private long discarded; // characters dropped from the front of buf so far
+    private boolean eof;
+
+    public FormReader(Reader in) {
+        this(in, 1);
+    }
+
+    /** Reads a slice of a larger text whose first line is {@code firstLine}. */
+    FormReader(Reader in, int firstLine) {
+        this.in = in;
+        this.line = firstLine;
+    }
+
+    /**
+     * Opens a UTF-8 script file through a memory mapping. The file is decoded
+     * window by window, so even very large files are never copied onto the heap.
+     */
+    public static FormReader open(Path file) throws IOException {
+        return new FormReader(new MappedReader(FileChannel.open(file, StandardOpenOption.READ)));
+    }
+
+    /**
+     * Reads the next top-level form.
+     *
+     * @return The parsed form, or {@code null} once the input is exhausted.
+     */
+    public Expr next() throws IOException, ParseException {
+        if (!skipWhitespaceAndComments()) {
+            return null;
+        }
+        mark = pos;
+        int startLine = line;
+        int formEnd = scanForm(startLine);
+        Expr form = new Parser(buf, mark, formEnd - mark, startLine).parse();
+        pos = formEnd;
+        mark = pos;
+        return form;
+    }
+
+    /**
+     * Reads the next top-level form as source text, without parsing it. Its
+     * first line is then available from {@link #getFormLine()}.
+     *
+     * @return The form's text, or {@code null} once the input is exhausted.
+     */
+    public String nextSource() throws IOException, ParseException {
+        if (!skipWhitespaceAndComments()) {
+            return null;
+        }
+        mark = pos;
+        formLine = line;
+        formOffset = discarded + mark;
+        int formEnd = scanForm(formLine);
+        String source = new String(buf, mark, formEnd - mark);
+        pos = formEnd;
+        mark = pos;
+        return source;
+    }
+
+    /** Line on which the form last returned by {@link #nextSource()} starts. */
+    public int getFormLine() {
+        return formLine;
+    }
+
+    /** Offset in characters from the start of the input of the form last returned by {@link #nextSource()}. */
+    public long getFormOffset() {
+        return formOffset;
+    }
+
+    /** Line number of the next unread character. */
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** @return {@code false} if the input ended before another form started. */
+    private boolean skipWhitespaceAndComments() throws IOException {
+        boolean inComment = false;
+        for (;;) {
+            if (pos == limit) {
+                mark = pos;
+                if (!fill()) return false;
+            }
+            char c = buf[pos];
+            if (c == '\n') {
+                line++;
+                inComment = false;
+            } else if (!inComment) {
+                if (c == ';') {
+                    inComment = true;
+                } else if (!Character.isWhitespace(c)) {
+                    return true;
+                }
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Finds the end of the form starting at {@link #mark}, refilling the buffer
+     * as needed. Only parentheses, string quotes, escapes and comments are
+     * tracked; everything else is left to the parser.
+     *
+     * @return The offset just past the form's last character.
+     */
+    private int scanForm(int startLine) throws IOException, ParseException {
+        char first = buf[pos];
+        if (first == ')') {
+            throw new ParseException("Unexpected ')' on line " + line);
+        }
+        // Quote prefixes belong to the form that follows them.
+        boolean prefix = isQuotePrefix(first);
+        boolean atom = first != '(' && first != '"';
+        int depth = 0;
+        boolean inString = false;
+        boolean escape = false;
+        boolean inComment = false;
+        for (;;) {
+            if (pos == limit && !fill()) {
+                if (atom) return pos;
+                throw new ParseException("Unexpected end of input in form starting on line " + startLine);
+            }
+            char c = buf[pos];
+            if (c == '\n') line++;
+            if (prefix) {
+                if (!isQuotePrefix(c) && !(c == '@' && buf[pos - 1] == ',')) {
+                    prefix = false;
+                    atom = c != '(' && c != '"';
+                    if (c == ')' || (atom && Parser.isDelimiter(c))) {
+                        throw new ParseException("Quote prefix without a form on line " + line);
+                    }
+                    continue; // look at c again now that the form has started
+                }
+            } else if (atom) {
+                if (Parser.isDelimiter(c)) {
+                    if (c == '\n') line--; // not consumed
+                    return pos;
+                }
+            } else if (inComment) {
+                if (c == '\n') inComment = false;
+            } else if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) return pos + 1;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == ';') {
+                inComment = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) return pos + 1;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isQuotePrefix(char c) {
+        return c == '\'' || c == '`' || c == ',';
+    }
+
+    /**
+     * Discards everything before {@link #mark}, grows the buffer if the pending
+     * form already fills it, and reads more input.
+     *
+     * @return {@code false} if no more characters are available.
+     */
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        if (mark > 0) {
+            discarded += mark;
+            System.arraycopy(buf, mark, buf, 0, limit - mark);
+            limit -= mark;
+            pos -= mark;
+            mark = 0;
+        }
+        if (limit == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * Decodes a UTF-8 file through a sliding memory-mapped window. Multi-byte
+     * sequences that straddle a window boundary are picked up again by
+     * starting the next window at the first unconsumed byte.
+     */
+    private static final class MappedReader extends Reader {
+        private static final long WINDOW = 64L * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private ByteBuffer window;
+        private long windowStart;
+        private boolean flushed;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (flushed) return -1;
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            for (;;) {
+                boolean last = windowStart + window.limit() == size;
+                CoderResult result = decoder.decode(window, out, last);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                int n = out.position() - off;
+                if (n > 0) return n;
+                if (last) {
+                    decoder.flush(out);
+                    flushed = true;
+                    n = out.position() - off;
+                    return n > 0 ? n : -1;
+                }
+                map(windowStart + window.position());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
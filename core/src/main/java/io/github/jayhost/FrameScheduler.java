@@ -0,0 +1,222 @@
+// ========================================================================
+// io/github/jayhost/FrameScheduler.java
+//
+// Runs Lisp work submitted from any thread on the thread that owns the
+// frame, at one defined point per frame and within a time budget.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The single place Lisp runs in a game. Other threads, such as the REPL or
+ * the script watcher, never evaluate anything themselves; they
+ * {@link #submit} work into a mailbox and get a future back. Once per frame
+ * the game calls {@link #runFrame}, which
+ * <ol>
+ *   <li>runs queued work in submission order until the time budget is spent
+ *   (at least one job per frame, so the queue always drains eventually);</li>
+ *   <li>calls every {@link #onFrame} callback with the frame's delta time;</li>
+ *   <li>ticks the coroutines.</li>
+ * </ol>
+ * The mailbox is an intrusive multi-producer, single-consumer queue: each
+ * job is its own node, so submitting costs one allocation and one atomic
+ * swap, and neither side ever takes a lock.
+ * <p>
+ * Callbacks are compiled functions, registered once and then called directly
+ * every frame with an argument array the scheduler reuses; nothing is parsed
+ * or looked up per frame. A callback that throws is reported and removed.
+ * <p>
+ * Futures complete on the frame thread, so their dependent actions run
+ * there too unless an executor is given.
+ */
+public final class FrameScheduler implements Executor {
+    private static final FrameScheduler MAIN = new FrameScheduler(CoroutineScheduler.main());
+    private static final long DEFAULT_BUDGET_NANOS = 2_000_000;
+    private static final VarHandle NEXT;
+
+    static {
+        try {
+            NEXT = MethodHandles.lookup().findVarHandle(Job.class, "next", Job.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** A unit of queued work and the future of its result. */
+    private static final class Job extends CompletableFuture<Object> {
+        /** A source string, a {@link LispCallable} or a {@link Runnable}. */
+        Object work;
+        Object[] args;
+        ReplSession session;
+        /** Read and written through {@link #NEXT} with acquire/release ordering. */
+        Job next;
+
+        Job(Object work, Object[] args, ReplSession session) {
+            this.work = work;
+            this.args = args;
+            this.session = session;
+        }
+
+        void run() {
+            try {
+                Object result;
+                if (work instanceof String source) {
+                    result = session.eval(source);
+                } else if (work instanceof LispCallable fn) {
+                    result = fn.apply(args);
+                } else {
+                    ((Runnable) work).run();
+                    result = null;
+                }
+                complete(result);
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            }
+            // The job stays behind as the queue's stub until the next one runs.
+            work = null;
+            args = null;
+            session = null;
+        }
+    }
+
+    private final CoroutineScheduler coroutines;
+    /** Producers swap themselves in here; only they touch it. */
+    private final AtomicReference<Job> tail;
+    /** The last job taken; only the frame thread touches it. */
+    private Job head;
+    private volatile long budgetNanos = DEFAULT_BUDGET_NANOS;
+
+    private LispCallable[] callbacks = new LispCallable[8];
+    private int callbackCount;
+    private final Object[] frameArgs = new Object[1];
+
+    /** @param coroutines Ticked at the end of every frame. */
+    public FrameScheduler(CoroutineScheduler coroutines) {
+        this.coroutines = coroutines;
+        Job stub = new Job(null, null, null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    /** The scheduler the game runs every frame; {@code (on-frame f)} registers with it. */
+    public static FrameScheduler main() {
+        return MAIN;
+    }
+
+    /** Sets how long {@link #runFrame} may spend on queued work per frame. */
+    public void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /** Queues {@code source} to be evaluated by {@code session} on the frame thread. */
+    public CompletableFuture<Object> submit(ReplSession session, String source) {
+        return enqueue(new Job(source, null, session));
+    }
+
+    /** Queues a call of {@code fn} on the frame thread. */
+    public CompletableFuture<Object> submit(LispCallable fn, Object... args) {
+        return enqueue(new Job(fn, args, null));
+    }
+
+    /** Queues {@code task} to run on the frame thread. */
+    @Override
+    public void execute(Runnable task) {
+        enqueue(new Job(task, null, null));
+    }
+
+    private Job enqueue(Job job) {
+        Job previous = tail.getAndSet(job);
+        // Until this store the consumer sees the queue end at `previous`.
+        NEXT.setRelease(previous, job);
+        return job;
+    }
+
+    /**
+     * Registers {@code fn} to be called with the frame's delta time in
+     * seconds at every {@link #runFrame}, starting with the next one. Safe
+     * from any thread.
+     */
+    public void onFrame(LispCallable fn) {
+        execute(() -> {
+            if (callbackCount == callbacks.length) callbacks = Arrays.copyOf(callbacks, callbackCount * 2);
+            callbacks[callbackCount++] = fn;
+        });
+    }
+
+    /** Unregisters {@code fn}, from the next {@link #runFrame} on. Safe from any thread. */
+    public void offFrame(LispCallable fn) {
+        execute(() -> removeCallback(fn));
+    }
+
+    /** Called from Lisp as {@code (on-frame f)}. */
+    public static Object onFrameMain(Object fn) {
+        MAIN.onFrame(callable(fn, "on-frame"));
+        return fn;
+    }
+
+    /** Called from Lisp as {@code (off-frame f)}. */
+    public static Object offFrameMain(Object fn) {
+        MAIN.offFrame(callable(fn, "off-frame"));
+        return fn;
+    }
+
+    private static LispCallable callable(Object fn, String caller) {
+        if (!(fn instanceof LispCallable callable)) {
+            throw new IllegalArgumentException(caller + " expects a function, got " + fn);
+        }
+        return callable;
+    }
+
+    /**
+     * Runs one frame's worth of Lisp. Call it from the frame thread only.
+     * @param deltaSeconds Passed to the {@link #onFrame} callbacks.
+     * @return The number of queued jobs that ran.
+     */
+    public int runFrame(double deltaSeconds) {
+        int jobs = drain(System.nanoTime() + budgetNanos);
+
+        frameArgs[0] = deltaSeconds;
+        for (int i = 0; i < callbackCount; i++) {
+            LispCallable fn = callbacks[i];
+            try {
+                fn.apply(frameArgs);
+            } catch (Exception e) {
+                System.err.println("on-frame callback failed and was removed: " + e);
+                removeCallback(fn);
+                i--;
+            }
+        }
+
+        coroutines.tick();
+        return jobs;
+    }
+
+    private int drain(long deadline) {
+        int jobs = 0;
+        do {
+            Job next = (Job) NEXT.getAcquire(head);
+            if (next == null) break;
+            head = next;
+            next.run();
+            jobs++;
+        } while (System.nanoTime() - deadline < 0);
+        return jobs;
+    }
+
+    private void removeCallback(LispCallable fn) {
+        for (int i = 0; i < callbackCount; i++) {
+            if (callbacks[i] == fn) {
+                // Keep the order the callbacks were registered in.
+                System.arraycopy(callbacks, i + 1, callbacks, i, callbackCount - i - 1);
+                callbacks[--callbackCount] = null;
+                return;
+            }
+        }
+    }
+}
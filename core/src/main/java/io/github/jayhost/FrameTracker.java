@@ -0,0 +1,159 @@
+// ========================================================================
+// io/github/jayhost/FrameTracker.java
+//
+// Tracks the operand stack of the method being generated so the compiler
+// can write stack-map frames and max values itself instead of having ASM
+// recompute them with a dataflow pass.
+// ========================================================================
+package io.github.jayhost;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.util.Arrays;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generated code has a fixed shape: every Lisp value is an {@code Object},
+ * locals are the receiver, the argument array (which a coroutine's
+ * {@code resume} does not have) and then {@code Object}s bound by parameters
+ * and {@code let}, and the only branches are the ones an {@code if} or a
+ * coroutine emits. So the frame at a branch target is just the live locals
+ * plus whatever is on the stack under the {@code if}, which this class
+ * records as each instruction is emitted.
+ * <p>
+ * Stack entries use the ASM frame encoding: an internal class name or one of
+ * the {@code Opcodes.INTEGER}-style constants.
+ */
+final class FrameTracker {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String ARGS = "[Ljava/lang/Object;";
+
+    private Object[] stack = new Object[16];
+    private int size;
+    private int words;
+    private int maxStack;
+    private int maxLocals;
+    private String owner;
+    /** Slots before the first {@code Object} local: none, the receiver, or the receiver and the arguments. */
+    private int fixedLocals;
+    /** Instructions emitted so far, to spot two labels at the same offset. */
+    private int emitted;
+    private int lastFrameAt = -1;
+
+    /**
+     * Starts tracking a new method: {@code apply} of {@code owner}, or the
+     * static initializer if {@code isStatic}.
+     */
+    void begin(String owner, boolean isStatic) {
+        begin(owner, isStatic ? 0 : 2);
+    }
+
+    /** Starts tracking an instance method of {@code owner} that takes no arguments. */
+    void beginNoArgs(String owner) {
+        begin(owner, 1);
+    }
+
+    private void begin(String owner, int fixedLocals) {
+        this.owner = owner;
+        this.fixedLocals = fixedLocals;
+        size = words = maxStack = 0;
+        maxLocals = fixedLocals;
+        emitted = 0;
+        lastFrameAt = -1;
+    }
+
+    void push(Object type) {
+        if (size == stack.length) stack = Arrays.copyOf(stack, size * 2);
+        stack[size++] = type;
+        words += (type == LONG || type == DOUBLE) ? 2 : 1;
+        maxStack = Math.max(maxStack, words);
+        emitted++;
+    }
+
+    void pop(int n) {
+        for (int i = 0; i < n; i++) {
+            Object type = stack[--size];
+            words -= (type == LONG || type == DOUBLE) ? 2 : 1;
+        }
+        emitted++;
+    }
+
+    /** Records an instruction that replaces the top {@code n} entries with {@code result}. */
+    void replace(int n, Object result) {
+        pop(n);
+        push(result);
+    }
+
+    void dup() {
+        push(stack[size - 1]);
+    }
+
+    void swap() {
+        Object top = stack[size - 1];
+        stack[size - 1] = stack[size - 2];
+        stack[size - 2] = top;
+        emitted++;
+    }
+
+    /** Records a method call with the given descriptor. */
+    void invoke(int opcode, String descriptor) {
+        int args = Type.getArgumentTypes(descriptor).length;
+        pop(opcode == INVOKESTATIC ? args : args + 1);
+        Type ret = Type.getReturnType(descriptor);
+        if (ret.getSort() != Type.VOID) push(frameType(ret));
+    }
+
+    /** Records a store to {@code slot}. */
+    void store(int slot) {
+        pop(1);
+        maxLocals = Math.max(maxLocals, slot + 1);
+    }
+
+    /** Emits a jump and records the operands it consumes. */
+    void jump(MethodVisitor mv, int opcode, Label target) {
+        mv.visitJumpInsn(opcode, target);
+        if (opcode == GOTO) emitted++;
+        else pop(1);
+    }
+
+    /**
+     * Places {@code label} and writes the frame that holds there: the first
+     * {@code liveLocals} slots and the current stack.
+     */
+    void label(MethodVisitor mv, Label label, int liveLocals) {
+        mv.visitLabel(label);
+        // Nested ifs can end at the same offset with the same frame; the
+        // class file allows only one frame per offset.
+        if (lastFrameAt == emitted) return;
+        lastFrameAt = emitted;
+
+        Object[] locals = new Object[liveLocals];
+        if (fixedLocals > 0) locals[0] = owner;
+        if (fixedLocals > 1) locals[1] = ARGS;
+        Arrays.fill(locals, fixedLocals, locals.length, OBJECT);
+        mv.visitFrame(F_NEW, locals.length, locals, size, Arrays.copyOf(stack, size));
+    }
+
+    /** Forgets the type of the top entry, e.g. where two branches of an {@code if} meet. */
+    void widenTop() {
+        stack[size - 1] = OBJECT;
+    }
+
+    void visitMaxs(MethodVisitor mv) {
+        mv.visitMaxs(maxStack, maxLocals);
+    }
+
+    static Object frameType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN: case Type.CHAR: case Type.BYTE: case Type.SHORT: case Type.INT:
+                return INTEGER;
+            case Type.FLOAT: return FLOAT;
+            case Type.LONG: return LONG;
+            case Type.DOUBLE: return DOUBLE;
+            default: return type.getInternalName();
+        }
+    }
+}
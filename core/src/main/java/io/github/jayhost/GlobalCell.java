@@ -0,0 +1,105 @@
+// ========================================================================
+// io/github/jayhost/GlobalCell.java
+//
+// Storage for one global function or variable, with call sites that fold
+// its value into compiled code while it stays unchanged.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+/**
+ * Holds the value of a top-level {@code def} or {@code defvar}. Cells belong
+ * to the {@link Environment}, so a global keeps its value across compiles and
+ * its initializer runs once, when its definition is evaluated.
+ * <p>
+ * Generated code reads a global through an {@code invokedynamic} site bound by
+ * {@link #bootstrap}. Most globals, such as functions and asset paths, are
+ * assigned once and never again, so the site links to the current value as a
+ * constant guarded by a {@link SwitchPoint}, and the JIT folds it into the
+ * caller. Assigning the cell again invalidates the switch point, which
+ * deoptimizes the dependent code and relinks it to the new value. A cell that
+ * keeps changing stops being folded and is read like a plain field.
+ */
+public final class GlobalCell {
+    /** Reassignments after which the cell is treated as a variable. */
+    private static final int MAX_RELINKS = 8;
+
+    private static final MethodHandle GET;
+    private static final MethodHandle RELINK;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET = lookup.findVirtual(GlobalCell.class, "get", MethodType.methodType(Object.class));
+            RELINK = lookup.findVirtual(GlobalCell.class, "relink",
+                    MethodType.methodType(Object.class, MutableCallSite.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public final Symbol name;
+    private volatile Object value;
+    private boolean assigned;
+    private int relinks;
+    /** Guards the folded value; null once the cell is treated as a variable. */
+    private SwitchPoint stable = new SwitchPoint();
+
+    GlobalCell(Symbol name) {
+        this.name = name;
+    }
+
+    public Object get() {
+        return value;
+    }
+
+    public synchronized void set(Object newValue) {
+        value = newValue;
+        if (!assigned) {
+            assigned = true;
+        } else if (stable != null) {
+            SwitchPoint.invalidateAll(new SwitchPoint[]{stable});
+            stable = ++relinks < MAX_RELINKS ? new SwitchPoint() : null;
+        }
+    }
+
+    /**
+     * Bootstrap for global reads. {@code linkField} names the static field of
+     * the calling class that holds the cell.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type,
+                                     String linkField) throws Throwable {
+        GlobalCell cell = (GlobalCell) caller.findStaticGetter(caller.lookupClass(), linkField, GlobalCell.class)
+                .invoke();
+        MutableCallSite site = new MutableCallSite(type);
+        cell.relink(site);
+        return site;
+    }
+
+    /** Points {@code site} at the best target for the cell's current state and returns the value. */
+    private synchronized Object relink(MutableCallSite site) {
+        MethodHandle target;
+        if (stable == null) {
+            target = GET.bindTo(this);
+        } else {
+            // Until the first assignment there is nothing to fold, so keep
+            // coming back here; afterwards fall back here when invalidated.
+            MethodHandle fallback = MethodHandles.insertArguments(RELINK, 0, this, site);
+            target = assigned
+                    ? stable.guardWithTest(MethodHandles.constant(Object.class, value), fallback)
+                    : fallback;
+        }
+        site.setTarget(target);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name + " = " + value;
+    }
+}
@@ -0,0 +1,68 @@
+// ========================================================================
+// io/github/jayhost/HotReloadBenchmark.java
+//
+// Measures how long it takes to reload a script after editing a single
+// definition, for growing file sizes, and checks that state held in an
+// unchanged defvar survives the reload.
+// ========================================================================
+package io.github.jayhost;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class HotReloadBenchmark {
+
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n--- Hot Reload Benchmark ---");
+        System.out.println("One definition edited per reload, best of " + ROUNDS);
+        System.out.println("=====================================");
+        Path file = Files.createTempFile("reload", ".lisp");
+        try {
+            for (int defs : new int[]{100, 1000, 5000}) {
+                run(file, defs);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println("=====================================");
+    }
+
+    private static void run(Path file, int defs) throws Exception {
+        Environment env = new Environment();
+        ScriptReloader reloader = new ScriptReloader(env);
+        ReplSession probe = new ReplSession(env);
+
+        Files.writeString(file, script(defs, 0));
+        ScriptReloader.Result full = reloader.reload(file);
+        // State the running game would have built up since the load.
+        probe.eval("(defvar counter 41)");
+
+        long best = Long.MAX_VALUE;
+        int compiled = 0;
+        for (int i = 1; i <= ROUNDS; i++) {
+            Files.writeString(file, script(defs, i));
+            ScriptReloader.Result result = reloader.reload(file);
+            best = Math.min(best, result.nanos());
+            compiled = result.compiled();
+        }
+        Object edited = probe.eval("(f0 1)");
+        if (!Double.valueOf(1 + ROUNDS).equals(edited)) throw new IllegalStateException("Edit not live: " + edited);
+        if (!Double.valueOf(41).equals(probe.eval("counter"))) throw new IllegalStateException("State lost");
+
+        System.out.printf("%5d defs: full load %8.2f ms, reload %6.2f ms (%d form recompiled)%n",
+                defs, full.nanos() / 1e6, best / 1e6, compiled);
+    }
+
+    /** A script whose first definition depends on {@code version}; the rest never change. */
+    private static String script(int defs, int version) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(defvar counter 0)\n");
+        sb.append("(def (f0 x) (+ x ").append(version).append("))\n");
+        String rest = CompileScalingBenchmark.generateScript(defs);
+        // Drop the generated f0 and the trailing call; keep f1..f(n-1).
+        sb.append(rest, rest.indexOf("(def (f1 "), rest.lastIndexOf("(f"));
+        return sb.toString();
+    }
+}
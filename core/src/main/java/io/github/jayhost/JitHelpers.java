@@ -7,10 +7,10 @@ package io.github.jayhost;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 record FunctionSignature(String name, int argCount, String descriptor) {
@@ -19,46 +19,159 @@ record FunctionSignature(String name, int argCount, String descriptor) {
     }
 }
 
+/**
+ * A class produced by the compiler that has not been defined yet, with the
+ * links its static initializer expects from the {@link Linker}.
+ */
+record GeneratedClass(String name, byte[] bytecode, List<Link> links) {
+}
+
+/**
+ * Something a generated class needs from outside itself: the cell of a
+ * global, or a factory for another generated class. Generated classes never
+ * refer to each other by name; each link is handed to the class when it is
+ * initialized and kept in a static final field.
+ */
+record Link(Symbol global, String className, String constructorDescriptor) {
+    static final String CELL_DESCRIPTOR = "Lio/github/jayhost/GlobalCell;";
+    static final String FACTORY_DESCRIPTOR = "Ljava/lang/invoke/MethodHandle;";
+
+    static Link global(Symbol name) {
+        return new Link(name, null, null);
+    }
+
+    /** A handle that calls the given constructor and returns a {@link LispCallable}. */
+    static Link constructor(String className, String constructorDescriptor) {
+        return new Link(null, className, constructorDescriptor);
+    }
+
+    String fieldDescriptor() {
+        return global != null ? CELL_DESCRIPTOR : FACTORY_DESCRIPTOR;
+    }
+}
+
 // Converted from a record to a class to allow for mutable state required by the compiler.
 class CompilationContext {
     public final String className;
-    public final String parentClassName;
-    public final Map<String, Integer> localVars;
-    public final Set<String> capturedVars;
+    /** The version of the environment this compile resolves globals against. */
+    public final Environment.Snapshot env;
+    public final LocalScope localVars;
+    public final Set<Symbol> capturedVars;
     public final ClassWriter classWriter;
+    /** Stack and max values of the method currently being generated. */
+    public final FrameTracker frames = new FrameTracker();
+    /** Receives the classes of lambdas nested in this one, innermost first. */
+    public final List<GeneratedClass> output;
     public int nextVarIndex;
+    private int lambdaCount;
+    private final List<Link> links = new ArrayList<>();
 
-    public CompilationContext(String className, String parentClassName, Map<String, Integer> localVars, Set<String> capturedVars) {
+    public CompilationContext(String className, Environment.Snapshot env, Set<Symbol> capturedVars,
+                              List<GeneratedClass> output) {
         this.className = className;
-        this.parentClassName = parentClassName;
-        this.localVars = localVars != null ? new HashMap<>(localVars) : new HashMap<>();
+        this.env = env;
+        this.localVars = new LocalScope();
         this.capturedVars = capturedVars != null ? capturedVars : Collections.emptySet();
-        this.classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        this.classWriter = new ClassWriter(0); // frames and maxs come from `frames`
+        this.output = output;
         // Default starting index for local variables. Callers can modify this as needed.
         this.nextVarIndex = 1;
     }
+
+    /**
+     * Names the next lambda nested in this class. Names depend only on the
+     * source, not on how many other classes were compiled first, so a parallel
+     * build produces the same classes as a sequential one.
+     */
+    public String nextLambdaClassName() {
+        return className + "$" + (++lambdaCount);
+    }
+
+    /** Returns the static field of this class that will hold {@code link}. */
+    public String linkField(Link link) {
+        int index = links.indexOf(link);
+        if (index < 0) {
+            index = links.size();
+            links.add(link);
+        }
+        return "$link" + index;
+    }
+
+    /**
+     * Writes the link fields and the static initializer, then adds the
+     * finished class to {@code output}.
+     *
+     * @param initMethod A static {@code ()V} method to run once linked, or null.
+     */
+    public void finishClass(String initMethod) {
+        BytecodeGenerator.createLinkage(classWriter, className, links, initMethod);
+        classWriter.visitEnd();
+        output.add(new GeneratedClass(className, classWriter.toByteArray(), new ArrayList<>(links)));
+    }
+}
+
+/**
+ * Lexical scope of local variables, kept as parallel arrays of symbol ids and
+ * JVM slots. Scopes are small, so a backwards linear scan beats hashing, finds
+ * the innermost binding first, and lets a `let` restore its parent scope by
+ * truncating instead of copying a map.
+ */
+class LocalScope {
+    private int[] ids = new int[8];
+    private int[] slots = new int[8];
+    private int size;
+
+    /** @return The JVM slot bound to {@code name}, or -1 if it is not a local. */
+    int lookup(Symbol name) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (ids[i] == name.id) return slots[i];
+        }
+        return -1;
+    }
+
+    boolean contains(Symbol name) {
+        return lookup(name) >= 0;
+    }
+
+    void bind(Symbol name, int slot) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        ids[size] = name.id;
+        slots[size++] = slot;
+    }
+
+    /** Returns a marker for {@link #reset(int)}. */
+    int mark() {
+        return size;
+    }
+
+    /** Drops every binding made since {@code mark} was taken. */
+    void reset(int mark) {
+        size = mark;
+    }
 }
 
 class Helpers {
-    public static boolean isSpecialForm(Expr expr, String name) {
+    public static boolean isSpecialForm(Expr expr, int symbolId) {
         return (expr instanceof ListExpr list &&
-               !list.elements.isEmpty() &&
-               list.elements.get(0) instanceof SymbolExpr sym &&
-               sym.name.equals(name));
-    }
-    public static boolean isBuiltIn(String n) {
-        // FIXED: Added ">" to the list of recognized built-in operators.
-        return switch (n) { case "+", "-", "*", "/", "<", ">", "string-concat" -> true; default -> false; };
-    }
-    public static String getValidMethodNameForOperator(String op) {
-        return switch (op) {
-            case "+" -> "op_add";
-            case "-" -> "op_sub";
-            case "*" -> "op_mul";
-            case "/" -> "op_div";
-            case "<" -> "op_lt";
-            case ">" -> "op_gt"; // FIXED: Added a corresponding method name for ">".
-            case "string-concat" -> "op_string_concat";
+               !list.isEmpty() &&
+               list.get(0) instanceof SymbolExpr sym &&
+               sym.symbol.id == symbolId);
+    }
+    public static boolean isBuiltIn(Symbol s) {
+        return Symbols.isBuiltInOperator(s);
+    }
+    public static String getValidMethodNameForOperator(Symbol op) {
+        return switch (op.id) {
+            case Symbols.ADD -> "op_add";
+            case Symbols.SUB -> "op_sub";
+            case Symbols.MUL -> "op_mul";
+            case Symbols.DIV -> "op_div";
+            case Symbols.LT -> "op_lt";
+            case Symbols.GT -> "op_gt";
+            case Symbols.STRING_CONCAT -> "op_string_concat";
             default -> throw new IllegalArgumentException("Bad op: " + op);
         };
     }
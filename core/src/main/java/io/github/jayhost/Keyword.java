@@ -0,0 +1,39 @@
+// ========================================================================
+// io/github/jayhost/Keyword.java
+//
+// Runtime value of a :keyword literal. Keywords are unique per name, so
+// scripts and host code can compare them with ==.
+// ========================================================================
+package io.github.jayhost;
+
+public final class Keyword {
+    public final Symbol symbol;
+    final KeywordExpr expr;
+
+    Keyword(Symbol symbol) {
+        this.symbol = symbol;
+        this.expr = new KeywordExpr(symbol);
+    }
+
+    /**
+     * Looks a keyword up by the id of its symbol. Compiled code calls this
+     * for every keyword literal, so it is a pair of array reads.
+     */
+    public static Keyword of(int symbolId) {
+        return SymbolTable.GLOBAL.symbol(symbolId).keyword();
+    }
+
+    /** Returns the keyword for {@code name} (given without the leading colon). */
+    public static Keyword of(String name) {
+        return SymbolTable.GLOBAL.intern(name).keyword();
+    }
+
+    public String getName() {
+        return symbol.name;
+    }
+
+    @Override
+    public String toString() {
+        return ":" + symbol.name;
+    }
+}
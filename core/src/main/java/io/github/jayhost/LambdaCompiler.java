@@ -5,7 +5,6 @@
 // ========================================================================
 package io.github.jayhost;
 
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
@@ -14,92 +13,96 @@ import static org.objectweb.asm.Opcodes.*;
 
 public class LambdaCompiler {
     private final LispJitCompiler compiler;
+    private final Environment.Snapshot env;
 
-    public LambdaCompiler(LispJitCompiler compiler) {
+    public LambdaCompiler(LispJitCompiler compiler, Environment.Snapshot env) {
         this.compiler = compiler;
+        this.env = env;
     }
 
-    public byte[] compileFunction(ListExpr defOrLambda,
-                              String parentClassName,
-                              Map<String,Integer> parentScope) {
+    /** Class name for a top-level {@code def}; allocated by the caller so it is deterministic. */
+    static String classNameForDef(String funcName) {
+        return "io/github/jayhost/dynamic/Lambda_" + funcName + "_" +
+                LispJitCompiler.DYNAMIC_CLASS_COUNTER.incrementAndGet();
+    }
 
-    boolean isLambda =
-        (defOrLambda.elements.get(0) instanceof SymbolExpr head) &&
-        "lambda".equals(head.name);
+    /**
+     * Compiles {@code (def (name p1 p2 ...) body)} or {@code (lambda (p1 p2 ...) body)}
+     * into a class called {@code className}.
+     * <p>
+     * Nothing is defined here. The classes of nested lambdas and then the
+     * function's own class are appended to {@code output}, so initializing them
+     * in list order always initializes a class after everything it instantiates.
+     * This keeps the compiler free of shared mutable state, so independent
+     * functions can be compiled on different threads.
+     */
+    public void compileFunction(ListExpr defOrLambda, String className, List<GeneratedClass> output) {
+        boolean isLambda = Helpers.isSpecialForm(defOrLambda, Symbols.LAMBDA);
 
-    /* ---------- split out proto, params, body ---------- */
-    List<SymbolExpr> params = new ArrayList<>();
-    Expr             body;
-    String           funcName;
+        /* ---------- split out params and body ---------- */
+        List<SymbolExpr> params = new ArrayList<>();
+        Expr body;
+        if (isLambda) {
+            // (lambda (p1 p2 ...) body)
+            ListExpr paramList = (ListExpr) defOrLambda.get(1);
+            for (int i = 0; i < paramList.size(); i++) params.add((SymbolExpr) paramList.get(i));
+        } else {
+            // (def (name p1 p2 ...) body)
+            ListExpr proto = (ListExpr) defOrLambda.get(1);
+            for (int i = 1; i < proto.size(); i++) params.add((SymbolExpr) proto.get(i));
+        }
+        body = defOrLambda.get(2);
 
-    if (isLambda) {
-        // (lambda (p1 p2 ...) body)
-        ListExpr paramList = (ListExpr) defOrLambda.elements.get(1);
-        for (Expr p : paramList.elements) params.add((SymbolExpr) p);
-        body      = defOrLambda.elements.get(2);
-        funcName  = "_lambda_" + LispJitCompiler.DYNAMIC_CLASS_COUNTER.incrementAndGet();
-    } else {
-        // (def (name p1 p2 ...) body)   ← existing path
-        ListExpr proto = (ListExpr) defOrLambda.elements.get(1);
-        funcName = ((SymbolExpr) proto.elements.get(0)).name;
-        for (int i = 1; i < proto.elements.size(); i++)
-            params.add((SymbolExpr) proto.elements.get(i));
-        body = defOrLambda.elements.get(2);
-    }
-    String className = "io/github/jayhost/dynamic/Lambda_" + funcName + "_" +
-    LispJitCompiler.DYNAMIC_CLASS_COUNTER.incrementAndGet();
         // The scope for capture analysis contains ONLY the function's own parameters.
-        Set<String> analysisScope = new HashSet<>();
-        for (SymbolExpr p : params) analysisScope.add(p.name);
-        Set<String> captured = CaptureAnalyzer.findCapturedVars(body, analysisScope, compiler);
+        Set<Symbol> captured = CaptureAnalyzer.findCapturedVars(body, params, env);
 
         // The compilation context for the body has the parameters as its local variables.
-        CompilationContext ctx = new CompilationContext(className, parentClassName, new HashMap<>(), captured);
-        
+        CompilationContext ctx = new CompilationContext(className, env, captured, output);
+
         ctx.classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object",
                 new String[]{Type.getInternalName(LispCallable.class)});
-                // if (captured.isEmpty()) {
-                //     // Only add a no-arg constructor if BytecodeGenerator.createConstructor won't
-                //     MethodVisitor init = ctx.classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
-                //     init.visitCode();
-                //     init.visitVarInsn(ALOAD, 0);
-                //     init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-                //     init.visitInsn(RETURN);
-                //     init.visitMaxs(1, 1);
-                //     init.visitEnd();
-                // }
         BytecodeGenerator.addRuntimeHelpers(ctx.classWriter);
-        
+
         Map<String, Type> fields = new LinkedHashMap<>();
-        for (String v : captured) {
+        for (Symbol v : captured) {
             ctx.classWriter.visitField(
                     ACC_PRIVATE | ACC_FINAL,
-                    v,
+                    v.name,
                     "Ljava/lang/Object;",   // descriptor
                     null,
                     null).visitEnd();
-        
-            fields.put(v, Type.getType(Object.class));
+
+            fields.put(v.name, Type.getType(Object.class));
         }
         BytecodeGenerator.createConstructor(ctx.classWriter, className, fields);
 
         MethodVisitor mv = ctx.classWriter.visitMethod(ACC_PUBLIC, "apply", "([Ljava/lang/Object;)Ljava/lang/Object;", null, null);
         mv.visitCode();
+        FrameTracker frames = ctx.frames;
+        frames.begin(className, false);
+        if (compiler.hasSafepoints()) {
+            // Lisp loops by recursion, so a check on entry covers calls and loops alike.
+            mv.visitMethodInsn(INVOKESTATIC, "io/github/jayhost/ScriptBudget", "safepoint", "()V", false);
+            frames.invoke(INVOKESTATIC, "()V");
+        }
         ctx.nextVarIndex = 2;
         for (int i = 0; i < params.size(); i++) {
             mv.visitVarInsn(ALOAD, 1);
             mv.visitLdcInsn(i);
             mv.visitInsn(AALOAD);
+            frames.push("[Ljava/lang/Object;");
+            frames.push(INTEGER);
+            frames.replace(2, "java/lang/Object");
             int slot = ctx.nextVarIndex++;
             mv.visitVarInsn(ASTORE, slot);
-            ctx.localVars.put(params.get(i).name, slot);
+            frames.store(slot);
+            ctx.localVars.bind(params.get(i).symbol, slot);
         }
-        
+
         new ExpressionCompiler(compiler, ctx).compileExpression(body, mv);
         mv.visitInsn(ARETURN);
-        mv.visitMaxs(0, 0);
+        frames.visitMaxs(mv);
         mv.visitEnd();
-        ctx.classWriter.visitEnd();
-        return ctx.classWriter.toByteArray();
+        ctx.finishClass(null);
     }
 }
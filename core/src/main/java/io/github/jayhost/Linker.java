@@ -0,0 +1,94 @@
+// ========================================================================
+// io/github/jayhost/Linker.java
+//
+// Defines the classes of one compile and connects them to each other and
+// to their globals.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generated classes do not refer to one another by name (a hidden class
+ * cannot be found by name at all). Instead every class lists its
+ * {@link Link}s, and its static initializer asks for them with
+ * {@link #take(Class)}. The linker defines every class of a compile first,
+ * resolves the links, then initializes the classes in order, so each
+ * initializer finds its links waiting for it on the same thread.
+ */
+public final class Linker {
+    private static final ThreadLocal<Map<Class<?>, Object[]>> PENDING = new ThreadLocal<>();
+
+    private final ClassDefiner definer;
+    private final Environment env;
+
+    Linker(ClassDefiner definer, Environment env) {
+        this.definer = definer;
+        this.env = env;
+    }
+
+    /**
+     * Called from the static initializer of a generated class.
+     * @return The resolved links of {@code cls}, in the order it declared them.
+     */
+    public static Object[] take(Class<?> cls) {
+        Map<Class<?>, Object[]> pending = PENDING.get();
+        Object[] links = pending != null ? pending.remove(cls) : null;
+        if (links == null) {
+            throw new IllegalStateException(cls.getName() + " was initialized outside of its link phase");
+        }
+        return links;
+    }
+
+    /**
+     * Defines and initializes {@code unit}, whose last entry is the script
+     * class, and returns an instance of the script.
+     */
+    LispCallable link(List<GeneratedClass> unit) throws Exception {
+        Map<String, Class<?>> classes = new HashMap<>();
+        for (GeneratedClass c : unit) {
+            classes.put(c.name(), definer.define(c.name().replace('/', '.'), c.bytecode()));
+        }
+
+        Map<Class<?>, Object[]> pending = new HashMap<>();
+        for (GeneratedClass c : unit) {
+            if (c.links().isEmpty()) continue;
+            Object[] resolved = new Object[c.links().size()];
+            for (int i = 0; i < resolved.length; i++) {
+                Link link = c.links().get(i);
+                resolved[i] = link.global() != null
+                        ? env.cell(link.global())
+                        : factory(classes.get(link.className()), link.constructorDescriptor());
+            }
+            pending.put(classes.get(c.name()), resolved);
+        }
+
+        PENDING.set(pending);
+        try {
+            for (GeneratedClass c : unit) {
+                definer.initialize(classes.get(c.name()));
+            }
+        } finally {
+            PENDING.remove();
+        }
+
+        Class<?> script = classes.get(unit.get(unit.size() - 1).name());
+        MethodHandle newScript = factory(script, "()V");
+        try {
+            return (LispCallable) newScript.invokeExact();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private MethodHandle factory(Class<?> cls, String constructorDescriptor) throws ReflectiveOperationException {
+        MethodType type = MethodType.fromMethodDescriptorString(constructorDescriptor, Linker.class.getClassLoader());
+        return definer.constructor(cls, type).asType(type.changeReturnType(LispCallable.class));
+    }
+}
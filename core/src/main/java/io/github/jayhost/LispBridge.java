@@ -1,37 +1,173 @@
 // io/github/jayhost/LispBridge.java
 package io.github.jayhost;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
+/**
+ * What scripts call to change the scene. Calls only queue a command in
+ * {@link #commands()}; the render thread applies them when it drains the
+ * ring. A call returns false if the ring was full and the command was
+ * dropped; the script can try again next frame.
+ * <p>
+ * Bulk spawns go through an {@link EntityBatch} instead: the script fills
+ * one and submits it whole, and the render thread takes it from
+ * {@link #pollBatch()} after the single commands of the same frame.
+ * <p>
+ * A spawn returns the new entity's handle from {@link #entities()} at
+ * once, before the render thread has created anything, so the script can
+ * keep it and pass it to {@code rem}, {@code move} and {@code rotate}. Any
+ * number of entities can share a model. Those calls also still take a
+ * model path, which then acts on every entity of that model.
+ * <p>
+ * Models load in the background, so an entity appears some frames after
+ * its spawn, once its model is ready; moves and rotations sent in between
+ * apply to it when it does. {@link #loadStatus} tells a script where a
+ * model is: {@code :loading}, {@code :ready}, {@code :failed}, or
+ * {@code :none} if it is not loaded, either because nothing asked for it
+ * yet or because it was evicted from the cache after its last entity went.
+ * A spawn marks its model as loading as soon as it is queued; models of a
+ * batch are marked when the render thread takes the batch.
+ */
 public class LispBridge {
-    private static final ArrayList<SpawnRequest> spawnList = new ArrayList<>();
-    private static final ArrayList<String> removalList = new ArrayList<>();
-
-    // Enqueue with position
-    public static void addEntityAt(Object path, Object x, Object y, Object z) {
-        String strPath = (String) path;
-        double dx = ((Number) x).doubleValue();
-        double dy = ((Number) y).doubleValue();
-        double dz = ((Number) z).doubleValue();
-        spawnList.add(new SpawnRequest(strPath, (float) dx, (float) dy, (float) dz));
-    }
-    public static List<SpawnRequest> drainSpawns() {
-        synchronized(spawnList) {
-            List<SpawnRequest> copy = new ArrayList<>(spawnList);
-            spawnList.clear();
-            return copy;
-        }
+    private static final CommandRing commands = new CommandRing(4096);
+    private static final EntityRegistry entities = new EntityRegistry();
+    private static final ConcurrentLinkedQueue<EntityBatch> batches = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentHashMap<String, Keyword> loadStatus = new ConcurrentHashMap<>();
+
+    private static volatile Supplier<?> assetStats;
+    private static volatile Supplier<?> cullStats;
+    private static final Set<String> occluders = ConcurrentHashMap.newKeySet();
+
+    public static final Keyword NONE = Keyword.of("none");
+    public static final Keyword LOADING = Keyword.of("loading");
+    public static final Keyword READY = Keyword.of("ready");
+    public static final Keyword FAILED = Keyword.of("failed");
+
+    /** The commands scripts have queued, for the render thread to drain. */
+    public static CommandRing commands() {
+        return commands;
     }
 
-    public static void removeEntity(Object path) {
-        removalList.add((String) path);
+    /** Every entity in the game, by handle. Scripts reserve handles; the render thread owns the rest. */
+    public static EntityRegistry entities() {
+        return entities;
     }
-    public static List<String> drainRemovals() {
-        synchronized(removalList) {
-            List<String> copy = new ArrayList<>(removalList);
-            removalList.clear();
-            return copy;
+
+    /** Queues a spawn and returns the new entity's handle, or null if the ring was full. */
+    public static Object addEntityAt(Object path, Object x, Object y, Object z) {
+        // Arguments are converted first, so a bad one throws before a handle is taken.
+        String model = (String) path;
+        float fx = toFloat(x), fy = toFloat(y), fz = toFloat(z);
+        int entity = entities.reserve();
+        if (queued(path, commands.offer(CommandRing.SPAWN, entity, model, fx, fy, fz))) {
+            return (double) entity;
         }
+        entities.free(entity);
+        return null;
+    }
+
+    /** Starts loading the model at {@code path} so that a later spawn shows up at once. */
+    public static boolean preload(Object path) {
+        return queued(path, commands.offer(CommandRing.PRELOAD, 0, (String) path, 0, 0, 0));
+    }
+
+    private static boolean queued(Object path, boolean offered) {
+        // A ready model stays ready; anything else is about to be (re)loaded.
+        if (offered) loadStatus.merge((String) path, LOADING, (old, loading) -> old == READY ? old : loading);
+        return offered;
+    }
+
+    /** Removes the entity with handle {@code entity}, or every entity of the model if it is a path. */
+    public static boolean removeEntity(Object entity) {
+        return commands.offer(CommandRing.REMOVE, handle(entity), path(entity), 0, 0, 0);
+    }
+
+    public static boolean moveEntity(Object entity, Object x, Object y, Object z) {
+        return commands.offer(CommandRing.MOVE, handle(entity), path(entity), toFloat(x), toFloat(y), toFloat(z));
+    }
+
+    public static boolean rotateEntity(Object entity, Object yaw, Object pitch, Object roll) {
+        return commands.offer(CommandRing.ROTATE, handle(entity), path(entity), toFloat(yaw), toFloat(pitch), toFloat(roll));
+    }
+
+    private static int handle(Object entity) {
+        return entity instanceof Number n ? n.intValue() : 0;
+    }
+
+    private static String path(Object entity) {
+        return entity instanceof String s ? s : null;
+    }
+
+    public static Object newBatch() {
+        return EntityBatch.obtain();
+    }
+
+    public static Object batchAdd(Object batch, Object path, Object x, Object y, Object z) {
+        return ((EntityBatch) batch).add((String) path, toFloat(x), toFloat(y), toFloat(z));
+    }
+
+    /** Hands {@code batch} to the render thread; the script must not use it afterwards. */
+    public static Object submitBatch(Object batch) {
+        EntityBatch b = (EntityBatch) batch;
+        b.markSubmitted();
+        batches.add(b);
+        return null;
+    }
+
+    /** The next submitted batch, or null. The caller recycles it when done. */
+    public static EntityBatch pollBatch() {
+        return batches.poll();
+    }
+
+    public static Keyword loadStatus(Object path) {
+        return loadStatus.getOrDefault(path, NONE);
+    }
+
+    public static Boolean isLoaded(Object path) {
+        return loadStatus.get(path) == READY;
+    }
+
+    /** The model cache's counters, or null if the engine is not running. */
+    public static Object assetStats() {
+        Supplier<?> stats = assetStats;
+        return stats != null ? stats.get() : null;
+    }
+
+    /** Where {@link #assetStats()} reads from; set by the engine at startup. */
+    public static void setAssetStats(Supplier<?> stats) {
+        assetStats = stats;
+    }
+
+    /** Makes the model at {@code path} hide what is behind it from the renderer; see {@link OcclusionCuller}. */
+    public static Object markOccluder(Object path) {
+        occluders.add((String) path);
+        return path;
+    }
+
+    public static boolean isOccluder(String path) {
+        return occluders.contains(path);
+    }
+
+    /** The culling counters for the last frame, or null if the engine is not running. */
+    public static Object cullStats() {
+        Supplier<?> stats = cullStats;
+        return stats != null ? stats.get() : null;
+    }
+
+    /** Where {@link #cullStats()} reads from; set by the engine at startup. */
+    public static void setCullStats(Supplier<?> stats) {
+        cullStats = stats;
+    }
+
+    /** Publishes the progress of a model; called by the render thread as it loads. */
+    public static void setLoadStatus(String path, Keyword status) {
+        loadStatus.put(path, status);
+    }
+
+    private static float toFloat(Object n) {
+        return (float) ((Number) n).doubleValue();
     }
 }
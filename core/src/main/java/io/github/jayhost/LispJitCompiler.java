@@ -10,23 +10,39 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.objectweb.asm.Opcodes.*;
 
 public class LispJitCompiler {
     public static final AtomicLong DYNAMIC_CLASS_COUNTER = new AtomicLong();
-    private final DynamicClassLoader classLoader = new DynamicClassLoader();
+    private final Linker linker;
     private final Environment env; // <-- The shared environment
+    private volatile ForkJoinPool compilePool = ForkJoinPool.commonPool();
+    private volatile boolean safepoints;
 
     /**
      * Constructs a JIT compiler that will operate on a given environment.
      * @param env The shared environment for functions and variables.
      */
     public LispJitCompiler(Environment env) {
+        this(env, ClassDefiner.create());
+    }
+
+    /**
+     * Constructs a JIT compiler that defines its classes with {@code definer}.
+     * @param env The shared environment for functions and variables.
+     * @param definer Hidden classes or a private class loader; see {@link ClassDefiner#create()}.
+     */
+    public LispJitCompiler(Environment env, ClassDefiner definer) {
         this.env = env;
+        this.linker = new Linker(definer, env);
     }
 
     /**
@@ -38,63 +54,92 @@ public class LispJitCompiler {
     }
     
     /**
-     * Defines a class using the internal dynamic class loader. This provides
-     * controlled access without exposing the class loader itself.
-     * @param name The fully qualified name of the class to define.
-     * @param bytecode The class's raw bytecode.
-     * @return The newly loaded Class object.
+     * Sets the pool that independent top-level definitions are compiled on.
+     * Defaults to the common pool; {@code null} compiles on the calling thread.
+     * @param pool The pool to fork compilation tasks on, or null.
+     */
+    public void setCompilePool(ForkJoinPool pool) {
+        this.compilePool = pool;
+    }
+
+    public ForkJoinPool getCompilePool() {
+        return compilePool;
+    }
+
+    /**
+     * Makes functions compiled from now on check {@link ScriptBudget} on entry,
+     * so they can be run under a budget. Off by default; the check is a single
+     * field read while no budget is active.
      */
-    public Class<?> defineClass(String name, byte[] bytecode) {
-        return classLoader.defineClass(name, bytecode);
+    public void setSafepoints(boolean enabled) {
+        this.safepoints = enabled;
+    }
+
+    public boolean hasSafepoints() {
+        return safepoints;
     }
 
     public LispCallable compile(List<Expr> topLevelForms) throws Exception {
-        // NOTE: We NO LONGER clear the tables here. State is now persistent
-        // in the shared 'env' object.
+        // Expand macros first, so nothing after this point sees a macro call
+        // or a defmacro.
+        MacroExpander expander = new MacroExpander(env.snapshot());
+        List<Expr> forms = expander.expandAll(topLevelForms);
+        Map<Symbol, Macro> macros = expander.definedMacros();
+
+        // Pass 1: Discover top-level definitions and publish them to the shared
+        // environment in one step. The rest of the compile reads only the
+        // snapshot that contains them, whatever other threads define meanwhile.
+        Map<Symbol, FunctionSignature> functions = new LinkedHashMap<>();
+        List<Symbol> variables = new ArrayList<>();
+        for (Expr form : forms) {
+            if (Helpers.isSpecialForm(form, Symbols.DEF) || Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE)) {
+                ListExpr defList = (ListExpr) form;
+                ListExpr proto = (ListExpr) defList.get(1);
+                Symbol fname = ((SymbolExpr) proto.get(0)).symbol;
+                functions.put(fname, new FunctionSignature(fname.name, proto.size() - 1));
+            } else if (Helpers.isSpecialForm(form, Symbols.DEFVAR)) {
+                variables.add(((SymbolExpr) ((ListExpr) form).get(1)).symbol);
+            }
+        }
+        Environment.Snapshot snapshot = functions.isEmpty() && variables.isEmpty() && macros.isEmpty()
+                ? env.snapshot()
+                : env.define(functions, variables, macros);
 
         String mainClassName = "io/github/jayhost/dynamic/LispScript" + DYNAMIC_CLASS_COUNTER.incrementAndGet();
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        CompilationContext mainCtx = new CompilationContext(mainClassName, snapshot, null, new ArrayList<>());
+        ClassWriter cw = mainCtx.classWriter;
         cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, mainClassName, null, "java/lang/Object",
                 new String[]{Type.getInternalName(LispCallable.class)});
         BytecodeGenerator.addRuntimeHelpers(cw);
         BytecodeGenerator.createConstructor(cw, mainClassName, Collections.emptyMap());
-        
-        // Pass 1: Discover top-level definitions and add them to the shared environment
-        for (Expr form : topLevelForms) {
-            if (Helpers.isSpecialForm(form, "def")) {
-                ListExpr defList = (ListExpr) form;
-                ListExpr proto = (ListExpr) defList.elements.get(1);
-                String fname = ((SymbolExpr) proto.elements.get(0)).name;
-                // Add to the shared environment's function table
-                env.functionTable.put(fname, new FunctionSignature(fname, proto.elements.size() - 1));
-            } else if (Helpers.isSpecialForm(form, "defvar")) {
-                String varName = ((SymbolExpr) ((ListExpr) form).elements.get(1)).name;
-                // Add to the shared environment's variable table
-                env.globalVarTable.put(varName, Type.getType(Object.class));
-            }
-        }
 
         // Pass 2: Compile
-        TopLevelCompiler topLevelCompiler = new TopLevelCompiler(this, cw, mainClassName);
-        Expr lastExpr = topLevelCompiler.compileTopLevelForms(topLevelForms);
+        TopLevelCompiler topLevelCompiler = new TopLevelCompiler(this, mainCtx);
+        List<Expr> expressions = topLevelCompiler.compileTopLevelForms(forms);
 
-        // Compile the main `apply` method to execute the last expression
+        // Compile the main `apply` method to run every expression in order and
+        // return the value of the last one
         MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "apply", "([Ljava/lang/Object;)Ljava/lang/Object;", null, null);
         mv.visitCode();
-        if (lastExpr != null) {
-            CompilationContext mainCtx = new CompilationContext(mainClassName, null, Collections.emptyMap(), Collections.emptySet());
+        FrameTracker frames = mainCtx.frames;
+        frames.begin(mainClassName, false);
+        if (!expressions.isEmpty()) {
+            mainCtx.nextVarIndex = 2;
             ExpressionCompiler exprCompiler = new ExpressionCompiler(this, mainCtx);
-            exprCompiler.compileExpression(lastExpr, mv);
+            for (int i = 0; i < expressions.size(); i++) {
+                exprCompiler.compileExpression(expressions.get(i), mv);
+                if (i < expressions.size() - 1) { mv.visitInsn(POP); frames.pop(1); }
+            }
         } else {
             mv.visitInsn(ACONST_NULL);
+            frames.push(NULL);
         }
         mv.visitInsn(ARETURN);
-        mv.visitMaxs(0, 0); // COMPUTE_MAXS will calculate this
+        frames.visitMaxs(mv);
         mv.visitEnd();
-        cw.visitEnd();
 
-        byte[] bytecode = cw.toByteArray();
-        Class<?> clazz = defineClass(mainClassName.replace('/', '.'), bytecode);
-        return (LispCallable) clazz.getDeclaredConstructor().newInstance();
+        // The script class goes last: it is initialized after everything it uses.
+        mainCtx.finishClass(topLevelCompiler.hasInitializer() ? TopLevelCompiler.INIT_METHOD : null);
+        return linker.link(mainCtx.output);
     }
 }
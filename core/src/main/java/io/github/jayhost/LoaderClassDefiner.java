@@ -0,0 +1,34 @@
+// ========================================================================
+// io/github/jayhost/LoaderClassDefiner.java
+//
+// Defines generated classes as ordinary named classes in a private loader.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The original strategy, kept for JVMs without hidden classes. Classes are
+ * entered in the loader's name table and can only be unloaded together, once
+ * the loader itself is unreachable.
+ */
+public class LoaderClassDefiner implements ClassDefiner {
+    private final DynamicClassLoader classLoader = new DynamicClassLoader();
+
+    @Override
+    public Class<?> define(String name, byte[] bytecode) {
+        return classLoader.defineClass(name, bytecode);
+    }
+
+    @Override
+    public void initialize(Class<?> cls) throws ClassNotFoundException {
+        Class.forName(cls.getName(), true, classLoader);
+    }
+
+    @Override
+    public MethodHandle constructor(Class<?> cls, MethodType type) throws ReflectiveOperationException {
+        return MethodHandles.publicLookup().findConstructor(cls, type);
+    }
+}
@@ -0,0 +1,183 @@
+// ========================================================================
+// io/github/jayhost/LodBenchmark.java
+//
+// Builds levels of detail for a finely tessellated sphere, with a UV seam
+// like a glTF export has, checks them, times the disk cache against
+// building them again, and shows which level each distance picks.
+// ========================================================================
+package io.github.jayhost;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class LodBenchmark {
+
+    private static final int SEGMENTS = 256, RINGS = 128;
+    /** Position, normal and UV, as gdx-gltf lays out a textured mesh. */
+    private static final int STRIDE = 8;
+
+    public static void main(String[] args) throws Exception {
+        float[] vertices = sphereVertices();
+        int[] indices = sphereIndices();
+        int[] partOffsets = {0};
+        int[] partCounts = {indices.length};
+        int vertexCount = vertices.length / STRIDE;
+
+        System.out.println("\n--- LOD Benchmark ---");
+        System.out.println("sphere: " + vertexCount + " vertices, " + indices.length / 3 + " triangles");
+        System.out.println("=====================================");
+        MeshLod[] lods = new MeshLod[1];
+        int[] built = null;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            built = MeshLod.build(vertices, STRIDE, 0, indices, partOffsets, partCounts, MeshLod.DEFAULT_RATIOS, lods);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("simplify: %.1f ms%n", best / 1e6);
+        MeshLod lod = lods[0];
+        for (int level = 0; level < lod.levels(); level++) {
+            int[] triangles = Arrays.copyOfRange(built, lod.offset(level), lod.offset(level) + lod.count(level));
+            System.out.printf("level %d: %6d triangles, error %.5f, furthest from the sphere %.5f, %s%n",
+                    level, triangles.length / 3, lod.error(level), deviation(vertices, triangles),
+                    check(vertices, triangles, vertexCount));
+        }
+
+        Path directory = Files.createTempDirectory("lod-cache");
+        try {
+            LodCache cache = new LodCache(directory);
+            String key = LodCache.key(vertices, STRIDE, 0, indices, partOffsets, partCounts, MeshLod.DEFAULT_RATIOS);
+            cache.store(key, indices.length, built, lods);
+            MeshLod[] cached = new MeshLod[1];
+            int[] loaded = null;
+            best = Long.MAX_VALUE;
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                key = LodCache.key(vertices, STRIDE, 0, indices, partOffsets, partCounts, MeshLod.DEFAULT_RATIOS);
+                loaded = cache.load(key, indices, vertexCount, cached);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            boolean same = Arrays.equals(loaded, built) && cached[0].levels() == lod.levels();
+            for (int level = 0; same && level < lod.levels(); level++) {
+                same = cached[0].offset(level) == lod.offset(level) && cached[0].count(level) == lod.count(level)
+                        && cached[0].error(level) == lod.error(level);
+            }
+            System.out.printf("cache: hashed and read back in %.1f ms, identical: %b%n", best / 1e6, same);
+            float[] moved = vertices.clone();
+            moved[0] += 0.001f;
+            System.out.println("cache: a moved vertex misses: "
+                    + (cache.load(LodCache.key(moved, STRIDE, 0, indices, partOffsets, partCounts,
+                    MeshLod.DEFAULT_RATIOS), indices, vertexCount, new MeshLod[1]) == null));
+            // A damaged header or index must read as a miss, not fail the load.
+            Path file = directory.resolve(key + ".lod");
+            byte[] good = Files.readAllBytes(file);
+            boolean missed = true;
+            for (int[] damage : new int[][]{{8, -5}, {8, Integer.MAX_VALUE}, {12, vertexCount}}) {
+                byte[] bad = good.clone();
+                ByteBuffer.wrap(bad).putInt(damage[0], damage[1]);
+                Files.write(file, bad);
+                missed &= cache.load(key, indices, vertexCount, new MeshLod[1]) == null;
+            }
+            System.out.println("cache: damaged files miss: " + missed);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        // A unit sphere on a 1080-pixel-high screen with a 67 degree field of view.
+        StringBuilder picks = new StringBuilder("level by distance:");
+        for (float distance : new float[]{1, 2, 5, 10, 20, 50, 100, 200}) {
+            int level = lod.select(MeshLod.pixelsPerUnit(distance, 1, 67, 1080), 1);
+            picks.append(String.format(" %.0fm:%d", distance, level));
+        }
+        System.out.println(picks);
+        System.out.println("=====================================");
+    }
+
+    /** A unit sphere with a duplicated column of vertices where the UVs wrap. */
+    private static float[] sphereVertices() {
+        float[] vertices = new float[(SEGMENTS + 1) * (RINGS + 1) * STRIDE];
+        int o = 0;
+        for (int ring = 0; ring <= RINGS; ring++) {
+            double theta = Math.PI * ring / RINGS;
+            for (int segment = 0; segment <= SEGMENTS; segment++) {
+                double phi = 2 * Math.PI * (segment % SEGMENTS) / SEGMENTS;
+                float x = (float) (Math.sin(theta) * Math.cos(phi));
+                float y = (float) Math.cos(theta);
+                float z = (float) (Math.sin(theta) * Math.sin(phi));
+                vertices[o++] = x;
+                vertices[o++] = y;
+                vertices[o++] = z;
+                vertices[o++] = x;
+                vertices[o++] = y;
+                vertices[o++] = z;
+                vertices[o++] = (float) segment / SEGMENTS;
+                vertices[o++] = (float) ring / RINGS;
+            }
+        }
+        return vertices;
+    }
+
+    private static int[] sphereIndices() {
+        int[] indices = new int[SEGMENTS * RINGS * 6];
+        int o = 0;
+        for (int ring = 0; ring < RINGS; ring++) {
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                int a = ring * (SEGMENTS + 1) + segment, b = a + SEGMENTS + 1;
+                // Wound so that the normals face outwards.
+                indices[o++] = a;
+                indices[o++] = a + 1;
+                indices[o++] = b;
+                indices[o++] = a + 1;
+                indices[o++] = b + 1;
+                indices[o++] = b;
+            }
+        }
+        return indices;
+    }
+
+    /** How far the corners and centroids of the triangles are from the unit sphere. */
+    private static double deviation(float[] vertices, int[] triangles) {
+        double worst = 0;
+        for (int t = 0; t < triangles.length; t += 3) {
+            double cx = 0, cy = 0, cz = 0;
+            for (int k = 0; k < 3; k++) {
+                int p = triangles[t + k] * STRIDE;
+                cx += vertices[p] / 3;
+                cy += vertices[p + 1] / 3;
+                cz += vertices[p + 2] / 3;
+                double r = Math.sqrt(vertices[p] * vertices[p] + vertices[p + 1] * vertices[p + 1] + vertices[p + 2] * vertices[p + 2]);
+                worst = Math.max(worst, Math.abs(1 - r));
+            }
+            worst = Math.max(worst, Math.abs(1 - Math.sqrt(cx * cx + cy * cy + cz * cz)));
+        }
+        return worst;
+    }
+
+    /** Checks that every index is in range and no triangle is degenerate or faces inwards. */
+    private static String check(float[] vertices, int[] triangles, int vertexCount) {
+        int degenerate = 0, inwards = 0;
+        for (int t = 0; t < triangles.length; t += 3) {
+            int a = triangles[t], b = triangles[t + 1], c = triangles[t + 2];
+            if (a < 0 || b < 0 || c < 0 || a >= vertexCount || b >= vertexCount || c >= vertexCount) return "index out of range";
+            if (a == b || b == c || a == c) {
+                degenerate++;
+                continue;
+            }
+            int pa = a * STRIDE, pb = b * STRIDE, pc = c * STRIDE;
+            double ux = vertices[pb] - vertices[pa], uy = vertices[pb + 1] - vertices[pa + 1], uz = vertices[pb + 2] - vertices[pa + 2];
+            double vx = vertices[pc] - vertices[pa], vy = vertices[pc + 1] - vertices[pa + 1], vz = vertices[pc + 2] - vertices[pa + 2];
+            double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+            double outwards = nx * (vertices[pa] + vertices[pb] + vertices[pc])
+                    + ny * (vertices[pa + 1] + vertices[pb + 1] + vertices[pc + 1])
+                    + nz * (vertices[pa + 2] + vertices[pb + 2] + vertices[pc + 2]);
+            if (outwards < 0) inwards++;
+        }
+        return degenerate + " degenerate, " + inwards + " facing inwards";
+    }
+}
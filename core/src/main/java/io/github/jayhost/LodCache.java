@@ -0,0 +1,161 @@
+// ========================================================================
+// io/github/jayhost/LodCache.java
+//
+// Keeps the levels of detail built for a mesh in a file named after the
+// mesh's contents, so a model is only simplified the first time it loads.
+// ========================================================================
+package io.github.jayhost;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * One file per mesh, named by a SHA-1 of everything the levels depend on:
+ * the vertices, the indices, the parts, the level ratios and the format
+ * version. A changed model or setting therefore misses the cache instead
+ * of reading levels that no longer fit, and files nobody asks for again
+ * are just left behind.
+ * <p>
+ * A file holds the indices the levels added after the mesh's own, and the
+ * offset, count and error of every level of every part. Files are written
+ * to a temporary name and moved into place, so a reader never sees half of
+ * one. Safe to use from several threads.
+ */
+public final class LodCache {
+    private static final int MAGIC = 0x4C4F4431; // "LOD1"
+    private static final int VERSION = 1;
+
+    private final Path directory;
+
+    public LodCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /** The name the levels of this mesh are cached under. */
+    public static String key(float[] vertices, int stride, int positionOffset, int[] indices,
+                             int[] partOffsets, int[] partCounts, float[] ratios) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        putInts(digest, buffer, new int[]{VERSION, stride, positionOffset, vertices.length, indices.length});
+        for (int i = 0; i < vertices.length; i++) {
+            if (!buffer.hasRemaining()) flush(digest, buffer);
+            buffer.putInt(Float.floatToIntBits(vertices[i]));
+        }
+        putInts(digest, buffer, indices);
+        putInts(digest, buffer, partOffsets);
+        putInts(digest, buffer, partCounts);
+        for (float ratio : ratios) {
+            if (!buffer.hasRemaining()) flush(digest, buffer);
+            buffer.putInt(Float.floatToIntBits(ratio));
+        }
+        flush(digest, buffer);
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) name.append(String.format("%02x", b));
+        return name.toString();
+    }
+
+    private static void putInts(MessageDigest digest, ByteBuffer buffer, int[] values) {
+        for (int value : values) {
+            if (!buffer.hasRemaining()) flush(digest, buffer);
+            buffer.putInt(value);
+        }
+    }
+
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Reads the levels cached under {@code key}. Every count in the file is
+     * checked against the file's size and every index against
+     * {@code vertexCount}, so a damaged or foreign file reads as a miss and
+     * is overwritten once the levels are built again.
+     * @param indices The mesh's own indices, which the cached ones follow.
+     * @param vertexCount How many vertices the indices may refer to.
+     * @param lods Receives the levels of each part.
+     * @return {@code indices} with the levels' indices appended, or null if
+     *         nothing usable is cached.
+     */
+    public int[] load(String key, int[] indices, int vertexCount, MeshLod[] lods) {
+        Path file = directory.resolve(key + ".lod");
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            // No count can describe more ints than the file holds.
+            long ints = Files.size(file) / 4;
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            int added = in.readInt();
+            if (added < 0 || added > ints) return null;
+            int[] out = Arrays.copyOf(indices, indices.length + added);
+            for (int i = indices.length; i < out.length; i++) {
+                int index = in.readInt();
+                if (index < 0 || index >= vertexCount) return null;
+                out[i] = index;
+            }
+            if (in.readInt() != lods.length) return null;
+            for (int part = 0; part < lods.length; part++) {
+                int levels = in.readInt();
+                if (levels < 1 || levels > ints) return null;
+                int[] offsets = new int[levels], counts = new int[levels];
+                float[] errors = new float[levels];
+                for (int level = 0; level < levels; level++) {
+                    offsets[level] = in.readInt();
+                    counts[level] = in.readInt();
+                    errors[level] = in.readFloat();
+                    if (offsets[level] < 0 || counts[level] < 0 || offsets[level] + counts[level] > out.length) return null;
+                }
+                lods[part] = new MeshLod(offsets, counts, errors);
+            }
+            return out;
+        } catch (IOException e) {
+            // Truncated or unreadable: build the levels again and overwrite it.
+            return null;
+        }
+    }
+
+    /**
+     * Writes the levels of a mesh under {@code key}.
+     * @param originalLength How many of {@code indices} are the mesh's own.
+     */
+    public void store(String key, int originalLength, int[] indices, MeshLod[] lods) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(key + ".lod");
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(indices.length - originalLength);
+                for (int i = originalLength; i < indices.length; i++) out.writeInt(indices[i]);
+                out.writeInt(lods.length);
+                for (MeshLod lod : lods) {
+                    out.writeInt(lod.levels());
+                    for (int level = 0; level < lod.levels(); level++) {
+                        out.writeInt(lod.offsets[level]);
+                        out.writeInt(lod.counts[level]);
+                        out.writeFloat(lod.errors[level]);
+                    }
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
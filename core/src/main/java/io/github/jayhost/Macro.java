@@ -0,0 +1,150 @@
+// ========================================================================
+// io/github/jayhost/Macro.java
+//
+// A compile-time macro defined with defmacro, and its expansion cache.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * {@code (defmacro (name params... [&rest more]) body)} rewrites a call
+ * {@code (name args...)} into the form its body evaluates to, with each
+ * parameter bound to the unevaluated argument. Expansion happens before
+ * code generation, so a macro leaves nothing behind in the bytecode.
+ * <p>
+ * The body is evaluated by the expander, not compiled: it is a template,
+ * usually a quasiquote, built from its parameters with {@code quote},
+ * {@code quasiquote}, {@code unquote} and {@code unquote-splicing}.
+ * <p>
+ * ASTs are immutable, so an expansion depends only on the call node. It is
+ * cached against that node, weakly so that dropping a script drops its
+ * entries, and recompiling retained forms does not expand them again.
+ * Redefining a macro creates a new {@code Macro} and with it a fresh cache.
+ */
+final class Macro {
+    static final Symbol REST = SymbolTable.GLOBAL.intern("&rest");
+
+    final Symbol name;
+    private final Symbol[] params;
+    /** Parameter bound to the remaining arguments as a list, or null. */
+    private final Symbol rest;
+    private final Expr body;
+    private final Map<ListExpr, Expr> expansions = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private Macro(Symbol name, Symbol[] params, Symbol rest, Expr body) {
+        this.name = name;
+        this.params = params;
+        this.rest = rest;
+        this.body = body;
+    }
+
+    /** Builds a macro from a {@code defmacro} form. */
+    static Macro parse(ListExpr form) {
+        if (form.size() != 3 || !(form.get(1) instanceof ListExpr proto) || proto.isEmpty()
+                || !(proto.get(0) instanceof SymbolExpr nameExpr)) {
+            throw new IllegalArgumentException(
+                    "Expected (defmacro (name params...) body) on line " + form.line());
+        }
+        List<Symbol> params = new ArrayList<>();
+        Symbol rest = null;
+        for (int i = 1; i < proto.size(); i++) {
+            if (!(proto.get(i) instanceof SymbolExpr p)) {
+                throw new IllegalArgumentException("Macro parameter must be a symbol: " + nameExpr.name());
+            }
+            if (p.symbol == REST) {
+                if (i != proto.size() - 2 || !(proto.get(i + 1) instanceof SymbolExpr r)) {
+                    throw new IllegalArgumentException("&rest must be followed by one parameter: " + nameExpr.name());
+                }
+                rest = r.symbol;
+                break;
+            }
+            params.add(p.symbol);
+        }
+        return new Macro(nameExpr.symbol, params.toArray(new Symbol[0]), rest, form.get(2));
+    }
+
+    /** Returns the form {@code call} expands to. The result may contain further macro calls. */
+    Expr expand(ListExpr call) {
+        Expr cached = expansions.get(call);
+        if (cached != null) return cached;
+
+        int argc = call.size() - 1;
+        if (rest == null ? argc != params.length : argc < params.length) {
+            throw new IllegalArgumentException("Macro " + name + " expects " + params.length
+                    + (rest == null ? "" : " or more") + " arguments, got " + argc + " on line " + call.line());
+        }
+        Map<Symbol, Expr> bindings = new IdentityHashMap<>();
+        for (int i = 0; i < params.length; i++) bindings.put(params[i], call.get(i + 1));
+        if (rest != null) {
+            Expr[] more = new Expr[argc - params.length];
+            for (int i = 0; i < more.length; i++) more[i] = call.get(params.length + 1 + i);
+            bindings.put(rest, new ListExpr(more, call.pos()));
+        }
+
+        Expr expansion = eval(body, bindings);
+        // Report errors in the expansion at the call, not in the macro definition.
+        if (expansion instanceof ListExpr list && list != call) {
+            expansion = new ListExpr(list.elements(), call.pos());
+        }
+        expansions.put(call, expansion);
+        return expansion;
+    }
+
+    private Expr eval(Expr expr, Map<Symbol, Expr> bindings) {
+        if (expr instanceof SymbolExpr sym) {
+            Expr value = bindings.get(sym.symbol);
+            if (value == null) {
+                throw new IllegalArgumentException("Macro " + name + ": '" + sym.name()
+                        + "' is not a parameter; wrap literal code in a quasiquote");
+            }
+            return value;
+        }
+        if (!(expr instanceof ListExpr list)) return expr; // numbers, strings and keywords
+        if (Helpers.isSpecialForm(list, Symbols.QUOTE) && list.size() == 2) return list.get(1);
+        if (Helpers.isSpecialForm(list, Symbols.QUASIQUOTE) && list.size() == 2) {
+            return template(list.get(1), 1, bindings);
+        }
+        throw new IllegalArgumentException("Macro " + name + ": the body must be a parameter,"
+                + " a quote or a quasiquote, on line " + list.line());
+    }
+
+    /** Fills in a quasiquote template; {@code depth} counts the enclosing quasiquotes. */
+    private Expr template(Expr expr, int depth, Map<Symbol, Expr> bindings) {
+        if (!(expr instanceof ListExpr list) || list.isEmpty()) return expr;
+        if (Helpers.isSpecialForm(list, Symbols.UNQUOTE) && list.size() == 2) {
+            if (depth == 1) return eval(list.get(1), bindings);
+            return rebuild(list, depth - 1, bindings);
+        }
+        if (Helpers.isSpecialForm(list, Symbols.QUASIQUOTE)) {
+            return rebuild(list, depth + 1, bindings);
+        }
+        return rebuild(list, depth, bindings);
+    }
+
+    private Expr rebuild(ListExpr list, int depth, Map<Symbol, Expr> bindings) {
+        List<Expr> items = new ArrayList<>(list.size());
+        boolean changed = false;
+        for (Expr item : list.elements()) {
+            if (depth == 1 && Helpers.isSpecialForm(item, Symbols.UNQUOTE_SPLICING)
+                    && ((ListExpr) item).size() == 2) {
+                Expr spliced = eval(((ListExpr) item).get(1), bindings);
+                if (!(spliced instanceof ListExpr elements)) {
+                    throw new IllegalArgumentException("Macro " + name + ": ,@ needs a list, got " + spliced);
+                }
+                items.addAll(elements.elements());
+                changed = true;
+            } else {
+                Expr filled = template(item, depth, bindings);
+                items.add(filled);
+                changed |= filled != item;
+            }
+        }
+        return changed ? new ListExpr(items, list.pos()) : list;
+    }
+}
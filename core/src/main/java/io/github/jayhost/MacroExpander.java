@@ -0,0 +1,168 @@
+// ========================================================================
+// io/github/jayhost/MacroExpander.java
+//
+// Rewrites a batch of top-level forms until no macro calls are left, so
+// the compilers after it only ever see core forms.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expands the macros of one compile. Macros come from the environment the
+ * compile started from and from {@code defmacro} forms earlier in the same
+ * batch, which are collected here and removed from the output. A macro is
+ * only expanded in call position and only where its name is not bound by an
+ * enclosing parameter list or {@code let}. Forms without macro calls come
+ * back as the same instances. Quasiquote and unquote have no meaning
+ * outside a {@code defmacro} template, and are rejected here rather than
+ * left to fail as unresolved symbols.
+ */
+final class MacroExpander {
+    private final Environment.Snapshot env;
+    /** Macros and plain definitions of this batch, in order; a null value hides a macro. */
+    private final Map<Symbol, Macro> batch = new HashMap<>();
+    private final Map<Symbol, Macro> defined = new LinkedHashMap<>();
+
+    MacroExpander(Environment.Snapshot env) {
+        this.env = env;
+    }
+
+    /**
+     * Expands {@code forms} in order; a {@code defmacro} applies to the forms
+     * after it.
+     * @return The forms to compile, without the {@code defmacro}s.
+     */
+    List<Expr> expandAll(List<Expr> forms) {
+        List<Expr> out = new ArrayList<>(forms.size());
+        for (Expr form : forms) {
+            if (Helpers.isSpecialForm(form, Symbols.DEFMACRO)) {
+                Macro macro = Macro.parse((ListExpr) form);
+                batch.put(macro.name, macro);
+                defined.put(macro.name, macro);
+                continue;
+            }
+            Expr expanded = expand(form, Set.of());
+            // A def of the same name replaces the macro for the rest of the batch.
+            Symbol definedName = definedName(expanded);
+            if (definedName != null && batch.containsKey(definedName)) {
+                batch.put(definedName, null);
+                defined.remove(definedName);
+            } else if (definedName != null && env.macro(definedName) != null) {
+                batch.put(definedName, null);
+            }
+            out.add(expanded);
+        }
+        return out;
+    }
+
+    /** The macros defined by the batch, to publish with its other definitions. */
+    Map<Symbol, Macro> definedMacros() {
+        return defined;
+    }
+
+    private Macro lookup(Symbol name) {
+        return batch.containsKey(name) ? batch.get(name) : env.macro(name);
+    }
+
+    private Expr expand(Expr expr, Set<Symbol> locals) {
+        if (!(expr instanceof ListExpr list) || list.isEmpty()) return expr;
+        if (list.get(0) instanceof SymbolExpr head) {
+            Macro macro = locals.contains(head.symbol) ? null : lookup(head.symbol);
+            if (macro != null) return expand(macro.expand(list), locals);
+            switch (head.symbol.id) {
+                case Symbols.QUOTE:
+                    return list;
+                case Symbols.DEFMACRO:
+                    // A template a macro produces is filled in when that macro is defined.
+                    return list;
+                case Symbols.QUASIQUOTE:
+                case Symbols.UNQUOTE:
+                case Symbols.UNQUOTE_SPLICING:
+                    throw new IllegalArgumentException(head.symbol.name
+                            + " is only supported in defmacro templates, on line " + list.line());
+                case Symbols.DEF:
+                case Symbols.DEFCOROUTINE:
+                case Symbols.LAMBDA: {
+                    // (def (name params...) body...) and (lambda (params...) body...)
+                    if (list.size() < 2 || !(list.get(1) instanceof ListExpr params)) break;
+                    Set<Symbol> inner = locals;
+                    for (int i = head.symbol.id == Symbols.LAMBDA ? 0 : 1; i < params.size(); i++) {
+                        inner = bind(inner, params.get(i));
+                    }
+                    return expandFrom(list, 2, inner);
+                }
+                case Symbols.DEFVAR:
+                    return expandFrom(list, 2, locals);
+                case Symbols.LET:
+                    return expandLet(list, locals);
+                default:
+                    break;
+            }
+        }
+        return expandFrom(list, 0, locals);
+    }
+
+    /** (let (name value ...) body...): each value sees the names bound before it. */
+    private Expr expandLet(ListExpr let, Set<Symbol> locals) {
+        if (let.size() < 2 || !(let.get(1) instanceof ListExpr bindings)) return expandFrom(let, 0, locals);
+        Expr[] newBindings = null;
+        Set<Symbol> inner = locals;
+        for (int i = 0; i < bindings.size(); i++) {
+            Expr item = bindings.get(i);
+            Expr expanded = item;
+            if (i % 2 == 0) {
+                inner = bind(inner, item);
+            } else {
+                expanded = expand(item, inner);
+            }
+            if (expanded != item && newBindings == null) newBindings = toArray(bindings);
+            if (newBindings != null) newBindings[i] = expanded;
+        }
+        Expr rebuilt = expandFrom(let, 2, inner);
+        if (newBindings == null) return rebuilt;
+        Expr[] items = toArray((ListExpr) rebuilt);
+        items[1] = new ListExpr(newBindings, bindings.pos());
+        return new ListExpr(items, let.pos());
+    }
+
+    /** Expands the elements of {@code list} from index {@code from} on. */
+    private Expr expandFrom(ListExpr list, int from, Set<Symbol> locals) {
+        Expr[] items = null;
+        for (int i = from; i < list.size(); i++) {
+            Expr item = list.get(i);
+            Expr expanded = expand(item, locals);
+            if (expanded != item && items == null) items = toArray(list);
+            if (items != null) items[i] = expanded;
+        }
+        return items == null ? list : new ListExpr(items, list.pos());
+    }
+
+    /** Adds a local to the scope, but only if it hides a macro; other names need no tracking. */
+    private Set<Symbol> bind(Set<Symbol> locals, Expr param) {
+        if (!(param instanceof SymbolExpr sym) || lookup(sym.symbol) == null) return locals;
+        Set<Symbol> inner = new HashSet<>(locals);
+        inner.add(sym.symbol);
+        return inner;
+    }
+
+    private static Expr[] toArray(ListExpr list) {
+        return list.elements().toArray(new Expr[0]);
+    }
+
+    private static Symbol definedName(Expr form) {
+        if (Helpers.isSpecialForm(form, Symbols.DEF) || Helpers.isSpecialForm(form, Symbols.DEFVAR)
+                || Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE)) {
+            Expr target = ((ListExpr) form).get(1);
+            if (target instanceof ListExpr proto && !proto.isEmpty()) target = proto.get(0);
+            if (target instanceof SymbolExpr sym) return sym.symbol;
+        }
+        return null;
+    }
+}
@@ -14,8 +14,18 @@ import com.badlogic.gdx.graphics.g3d.shaders.DepthShader;
 import com.badlogic.gdx.graphics.g3d.utils.DepthShaderProvider;
 import com.badlogic.gdx.graphics.glutils.FrameBuffer;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Plane;
 import com.badlogic.gdx.math.Vector3;
-import net.mgsx.gltf.loaders.gltf.GLTFLoader;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.graphics.g3d.ModelInstance;
+import com.badlogic.gdx.graphics.g3d.RenderableProvider;
+import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.model.Node;
+import com.badlogic.gdx.graphics.g3d.model.NodePart;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
 import net.mgsx.gltf.scene3d.attributes.PBRCubemapAttribute;
 import net.mgsx.gltf.scene3d.attributes.PBRFloatAttribute;
 import net.mgsx.gltf.scene3d.attributes.PBRTextureAttribute;
@@ -26,6 +36,9 @@ import net.mgsx.gltf.scene3d.scene.SceneManager;
 import net.mgsx.gltf.scene3d.scene.SceneSkybox;
 import net.mgsx.gltf.scene3d.shaders.PBRShaderProvider;
 import net.mgsx.gltf.scene3d.utils.EnvironmentUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 
 public class Main extends ApplicationAdapter {
@@ -34,12 +47,47 @@ public class Main extends ApplicationAdapter {
     private InputAdapter cameraController;
     private ReplSession interpreter;
     private Thread lispThread;
+    private ScriptReloader scriptReloader;
+    // Created once, so draining the command ring each frame allocates nothing.
+    private final CommandRing.Handler commandHandler = this::applyCommand;
+    // Every entity, by handle. An entity's value is its Scene, or null until its model has
+    // loaded; each entity holds a reference to its model.
+    private final EntityRegistry entities = LispBridge.entities();
+    // Entity transforms live here; changed world matrices are copied into scenes once a frame.
+    private final TransformSystem transforms = new TransformSystem();
+    private final TransformSystem.Sink transformSink = this::copyTransform;
+    private SceneLoader sceneLoader;
+    // World bounds of every placed world entity; only what is in the frustum is handed to the
+    // managers. The viewmodel is always drawn and stays out.
+    private final BoundsTree bounds = new BoundsTree();
+    // Model-space bounds by path id, measured once per model.
+    private final IntMap<BoundingBox> localBounds = new IntMap<>();
+    private final float[] frustumPlanes = new float[24];
+    // Models marked with (occluder path) are drawn into a small CPU depth buffer; whatever is
+    // entirely behind them is left out as well.
+    private final OcclusionCuller occlusion = new OcclusionCuller(320, 180);
+    // Occluder triangles by path id, taken from the model once.
+    private final IntMap<OcclusionCuller.Mesh> occluderMeshes = new IntMap<>();
+    // The occluder of each entity in bounds.visible() this frame, by position, or null; filled once per cull.
+    private OcclusionCuller.Mesh[] visibleOccluders = new OcclusionCuller.Mesh[64];
+    private final float[] box = new float[6];
+    // Every model's meshes get levels of detail when they load, cached on disk; each frame a
+    // level is picked per scene so its error stays under a pixel.
+    private final MeshPipeline meshPipeline = new MeshPipeline(new LodCache(Paths.get("cache", "lod")), MeshLod.DEFAULT_RATIOS);
+    private final IntMap<MeshPipeline.SceneLods> sceneLods = new IntMap<>();
+    private static final float MAX_LOD_ERROR_PIXELS = 1f;
+    private int drawnTriangles, fullTriangles;
+    // Handles of the entities waiting for each model that is still loading.
+    private final HashMap<String, IntArray> waitingForModel = new HashMap<>();
     
     // Managers and scene trackers
-    private SceneManager outlinedObjectManager, backgroundManager, viewmodelManager;
-    private HashMap<String, Scene> outlinedScenes = new HashMap<>();
-    private HashMap<String, Scene> backgroundScenes = new HashMap<>();
+    // The world managers draw only what cull() leaves them, but update and cast shadows from every scene.
+    private CulledSceneManager outlinedObjectManager, backgroundManager;
+    private SceneManager viewmodelManager;
+    // Which scene manager an entity is drawn by, decided from its path when it spawns.
+    private static final int LAYER_OUTLINED = 0, LAYER_BACKGROUND = 1, LAYER_VIEWMODEL = 2;
     private Scene gunScene;
+    private int gunEntity;
 
     // Outline Effect Resources
     private FrameBuffer fbo;
@@ -60,8 +108,8 @@ public class Main extends ApplicationAdapter {
         batch = new SpriteBatch();
      font = new BitmapFont(); // Creates a default white font
 
-        outlinedObjectManager = new SceneManager(PBRShaderProvider.createDefault(24), new DepthShaderProvider());
-        backgroundManager = new SceneManager(PBRShaderProvider.createDefault(24), new DepthShaderProvider());
+        outlinedObjectManager = new CulledSceneManager(PBRShaderProvider.createDefault(24), new DepthShaderProvider());
+        backgroundManager = new CulledSceneManager(PBRShaderProvider.createDefault(24), new DepthShaderProvider());
         viewmodelManager = new SceneManager(PBRShaderProvider.createDefault(24), new DepthShaderProvider());
 
         // ✅ NEW: Create the custom depth batch for the gun
@@ -113,6 +161,15 @@ public class Main extends ApplicationAdapter {
             Gdx.app.exit();
         }
 
+        sceneLoader = new SceneLoader(new SceneLoader.Listener() {
+            @Override public void loaded(String path, SceneAsset asset) { attachLoaded(path, asset); }
+            @Override public void failed(String path, Throwable error) { dropFailed(path, error); }
+        });
+        meshPipeline.setQuantize(true);
+        sceneLoader.setPipeline(meshPipeline);
+        LispBridge.setAssetStats(sceneLoader::stats);
+        LispBridge.setCullStats(this::cullStats);
+
         createCameraController();
         Gdx.input.setInputProcessor(cameraController);
         Gdx.input.setCursorCatched(true);
@@ -142,10 +199,17 @@ public class Main extends ApplicationAdapter {
             return; 
         }
 
+        float dt = Gdx.graphics.getDeltaTime();
+        // All Lisp runs here: queued REPL input and reloads, on-frame callbacks
+        // and coroutines. What it spawns this frame is picked up right after.
+        FrameScheduler.main().runFrame(dt);
         processLispCommands();
+        // Uploads finished models within a budget and places what was waiting for them.
+        sceneLoader.update();
+        transforms.update(transformSink);
 
-        float dt = Gdx.graphics.getDeltaTime();
         updateCamera(dt);
+        cull();
         outlinedObjectManager.update(dt);
         backgroundManager.update(dt);
         viewmodelManager.update(dt);
@@ -282,55 +346,312 @@ public void resume() {
     }
 
     private void processLispCommands() {
+        LispBridge.commands().drain(commandHandler);
+        for (EntityBatch batch; (batch = LispBridge.pollBatch()) != null; ) {
+            try {
+                spawnBatch(batch);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                batch.recycle();
+            }
+        }
+    }
+
+    /**
+     * Spawns every entity of {@code batch}. All entities of a model share
+     * one loaded copy; those whose model is still loading are placed when
+     * it is ready.
+     */
+    private void spawnBatch(EntityBatch batch) {
+        int[] pathIds = batch.pathIds();
+        float[] xs = batch.xs(), ys = batch.ys(), zs = batch.zs();
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            spawn(entities.reserve(), pathIds[i], xs[i], ys[i], zs[i]);
+        }
+    }
+
+    private void applyCommand(int op, int entity, String path, float x, float y, float z) {
         try {
-            Object spawnRaw = interpreter.eval("(drain-spawns)");
-            if (spawnRaw instanceof java.util.List) {
-                for (Object o : (java.util.List<?>) spawnRaw) {
-                    SpawnRequest req = (SpawnRequest) o;
-                    boolean alreadyLoaded = outlinedScenes.containsKey(req.path) || backgroundScenes.containsKey(req.path) || (gunScene != null && req.path.contains("mygun"));
-                    if (alreadyLoaded) continue;
-                    SceneAsset a = new GLTFLoader().load(Gdx.files.internal(req.path));
-                    Scene s = new Scene(a.scene);
-                    s.modelInstance.transform.setToTranslation(req.position);
-                    if (req.path.contains("gar")) {
-                        backgroundManager.addScene(s);
-                        backgroundScenes.put(req.path, s);
-                    } else if (req.path.contains("mygun")) {
-                        gunScene = s;
-                        viewmodelManager.addScene(gunScene);
+            switch (op) {
+                case CommandRing.SPAWN: spawn(entity, EntityBatch.pathId(path), x, y, z); break;
+                case CommandRing.REMOVE: {
+                    if (entity != 0) {
+                        remove(entity);
                     } else {
-                        outlinedObjectManager.addScene(s);
-                        outlinedScenes.put(req.path, s);
+                        // Removal swaps the last row into the hole, which was already looked at.
+                        int pathId = EntityBatch.pathId(path);
+                        for (int row = entities.size() - 1; row >= 0; row--) {
+                            if (entities.pathId(row) == pathId) remove(entities.handle(row));
+                        }
                     }
+                    break;
                 }
-            }
-        } catch (Exception e) { e.printStackTrace(); }
-        try {
-            Object removeRaw = interpreter.eval("(drain-removals)");
-            if (removeRaw instanceof java.util.List) {
-                for (Object o : (java.util.List<?>) removeRaw) {
-                    String path = (String) o;
-                    Scene sceneToRemove = outlinedScenes.remove(path);
-                    if (sceneToRemove != null) outlinedObjectManager.removeScene(sceneToRemove);
-                    sceneToRemove = backgroundScenes.remove(path);
-                    if (sceneToRemove != null) backgroundManager.removeScene(sceneToRemove);
-                    if (path.contains("mygun") && gunScene != null) {
-                        viewmodelManager.removeScene(gunScene);
-                        gunScene = null;
+                case CommandRing.MOVE:
+                case CommandRing.ROTATE: {
+                    if (entity != 0) {
+                        transform(op, entity, x, y, z);
+                    } else {
+                        int pathId = EntityBatch.pathId(path);
+                        for (int row = 0, n = entities.size(); row < n; row++) {
+                            if (entities.pathId(row) == pathId) transform(op, entities.handle(row), x, y, z);
+                        }
                     }
+                    break;
                 }
+                case CommandRing.PRELOAD: sceneLoader.request(path); break;
             }
         } catch (Exception e) { e.printStackTrace(); }
     }
 
+    private void transform(int op, int entity, float x, float y, float z) {
+        if (op == CommandRing.MOVE) {
+            transforms.setPosition(entity, x, y, z);
+        } else {
+            transforms.setEulerAngles(entity, x, y, z);
+        }
+    }
+
+    private void copyTransform(int entity, float[] world, int offset) {
+        int row = entities.row(entity);
+        // Entities still waiting for their model pick the matrix up when they are placed.
+        if (row >= 0 && entities.value(row) instanceof Scene s) {
+            System.arraycopy(world, offset, s.modelInstance.transform.val, 0, 16);
+            if (entities.layer(row) != LAYER_VIEWMODEL) setBounds(entity, entities.pathId(row), s, world, offset);
+        }
+    }
+
+    /** Moves the model's bounds into the world and files them under {@code entity}. */
+    private void setBounds(int entity, int pathId, Scene s, float[] m, int o) {
+        BoundingBox local = localBounds.get(pathId);
+        if (local == null) {
+            local = s.modelInstance.calculateBoundingBox(new BoundingBox());
+            localBounds.put(pathId, local);
+        }
+        float cx = (local.min.x + local.max.x) * 0.5f, ex = (local.max.x - local.min.x) * 0.5f;
+        float cy = (local.min.y + local.max.y) * 0.5f, ey = (local.max.y - local.min.y) * 0.5f;
+        float cz = (local.min.z + local.max.z) * 0.5f, ez = (local.max.z - local.min.z) * 0.5f;
+        // The transformed centre, and the extent of the transformed box along each axis.
+        float wx = m[o] * cx + m[o + 4] * cy + m[o + 8] * cz + m[o + 12];
+        float wy = m[o + 1] * cx + m[o + 5] * cy + m[o + 9] * cz + m[o + 13];
+        float wz = m[o + 2] * cx + m[o + 6] * cy + m[o + 10] * cz + m[o + 14];
+        float rx = Math.abs(m[o]) * ex + Math.abs(m[o + 4]) * ey + Math.abs(m[o + 8]) * ez;
+        float ry = Math.abs(m[o + 1]) * ex + Math.abs(m[o + 5]) * ey + Math.abs(m[o + 9]) * ez;
+        float rz = Math.abs(m[o + 2]) * ex + Math.abs(m[o + 6]) * ey + Math.abs(m[o + 10]) * ez;
+        bounds.set(entity, wx - rx, wy - ry, wz - rz, wx + rx, wy + ry, wz + rz);
+    }
+
+    /**
+     * Hands the depth and colour passes of the outlined and background
+     * managers only the scenes inside the camera's frustum and not hidden
+     * behind an occluder. Occluders in view are always drawn. Updates and
+     * shadows still cover every scene the managers hold.
+     */
+    private void cull() {
+        Plane[] planes = cam.frustum.planes;
+        for (int i = 0; i < 6; i++) {
+            frustumPlanes[i * 4] = planes[i].normal.x;
+            frustumPlanes[i * 4 + 1] = planes[i].normal.y;
+            frustumPlanes[i * 4 + 2] = planes[i].normal.z;
+            frustumPlanes[i * 4 + 3] = planes[i].d;
+        }
+        int n = bounds.cull(frustumPlanes);
+        int[] visible = bounds.visible();
+        occlusion.begin(cam.combined.val);
+        float[] world = transforms.world();
+        if (visibleOccluders.length < n) visibleOccluders = new OcclusionCuller.Mesh[Math.max(n, visibleOccluders.length * 2)];
+        for (int i = 0; i < n; i++) {
+            OcclusionCuller.Mesh mesh = occluderOf(visible[i]);
+            visibleOccluders[i] = mesh;
+            if (mesh != null) occlusion.addOccluder(mesh, world, transforms.worldOffset(visible[i]));
+        }
+        boolean occluding = occlusion.rasterizedTriangles() > 0;
+        if (occluding) occlusion.rasterize();
+        Array<RenderableProvider> outlined = outlinedObjectManager.visible();
+        Array<RenderableProvider> background = backgroundManager.visible();
+        outlined.clear();
+        background.clear();
+        drawnTriangles = 0;
+        fullTriangles = 0;
+        for (int i = 0; i < n; i++) {
+            int row = entities.row(visible[i]);
+            if (row < 0 || !(entities.value(row) instanceof Scene s)) continue;
+            boolean occluder = visibleOccluders[i] != null;
+            if (occluding && !occluder && bounds.bounds(visible[i], box)
+                    && !occlusion.isVisible(box[0], box[1], box[2], box[3], box[4], box[5])) continue;
+            (entities.layer(row) == LAYER_BACKGROUND ? background : outlined).add(s);
+            // Occluders stay at full detail: their triangles are read from whatever level they show.
+            if (!occluder) selectLod(visible[i]);
+        }
+    }
+
+    /** Switches the parts of {@code entity}'s scene to the coarsest level that looks the same from here. */
+    private void selectLod(int entity) {
+        MeshPipeline.SceneLods lods = sceneLods.get(entity);
+        if (lods == null || !bounds.bounds(entity, box)) return;
+        // Distance to the nearest point of the bounds; from inside them, full detail.
+        Vector3 eye = cam.position;
+        float dx = Math.max(0, Math.max(box[0] - eye.x, eye.x - box[3]));
+        float dy = Math.max(0, Math.max(box[1] - eye.y, eye.y - box[4]));
+        float dz = Math.max(0, Math.max(box[2] - eye.z, eye.z - box[5]));
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        // Errors are in model units; the largest axis scale of the world matrix converts them.
+        float[] m = transforms.world();
+        int o = transforms.worldOffset(entity);
+        float scale = (float) Math.sqrt(Math.max(m[o] * m[o] + m[o + 1] * m[o + 1] + m[o + 2] * m[o + 2],
+                Math.max(m[o + 4] * m[o + 4] + m[o + 5] * m[o + 5] + m[o + 6] * m[o + 6],
+                        m[o + 8] * m[o + 8] + m[o + 9] * m[o + 9] + m[o + 10] * m[o + 10])));
+        float pixelsPerUnit = MeshLod.pixelsPerUnit(distance, scale, cam.fieldOfView, cam.viewportHeight);
+        drawnTriangles += lods.select(pixelsPerUnit, MAX_LOD_ERROR_PIXELS);
+        fullTriangles += lods.fullTriangles();
+    }
+
+    /** The occluder triangles of {@code entity}'s model, or null if it is not an occluder or not placed. */
+    private OcclusionCuller.Mesh occluderOf(int entity) {
+        int row = entities.row(entity);
+        if (row < 0 || !(entities.value(row) instanceof Scene s)) return null;
+        int pathId = entities.pathId(row);
+        if (!LispBridge.isOccluder(EntityBatch.path(pathId))) return null;
+        OcclusionCuller.Mesh mesh = occluderMeshes.get(pathId);
+        if (mesh == null) occluderMeshes.put(pathId, mesh = occluderMesh(s.modelInstance));
+        return mesh;
+    }
+
+    /** Reads the triangles of every node of {@code instance} back from its meshes, in model space. */
+    private static OcclusionCuller.Mesh occluderMesh(ModelInstance instance) {
+        FloatArray positions = new FloatArray();
+        IntArray indices = new IntArray();
+        for (Node node : instance.nodes) addTriangles(node, positions, indices);
+        return new OcclusionCuller.Mesh(positions.toArray(), indices.toArray());
+    }
+
+    private static void addTriangles(Node node, FloatArray positions, IntArray indices) {
+        Vector3 v = new Vector3();
+        for (NodePart part : node.parts) {
+            MeshPart meshPart = part.meshPart;
+            if (meshPart.primitiveType != GL20.GL_TRIANGLES) continue;
+            Mesh mesh = meshPart.mesh;
+            int stride = mesh.getVertexSize() / 4;
+            int position = mesh.getVertexAttribute(VertexAttributes.Usage.Position).offset / 4;
+            float[] vertices = new float[mesh.getNumVertices() * stride];
+            mesh.getVertices(vertices);
+            int base = positions.size / 3;
+            for (int i = 0; i < vertices.length; i += stride) {
+                v.set(vertices[i + position], vertices[i + position + 1], vertices[i + position + 2]).mul(node.globalTransform);
+                positions.add(v.x, v.y, v.z);
+            }
+            short[] meshIndices = new short[mesh.getNumIndices()];
+            mesh.getIndices(meshIndices);
+            for (int i = meshPart.offset, end = meshPart.offset + meshPart.size; i < end; i++) {
+                indices.add(base + (meshIndices.length > 0 ? meshIndices[i] & 0xFFFF : i));
+            }
+        }
+        for (Node child : node.getChildren()) addTriangles(child, positions, indices);
+    }
+
+    private String cullStats() {
+        return String.format("entities %d, visible %d, culled %d, boxes tested %d, tree height %d; "
+                        + "occluder triangles %d, occlusion tested %d, occluded %d; lod triangles %d of %d",
+                bounds.size(), bounds.visibleCount(), bounds.culled(), bounds.tested(), bounds.height(),
+                occlusion.occluderTriangles(), occlusion.tested(), occlusion.occluded(), drawnTriangles, fullTriangles);
+    }
+
+    private static int layerOf(String path) {
+        if (path.contains("gar")) return LAYER_BACKGROUND;
+        if (path.contains("mygun")) return LAYER_VIEWMODEL;
+        return LAYER_OUTLINED;
+    }
+
+    private SceneManager managerOf(int layer) {
+        switch (layer) {
+            case LAYER_BACKGROUND: return backgroundManager;
+            case LAYER_VIEWMODEL: return viewmodelManager;
+            default: return outlinedObjectManager;
+        }
+    }
+
+    /** Creates {@code entity}, a handle from the registry, and places it once its model is ready. */
+    private void spawn(int entity, int pathId, float x, float y, float z) {
+        String path = EntityBatch.path(pathId);
+        int layer = layerOf(path);
+        // There is room for one gun in the viewmodel.
+        if (layer == LAYER_VIEWMODEL && gunEntity != 0) {
+            entities.free(entity);
+            return;
+        }
+        transforms.add(entity, x, y, z);
+        SceneAsset a = sceneLoader.acquire(path);
+        if (a == null) {
+            // Not ready yet: it appears once loaded, with whatever moves were sent meanwhile.
+            entities.attach(entity, pathId, layer, null);
+            IntArray waiting = waitingForModel.get(path);
+            if (waiting == null) waitingForModel.put(path, waiting = new IntArray());
+            waiting.add(entity);
+        } else {
+            entities.attach(entity, pathId, layer, place(entity, layer, a));
+        }
+        if (layer == LAYER_VIEWMODEL) gunEntity = entity;
+    }
+
+    /** Builds the scene of {@code entity}; it gets its world matrix at this frame's transform update. */
+    private Scene place(int entity, int layer, SceneAsset a) {
+        Scene s = new Scene(a.scene);
+        managerOf(layer).addScene(s);
+        MeshPipeline.SceneLods lods = meshPipeline.lodsOf(s.modelInstance);
+        if (lods != null && layer != LAYER_VIEWMODEL) sceneLods.put(entity, lods);
+        if (layer == LAYER_VIEWMODEL) gunScene = s;
+        transforms.touch(entity);
+        return s;
+    }
+
+    /** Places every entity that was waiting for the model at {@code path}. */
+    private void attachLoaded(String path, SceneAsset asset) {
+        IntArray waiting = waitingForModel.remove(path);
+        if (waiting == null) return;
+        for (int i = 0; i < waiting.size; i++) {
+            int entity = waiting.items[i];
+            int row = entities.row(entity);
+            if (row < 0) continue; // removed while loading
+            entities.setValue(row, place(entity, entities.layer(row), asset));
+        }
+    }
+
+    /** Drops the entities that were waiting for a model that failed; the loader forgets their references. */
+    private void dropFailed(String path, Throwable error) {
+        Gdx.app.error("SceneLoader", "Failed to load " + path, error);
+        IntArray waiting = waitingForModel.remove(path);
+        if (waiting == null) return;
+        for (int i = 0; i < waiting.size; i++) {
+            int entity = waiting.items[i];
+            entities.remove(entity);
+            transforms.remove(entity);
+            bounds.remove(entity);
+            if (entity == gunEntity) gunEntity = 0;
+        }
+    }
+
+    /** Removes {@code entity} and gives back its reference to its model. */
+    private void remove(int entity) {
+        int row = entities.row(entity);
+        if (row < 0) return;
+        int layer = entities.layer(row);
+        String path = EntityBatch.path(entities.pathId(row));
+        Object value = entities.remove(entity);
+        transforms.remove(entity);
+        bounds.remove(entity);
+        sceneLods.remove(entity);
+        // An entity still waiting for its model has no scene; it is skipped when the model arrives.
+        if (value instanceof Scene s) managerOf(layer).removeScene(s);
+        if (entity == gunEntity) {
+            gunEntity = 0;
+            gunScene = null;
+        }
+        sceneLoader.release(path);
+    }
+
     private void setupLispInterpreter() {
-        interpreter = new ReplSession(new Environment());
+        interpreter = new ReplSession(StandardLibrary.newEnvironment());
         try {
-            interpreter.eval("(def (add-at path x y z) (java-call \"io.github.jayhost.LispBridge\" \"addEntityAt\" path x y z))");
-            interpreter.eval("(def (add path) (add-at path 0 0 0))");
-            interpreter.eval("(def (rem path) (java-call \"io.github.jayhost.LispBridge\" \"removeEntity\" path))");
-            interpreter.eval("(def (drain-spawns) (java-call \"io.github.jayhost.LispBridge\" \"drainSpawns\"))");
-            interpreter.eval("(def (drain-removals) (java-call \"io.github.jayhost.LispBridge\" \"drainRemovals\"))");
             interpreter.eval("(defvar helm \"models/helm/DamagedHelmet.gltf\")");
             interpreter.eval("(defvar sponza \"models/sponza/Sponza.gltf\")");
             interpreter.eval("(defvar mosin \"models/mosin/M91.gltf\")");
@@ -340,23 +661,39 @@ public void resume() {
 
             interpreter.eval("(add helm)");
             // interpreter.eval("(add clap)");
+            interpreter.eval("(occluder gar)");
             interpreter.eval("(add gar)");
             interpreter.eval("(add mygun)");
         } catch (Exception e) { e.printStackTrace(); }
         lispThread = new Thread(() -> {
-            try { ReplSession.main(this.interpreter.getEnvironment(), this.interpreter.getTopLevelForms()); }
+            // Input is read here but evaluated on the render thread, between frames.
+            try { ReplSession.main(this.interpreter, FrameScheduler.main()); }
             catch (Exception e) { /* Allow thread to exit */ }
         }, "Lisp-REPL");
         lispThread.setDaemon(true);
         lispThread.start();
+
+        // Scripts in ./scripts are loaded now and reloaded whenever they are saved.
+        Path scripts = Paths.get("scripts");
+        if (Files.isDirectory(scripts)) {
+            try {
+                scriptReloader = new ScriptReloader(interpreter.getEnvironment());
+                scriptReloader.watch(scripts, FrameScheduler.main());
+            } catch (Exception e) { e.printStackTrace(); }
+        }
     }
 
     @Override
     public void dispose() {
         if (lispThread != null) lispThread.interrupt();
+        if (scriptReloader != null) {
+            try { scriptReloader.close(); } catch (Exception e) { e.printStackTrace(); }
+        }
+        CoroutineScheduler.main().clear();
         outlinedObjectManager.dispose();
         backgroundManager.dispose();
         viewmodelManager.dispose();
+        if (sceneLoader != null) sceneLoader.dispose();
         if (gunDepthBatch != null) gunDepthBatch.dispose();
         if (fbo != null) fbo.dispose();
         if (spriteBatch != null) spriteBatch.dispose();
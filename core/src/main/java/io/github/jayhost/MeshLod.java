@@ -0,0 +1,124 @@
+// ========================================================================
+// io/github/jayhost/MeshLod.java
+//
+// The levels of detail of one mesh part: where each level's indices are
+// in the mesh's index buffer, how far it strays from the full mesh, and
+// the choice of level for a given size on screen.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+
+/**
+ * Level 0 is the part as it was loaded; each further level has fewer
+ * triangles and a larger error, the distance in model units by which its
+ * surface may depart from the original. All levels index the same
+ * vertices, so switching level only changes the range of the index buffer
+ * that is drawn.
+ * <p>
+ * {@link #select} picks the coarsest level whose error, projected to the
+ * screen, stays under a threshold in pixels: a model far enough away that
+ * a centimetre of error covers less than a pixel loses nothing visible by
+ * being drawn coarser.
+ */
+public final class MeshLod {
+    /** Fractions of the triangles each level after the first aims for. */
+    public static final float[] DEFAULT_RATIOS = {0.5f, 0.25f, 0.125f, 0.0625f};
+    /** A level must have at most this fraction of the triangles of the one before, or it is dropped. */
+    private static final float MIN_REDUCTION = 0.85f;
+
+    final int[] offsets;
+    final int[] counts;
+    final float[] errors;
+
+    MeshLod(int[] offsets, int[] counts, float[] errors) {
+        this.offsets = offsets;
+        this.counts = counts;
+        this.errors = errors;
+    }
+
+    public int levels() {
+        return offsets.length;
+    }
+
+    /** Where level {@code level} starts in the index buffer. */
+    public int offset(int level) {
+        return offsets[level];
+    }
+
+    /** Number of indices in level {@code level}. */
+    public int count(int level) {
+        return counts[level];
+    }
+
+    public float error(int level) {
+        return errors[level];
+    }
+
+    /**
+     * The coarsest level whose error stays within {@code maxPixels} when one
+     * model unit covers {@code pixelsPerUnit} pixels on screen.
+     */
+    public int select(float pixelsPerUnit, float maxPixels) {
+        int level = 0;
+        while (level + 1 < errors.length && errors[level + 1] * pixelsPerUnit <= maxPixels) level++;
+        return level;
+    }
+
+    /**
+     * How many pixels one unit covers, at {@code distance} from a
+     * perspective camera with vertical field of view {@code fieldOfView}
+     * degrees over {@code viewportHeight} pixels, for a model drawn at
+     * {@code scale}.
+     */
+    public static float pixelsPerUnit(float distance, float scale, float fieldOfView, float viewportHeight) {
+        float halfHeight = distance * (float) Math.tan(Math.toRadians(fieldOfView) * 0.5);
+        return halfHeight <= 0 ? Float.MAX_VALUE : scale * viewportHeight * 0.5f / halfHeight;
+    }
+
+    /**
+     * Builds the levels of every part of a mesh and appends their indices to
+     * the mesh's.
+     * @param vertices The mesh's interleaved vertices, {@code stride} floats each.
+     * @param indices The mesh's index buffer.
+     * @param partOffsets Where each part's triangles are in {@code indices}.
+     * @param partCounts How many indices each part has.
+     * @param ratios Fraction of each part's triangles each level aims for, decreasing.
+     * @param lods Receives the levels of each part.
+     * @return {@code indices} followed by the indices of every new level.
+     */
+    public static int[] build(float[] vertices, int stride, int positionOffset, int[] indices,
+                              int[] partOffsets, int[] partCounts, float[] ratios, MeshLod[] lods) {
+        MeshSimplifier simplifier = new MeshSimplifier(vertices, stride, positionOffset);
+        int[] out = indices;
+        int size = indices.length;
+        for (int part = 0; part < partOffsets.length; part++) {
+            int triangles = partCounts[part] / 3;
+            int[] targets = new int[ratios.length];
+            for (int i = 0; i < ratios.length; i++) targets[i] = (int) (triangles * ratios[i]);
+            float[] levelErrors = new float[ratios.length];
+            int[][] levels = triangles > 0
+                    ? simplifier.simplify(indices, partOffsets[part], partCounts[part], targets, levelErrors)
+                    : new int[0][];
+            int[] offsets = new int[levels.length + 1];
+            int[] counts = new int[levels.length + 1];
+            float[] errors = new float[levels.length + 1];
+            offsets[0] = partOffsets[part];
+            counts[0] = partCounts[part];
+            int kept = 1;
+            for (int i = 0; i < levels.length; i++) {
+                int[] level = levels[i];
+                if (level.length == 0 || level.length > counts[kept - 1] * MIN_REDUCTION) continue;
+                if (size + level.length > out.length) out = Arrays.copyOf(out, Math.max(size + level.length, out.length * 2));
+                System.arraycopy(level, 0, out, size, level.length);
+                offsets[kept] = size;
+                counts[kept] = level.length;
+                errors[kept] = levelErrors[i];
+                size += level.length;
+                kept++;
+            }
+            lods[part] = new MeshLod(Arrays.copyOf(offsets, kept), Arrays.copyOf(counts, kept), Arrays.copyOf(errors, kept));
+        }
+        return out.length == size ? out : Arrays.copyOf(out, size);
+    }
+}
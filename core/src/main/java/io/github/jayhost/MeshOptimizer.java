@@ -0,0 +1,299 @@
+// ========================================================================
+// io/github/jayhost/MeshOptimizer.java
+//
+// Reorders triangles for the GPU's post-transform vertex cache, vertices
+// for fetch locality, and packs normals, tangents and texture coordinates
+// into fewer bytes.
+// ========================================================================
+package io.github.jayhost;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Three independent passes over plain arrays:
+ * <ul>
+ *   <li>{@link #optimizeVertexCache} reorders the triangles of an index
+ *   range with Tom Forsyth's linear-speed algorithm, so consecutive
+ *   triangles reuse the vertices the GPU has just transformed;
+ *   {@link #acmr} measures the result as transformed vertices per
+ *   triangle;</li>
+ *   <li>{@link #optimizeVertexFetch} renumbers the vertices in the order the
+ *   indices first use them, so the GPU reads the vertex buffer front to
+ *   back, and drops those no index uses;</li>
+ *   <li>{@link #quantize} packs attributes into 32-bit words: unit vectors
+ *   as four signed bytes and texture coordinates in [0, 1] as two unsigned
+ *   shorts, both read back normalized by the GPU.</li>
+ * </ul>
+ * None of them moves a vertex, so bounds, levels of detail and anything
+ * else computed from positions still hold.
+ */
+public final class MeshOptimizer {
+    /** Entries in the simulated FIFO cache {@link #acmr} counts misses against, as on common GPUs. */
+    public static final int FIFO_CACHE_SIZE = 16;
+
+    /** How {@link #quantize} stores an attribute. */
+    public static final int KEEP = 0, SNORM8 = 1, UNORM16 = 2;
+
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY = 1.5f, LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_SCALE = 2.0f, VALENCE_POWER = 0.5f;
+    private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[64];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            CACHE_SCORES[i] = i < 3 ? LAST_TRIANGLE_SCORE
+                    : (float) Math.pow(1 - (i - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY);
+        }
+        for (int i = 1; i < VALENCE_SCORES.length; i++) {
+            VALENCE_SCORES[i] = VALENCE_SCALE * (float) Math.pow(i, -VALENCE_POWER);
+        }
+    }
+
+    private MeshOptimizer() {
+    }
+
+    /**
+     * Average vertices transformed per triangle for {@code count} indices
+     * from {@code offset}, through a FIFO cache of {@link #FIFO_CACHE_SIZE}
+     * entries. 3 is no reuse at all; about 0.5 to 0.7 is what a regular
+     * grid can reach.
+     */
+    public static float acmr(int[] indices, int offset, int count, int vertexCount) {
+        if (count < 3) return 0;
+        int[] insertedAt = new int[vertexCount];
+        Arrays.fill(insertedAt, -FIFO_CACHE_SIZE - 1);
+        int misses = 0;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            int v = indices[i];
+            // In the cache if it went in within the last FIFO_CACHE_SIZE misses.
+            if (misses - insertedAt[v] > FIFO_CACHE_SIZE) insertedAt[v] = misses++;
+        }
+        return misses / (float) (count / 3);
+    }
+
+    /** Reorders the triangles of {@code count} indices from {@code offset} in place. */
+    public static void optimizeVertexCache(int[] indices, int offset, int count, int vertexCount) {
+        int triangleCount = count / 3;
+        if (triangleCount < 2) return;
+        // Triangles of each vertex, as ranges of one array.
+        int[] valence = new int[vertexCount];
+        for (int i = offset, end = offset + triangleCount * 3; i < end; i++) valence[indices[i]]++;
+        int[] firstTriangle = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) firstTriangle[v + 1] = firstTriangle[v] + valence[v];
+        int[] vertexTriangles = new int[triangleCount * 3];
+        int[] fill = Arrays.copyOf(firstTriangle, vertexCount);
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int v = indices[offset + t * 3 + k];
+                vertexTriangles[fill[v]++] = t;
+            }
+        }
+        // valence now counts the triangles of each vertex still to emit.
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) vertexScores[v] = score(-1, valence[v]);
+        float[] triangleScores = new float[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            int i = offset + t * 3;
+            triangleScores[t] = vertexScores[indices[i]] + vertexScores[indices[i + 1]] + vertexScores[indices[i + 2]];
+        }
+        boolean[] emitted = new boolean[triangleCount];
+        int[] output = new int[triangleCount * 3];
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] nextCache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+        int best = -1;
+        float bestScore = -1;
+        for (int t = 0; t < triangleCount; t++) {
+            if (triangleScores[t] > bestScore) {
+                bestScore = triangleScores[t];
+                best = t;
+            }
+        }
+        int scan = 0;
+        for (int written = 0; written < triangleCount; written++) {
+            if (best < 0) {
+                // Nothing in the cache leads anywhere: take the next triangle not yet emitted.
+                while (emitted[scan]) scan++;
+                best = scan;
+            }
+            int t = best;
+            emitted[t] = true;
+            int i = offset + t * 3;
+            int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+            output[written * 3] = a;
+            output[written * 3 + 1] = b;
+            output[written * 3 + 2] = c;
+            // The triangle's vertices go to the front of the cache; the rest shift back.
+            int n = 0;
+            nextCache[n++] = a;
+            if (b != a) nextCache[n++] = b;
+            if (c != a && c != b) nextCache[n++] = c;
+            for (int k = 0; k < cacheSize; k++) {
+                int v = cache[k];
+                if (v != a && v != b && v != c) nextCache[n++] = v;
+            }
+            for (int k = 0; k < 3; k++) {
+                int v = indices[i + k];
+                valence[v]--;
+                // Swap the emitted triangle to the end of v's live range so the range stays live.
+                int start = firstTriangle[v], last = start + valence[v];
+                for (int j = start; j <= last; j++) {
+                    if (vertexTriangles[j] == t) {
+                        vertexTriangles[j] = vertexTriangles[last];
+                        vertexTriangles[last] = t;
+                        break;
+                    }
+                }
+            }
+            int[] swap = cache;
+            cache = nextCache;
+            nextCache = swap;
+            cacheSize = n;
+            // Vertices pushed out of the cache lose their cache score.
+            for (int k = CACHE_SIZE; k < cacheSize; k++) {
+                int v = cache[k];
+                updateVertex(v, -1, valence, vertexScores, triangleScores, vertexTriangles, firstTriangle);
+            }
+            if (cacheSize > CACHE_SIZE) cacheSize = CACHE_SIZE;
+            for (int k = 0; k < cacheSize; k++) {
+                int v = cache[k];
+                updateVertex(v, k, valence, vertexScores, triangleScores, vertexTriangles, firstTriangle);
+            }
+            // The best live triangle touching the cache comes next.
+            best = -1;
+            bestScore = -1;
+            for (int k = 0; k < cacheSize; k++) {
+                int v = cache[k];
+                for (int j = firstTriangle[v], end = firstTriangle[v] + valence[v]; j < end; j++) {
+                    int candidate = vertexTriangles[j];
+                    if (triangleScores[candidate] > bestScore) {
+                        bestScore = triangleScores[candidate];
+                        best = candidate;
+                    }
+                }
+            }
+        }
+        System.arraycopy(output, 0, indices, offset, triangleCount * 3);
+    }
+
+    /** Rescores vertex {@code v} at cache position {@code position} and the triangles it still has. */
+    private static void updateVertex(int v, int position, int[] valence, float[] vertexScores, float[] triangleScores,
+                                     int[] vertexTriangles, int[] firstTriangle) {
+        float score = score(position, valence[v]);
+        float delta = score - vertexScores[v];
+        if (delta == 0) return;
+        vertexScores[v] = score;
+        for (int j = firstTriangle[v], end = firstTriangle[v] + valence[v]; j < end; j++) {
+            triangleScores[vertexTriangles[j]] += delta;
+        }
+    }
+
+    private static float score(int cachePosition, int liveTriangles) {
+        if (liveTriangles == 0) return -1;
+        float score = cachePosition < 0 ? 0 : CACHE_SCORES[cachePosition];
+        return score + VALENCE_SCORES[Math.min(liveTriangles, VALENCE_SCORES.length - 1)];
+    }
+
+    /**
+     * Renumbers vertices in the order {@code indices} first uses them,
+     * rewriting the indices, and drops vertices no index uses.
+     * @return The reordered vertices, {@code stride} floats each.
+     */
+    public static float[] optimizeVertexFetch(float[] vertices, int stride, int[] indices) {
+        int vertexCount = vertices.length / stride;
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] < 0) remap[v] = next++;
+            indices[i] = remap[v];
+        }
+        float[] out = new float[next * stride];
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] >= 0) System.arraycopy(vertices, v * stride, out, remap[v] * stride, stride);
+        }
+        return out;
+    }
+
+    /**
+     * Whether every value of the {@code components} floats at
+     * {@code offset} of each vertex lies in [0, 1], so it can be stored as
+     * {@link #UNORM16}.
+     */
+    public static boolean inUnitRange(float[] vertices, int stride, int offset, int components) {
+        for (int v = offset; v < vertices.length; v += stride) {
+            for (int c = 0; c < components; c++) {
+                float value = vertices[v + c];
+                if (!(value >= 0 && value <= 1)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Size in 32-bit words of an attribute stored as {@code format}: of
+     * {@code components} floats when packed, of {@code components} words
+     * when kept.
+     */
+    public static int words(int format, int components) {
+        switch (format) {
+            case SNORM8: return 1;
+            case UNORM16: return (components + 1) / 2;
+            default: return components;
+        }
+    }
+
+    /**
+     * Packs vertices attribute by attribute. Attribute {@code a} starts
+     * {@code offsets[a]} words into each vertex and is stored as
+     * {@code formats[a]}, in the same order, each starting on a word.
+     * {@link #SNORM8} takes up to four float components in [-1, 1] and
+     * {@link #UNORM16} up to two in [0, 1]; for those {@code components[a]}
+     * counts floats. A {@link #KEEP} attribute is copied as it is, whatever
+     * its type, and {@code components[a]} is its size in words.
+     * <p>
+     * The packed words travel in a float array because that is what the
+     * vertex buffer takes. The floats are never computed with, only copied,
+     * and copies keep their bits, so the buffer receives the bytes as packed.
+     * @return The packed vertices, the sum of {@link #words} of each attribute per vertex.
+     */
+    public static float[] quantize(float[] vertices, int stride, int[] offsets, int[] components, int[] formats) {
+        int vertexCount = vertices.length / stride;
+        int packedStride = 0;
+        for (int a = 0; a < offsets.length; a++) packedStride += words(formats[a], components[a]);
+        float[] out = new float[vertexCount * packedStride];
+        boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        for (int v = 0; v < vertexCount; v++) {
+            int in = v * stride, o = v * packedStride;
+            for (int a = 0; a < offsets.length; a++) {
+                int p = in + offsets[a];
+                switch (formats[a]) {
+                    case SNORM8: {
+                        int word = 0;
+                        for (int c = 0; c < components[a]; c++) {
+                            int b = Math.round(Math.max(-1, Math.min(1, vertices[p + c])) * 127) & 0xFF;
+                            word |= b << (little ? c * 8 : 24 - c * 8);
+                        }
+                        out[o++] = Float.intBitsToFloat(word);
+                        break;
+                    }
+                    case UNORM16: {
+                        for (int c = 0; c < components[a]; c += 2) {
+                            int lo = Math.round(Math.max(0, Math.min(1, vertices[p + c])) * 65535);
+                            int hi = c + 1 < components[a] ? Math.round(Math.max(0, Math.min(1, vertices[p + c + 1])) * 65535) : 0;
+                            out[o++] = Float.intBitsToFloat(little ? hi << 16 | lo : lo << 16 | hi);
+                        }
+                        break;
+                    }
+                    default:
+                        System.arraycopy(vertices, p, out, o, components[a]);
+                        o += components[a];
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,243 @@
+// ========================================================================
+// io/github/jayhost/MeshOptimizerBenchmark.java
+//
+// Shuffles the triangles and vertices of a tessellated sphere, as an
+// exporter that pays no attention to order leaves them, then measures what
+// the vertex cache and fetch passes win back, checks that they keep every
+// triangle, checks how close packed normals and UVs come, and checks that
+// a packed colour passes through the pipeline's packing untouched.
+// ========================================================================
+package io.github.jayhost;
+
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MeshOptimizerBenchmark {
+
+    private static final int SEGMENTS = 256, RINGS = 128;
+    /** Position, normal and UV, as gdx-gltf lays out a textured mesh. */
+    private static final int STRIDE = 8;
+
+    public static void main(String[] args) {
+        float[] vertices = sphereVertices();
+        int[] indices = sphereIndices();
+        int vertexCount = vertices.length / STRIDE;
+        Random random = new Random(1);
+        shuffleTriangles(indices, random);
+        vertices = shuffleVertices(vertices, indices, random);
+
+        System.out.println("\n--- Mesh Optimizer Benchmark ---");
+        System.out.println("sphere: " + vertexCount + " vertices, " + indices.length / 3 + " triangles, shuffled");
+        System.out.println("=====================================");
+        System.out.printf("ACMR shuffled:  %.3f%n", MeshOptimizer.acmr(indices, 0, indices.length, vertexCount));
+
+        int[] optimized = null;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            optimized = indices.clone();
+            long start = System.nanoTime();
+            MeshOptimizer.optimizeVertexCache(optimized, 0, optimized.length, vertexCount);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("ACMR optimized: %.3f in %.1f ms, same triangles: %b%n",
+                MeshOptimizer.acmr(optimized, 0, optimized.length, vertexCount), best / 1e6,
+                sameTriangles(vertices, indices, vertices, optimized));
+
+        int[] fetched = optimized.clone();
+        float[] reordered = MeshOptimizer.optimizeVertexFetch(vertices, STRIDE, fetched);
+        System.out.printf("fetch: average jump between consecutive new vertices %.0f -> %.0f vertices, same triangles: %b%n",
+                averageJump(optimized), averageJump(fetched), sameTriangles(vertices, optimized, reordered, fetched));
+
+        // Levels of detail are reordered one by one, as the pipeline does.
+        MeshLod[] lods = new MeshLod[1];
+        int[] withLevels = MeshLod.build(reordered, STRIDE, 0, fetched, new int[]{0}, new int[]{fetched.length},
+                MeshLod.DEFAULT_RATIOS, lods);
+        StringBuilder levels = new StringBuilder("levels ACMR:");
+        for (int level = 1; level < lods[0].levels(); level++) {
+            float before = MeshOptimizer.acmr(withLevels, lods[0].offset(level), lods[0].count(level), vertexCount);
+            MeshOptimizer.optimizeVertexCache(withLevels, lods[0].offset(level), lods[0].count(level), vertexCount);
+            float after = MeshOptimizer.acmr(withLevels, lods[0].offset(level), lods[0].count(level), vertexCount);
+            levels.append(String.format(" %d: %.2f -> %.2f", level, before, after));
+        }
+        System.out.println(levels);
+
+        int[] offsets = {0, 3, 6}, components = {3, 3, 2};
+        int[] formats = {MeshOptimizer.KEEP, MeshOptimizer.SNORM8, MeshOptimizer.UNORM16};
+        float[] packed = MeshOptimizer.quantize(reordered, STRIDE, offsets, components, formats);
+        System.out.printf("quantize: %d -> %d bytes a vertex, %d -> %d bytes, %s%n",
+                STRIDE * 4, packed.length / (reordered.length / STRIDE) * 4, reordered.length * 4, packed.length * 4,
+                quantizationError(reordered, packed));
+        System.out.println("packed colour: " + packedColour(reordered, random));
+        System.out.println("=====================================");
+    }
+
+    /** A unit sphere with a duplicated column of vertices where the UVs wrap. */
+    private static float[] sphereVertices() {
+        float[] vertices = new float[(SEGMENTS + 1) * (RINGS + 1) * STRIDE];
+        int o = 0;
+        for (int ring = 0; ring <= RINGS; ring++) {
+            double theta = Math.PI * ring / RINGS;
+            for (int segment = 0; segment <= SEGMENTS; segment++) {
+                double phi = 2 * Math.PI * (segment % SEGMENTS) / SEGMENTS;
+                float x = (float) (Math.sin(theta) * Math.cos(phi));
+                float y = (float) Math.cos(theta);
+                float z = (float) (Math.sin(theta) * Math.sin(phi));
+                vertices[o++] = x;
+                vertices[o++] = y;
+                vertices[o++] = z;
+                vertices[o++] = x;
+                vertices[o++] = y;
+                vertices[o++] = z;
+                vertices[o++] = (float) segment / SEGMENTS;
+                vertices[o++] = (float) ring / RINGS;
+            }
+        }
+        return vertices;
+    }
+
+    private static int[] sphereIndices() {
+        int[] indices = new int[SEGMENTS * RINGS * 6];
+        int o = 0;
+        for (int ring = 0; ring < RINGS; ring++) {
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                int a = ring * (SEGMENTS + 1) + segment, b = a + SEGMENTS + 1;
+                indices[o++] = a;
+                indices[o++] = a + 1;
+                indices[o++] = b;
+                indices[o++] = a + 1;
+                indices[o++] = b + 1;
+                indices[o++] = b;
+            }
+        }
+        return indices;
+    }
+
+    private static void shuffleTriangles(int[] indices, Random random) {
+        for (int t = indices.length / 3 - 1; t > 0; t--) {
+            int u = random.nextInt(t + 1);
+            for (int k = 0; k < 3; k++) {
+                int swap = indices[t * 3 + k];
+                indices[t * 3 + k] = indices[u * 3 + k];
+                indices[u * 3 + k] = swap;
+            }
+        }
+    }
+
+    /** Moves every vertex to a random place, rewriting the indices to match. */
+    private static float[] shuffleVertices(float[] vertices, int[] indices, Random random) {
+        int vertexCount = vertices.length / STRIDE;
+        int[] order = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) order[v] = v;
+        for (int v = vertexCount - 1; v > 0; v--) {
+            int u = random.nextInt(v + 1);
+            int swap = order[v];
+            order[v] = order[u];
+            order[u] = swap;
+        }
+        float[] out = new float[vertices.length];
+        for (int v = 0; v < vertexCount; v++) System.arraycopy(vertices, v * STRIDE, out, order[v] * STRIDE, STRIDE);
+        for (int i = 0; i < indices.length; i++) indices[i] = order[indices[i]];
+        return out;
+    }
+
+    /** Whether both meshes draw the same triangles, corner for corner in the same winding, in any order. */
+    private static boolean sameTriangles(float[] verticesA, int[] indicesA, float[] verticesB, int[] indicesB) {
+        if (indicesA.length != indicesB.length) return false;
+        return Arrays.equals(triangleKeys(verticesA, indicesA), triangleKeys(verticesB, indicesB));
+    }
+
+    /** Each triangle as a string of its corners' attributes, rotated to start at the smallest, sorted. */
+    private static String[] triangleKeys(float[] vertices, int[] indices) {
+        String[] keys = new String[indices.length / 3];
+        for (int t = 0; t < keys.length; t++) {
+            String[] corners = new String[3];
+            for (int k = 0; k < 3; k++) {
+                int p = indices[t * 3 + k] * STRIDE;
+                corners[k] = Arrays.toString(Arrays.copyOfRange(vertices, p, p + STRIDE));
+            }
+            int first = 0;
+            for (int k = 1; k < 3; k++) if (corners[k].compareTo(corners[first]) < 0) first = k;
+            keys[t] = corners[first] + corners[(first + 1) % 3] + corners[(first + 2) % 3];
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /** How far apart in the vertex buffer consecutive first uses of vertices are, on average. */
+    private static double averageJump(int[] indices) {
+        boolean[] seen = new boolean[indices.length];
+        long jumps = 0;
+        int count = 0, previous = -1;
+        for (int v : indices) {
+            if (seen[v]) continue;
+            seen[v] = true;
+            if (previous >= 0) {
+                jumps += Math.abs(v - previous);
+                count++;
+            }
+            previous = v;
+        }
+        return count == 0 ? 0 : jumps / (double) count;
+    }
+
+    /**
+     * Runs the pipeline's packing on the sphere with a packed colour, one
+     * word of four bytes, between its position and normal, with quantizing
+     * off and on, and checks that the colour and position words come through
+     * untouched and the layout matches the words written.
+     */
+    private static String packedColour(float[] vertices, Random random) {
+        VertexAttributes attributes = new VertexAttributes(VertexAttribute.Position(), VertexAttribute.ColorPacked(),
+                VertexAttribute.Normal(), VertexAttribute.TexCoords(0));
+        int stride = attributes.vertexSize / 4, vertexCount = vertices.length / STRIDE;
+        float[] coloured = new float[vertexCount * stride];
+        int[] colours = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            // Any bits at all, as a colour packed by a loader may hold.
+            colours[v] = random.nextInt();
+            System.arraycopy(vertices, v * STRIDE, coloured, v * stride, 3);
+            coloured[v * stride + 3] = Float.intBitsToFloat(colours[v]);
+            System.arraycopy(vertices, v * STRIDE + 3, coloured, v * stride + 4, 5);
+        }
+        StringBuilder out = new StringBuilder();
+        for (boolean quantize : new boolean[]{false, true}) {
+            int[] formats = new int[attributes.size()];
+            float[] packed = MeshPipeline.pack(attributes, coloured, stride, quantize, formats);
+            int packedStride = MeshPipeline.packed(attributes, formats).vertexSize / 4;
+            boolean intact = packed.length == vertexCount * packedStride;
+            for (int v = 0; intact && v < vertexCount; v++) {
+                for (int c = 0; intact && c < 4; c++) {
+                    intact = Float.floatToRawIntBits(packed[v * packedStride + c])
+                            == Float.floatToRawIntBits(coloured[v * stride + c]);
+                }
+            }
+            out.append(String.format("%squantize %s: %d -> %d bytes a vertex, position and colour intact: %b",
+                    quantize ? ", " : "", quantize ? "on" : "off", stride * 4, packedStride * 4, intact));
+        }
+        return out.toString();
+    }
+
+    /** Unpacks the normals and UVs again and reports the largest differences. */
+    private static String quantizationError(float[] vertices, float[] packed) {
+        int vertexCount = vertices.length / STRIDE, packedStride = packed.length / vertexCount;
+        boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        double normalError = 0, uvError = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            int in = v * STRIDE, o = v * packedStride;
+            int normal = Float.floatToRawIntBits(packed[o + 3]);
+            for (int c = 0; c < 3; c++) {
+                int b = (byte) (normal >> (little ? c * 8 : 24 - c * 8));
+                normalError = Math.max(normalError, Math.abs(Math.max(-1, b / 127.0) - vertices[in + 3 + c]));
+            }
+            int uv = Float.floatToRawIntBits(packed[o + 4]);
+            int u = little ? uv & 0xFFFF : uv >>> 16, w = little ? uv >>> 16 : uv & 0xFFFF;
+            uvError = Math.max(uvError, Math.abs(u / 65535.0 - vertices[in + 6]));
+            uvError = Math.max(uvError, Math.abs(w / 65535.0 - vertices[in + 7]));
+        }
+        return String.format("largest error: normal %.4f, UV %.6f (%.2f texels of a 4096 texture)",
+                normalError, uvError, uvError * 4096);
+    }
+}
@@ -0,0 +1,473 @@
+// ========================================================================
+// io/github/jayhost/MeshPipeline.java
+//
+// Post-processes the meshes of each loaded model before anything is built
+// from it: reads them back on the render thread, works on the copies on a
+// background thread, and swaps in the results on the render thread.
+// ========================================================================
+package io.github.jayhost;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.g3d.ModelInstance;
+import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.model.Node;
+import com.badlogic.gdx.graphics.g3d.model.NodePart;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntMap;
+import net.mgsx.gltf.scene3d.scene.SceneAsset;
+import net.mgsx.gltf.scene3d.scene.SceneModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * {@link SceneLoader} hands each model here once the asset manager has
+ * finished it, and only reports it loaded once the pipeline is done, so no
+ * scene ever sees the meshes change. For every indexed triangle mesh:
+ * <ol>
+ *   <li>{@link #prepare}, on the render thread, copies the vertices and
+ *   indices out of the mesh along with the index ranges its parts draw;</li>
+ *   <li>{@link Job#process}, on any thread, builds the levels of detail of
+ *   every part with {@link MeshLod#build}, or reads them from the
+ *   {@link LodCache}, then reorders the triangles of every level for the
+ *   vertex cache and the vertices for fetching with {@link MeshOptimizer},
+ *   and packs normals, tangents and texture coordinates if
+ *   {@link #setQuantize} asks for it;</li>
+ *   <li>{@link Job#install}, on the render thread, uploads a new mesh with
+ *   the levels' indices after the original ones, points every part of the
+ *   model at it and disposes of the old one.</li>
+ * </ol>
+ * Positions stay full floats: the bounds, the occluders and the levels of
+ * detail of the next load all read them back from the mesh, and skinning
+ * happens before anything could scale packed ones back.
+ * The levels of each part are kept by mesh and offset, and
+ * {@link #lodsOf} gathers them for one model instance, whose parts can
+ * then be switched between levels every frame.
+ */
+public final class MeshPipeline {
+    private final LodCache cache;
+    private final float[] ratios;
+    /** The levels of detail of each processed mesh, by the offset of the part's full level. */
+    private final IdentityHashMap<Mesh, IntMap<MeshLod>> lods = new IdentityHashMap<>();
+    private boolean quantize;
+    /** Totals over every installed mesh: triangles, vertices transformed before and after, vertex bytes before and after. */
+    private long triangles, missesBefore, missesAfter, bytesBefore, bytesAfter;
+    private int optimized;
+
+    /** @param cache Where levels are kept between runs, or null to build them every time. */
+    public MeshPipeline(LodCache cache, float[] ratios) {
+        this.cache = cache;
+        this.ratios = ratios.clone();
+    }
+
+    /**
+     * Whether meshes processed from now on store unit vectors as four signed
+     * bytes and texture coordinates in [0, 1] as two unsigned shorts, which
+     * the GPU reads back normalized. Off by default.
+     */
+    public void setQuantize(boolean quantize) {
+        this.quantize = quantize;
+    }
+
+    /** The totals over every mesh processed so far, in one line. */
+    public String stats() {
+        return String.format("meshes %d, ACMR %.2f -> %.2f, vertex buffers %.1f -> %.1f MB",
+                optimized, triangles == 0 ? 0 : missesBefore / (double) triangles,
+                triangles == 0 ? 0 : missesAfter / (double) triangles,
+                bytesBefore / 1048576.0, bytesAfter / 1048576.0);
+    }
+
+    /** One mesh of a model and the parts that draw it, copied out for processing. */
+    private static final class MeshJob {
+        final Mesh mesh;
+        final VertexAttributes attributes;
+        final float[] vertices;
+        final int stride, positionOffset;
+        final int[] indices;
+        final int[] partOffsets, partCounts;
+        int[] processedIndices;
+        float[] processedVertices;
+        /** How {@link MeshOptimizer#quantize} stores each attribute. */
+        int[] formats;
+        MeshLod[] partLods;
+        /** The parts' full levels before and after reordering: triangles, and vertices transformed. */
+        long triangles, missesBefore, missesAfter;
+
+        MeshJob(Mesh mesh, float[] vertices, int stride, int positionOffset, int[] indices,
+                int[] partOffsets, int[] partCounts) {
+            this.mesh = mesh;
+            this.attributes = mesh.getVertexAttributes();
+            this.vertices = vertices;
+            this.stride = stride;
+            this.positionOffset = positionOffset;
+            this.indices = indices;
+            this.partOffsets = partOffsets;
+            this.partCounts = partCounts;
+        }
+    }
+
+    /** The work on one model, from {@link #prepare}. */
+    public final class Job {
+        private final String path;
+        private final SceneAsset asset;
+        private final ArrayList<MeshJob> meshes;
+        private final ArrayList<MeshPart> parts;
+        /** Set by process(): a problem writing the cache, reported by install(). */
+        private IOException cacheError;
+        private final ArrayList<String> report = new ArrayList<>();
+
+        Job(String path, SceneAsset asset, ArrayList<MeshJob> meshes, ArrayList<MeshPart> parts) {
+            this.path = path;
+            this.asset = asset;
+            this.meshes = meshes;
+            this.parts = parts;
+        }
+
+        /** The CPU work. Touches only the copies, so it may run on any thread. */
+        public void process() {
+            for (MeshJob job : meshes) {
+                MeshLod[] partLods = new MeshLod[job.partOffsets.length];
+                String key = null;
+                int[] indices = null;
+                if (cache != null) {
+                    key = LodCache.key(job.vertices, job.stride, job.positionOffset, job.indices,
+                            job.partOffsets, job.partCounts, ratios);
+                    indices = cache.load(key, job.indices, job.vertices.length / job.stride, partLods);
+                }
+                if (indices == null) {
+                    indices = MeshLod.build(job.vertices, job.stride, job.positionOffset, job.indices,
+                            job.partOffsets, job.partCounts, ratios, partLods);
+                    if (cache != null) {
+                        try {
+                            cache.store(key, job.indices.length, indices, partLods);
+                        } catch (IOException e) {
+                            cacheError = e;
+                        }
+                    }
+                }
+                job.partLods = partLods;
+                optimize(job, indices);
+            }
+        }
+
+        /** Reorders and packs one mesh whose levels are built. */
+        private void optimize(MeshJob job, int[] indices) {
+            int vertexCount = job.vertices.length / job.stride;
+            for (int p = 0; p < job.partOffsets.length; p++) {
+                int count = job.partCounts[p];
+                job.triangles += count / 3;
+                job.missesBefore += Math.round(MeshOptimizer.acmr(indices, job.partOffsets[p], count, vertexCount) * (count / 3));
+            }
+            for (long range : separateRanges(job.partLods)) {
+                MeshOptimizer.optimizeVertexCache(indices, (int) (range >>> 32), (int) range, vertexCount);
+            }
+            float[] vertices = MeshOptimizer.optimizeVertexFetch(job.vertices, job.stride, indices);
+            int optimizedCount = vertices.length / job.stride;
+            for (int p = 0; p < job.partOffsets.length; p++) {
+                int count = job.partCounts[p];
+                job.missesAfter += Math.round(MeshOptimizer.acmr(indices, job.partOffsets[p], count, optimizedCount) * (count / 3));
+            }
+            job.formats = new int[job.attributes.size()];
+            job.processedVertices = pack(job.attributes, vertices, job.stride, quantize, job.formats);
+            job.processedIndices = indices;
+            long before = (long) vertexCount * job.stride * 4;
+            long after = (long) job.processedVertices.length * 4;
+            report.add(String.format("%s mesh %d: ACMR %.2f -> %.2f, %d -> %d vertices, %d -> %d bytes",
+                    path, report.size(), job.missesBefore / (double) Math.max(1, job.triangles),
+                    job.missesAfter / (double) Math.max(1, job.triangles),
+                    vertexCount, optimizedCount, before, after));
+        }
+
+        /**
+         * Replaces every processed mesh of the model. Call on the render
+         * thread after {@link #process}, before any scene is built from the
+         * model.
+         * @return A problem writing the cache, which left the results usable, or null.
+         */
+        public IOException install() {
+            Model[] models = modelsOf(asset);
+            for (MeshJob job : meshes) {
+                if (job.processedIndices == null) continue;
+                Mesh old = job.mesh;
+                VertexAttributes attributes = packed(job.attributes, job.formats);
+                int vertexCount = job.processedVertices.length * 4 / attributes.vertexSize;
+                Mesh mesh = new Mesh(true, vertexCount, job.processedIndices.length, attributes);
+                mesh.setVertices(job.processedVertices);
+                short[] indices = new short[job.processedIndices.length];
+                for (int i = 0; i < indices.length; i++) indices[i] = (short) job.processedIndices[i];
+                mesh.setIndices(indices);
+                replace(models, old, mesh);
+                for (MeshPart part : parts) if (part.mesh == old) part.mesh = mesh;
+                IntMap<MeshLod> byOffset = new IntMap<>();
+                for (int p = 0; p < job.partOffsets.length; p++) byOffset.put(job.partOffsets[p], job.partLods[p]);
+                lods.put(mesh, byOffset);
+                old.dispose();
+                optimized++;
+                triangles += job.triangles;
+                missesBefore += job.missesBefore;
+                missesAfter += job.missesAfter;
+                bytesBefore += (long) job.vertices.length * 4;
+                bytesAfter += (long) job.processedVertices.length * 4;
+            }
+            return cacheError;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        /** One line per processed mesh: its cache misses per triangle and vertex buffer size, before and after. */
+        public List<String> report() {
+            return report;
+        }
+
+        /** Swaps {@code mesh} in for {@code old} in every list that owns or disposes meshes. */
+        @SuppressWarnings("unchecked")
+        private void replace(Model[] models, Mesh old, Mesh mesh) {
+            if (asset.meshes != null) {
+                int i = asset.meshes.indexOf(old, true);
+                if (i >= 0) asset.meshes.set(i, mesh);
+            }
+            for (Model model : models) {
+                int i = model.meshes.indexOf(old, true);
+                if (i >= 0) model.meshes.set(i, mesh);
+                // A model that disposes its meshes keeps them in this array.
+                Array<Disposable> managed = (Array<Disposable>) model.getManagedDisposables();
+                if (managed.removeValue(old, true)) managed.add(mesh);
+            }
+        }
+    }
+
+    /**
+     * Copies the meshes of {@code asset} out for processing. Only meshes
+     * with 16-bit indices whose every part draws triangles, with float
+     * positions and every attribute on 32-bit words, are taken; the rest
+     * are left as loaded.
+     * @return The job, or null if there is nothing to process.
+     */
+    public Job prepare(String path, SceneAsset asset) {
+        ArrayList<MeshPart> parts = new ArrayList<>();
+        for (Model model : modelsOf(asset)) {
+            for (MeshPart part : model.meshParts) parts.add(part);
+            for (Node node : model.nodes) collectParts(node, parts);
+        }
+        // The distinct index ranges drawn from each mesh, in the order they are first met.
+        LinkedHashMap<Mesh, LinkedHashMap<Long, MeshPart>> ranges = new LinkedHashMap<>();
+        IdentityHashMap<Mesh, Boolean> unusable = new IdentityHashMap<>();
+        for (MeshPart part : parts) {
+            if (part.primitiveType != GL20.GL_TRIANGLES || part.mesh.getNumIndices() == 0) {
+                unusable.put(part.mesh, Boolean.TRUE);
+                continue;
+            }
+            ranges.computeIfAbsent(part.mesh, m -> new LinkedHashMap<>())
+                    .putIfAbsent((long) part.offset << 32 | part.size, part);
+        }
+        ArrayList<MeshJob> meshes = new ArrayList<>();
+        for (Map.Entry<Mesh, LinkedHashMap<Long, MeshPart>> entry : ranges.entrySet()) {
+            Mesh mesh = entry.getKey();
+            if (unusable.containsKey(mesh) || lods.containsKey(mesh)) continue;
+            VertexAttribute position = mesh.getVertexAttribute(VertexAttributes.Usage.Position);
+            // Vertices are read back as floats, and positions are simplified as floats.
+            if (position == null || position.type != GL20.GL_FLOAT || mesh.getVertexSize() % 4 != 0
+                    || !wordAligned(mesh.getVertexAttributes())) continue;
+            int stride = mesh.getVertexSize() / 4;
+            float[] vertices = new float[mesh.getNumVertices() * stride];
+            mesh.getVertices(vertices);
+            short[] shorts = new short[mesh.getNumIndices()];
+            mesh.getIndices(shorts);
+            int[] indices = new int[shorts.length];
+            for (int i = 0; i < shorts.length; i++) indices[i] = shorts[i] & 0xFFFF;
+            int n = entry.getValue().size();
+            int[] partOffsets = new int[n], partCounts = new int[n];
+            int p = 0;
+            for (MeshPart part : entry.getValue().values()) {
+                partOffsets[p] = part.offset;
+                partCounts[p++] = part.size;
+            }
+            meshes.add(new MeshJob(mesh, vertices, stride, position.offset / 4, indices, partOffsets, partCounts));
+        }
+        return meshes.isEmpty() ? null : new Job(path, asset, meshes, parts);
+    }
+
+    /**
+     * The index range of every level of every part, as offset and count,
+     * leaving out ranges that overlap another: reordering one would change
+     * the other.
+     */
+    private static long[] separateRanges(MeshLod[] partLods) {
+        TreeSet<Long> sorted = new TreeSet<>();
+        for (MeshLod lod : partLods) {
+            for (int level = 0; level < lod.levels(); level++) {
+                if (lod.count(level) > 0) sorted.add((long) lod.offset(level) << 32 | lod.count(level));
+            }
+        }
+        long[] ranges = new long[sorted.size()];
+        int n = 0;
+        long previousEnd = 0;
+        Long[] all = sorted.toArray(new Long[0]);
+        for (int i = 0; i < all.length; i++) {
+            long start = all[i] >>> 32, end = start + (all[i] & 0xFFFFFFFFL);
+            boolean overlaps = start < previousEnd || (i + 1 < all.length && end > all[i + 1] >>> 32);
+            previousEnd = Math.max(previousEnd, end);
+            if (!overlaps) ranges[n++] = all[i];
+        }
+        return Arrays.copyOf(ranges, n);
+    }
+
+    /**
+     * Packs vertices laid out as {@code attributes} with
+     * {@link MeshOptimizer#quantize}, or returns them as they are if
+     * {@code quantize} is off or nothing can be packed.
+     * @param formats Receives how each attribute is stored.
+     */
+    static float[] pack(VertexAttributes attributes, float[] vertices, int stride, boolean quantize, int[] formats) {
+        int size = attributes.size();
+        int[] offsets = new int[size], components = new int[size];
+        boolean packing = false;
+        for (int a = 0; a < size; a++) {
+            VertexAttribute attribute = attributes.get(a);
+            offsets[a] = attribute.offset / 4;
+            formats[a] = quantize ? formatOf(attribute, vertices, stride) : MeshOptimizer.KEEP;
+            // Kept attributes are copied word for word, whatever their type.
+            components[a] = formats[a] == MeshOptimizer.KEEP ? attribute.getSizeInBytes() / 4 : attribute.numComponents;
+            packing |= formats[a] != MeshOptimizer.KEEP;
+        }
+        return packing ? MeshOptimizer.quantize(vertices, stride, offsets, components, formats) : vertices;
+    }
+
+    /** Whether every attribute starts and ends on a 32-bit word, so a vertex can be read back as floats. */
+    private static boolean wordAligned(VertexAttributes attributes) {
+        for (VertexAttribute attribute : attributes) {
+            if (attribute.offset % 4 != 0 || attribute.getSizeInBytes() % 4 != 0) return false;
+        }
+        return true;
+    }
+
+    /** How {@code attribute} can be stored: float attributes only, unit vectors and texture coordinates in [0, 1]. */
+    private static int formatOf(VertexAttribute attribute, float[] vertices, int stride) {
+        if (attribute.type != GL20.GL_FLOAT) return MeshOptimizer.KEEP;
+        switch (attribute.usage) {
+            case VertexAttributes.Usage.Normal:
+            case VertexAttributes.Usage.Tangent:
+            case VertexAttributes.Usage.BiNormal:
+                return attribute.numComponents <= 4 ? MeshOptimizer.SNORM8 : MeshOptimizer.KEEP;
+            case VertexAttributes.Usage.TextureCoordinates:
+                return attribute.numComponents == 2
+                        && MeshOptimizer.inUnitRange(vertices, stride, attribute.offset / 4, attribute.numComponents)
+                        ? MeshOptimizer.UNORM16 : MeshOptimizer.KEEP;
+            default:
+                return MeshOptimizer.KEEP;
+        }
+    }
+
+    /** The attributes of a mesh packed as {@code formats} says, in the same order and with the same names. */
+    static VertexAttributes packed(VertexAttributes attributes, int[] formats) {
+        VertexAttribute[] out = new VertexAttribute[attributes.size()];
+        for (int a = 0; a < out.length; a++) {
+            VertexAttribute attribute = attributes.get(a);
+            switch (formats[a]) {
+                case MeshOptimizer.SNORM8:
+                    out[a] = new VertexAttribute(attribute.usage, 4, GL20.GL_BYTE, true, attribute.alias, attribute.unit);
+                    break;
+                case MeshOptimizer.UNORM16:
+                    out[a] = new VertexAttribute(attribute.usage, attribute.numComponents, GL20.GL_UNSIGNED_SHORT, true,
+                            attribute.alias, attribute.unit);
+                    break;
+                default:
+                    out[a] = attribute.copy();
+            }
+        }
+        return new VertexAttributes(out);
+    }
+
+    private static void collectParts(Node node, ArrayList<MeshPart> parts) {
+        for (NodePart part : node.parts) parts.add(part.meshPart);
+        for (Node child : node.getChildren()) collectParts(child, parts);
+    }
+
+    private static Model[] modelsOf(SceneAsset asset) {
+        ArrayList<Model> models = new ArrayList<>();
+        if (asset.scenes != null) {
+            for (SceneModel scene : asset.scenes) if (!models.contains(scene.model)) models.add(scene.model);
+        }
+        if (asset.scene != null && !models.contains(asset.scene.model)) models.add(asset.scene.model);
+        return models.toArray(new Model[0]);
+    }
+
+    /** Forgets the levels of a model that is being unloaded. */
+    public void forget(SceneAsset asset) {
+        for (Model model : modelsOf(asset)) {
+            for (Mesh mesh : model.meshes) lods.remove(mesh);
+        }
+        if (asset.meshes != null) {
+            for (Mesh mesh : asset.meshes) lods.remove(mesh);
+        }
+    }
+
+    /** The switchable parts of {@code instance}, or null if none of its meshes have levels. */
+    public SceneLods lodsOf(ModelInstance instance) {
+        ArrayList<MeshPart> parts = new ArrayList<>();
+        ArrayList<MeshLod> partLods = new ArrayList<>();
+        for (Node node : instance.nodes) collectLods(node, parts, partLods);
+        if (parts.isEmpty()) return null;
+        return new SceneLods(parts.toArray(new MeshPart[0]), partLods.toArray(new MeshLod[0]));
+    }
+
+    private void collectLods(Node node, ArrayList<MeshPart> parts, ArrayList<MeshLod> partLods) {
+        for (NodePart part : node.parts) {
+            IntMap<MeshLod> byOffset = lods.get(part.meshPart.mesh);
+            MeshLod lod = byOffset != null ? byOffset.get(part.meshPart.offset) : null;
+            if (lod != null && lod.levels() > 1 && lod.count(0) == part.meshPart.size) {
+                parts.add(part.meshPart);
+                partLods.add(lod);
+            }
+        }
+        for (Node child : node.getChildren()) collectLods(child, parts, partLods);
+    }
+
+    /** The parts of one model instance that have levels of detail, switched together. */
+    public static final class SceneLods {
+        private final MeshPart[] parts;
+        private final MeshLod[] lods;
+        private final int fullTriangles;
+
+        SceneLods(MeshPart[] parts, MeshLod[] lods) {
+            this.parts = parts;
+            this.lods = lods;
+            int triangles = 0;
+            for (MeshLod lod : lods) triangles += lod.count(0) / 3;
+            fullTriangles = triangles;
+        }
+
+        /**
+         * Points each part at the level {@link MeshLod#select} picks for it.
+         * @return The number of triangles the parts now draw.
+         */
+        public int select(float pixelsPerUnit, float maxPixels) {
+            int triangles = 0;
+            for (int i = 0; i < parts.length; i++) {
+                MeshLod lod = lods[i];
+                int level = lod.select(pixelsPerUnit, maxPixels);
+                parts[i].offset = lod.offset(level);
+                parts[i].size = lod.count(level);
+                triangles += parts[i].size / 3;
+            }
+            return triangles;
+        }
+
+        /** Triangles the parts draw at full detail. */
+        public int fullTriangles() {
+            return fullTriangles;
+        }
+    }
+}
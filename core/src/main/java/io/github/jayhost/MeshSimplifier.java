@@ -0,0 +1,382 @@
+// ========================================================================
+// io/github/jayhost/MeshSimplifier.java
+//
+// Reduces a triangle list by collapsing edges in order of quadric error,
+// keeping the vertices and writing only new index lists, so every level
+// of detail can share one vertex buffer.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Garland and Heckbert's quadric error metric. Each vertex starts with the
+ * sum of the plane equations of its triangles; collapsing vertex u onto its
+ * neighbour v costs the summed quadric of both evaluated at v, which is the
+ * squared distance from v to the planes the two had. Collapses are taken
+ * cheapest first from a heap whose stale entries are skipped when popped.
+ * <p>
+ * Collapses only move a vertex onto another one, never to a new position,
+ * so the result is a list of indices into the original vertices. Vertices
+ * that would tear the surface are never moved:
+ * <ul>
+ *   <li>those sharing their position with another vertex, which is how glTF
+ *   marks a seam in normals or UVs;</li>
+ *   <li>those on an open edge of the surface.</li>
+ * </ul>
+ * A collapse that would turn a triangle over is refused.
+ * <p>
+ * {@link #simplify} runs the collapses once and takes a snapshot of the
+ * triangles left at each target, so the levels are nested and cost about
+ * as much as the coarsest alone. The reported error of a level is the
+ * square root of the costliest collapse so far, in the units of the
+ * positions.
+ * <p>
+ * Pure CPU work on plain arrays; instances are not shared between threads.
+ */
+public final class MeshSimplifier {
+    private final float[] vertices;
+    private final int stride, positionOffset;
+
+    // Quadric of each vertex: the symmetric 4x4 matrix in 10 doubles.
+    private double[] quadrics;
+    private boolean[] locked;
+    /** Bumped whenever a vertex's quadric or neighbours change, so older heap entries are stale. */
+    private int[] stamps;
+    private int[] collapsedInto;
+
+    private int[] triangles;
+    private boolean[] dead;
+    private int aliveTriangles;
+    private int[][] vertexTriangles;
+    private int[] vertexTriangleCounts;
+
+    // Candidate collapses and a binary heap of them by cost.
+    private float[] candidateCosts = new float[256];
+    private int[] candidateFrom = new int[256], candidateTo = new int[256];
+    private int[] candidateStampFrom = new int[256], candidateStampTo = new int[256];
+    private int candidateCount;
+    private int[] heap = new int[256];
+    private int heapSize;
+
+    private float worstCost;
+
+    /**
+     * @param vertices Interleaved vertices, {@code stride} floats each.
+     * @param positionOffset Where x, y and z are within a vertex.
+     */
+    public MeshSimplifier(float[] vertices, int stride, int positionOffset) {
+        this.vertices = vertices;
+        this.stride = stride;
+        this.positionOffset = positionOffset;
+    }
+
+    /**
+     * Simplifies {@code count} indices of {@code indices} from {@code offset}
+     * until each target triangle count in turn is reached, or no collapse is
+     * left. Targets must be decreasing.
+     * @param errors Receives the error of each level.
+     * @return The triangles of each level, as indices into the vertices.
+     */
+    public int[][] simplify(int[] indices, int offset, int count, int[] targetTriangles, float[] errors) {
+        setUp(indices, offset, count);
+        int[][] levels = new int[targetTriangles.length][];
+        for (int level = 0; level < targetTriangles.length; level++) {
+            collapseTo(targetTriangles[level]);
+            levels[level] = snapshot();
+            errors[level] = (float) Math.sqrt(worstCost);
+        }
+        return levels;
+    }
+
+    private void setUp(int[] indices, int offset, int count) {
+        int vertexCount = vertices.length / stride;
+        quadrics = new double[vertexCount * 10];
+        locked = new boolean[vertexCount];
+        stamps = new int[vertexCount];
+        collapsedInto = new int[vertexCount];
+        Arrays.fill(collapsedInto, -1);
+        triangles = Arrays.copyOfRange(indices, offset, offset + count - count % 3);
+        int triangleCount = triangles.length / 3;
+        dead = new boolean[triangleCount];
+        aliveTriangles = triangleCount;
+        vertexTriangles = new int[vertexCount][];
+        vertexTriangleCounts = new int[vertexCount];
+        candidateCount = 0;
+        heapSize = 0;
+        worstCost = 0;
+
+        // Vertices at the same position are the two sides of a seam: lock them all. A vertex
+        // maps to the first one found at its position.
+        HashMap<Long, Integer> firstAt = new HashMap<>();
+        int[] welded = new int[vertexCount];
+        Arrays.fill(welded, -1);
+        for (int t = 0; t < triangles.length; t++) {
+            int v = triangles[t];
+            if (welded[v] >= 0) continue;
+            int p = v * stride + positionOffset;
+            long key = (long) Float.floatToIntBits(vertices[p]) * 31 * 31
+                    + (long) Float.floatToIntBits(vertices[p + 1]) * 31 + Float.floatToIntBits(vertices[p + 2]);
+            Integer first = firstAt.putIfAbsent(key, v);
+            if (first == null || !samePosition(first, v)) {
+                welded[v] = v;
+            } else {
+                welded[v] = first;
+                locked[v] = true;
+                locked[first] = true;
+            }
+        }
+        // An edge used by one triangle, counted between welded positions, is on an open border.
+        HashMap<Long, Integer> edgeUses = new HashMap<>();
+        for (int t = 0; t < triangles.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int a = welded[triangles[t + k]], b = welded[triangles[t + (k + 1) % 3]];
+                edgeUses.merge(edgeKey(a, b), 1, Integer::sum);
+            }
+        }
+        for (int t = 0; t < triangles.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int a = triangles[t + k], b = triangles[t + (k + 1) % 3];
+                if (edgeUses.get(edgeKey(welded[a], welded[b])) == 1) {
+                    locked[a] = true;
+                    locked[b] = true;
+                }
+            }
+        }
+
+        for (int t = 0; t < triangleCount; t++) {
+            int a = triangles[t * 3], b = triangles[t * 3 + 1], c = triangles[t * 3 + 2];
+            if (a == b || b == c || a == c) {
+                dead[t] = true;
+                aliveTriangles--;
+                continue;
+            }
+            addPlaneQuadric(a, b, c);
+            addVertexTriangle(a, t);
+            addVertexTriangle(b, t);
+            addVertexTriangle(c, t);
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                pushEdge(triangles[t * 3 + k], triangles[t * 3 + (k + 1) % 3]);
+            }
+        }
+    }
+
+    private boolean samePosition(int a, int b) {
+        int pa = a * stride + positionOffset, pb = b * stride + positionOffset;
+        return vertices[pa] == vertices[pb] && vertices[pa + 1] == vertices[pb + 1] && vertices[pa + 2] == vertices[pb + 2];
+    }
+
+    private static long edgeKey(int a, int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+
+    /** Adds the plane of triangle (a, b, c) to the quadric of each of its corners. */
+    private void addPlaneQuadric(int a, int b, int c) {
+        int pa = a * stride + positionOffset, pb = b * stride + positionOffset, pc = c * stride + positionOffset;
+        double ux = vertices[pb] - vertices[pa], uy = vertices[pb + 1] - vertices[pa + 1], uz = vertices[pb + 2] - vertices[pa + 2];
+        double vx = vertices[pc] - vertices[pa], vy = vertices[pc + 1] - vertices[pa + 1], vz = vertices[pc + 2] - vertices[pa + 2];
+        double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) return;
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        double d = -(nx * vertices[pa] + ny * vertices[pa + 1] + nz * vertices[pa + 2]);
+        addQuadric(a, nx, ny, nz, d);
+        addQuadric(b, nx, ny, nz, d);
+        addQuadric(c, nx, ny, nz, d);
+    }
+
+    private void addQuadric(int v, double nx, double ny, double nz, double d) {
+        int q = v * 10;
+        quadrics[q] += nx * nx;
+        quadrics[q + 1] += nx * ny;
+        quadrics[q + 2] += nx * nz;
+        quadrics[q + 3] += nx * d;
+        quadrics[q + 4] += ny * ny;
+        quadrics[q + 5] += ny * nz;
+        quadrics[q + 6] += ny * d;
+        quadrics[q + 7] += nz * nz;
+        quadrics[q + 8] += nz * d;
+        quadrics[q + 9] += d * d;
+    }
+
+    /** The summed quadric of {@code a} and {@code b}, evaluated at the position of {@code at}. */
+    private double cost(int a, int b, int at) {
+        int qa = a * 10, qb = b * 10, p = at * stride + positionOffset;
+        double[] q = quadrics;
+        double x = vertices[p], y = vertices[p + 1], z = vertices[p + 2];
+        double q0 = q[qa] + q[qb], q1 = q[qa + 1] + q[qb + 1], q2 = q[qa + 2] + q[qb + 2], q3 = q[qa + 3] + q[qb + 3];
+        double q4 = q[qa + 4] + q[qb + 4], q5 = q[qa + 5] + q[qb + 5], q6 = q[qa + 6] + q[qb + 6];
+        double q7 = q[qa + 7] + q[qb + 7], q8 = q[qa + 8] + q[qb + 8], q9 = q[qa + 9] + q[qb + 9];
+        double e = x * x * q0 + 2 * x * y * q1 + 2 * x * z * q2 + 2 * x * q3
+                + y * y * q4 + 2 * y * z * q5 + 2 * y * q6
+                + z * z * q7 + 2 * z * q8 + q9;
+        return Math.max(0, e);
+    }
+
+    /** Queues the cheaper of collapsing a onto b or b onto a, if either may move. */
+    private void pushEdge(int a, int b) {
+        boolean aMoves = !locked[a], bMoves = !locked[b];
+        if (!aMoves && !bMoves) return;
+        double ab = aMoves ? cost(a, b, b) : Double.MAX_VALUE;
+        double ba = bMoves ? cost(a, b, a) : Double.MAX_VALUE;
+        if (ab <= ba) push(a, b, (float) ab);
+        else push(b, a, (float) ba);
+    }
+
+    private void push(int from, int to, float cost) {
+        if (candidateCount == candidateCosts.length) {
+            int capacity = candidateCount * 2;
+            candidateCosts = Arrays.copyOf(candidateCosts, capacity);
+            candidateFrom = Arrays.copyOf(candidateFrom, capacity);
+            candidateTo = Arrays.copyOf(candidateTo, capacity);
+            candidateStampFrom = Arrays.copyOf(candidateStampFrom, capacity);
+            candidateStampTo = Arrays.copyOf(candidateStampTo, capacity);
+        }
+        int c = candidateCount++;
+        candidateCosts[c] = cost;
+        candidateFrom[c] = from;
+        candidateTo[c] = to;
+        candidateStampFrom[c] = stamps[from];
+        candidateStampTo[c] = stamps[to];
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (candidateCosts[heap[parent]] <= cost) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = c;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        float cost = candidateCosts[last];
+        int i = 0;
+        for (;;) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && candidateCosts[heap[child + 1]] < candidateCosts[heap[child]]) child++;
+            if (candidateCosts[heap[child]] >= cost) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    private void collapseTo(int targetTriangles) {
+        while (aliveTriangles > targetTriangles && heapSize > 0) {
+            int c = pop();
+            int u = candidateFrom[c], v = candidateTo[c];
+            if (collapsedInto[u] >= 0 || collapsedInto[v] >= 0
+                    || stamps[u] != candidateStampFrom[c] || stamps[v] != candidateStampTo[c]) continue;
+            if (flips(u, v)) continue;
+            worstCost = Math.max(worstCost, candidateCosts[c]);
+            collapse(u, v);
+        }
+    }
+
+    /** Whether moving {@code u} onto {@code v} turns any of u's other triangles over or flat. */
+    private boolean flips(int u, int v) {
+        int[] list = vertexTriangles[u];
+        int pv = v * stride + positionOffset;
+        for (int i = 0, n = vertexTriangleCounts[u]; i < n; i++) {
+            int t = list[i];
+            if (dead[t]) continue;
+            int a = triangles[t * 3], b = triangles[t * 3 + 1], c = triangles[t * 3 + 2];
+            if (a == v || b == v || c == v) continue; // this one disappears
+            // Rotate so u comes first.
+            if (b == u) { b = c; c = a; } else if (c == u) { c = b; b = a; }
+            int pb = b * stride + positionOffset, pc = c * stride + positionOffset, pu = u * stride + positionOffset;
+            double bx = vertices[pb], by = vertices[pb + 1], bz = vertices[pb + 2];
+            double cx = vertices[pc], cy = vertices[pc + 1], cz = vertices[pc + 2];
+            double n0x, n0y, n0z, n1x, n1y, n1z;
+            {
+                double ux = bx - vertices[pu], uy = by - vertices[pu + 1], uz = bz - vertices[pu + 2];
+                double wx = cx - vertices[pu], wy = cy - vertices[pu + 1], wz = cz - vertices[pu + 2];
+                n0x = uy * wz - uz * wy;
+                n0y = uz * wx - ux * wz;
+                n0z = ux * wy - uy * wx;
+            }
+            {
+                double ux = bx - vertices[pv], uy = by - vertices[pv + 1], uz = bz - vertices[pv + 2];
+                double wx = cx - vertices[pv], wy = cy - vertices[pv + 1], wz = cz - vertices[pv + 2];
+                n1x = uy * wz - uz * wy;
+                n1y = uz * wx - ux * wz;
+                n1z = ux * wy - uy * wx;
+            }
+            double dot = n0x * n1x + n0y * n1y + n0z * n1z;
+            double length0 = n0x * n0x + n0y * n0y + n0z * n0z, length1 = n1x * n1x + n1y * n1y + n1z * n1z;
+            // Refuse anything that turns a triangle more than about 80 degrees.
+            if (dot <= 0 || dot * dot < 0.03 * length0 * length1) return true;
+        }
+        return false;
+    }
+
+    private void collapse(int u, int v) {
+        collapsedInto[u] = v;
+        for (int k = 0; k < 10; k++) quadrics[v * 10 + k] += quadrics[u * 10 + k];
+        int[] list = vertexTriangles[u];
+        for (int i = 0, n = vertexTriangleCounts[u]; i < n; i++) {
+            int t = list[i];
+            if (dead[t]) continue;
+            int a = t * 3;
+            if (triangles[a] == v || triangles[a + 1] == v || triangles[a + 2] == v) {
+                dead[t] = true;
+                aliveTriangles--;
+                continue;
+            }
+            for (int k = 0; k < 3; k++) if (triangles[a + k] == u) triangles[a + k] = v;
+            addVertexTriangle(v, t);
+        }
+        vertexTriangles[u] = null;
+        vertexTriangleCounts[u] = 0;
+        // v's quadric and neighbours changed: requeue its edges.
+        stamps[v]++;
+        int[] around = vertexTriangles[v];
+        for (int i = 0, n = vertexTriangleCounts[v]; i < n; i++) {
+            int t = around[i];
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                int w = triangles[t * 3 + k];
+                if (w != v) pushEdge(v, w);
+            }
+        }
+    }
+
+    private void addVertexTriangle(int v, int t) {
+        int[] list = vertexTriangles[v];
+        int n = vertexTriangleCounts[v];
+        if (list == null) {
+            vertexTriangles[v] = list = new int[8];
+        } else if (n == list.length) {
+            // Drop triangles that have died before growing.
+            int live = 0;
+            for (int i = 0; i < n; i++) if (!dead[list[i]]) list[live++] = list[i];
+            n = live;
+            if (n == list.length) vertexTriangles[v] = list = Arrays.copyOf(list, n * 2);
+        }
+        list[n] = t;
+        vertexTriangleCounts[v] = n + 1;
+    }
+
+    private int[] snapshot() {
+        int[] out = new int[aliveTriangles * 3];
+        int o = 0;
+        for (int t = 0; t < dead.length; t++) {
+            if (dead[t]) continue;
+            out[o++] = triangles[t * 3];
+            out[o++] = triangles[t * 3 + 1];
+            out[o++] = triangles[t * 3 + 2];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,230 @@
+// ========================================================================
+// io/github/jayhost/OcclusionBenchmark.java
+//
+// Draws a street of wall occluders into the OcclusionCuller and tests
+// 20,000 boxes behind and between them, on one thread and in parallel,
+// and checks every box it hides by casting rays at it past the walls.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class OcclusionBenchmark {
+
+    private static final int BOXES = 20_000;
+    private static final int WALLS = 200;
+    private static final int FRAMES = 100;
+    private static final float WORLD = 200;
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        // Walls: unit boxes stretched by their world matrices, like placed occluder models.
+        OcclusionCuller.Mesh cube = cube();
+        float[] walls = new float[WALLS * 16];
+        float[] wallBoxes = new float[WALLS * 6];
+        for (int i = 0; i < WALLS; i++) {
+            float x = random.nextFloat() * WORLD, z = 20 + random.nextFloat() * (WORLD - 20);
+            boolean alongX = random.nextBoolean();
+            float sx = alongX ? 10 + random.nextFloat() * 20 : 1, sy = 4 + random.nextFloat() * 8;
+            float sz = alongX ? 1 : 10 + random.nextFloat() * 20;
+            int o = i * 16;
+            walls[o] = sx;
+            walls[o + 5] = sy;
+            walls[o + 10] = sz;
+            walls[o + 12] = x;
+            walls[o + 13] = sy / 2;
+            walls[o + 14] = z;
+            walls[o + 15] = 1;
+            int b = i * 6;
+            wallBoxes[b] = x - sx / 2;
+            wallBoxes[b + 1] = 0;
+            wallBoxes[b + 2] = z - sz / 2;
+            wallBoxes[b + 3] = x + sx / 2;
+            wallBoxes[b + 4] = sy;
+            wallBoxes[b + 5] = z + sz / 2;
+        }
+        float[] boxes = new float[BOXES * 6];
+        for (int i = 0; i < BOXES; i++) {
+            float x = random.nextFloat() * WORLD, z = 10 + random.nextFloat() * (WORLD - 10);
+            float size = 0.3f + random.nextFloat() * 1.5f;
+            int b = i * 6;
+            boxes[b] = x;
+            boxes[b + 1] = 0;
+            boxes[b + 2] = z;
+            boxes[b + 3] = x + size;
+            boxes[b + 4] = size;
+            boxes[b + 5] = z + size;
+        }
+        float[] viewProjection = viewProjection(WORLD / 2, 1.7f, 0, WORLD / 2, 1.7f, 100, 67, 16 / 9f, 0.1f, 300);
+
+        OcclusionCuller sequential = new OcclusionCuller(320, 180);
+        sequential.setPool(null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        OcclusionCuller parallel = new OcclusionCuller(320, 180);
+        parallel.setPool(pool);
+
+        System.out.println("\n--- Occlusion Benchmark ---");
+        System.out.println(WALLS + " walls (" + WALLS * cube.triangleCount() + " triangles), " + BOXES
+                + " boxes, 320x180 depth buffer, best frame of " + FRAMES + ", parallel on " + pool.getParallelism()
+                + " threads (" + Runtime.getRuntime().availableProcessors() + " cores)");
+        System.out.println("=====================================");
+        report("draw occluders, 1 thread", measure(() -> draw(sequential, viewProjection, cube, walls)));
+        report("draw occluders, parallel", measure(() -> draw(parallel, viewProjection, cube, walls)));
+        boolean[] hidden = new boolean[BOXES];
+        report("test boxes", measure(() -> test(sequential, boxes, hidden)));
+        int count = 0;
+        for (boolean h : hidden) if (h) count++;
+        System.out.printf("%d of %d boxes hidden, %d occluder triangles rasterized%n",
+                count, BOXES, sequential.rasterizedTriangles());
+        System.out.println("depth buffers identical: " + sameDepth(sequential, parallel));
+        System.out.println("hidden boxes seen by a ray: " + leaks(boxes, hidden, wallBoxes, viewProjection));
+        System.out.println("=====================================");
+        pool.shutdown();
+    }
+
+    private static void draw(OcclusionCuller culler, float[] viewProjection, OcclusionCuller.Mesh cube, float[] walls) {
+        culler.begin(viewProjection);
+        for (int i = 0; i < WALLS; i++) culler.addOccluder(cube, walls, i * 16);
+        culler.rasterize();
+    }
+
+    private static void test(OcclusionCuller culler, float[] boxes, boolean[] hidden) {
+        for (int i = 0; i < BOXES; i++) {
+            int b = i * 6;
+            hidden[i] = !culler.isVisible(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+        }
+    }
+
+    private static boolean sameDepth(OcclusionCuller a, OcclusionCuller b) {
+        for (int y = 0; y < a.height(); y++) {
+            for (int x = 0; x < a.width(); x++) {
+                if (Float.floatToIntBits(a.depthAt(x, y)) != Float.floatToIntBits(b.depthAt(x, y))) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Casts rays from the eye to points spread over each hidden box and
+     * counts the boxes where one of them reaches its point without passing
+     * through a wall first: boxes the culler hid but that could be seen.
+     */
+    private static int leaks(float[] boxes, boolean[] hidden, float[] wallBoxes, float[] viewProjection) {
+        float ex = WORLD / 2, ey = 1.7f, ez = 0;
+        int leaks = 0;
+        for (int i = 0; i < BOXES; i++) {
+            if (!hidden[i]) continue;
+            int b = i * 6;
+            boolean seen = false;
+            for (int s = 0; s < 125 && !seen; s++) {
+                float px = boxes[b] + (boxes[b + 3] - boxes[b]) * (s % 5) / 4f;
+                float py = boxes[b + 1] + (boxes[b + 4] - boxes[b + 1]) * (s / 5 % 5) / 4f;
+                float pz = boxes[b + 2] + (boxes[b + 5] - boxes[b + 2]) * (s / 25) / 4f;
+                if (!inView(viewProjection, px, py, pz)) continue;
+                seen = true;
+                for (int w = 0; w < WALLS && seen; w++) {
+                    if (rayHits(ex, ey, ez, px, py, pz, wallBoxes, w * 6)) seen = false;
+                }
+            }
+            if (seen) leaks++;
+        }
+        return leaks;
+    }
+
+    private static boolean inView(float[] m, float x, float y, float z) {
+        float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+        float cx = m[0] * x + m[4] * y + m[8] * z + m[12];
+        float cy = m[1] * x + m[5] * y + m[9] * z + m[13];
+        float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+        return cw > 0 && Math.abs(cx) <= cw && Math.abs(cy) <= cw && Math.abs(cz) <= cw;
+    }
+
+    /** Whether the segment from the eye to p passes through the box, by the slab test. */
+    private static boolean rayHits(float ex, float ey, float ez, float px, float py, float pz, float[] box, int b) {
+        float[] origin = {ex, ey, ez};
+        float[] dir = {px - ex, py - ey, pz - ez};
+        float near = 0, far = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            float lo = box[b + axis], hi = box[b + 3 + axis];
+            if (dir[axis] == 0) {
+                if (origin[axis] < lo || origin[axis] > hi) return false;
+                continue;
+            }
+            float t0 = (lo - origin[axis]) / dir[axis], t1 = (hi - origin[axis]) / dir[axis];
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+            if (near > far) return false;
+        }
+        return near < 1;
+    }
+
+    /** A unit cube centred on the origin. */
+    private static OcclusionCuller.Mesh cube() {
+        float[] positions = new float[24];
+        for (int i = 0; i < 8; i++) {
+            positions[i * 3] = (i & 1) - 0.5f;
+            positions[i * 3 + 1] = (i >> 1 & 1) - 0.5f;
+            positions[i * 3 + 2] = (i >> 2 & 1) - 0.5f;
+        }
+        int[] indices = {
+                0, 1, 3, 0, 3, 2, 4, 6, 7, 4, 7, 5, // -z, +z
+                0, 4, 5, 0, 5, 1, 2, 3, 7, 2, 7, 6, // -y, +y
+                0, 2, 6, 0, 6, 4, 1, 5, 7, 1, 7, 3, // -x, +x
+        };
+        return new OcclusionCuller.Mesh(positions, indices);
+    }
+
+    /** projection * lookAt, column major, as libGDX's PerspectiveCamera would compute it. */
+    private static float[] viewProjection(float ex, float ey, float ez, float tx, float ty, float tz,
+                                          float fieldOfView, float aspect, float near, float far) {
+        float fx = tx - ex, fy = ty - ey, fz = tz - ez;
+        float length = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= length;
+        fy /= length;
+        fz /= length;
+        // side = forward x up(0, 1, 0), up' = side x forward
+        float sx = -fz, sy = 0, sz = fx;
+        length = (float) Math.sqrt(sx * sx + sz * sz);
+        sx /= length;
+        sz /= length;
+        float ux = sy * fz - sz * fy, uy = sz * fx - sx * fz, uz = sx * fy - sy * fx;
+        float[] view = {
+                sx, ux, -fx, 0,
+                sy, uy, -fy, 0,
+                sz, uz, -fz, 0,
+                -(sx * ex + sy * ey + sz * ez), -(ux * ex + uy * ey + uz * ez), fx * ex + fy * ey + fz * ez, 1,
+        };
+        float f = (float) (1 / Math.tan(Math.toRadians(fieldOfView) / 2));
+        float[] projection = {
+                f / aspect, 0, 0, 0,
+                0, f, 0, 0,
+                0, 0, (far + near) / (near - far), -1,
+                0, 0, 2 * far * near / (near - far), 0,
+        };
+        float[] out = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) sum += projection[k * 4 + row] * view[col * 4 + k];
+                out[col * 4 + row] = sum;
+            }
+        }
+        return out;
+    }
+
+    private static double measure(Runnable frame) {
+        for (int f = 0; f < FRAMES; f++) frame.run(); // warm up
+        long best = Long.MAX_VALUE;
+        for (int f = 0; f < FRAMES; f++) {
+            long start = System.nanoTime();
+            frame.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void report(String name, double ms) {
+        System.out.printf("%-40s %7.3f ms/frame%n", name, ms);
+    }
+}
@@ -0,0 +1,396 @@
+// ========================================================================
+// io/github/jayhost/OcclusionCuller.java
+//
+// Software occlusion culling: occluder triangles are rasterized into a
+// small depth buffer on the CPU, and bounding boxes are tested against it
+// to find objects hidden behind them before anything is sent to the GPU.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A low-resolution depth buffer drawn from occluders only. A frame goes:
+ * <ol>
+ *   <li>{@link #begin} with the camera's view-projection matrix;</li>
+ *   <li>{@link #addOccluder} for each occluder, which transforms its
+ *   triangles, clips them at the near plane, projects them and sorts them
+ *   into the screen tiles they touch;</li>
+ *   <li>{@link #rasterize}, which fills each tile's pixels with the nearest
+ *   occluder depth, tiles in parallel when there are enough triangles;</li>
+ *   <li>{@link #isVisible} for each object's world bounds, which projects the
+ *   box to a screen rectangle and its nearest depth, and reports it hidden
+ *   only if every pixel under the rectangle has an occluder in front of
+ *   it.</li>
+ * </ol>
+ * Each tile also keeps its farthest depth, so a box behind a tile that is
+ * fully covered is rejected without reading its pixels.
+ * <p>
+ * Depths are normalized device z, -1 at the near plane and 1 at the far
+ * plane, so matrices come in libGDX's {@code Camera.combined} layout,
+ * column major. A box that reaches behind the near plane is always
+ * visible. The buffer holds the same values whether it was drawn on one
+ * thread or many, because each tile is only written by one task and the
+ * nearest depth does not depend on the order triangles arrive in.
+ * <p>
+ * Nothing here needs a GL context. Everything except the parallel part of
+ * {@link #rasterize} runs on the calling thread.
+ */
+public final class OcclusionCuller {
+    public static final int TILE_SIZE = 32;
+    /** Fewer triangles than this are rasterized on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 512;
+    /** Clip-space w below which a point counts as behind the camera. */
+    private static final float MIN_W = 1e-5f;
+
+    /** Triangles to occlude with: {@code indices} into {@code positions}, three floats a vertex. */
+    public static final class Mesh {
+        public final float[] positions;
+        public final int[] indices;
+
+        public Mesh(float[] positions, int[] indices) {
+            this.positions = positions;
+            this.indices = indices;
+        }
+
+        public int triangleCount() {
+            return indices.length / 3;
+        }
+    }
+
+    private final int width, height;
+    private final int tilesX, tilesY;
+    private final float[] depth;
+    /** The farthest depth in each tile, after {@link #rasterize}. */
+    private final float[] tileMaxDepth;
+    private final float[] viewProjection = new float[16];
+
+    // Projected triangles, nine floats each: screen x, y and depth of three corners.
+    private float[] triangles = new float[9 * 256];
+    private int triangleCount;
+    // The triangles touching each tile.
+    private final int[][] bins;
+    private final int[] binSizes;
+
+    // Scratch for clipping one triangle against the near plane, four floats (x, y, z, w) a corner.
+    private final float[] clipIn = new float[12];
+    private final float[] clipOut = new float[16];
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int occluderTriangles;
+    private int tested, occluded;
+
+    public OcclusionCuller(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        depth = new float[width * height];
+        tileMaxDepth = new float[tilesX * tilesY];
+        bins = new int[tilesX * tilesY][16];
+        binSizes = new int[tilesX * tilesY];
+    }
+
+    /** Sets the pool {@link #rasterize} splits tiles across, or null to stay on the calling thread. */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Starts a frame seen through {@code viewProjection}, with nothing occluding. */
+    public void begin(float[] viewProjection) {
+        System.arraycopy(viewProjection, 0, this.viewProjection, 0, 16);
+        triangleCount = 0;
+        occluderTriangles = 0;
+        tested = 0;
+        occluded = 0;
+        Arrays.fill(binSizes, 0);
+    }
+
+    /**
+     * Adds the triangles of an occluder: {@code indices} into
+     * {@code positions}, three floats a vertex in model space, placed by the
+     * column-major matrix at {@code world[offset]}.
+     */
+    public void addOccluder(float[] positions, int[] indices, float[] world, int offset) {
+        float[] m = viewProjection;
+        float[] w = world;
+        int o = offset;
+        // model-view-projection = viewProjection * world, so each vertex is transformed once.
+        float a0 = m[0] * w[o] + m[4] * w[o + 1] + m[8] * w[o + 2];
+        float a1 = m[1] * w[o] + m[5] * w[o + 1] + m[9] * w[o + 2];
+        float a2 = m[2] * w[o] + m[6] * w[o + 1] + m[10] * w[o + 2];
+        float a3 = m[3] * w[o] + m[7] * w[o + 1] + m[11] * w[o + 2];
+        float b0 = m[0] * w[o + 4] + m[4] * w[o + 5] + m[8] * w[o + 6];
+        float b1 = m[1] * w[o + 4] + m[5] * w[o + 5] + m[9] * w[o + 6];
+        float b2 = m[2] * w[o + 4] + m[6] * w[o + 5] + m[10] * w[o + 6];
+        float b3 = m[3] * w[o + 4] + m[7] * w[o + 5] + m[11] * w[o + 6];
+        float c0 = m[0] * w[o + 8] + m[4] * w[o + 9] + m[8] * w[o + 10];
+        float c1 = m[1] * w[o + 8] + m[5] * w[o + 9] + m[9] * w[o + 10];
+        float c2 = m[2] * w[o + 8] + m[6] * w[o + 9] + m[10] * w[o + 10];
+        float c3 = m[3] * w[o + 8] + m[7] * w[o + 9] + m[11] * w[o + 10];
+        float d0 = m[0] * w[o + 12] + m[4] * w[o + 13] + m[8] * w[o + 14] + m[12];
+        float d1 = m[1] * w[o + 12] + m[5] * w[o + 13] + m[9] * w[o + 14] + m[13];
+        float d2 = m[2] * w[o + 12] + m[6] * w[o + 13] + m[10] * w[o + 14] + m[14];
+        float d3 = m[3] * w[o + 12] + m[7] * w[o + 13] + m[11] * w[o + 14] + m[15];
+        float[] in = clipIn;
+        for (int t = 0; t + 2 < indices.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t + k] * 3;
+                float x = positions[v], y = positions[v + 1], z = positions[v + 2];
+                in[k * 4] = a0 * x + b0 * y + c0 * z + d0;
+                in[k * 4 + 1] = a1 * x + b1 * y + c1 * z + d1;
+                in[k * 4 + 2] = a2 * x + b2 * y + c2 * z + d2;
+                in[k * 4 + 3] = a3 * x + b3 * y + c3 * z + d3;
+            }
+            occluderTriangles++;
+            addClipTriangle();
+        }
+    }
+
+    /** Adds the triangles of {@code mesh}, placed by the matrix at {@code world[offset]}. */
+    public void addOccluder(Mesh mesh, float[] world, int offset) {
+        addOccluder(mesh.positions, mesh.indices, world, offset);
+    }
+
+    /** Clips the triangle in {@code clipIn} against the near plane and bins what is left. */
+    private void addClipTriangle() {
+        float[] in = clipIn;
+        // Signed distance to the near plane, z = -w in clip space.
+        float e0 = in[2] + in[3], e1 = in[6] + in[7], e2 = in[10] + in[11];
+        if (e0 >= 0 && e1 >= 0 && e2 >= 0) {
+            if (in[3] < MIN_W || in[7] < MIN_W || in[11] < MIN_W) return;
+            bin(in, 0, in, 4, in, 8);
+            return;
+        }
+        if (e0 < 0 && e1 < 0 && e2 < 0) return;
+        float[] out = clipOut;
+        int n = 0;
+        for (int i = 0; i < 3; i++) {
+            int j = (i + 1) % 3;
+            float ei = in[i * 4 + 2] + in[i * 4 + 3], ej = in[j * 4 + 2] + in[j * 4 + 3];
+            if (ei >= 0) {
+                System.arraycopy(in, i * 4, out, n * 4, 4);
+                n++;
+            }
+            if ((ei >= 0) != (ej >= 0)) {
+                float s = ei / (ei - ej);
+                for (int c = 0; c < 4; c++) out[n * 4 + c] = in[i * 4 + c] + s * (in[j * 4 + c] - in[i * 4 + c]);
+                n++;
+            }
+        }
+        for (int k = 0; k < n; k++) if (out[k * 4 + 3] < MIN_W) return;
+        // A triangle with one corner cut off becomes a quad: two triangles sharing the first corner.
+        for (int k = 1; k + 1 < n; k++) bin(out, 0, out, k * 4, out, (k + 1) * 4);
+    }
+
+    /** Projects one clipped triangle to the screen and adds it to the bins of the tiles it covers. */
+    private void bin(float[] p, int i, float[] q, int j, float[] r, int k) {
+        if (triangleCount * 9 == triangles.length) triangles = Arrays.copyOf(triangles, triangles.length * 2);
+        int base = triangleCount * 9;
+        float[] tri = triangles;
+        project(p, i, tri, base);
+        project(q, j, tri, base + 3);
+        project(r, k, tri, base + 6);
+        float minX = Math.min(tri[base], Math.min(tri[base + 3], tri[base + 6]));
+        float maxX = Math.max(tri[base], Math.max(tri[base + 3], tri[base + 6]));
+        float minY = Math.min(tri[base + 1], Math.min(tri[base + 4], tri[base + 7]));
+        float maxY = Math.max(tri[base + 1], Math.max(tri[base + 4], tri[base + 7]));
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) return;
+        // Nothing beyond the far plane can hide anything.
+        if (Math.min(tri[base + 2], Math.min(tri[base + 5], tri[base + 8])) > 1) return;
+        int tx0 = Math.max(0, (int) minX / TILE_SIZE), tx1 = Math.min(tilesX - 1, (int) maxX / TILE_SIZE);
+        int ty0 = Math.max(0, (int) minY / TILE_SIZE), ty1 = Math.min(tilesY - 1, (int) maxY / TILE_SIZE);
+        int index = triangleCount++;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int tile = ty * tilesX + tx;
+                if (binSizes[tile] == bins[tile].length) bins[tile] = Arrays.copyOf(bins[tile], binSizes[tile] * 2);
+                bins[tile][binSizes[tile]++] = index;
+            }
+        }
+    }
+
+    private void project(float[] clip, int c, float[] out, int o) {
+        float invW = 1 / clip[c + 3];
+        out[o] = (clip[c] * invW * 0.5f + 0.5f) * width;
+        out[o + 1] = (clip[c + 1] * invW * 0.5f + 0.5f) * height;
+        out[o + 2] = clip[c + 2] * invW;
+    }
+
+    /** Draws every added occluder into the depth buffer. */
+    public void rasterize() {
+        int tiles = tilesX * tilesY;
+        if (pool != null && triangleCount >= PARALLEL_THRESHOLD && pool.getParallelism() > 1) {
+            pool.invoke(new Raster(0, tiles));
+        } else {
+            for (int tile = 0; tile < tiles; tile++) rasterizeTile(tile);
+        }
+    }
+
+    /** Splits a range of tiles until each task has one row's worth. */
+    private final class Raster extends RecursiveAction {
+        private final int from, to;
+
+        Raster(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= tilesX) {
+                for (int tile = from; tile < to; tile++) rasterizeTile(tile);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Raster(from, mid), new Raster(mid, to));
+        }
+    }
+
+    /** Clears one tile and fills it with its triangles, keeping the nearest depth of each pixel. */
+    private void rasterizeTile(int tile) {
+        int tx = tile % tilesX, ty = tile / tilesX;
+        int x0 = tx * TILE_SIZE, y0 = ty * TILE_SIZE;
+        int x1 = Math.min(width, x0 + TILE_SIZE), y1 = Math.min(height, y0 + TILE_SIZE);
+        float[] d = depth;
+        for (int y = y0; y < y1; y++) Arrays.fill(d, y * width + x0, y * width + x1, Float.POSITIVE_INFINITY);
+        int[] bin = bins[tile];
+        float[] tri = triangles;
+        for (int b = 0, n = binSizes[tile]; b < n; b++) {
+            int base = bin[b] * 9;
+            float ax = tri[base], ay = tri[base + 1], az = tri[base + 2];
+            float bx = tri[base + 3], by = tri[base + 4], bz = tri[base + 5];
+            float cx = tri[base + 6], cy = tri[base + 7], cz = tri[base + 8];
+            float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+            if (area == 0) continue;
+            if (area < 0) {
+                // Occluders are drawn from both sides; flip to one winding.
+                float t = bx; bx = cx; cx = t;
+                t = by; by = cy; cy = t;
+                t = bz; bz = cz; cz = t;
+                area = -area;
+            }
+            // Pixels whose centres the triangle covers, within this tile.
+            int px0 = Math.max(x0, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5f));
+            int px1 = Math.min(x1 - 1, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f));
+            int py0 = Math.max(y0, (int) Math.ceil(Math.min(ay, Math.min(by, cy)) - 0.5f));
+            int py1 = Math.min(y1 - 1, (int) Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5f));
+            if (px0 > px1 || py0 > py1) continue;
+            // Edge functions, stepped by adding their x and y slopes.
+            float e0x = by - cy, e0y = cx - bx;
+            float e1x = cy - ay, e1y = ax - cx;
+            float e2x = ay - by, e2y = bx - ax;
+            float sx = px0 + 0.5f, sy = py0 + 0.5f;
+            float w0row = (sx - bx) * e0x + (sy - by) * e0y;
+            float w1row = (sx - cx) * e1x + (sy - cy) * e1y;
+            float w2row = (sx - ax) * e2x + (sy - ay) * e2y;
+            float invArea = 1 / area;
+            // Depth is linear in screen space: z = z0 + dzdx * x + dzdy * y.
+            float dzdx = (e0x * az + e1x * bz + e2x * cz) * invArea;
+            float dzdy = (e0y * az + e1y * bz + e2y * cz) * invArea;
+            float zrow = (w0row * az + w1row * bz + w2row * cz) * invArea;
+            for (int y = py0; y <= py1; y++) {
+                float w0 = w0row, w1 = w1row, w2 = w2row, z = zrow;
+                int row = y * width;
+                for (int x = px0; x <= px1; x++) {
+                    if (w0 >= 0 && w1 >= 0 && w2 >= 0 && z < d[row + x]) d[row + x] = z;
+                    w0 += e0x;
+                    w1 += e1x;
+                    w2 += e2x;
+                    z += dzdx;
+                }
+                w0row += e0y;
+                w1row += e1y;
+                w2row += e2y;
+                zrow += dzdy;
+            }
+        }
+        float max = Float.NEGATIVE_INFINITY;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) max = Math.max(max, d[y * width + x]);
+        }
+        tileMaxDepth[tile] = max;
+    }
+
+    /**
+     * Whether any part of the box from (x0, y0, z0) to (x1, y1, z1) could be
+     * seen past the occluders. Read-only, so it may be called from several
+     * threads at once, though the counters then lose counts.
+     */
+    public boolean isVisible(float x0, float y0, float z0, float x1, float y1, float z1) {
+        tested++;
+        float[] m = viewProjection;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? x0 : x1;
+            float y = (corner & 2) == 0 ? y0 : y1;
+            float z = (corner & 4) == 0 ? z0 : z1;
+            float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+            float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+            if (cz < -cw || cw < MIN_W) return true; // reaches past the near plane
+            float invW = 1 / cw;
+            float sx = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * invW * 0.5f + 0.5f) * width;
+            float sy = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * invW * 0.5f + 0.5f) * height;
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+            minZ = Math.min(minZ, cz * invW);
+        }
+        // Every pixel the rectangle touches, not only those whose centres it covers.
+        int px0 = Math.max(0, (int) Math.floor(minX)), px1 = Math.min(width - 1, (int) Math.floor(maxX));
+        int py0 = Math.max(0, (int) Math.floor(minY)), py1 = Math.min(height - 1, (int) Math.floor(maxY));
+        if (px0 > px1 || py0 > py1) return true; // off screen; the frustum decides
+        float[] d = depth;
+        for (int ty = py0 / TILE_SIZE; ty <= py1 / TILE_SIZE; ty++) {
+            for (int tx = px0 / TILE_SIZE; tx <= px1 / TILE_SIZE; tx++) {
+                // The whole tile is covered by something nearer than the box.
+                if (tileMaxDepth[ty * tilesX + tx] < minZ) continue;
+                int ya = Math.max(py0, ty * TILE_SIZE), yb = Math.min(py1, ty * TILE_SIZE + TILE_SIZE - 1);
+                int xa = Math.max(px0, tx * TILE_SIZE), xb = Math.min(px1, tx * TILE_SIZE + TILE_SIZE - 1);
+                for (int y = ya; y <= yb; y++) {
+                    int row = y * width;
+                    for (int x = xa; x <= xb; x++) if (d[row + x] >= minZ) return true;
+                }
+            }
+        }
+        occluded++;
+        return false;
+    }
+
+    /** The depth of pixel (x, y) after {@link #rasterize}, +infinity where no occluder is. */
+    public float depthAt(int x, int y) {
+        return depth[y * width + x];
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Occluder triangles added since {@link #begin}, before clipping. */
+    public int occluderTriangles() {
+        return occluderTriangles;
+    }
+
+    /** Triangles left after clipping and that reach the screen. */
+    public int rasterizedTriangles() {
+        return triangleCount;
+    }
+
+    /** Boxes tested since {@link #begin}. */
+    public int tested() {
+        return tested;
+    }
+
+    /** Boxes found hidden since {@link #begin}. */
+    public int occluded() {
+        return occluded;
+    }
+}
@@ -1,15 +1,57 @@
 package io.github.jayhost;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Reader for Lisp source text.
+ * <p>
+ * The parser scans a {@code char[]} by offset: atoms are never copied into a
+ * temporary buffer, numbers are recognised and converted in a single pass
+ * without relying on {@link NumberFormatException}, and symbols are interned
+ * into {@link SymbolTable#GLOBAL} straight from the buffer. A token starting
+ * with a colon, such as {@code :idle}, reads as a {@link KeywordExpr}, and the
+ * quote prefixes used by macros expand to their long forms as they are read.
+ * List elements are gathered on one reusable stack and copied out into an
+ * exact-size array, so no intermediate collection is built per list.
+ */
 public class Parser {
-    private final String source;
-    private int current = 0;
-    private int line = 1;
+    /** Exact powers of ten; every one of these is representable as a double. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
 
-    public Parser(String source) {
+    private final char[] source;
+    private final int end;
+    private int current;
+    private int line;
+    private int lineStart;
+    private Expr[] stack = new Expr[64];
+    private int stackSize;
+
+    public Parser(CharSequence source) {
+        this(toChars(source), 0, source.length());
+    }
+
+    /**
+     * Parses {@code source[offset, offset + length)} without copying it.
+     */
+    public Parser(char[] source, int offset, int length) {
+        this(source, offset, length, 1);
+    }
+
+    /**
+     * Parses a slice of a larger text; {@code firstLine} is the line number
+     * of {@code source[offset]} so that positions match the whole file.
+     */
+    public Parser(char[] source, int offset, int length, int firstLine) {
         this.source = source;
+        this.current = offset;
+        this.end = offset + length;
+        this.line = firstLine;
+        this.lineStart = offset;
     }
 
     /**
@@ -26,7 +68,7 @@ public class Parser {
         }
         return expressions;
     }
-    
+
     public Expr parse() throws ParseException {
         skipWhitespace();
         if (isAtEnd()) {
@@ -34,7 +76,7 @@ public class Parser {
         }
         Expr expr = parseExpr();
         skipWhitespace();
-        if (!isAtEnd() && peek() != ';') { // Allow comments at the end
+        if (!isAtEnd()) {
             throw new ParseException("Unexpected characters at end: '" + peek() + "'");
         }
         return expr;
@@ -42,116 +84,265 @@ public class Parser {
 
     private Expr parseExpr() throws ParseException {
         skipWhitespace();
-        return parsePrimary();
-    }
-
-    private Expr parsePrimary() throws ParseException {
-        skipWhitespace();
-        char c = peek();
-        if (c == ';') {
-            skipComment();
-            return parseExpr(); // Try parsing the next expression
+        if (isAtEnd()) {
+            throw new ParseException("Unexpected end of input");
         }
+        char c = source[current];
         if (c == '(') {
             return parseList();
         } else if (c == '"') {
             return parseString();
+        } else if (c == ')') {
+            throw new ParseException("Unexpected ')' on line " + line);
+        } else if (c == '\'' || c == '`' || c == ',') {
+            return parseQuote(c);
         } else {
             return parseAtom();
         }
     }
 
+    /**
+     * Reads {@code 'x}, {@code `x}, {@code ,x} and {@code ,@x} as
+     * {@code (quote x)}, {@code (quasiquote x)}, {@code (unquote x)} and
+     * {@code (unquote-splicing x)}.
+     */
+    private Expr parseQuote(char prefix) throws ParseException {
+        int startPos = position();
+        current++;
+        int form = prefix == '\'' ? Symbols.QUOTE : prefix == '`' ? Symbols.QUASIQUOTE : Symbols.UNQUOTE;
+        if (prefix == ',' && current < end && source[current] == '@') {
+            form = Symbols.UNQUOTE_SPLICING;
+            current++;
+        }
+        Expr quoted = parseExpr();
+        return new ListExpr(new Expr[]{SymbolExpr.of(SymbolTable.GLOBAL.symbol(form)), quoted}, startPos);
+    }
+
     private Expr parseString() throws ParseException {
         int startLine = line;
-        consume('"'); // Consume the opening quote
-        StringBuilder sb = new StringBuilder();
-        while (!isAtEnd() && peek() != '"') {
-            // Here you could handle escape sequences like \n or \" if you wanted
-            sb.append(advance());
+        int startPos = position();
+        current++; // Consume the opening quote
+        int start = current;
+        // Fast path: no escapes, so the literal is one slice of the buffer.
+        while (current < end) {
+            char c = source[current];
+            if (c == '"') {
+                String value = new String(source, start, current - start);
+                current++;
+                return new StringExpr(value, startPos);
+            }
+            if (c == '\\') break;
+            if (c == '\n') newLine(current);
+            current++;
+        }
+        StringBuilder sb = new StringBuilder(current - start + 16);
+        sb.append(source, start, current - start);
+        while (current < end) {
+            char c = source[current++];
+            if (c == '"') {
+                return new StringExpr(sb.toString(), startPos);
+            }
+            if (c == '\\') {
+                sb.append(parseEscape());
+            } else {
+                if (c == '\n') newLine(current - 1);
+                sb.append(c);
+            }
         }
+        throw new ParseException("Unterminated string literal starting on line " + startLine + ".");
+    }
+
+    private char parseEscape() throws ParseException {
         if (isAtEnd()) {
-            throw new ParseException("Unterminated string literal.");
+            throw new ParseException("Unterminated escape sequence on line " + line);
+        }
+        char c = source[current++];
+        switch (c) {
+            case 'n': return '\n';
+            case 't': return '\t';
+            case 'r': return '\r';
+            case '0': return '\0';
+            case '"': return '"';
+            case '\\': return '\\';
+            case 'u': {
+                if (end - current < 4) {
+                    throw new ParseException("Truncated \\u escape on line " + line);
+                }
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(source[current++], 16);
+                    if (digit < 0) {
+                        throw new ParseException("Bad \\u escape on line " + line);
+                    }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            }
+            default:
+                throw new ParseException("Unknown escape sequence '\\" + c + "' on line " + line);
         }
-        consume('"'); // Consume the closing quote
-        return new StringExpr(sb.toString(), startLine);
     }
-    
-    
+
     private Expr parseList() throws ParseException {
         int startLine = line;
-        consume('(');
-        List<Expr> elements = new ArrayList<>();
-        while (!isAtEnd() && peek() != ')') {
-            elements.add(parseExpr());
+        int startPos = position();
+        current++; // Consume '('
+        int base = stackSize;
+        skipWhitespace();
+        while (!isAtEnd() && source[current] != ')') {
+            Expr element = parseExpr();
+            if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+            stack[stackSize++] = element;
             skipWhitespace();
         }
         if (isAtEnd()) {
-            throw new ParseException("Unexpected end of input in list");
+            throw new ParseException("Unexpected end of input in list starting on line " + startLine);
         }
-        consume(')');
-        return new ListExpr(elements, startLine);
+        current++; // Consume ')'
+        Expr[] items = Arrays.copyOfRange(stack, base, stackSize);
+        Arrays.fill(stack, base, stackSize, null);
+        stackSize = base;
+        return new ListExpr(items, startPos);
     }
-    
+
     private Expr parseAtom() throws ParseException {
-        int startLine = line;
-        StringBuilder sb = new StringBuilder();
-        while (!isAtEnd() && !Character.isWhitespace(peek()) && peek() != '(' && peek() != ')') {
-            sb.append(advance());
+        int start = current;
+        while (current < end && !isDelimiter(source[current])) {
+            current++;
         }
-        String token = sb.toString();
-        if (token.isEmpty()) {
+        int len = current - start;
+        if (len == 0) {
             throw new ParseException("Empty token");
         }
-        try {
-            // Avoid parsing special symbols as numbers
-            if(token.equals("+") || token.equals("-")) throw new NumberFormatException();
-            return new NumberExpr(Double.parseDouble(token), startLine);
-        } catch (NumberFormatException e) {
-            return new SymbolExpr(token, startLine);
+        double value = parseNumber(start, len);
+        if (value == value) { // NaN signals "not a number"
+            return NumberExpr.of(value);
+        }
+        if (source[start] == ':' && len > 1) {
+            return KeywordExpr.of(SymbolTable.GLOBAL.intern(source, start + 1, len - 1));
         }
+        return SymbolExpr.of(SymbolTable.GLOBAL.intern(source, start, len));
     }
 
-    private char peek() {
-        if (isAtEnd()) return '\0';
-        return source.charAt(current);
+    /**
+     * Recognises {@code [+-]? (digits [. digits*] | . digits) ([eE] [+-]? digits)?}
+     * and converts it, or returns {@code NaN} if the token is not a number.
+     * Short mantissas with small exponents are converted exactly with one
+     * multiply or divide; anything else falls back to {@link Double#parseDouble},
+     * which can no longer throw because the token has already been validated.
+     */
+    private double parseNumber(int start, int len) {
+        int i = start;
+        int stop = start + len;
+        boolean negative = false;
+        char c = source[i];
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            if (++i == stop) return Double.NaN; // "+" and "-" are symbols
+        }
+
+        long mantissa = 0;
+        int significant = 0;
+        int scale = 0;
+        int digits = 0;
+        for (; i < stop && (c = source[i]) >= '0' && c <= '9'; i++, digits++) {
+            if (mantissa != 0 || c != '0') {
+                if (significant < 18) { mantissa = mantissa * 10 + (c - '0'); significant++; }
+                else scale++;
+            }
+        }
+        if (i < stop && source[i] == '.') {
+            for (i++; i < stop && (c = source[i]) >= '0' && c <= '9'; i++, digits++) {
+                if (mantissa != 0 || c != '0') {
+                    if (significant < 18) { mantissa = mantissa * 10 + (c - '0'); significant++; scale--; }
+                } else {
+                    scale--;
+                }
+            }
+        }
+        if (digits == 0) return Double.NaN;
+
+        if (i < stop && (source[i] == 'e' || source[i] == 'E')) {
+            if (++i == stop) return Double.NaN;
+            boolean negExp = false;
+            if (source[i] == '+' || source[i] == '-') {
+                negExp = source[i] == '-';
+                if (++i == stop) return Double.NaN;
+            }
+            int exp = 0;
+            for (; i < stop && (c = source[i]) >= '0' && c <= '9'; i++) {
+                if (exp < 100_000) exp = exp * 10 + (c - '0');
+            }
+            scale += negExp ? -exp : exp;
+        }
+        if (i != stop) return Double.NaN;
+
+        if (mantissa == 0) return negative ? -0.0 : 0.0;
+        if (significant <= 15 && scale >= -22 && scale <= 22) {
+            double v = mantissa;
+            v = scale < 0 ? v / POWERS_OF_TEN[-scale] : v * POWERS_OF_TEN[scale];
+            return negative ? -v : v;
+        }
+        return Double.parseDouble(new String(source, start, len));
     }
 
-    private char advance() {
-        char c = source.charAt(current++);
-        if (c == '\n') {
-            line++;
+    /** Atoms end at whitespace, parentheses, a string quote or a comment. */
+    static boolean isDelimiter(char c) {
+        if (c > ' ' && c < 127) {
+            return c == '(' || c == ')' || c == '"' || c == ';';
         }
-        return c;
+        return Character.isWhitespace(c);
+    }
+
+    private char peek() {
+        if (isAtEnd()) return '\0';
+        return source[current];
     }
 
     private void skipWhitespace() {
-        while (!isAtEnd()) {
-            char c = peek();
-            if (c == ' ' || c == '\r' || c == '\t' || c == '\n') {
-                advance();
+        while (current < end) {
+            char c = source[current];
+            if (c == ' ' || c == '\r' || c == '\t') {
+                current++;
+            } else if (c == '\n') {
+                newLine(current);
+                current++;
             } else if (c == ';') { // Handle comments as whitespace
                 skipComment();
-            }
-            else {
+            } else {
                 break;
             }
         }
     }
-    
+
     private void skipComment() {
-        while (!isAtEnd() && peek() != '\n') {
-            advance();
+        while (current < end && source[current] != '\n') {
+            current++;
         }
     }
 
+    /** Records that the character at {@code newlineOffset} ends a line. */
+    private void newLine(int newlineOffset) {
+        line++;
+        lineStart = newlineOffset + 1;
+    }
+
+    private int position() {
+        return Expr.pack(line, current - lineStart + 1);
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
-    private void consume(char expected) throws ParseException {
-        if (isAtEnd() || peek() != expected) {
-            throw new ParseException("Expected '" + expected + "' but found '" + peek() + "'");
+    private static char[] toChars(CharSequence source) {
+        if (source instanceof String s) {
+            return s.toCharArray();
+        }
+        char[] chars = new char[source.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = source.charAt(i);
         }
-        advance();
+        return chars;
     }
 }
@@ -0,0 +1,65 @@
+// ========================================================================
+// io/github/jayhost/ParserBenchmark.java
+//
+// Measures reader throughput on a large generated level script.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.List;
+
+public class ParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int targetMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        String source = generateScript(targetMegabytes * 1024 * 1024);
+        double megabytes = source.length() / (1024.0 * 1024.0);
+
+        System.out.println("\n--- Parser Benchmark ---");
+        System.out.printf("Script size: %.2f MB (%d chars)%n", megabytes, source.length());
+
+        int forms = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            forms = new Parser(source).parseMultiple().size();
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long startTime = System.nanoTime();
+            List<Expr> asts = new Parser(source).parseMultiple();
+            long elapsed = System.nanoTime() - startTime;
+            if (asts.size() != forms) throw new IllegalStateException("Parser is not deterministic");
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        System.out.println("=====================================");
+        System.out.println("Top-level forms: " + forms);
+        System.out.printf("Best:    %.1f MB/s (%.2f ms)%n", megabytes / (best / 1e9), best / 1e6);
+        System.out.printf("Average: %.1f MB/s%n", megabytes * MEASURED_ROUNDS / (total / 1e9));
+        System.out.println("=====================================");
+    }
+
+    /**
+     * Builds a script that looks like a level file: definitions, spawn calls
+     * with numeric coordinates, string literals with escapes and comments.
+     */
+    static String generateScript(int approxChars) {
+        StringBuilder sb = new StringBuilder(approxChars + 256);
+        int i = 0;
+        while (sb.length() < approxChars) {
+            sb.append(";; prop group ").append(i).append('\n');
+            sb.append("(def (spawn-group-").append(i).append(" x y)\n");
+            sb.append("  (let (dx (* x 1.5) dy (- y 0.25e1))\n");
+            sb.append("    (add-at \"models/props/crate_").append(i % 17).append(".gltf\" dx dy ")
+              .append(i * 0.125).append(")))\n");
+            sb.append("(defvar label-").append(i).append(" \"Group \\\"").append(i).append("\\\"\\n\")\n");
+            sb.append("(spawn-group-").append(i).append(' ').append(i % 100).append(" -").append(i % 7).append(".5)\n");
+            i++;
+        }
+        return sb.toString();
+    }
+}
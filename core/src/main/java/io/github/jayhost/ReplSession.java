@@ -9,8 +9,13 @@ package io.github.jayhost;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * One interactive session. Keeps a global environment alive by using a
@@ -21,14 +26,22 @@ public final class ReplSession {
     /** The JIT compiler that holds the session's state and environment. */
     private final LispJitCompiler jit;
 
-    /** Accumulates all top-level definition forms to provide context to the compiler. */
-    private final List<Expr> topLevelForms;
+    /** Upper bound on the number of forms compiled together by {@link #load(FormReader)}. */
+    static final int LOAD_BATCH_SIZE = 256;
 
     /**
-     * Constructs a new REPL session with its own isolated environment.
+     * The latest definition form of every global, in definition order, so the
+     * session's definitions can be handed to another session. A redefinition
+     * replaces the old form so superseded ASTs do not stay reachable.
+     */
+    private final Map<Symbol, Expr> topLevelForms = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new REPL session with its own environment, which starts out
+     * with the {@link StandardLibrary} mounted.
      */
     public ReplSession() {
-        this(new Environment());
+        this(StandardLibrary.newEnvironment());
     }
 
     /**
@@ -43,12 +56,15 @@ public final class ReplSession {
 
     /**
      * Constructs a new REPL session with a shared environment and pre-existing definitions.
+     * The definitions are not evaluated again; their values already live in {@code sharedEnv}.
      * @param sharedEnv The environment to share.
      * @param initialForms The list of definition forms from a previous session.
      */
     public ReplSession(Environment sharedEnv, List<Expr> initialForms) {
         this.jit = new LispJitCompiler(sharedEnv);
-        this.topLevelForms = new ArrayList<>(initialForms);
+        for (Expr form : initialForms) {
+            if (isDefinition(form)) remember(form);
+        }
     }
 
     /**
@@ -61,11 +77,11 @@ public final class ReplSession {
     }
 
     /**
-     * Returns the list of top-level definition forms accumulated in this session.
-     * @return The list of definition expressions.
+     * Returns the current top-level definition forms of this session.
+     * @return A snapshot of the definition expressions, in definition order.
      */
     public List<Expr> getTopLevelForms() {
-        return this.topLevelForms;
+        return new ArrayList<>(this.topLevelForms.values());
     }
 
     /**
@@ -82,22 +98,97 @@ public final class ReplSession {
         if (currentForms.isEmpty()) {
             return null;
         }
+        return evalForms(currentForms);
+    }
 
-        List<Expr> formsToCompile = new ArrayList<>(this.topLevelForms);
-        formsToCompile.addAll(currentForms);
-    
-        LispCallable script = jit.compile(formsToCompile);
+    /**
+     * Loads a script file through a memory mapping, compiling and running its
+     * forms as they are read.
+     *
+     * @param file The script to load.
+     * @return The value of the file's last expression.
+     */
+    public Object load(Path file) throws Exception {
+        try (FormReader reader = FormReader.open(file)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Loads a script from a character stream, compiling and running its forms
+     * as they are read.
+     */
+    public Object load(Reader source) throws Exception {
+        return load(new FormReader(source));
+    }
+
+    /**
+     * Streams forms from {@code reader} into the compiler. Forms are compiled
+     * in small batches as they arrive: a batch is flushed when it is full, or
+     * when a definition follows an expression so that expressions never see a
+     * definition from later in the file. Only the current batch and the
+     * definitions themselves are retained, not the whole file's AST.
+     *
+     * @return The value of the last expression, or {@code null} if there was none.
+     */
+    public Object load(FormReader reader) throws Exception {
+        List<Expr> batch = new ArrayList<>();
+        boolean batchHasExpression = false;
+        Object result = null;
+        for (Expr form = reader.next(); form != null; form = reader.next()) {
+            boolean definition = isDefinition(form);
+            if ((definition && batchHasExpression) || batch.size() >= LOAD_BATCH_SIZE) {
+                Object last = evalForms(batch);
+                if (batchHasExpression) result = last;
+                batch.clear();
+                batchHasExpression = false;
+            }
+            batch.add(form);
+            batchHasExpression |= !definition;
+        }
+        if (!batch.isEmpty()) {
+            Object last = evalForms(batch);
+            if (batchHasExpression) result = last;
+        }
+        return result;
+    }
+
+    /**
+     * Compiles and runs only {@code currentForms}. Earlier definitions are
+     * reached through their cells in the environment, so they are neither
+     * recompiled nor re-initialized.
+     */
+    Object evalForms(List<Expr> currentForms) throws Exception {
+        LispCallable script = jit.compile(currentForms);
         Object result = script.apply(new Object[0]);
 
         for (Expr form : currentForms) {
-            if (Helpers.isSpecialForm(form, "def") || Helpers.isSpecialForm(form, "defvar")) {
-                this.topLevelForms.add(form);
+            if (isDefinition(form)) {
+                remember(form);
             }
         }
     
         return result;
     }
 
+    private void remember(Expr definition) {
+        Symbol name = definedName(definition);
+        this.topLevelForms.remove(name); // re-insert at the end to keep definition order
+        this.topLevelForms.put(name, definition);
+    }
+
+    private static boolean isDefinition(Expr form) {
+        return Helpers.isSpecialForm(form, Symbols.DEF) || Helpers.isSpecialForm(form, Symbols.DEFVAR)
+                || Helpers.isSpecialForm(form, Symbols.DEFMACRO) || Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE);
+    }
+
+    /** The global introduced by a {@code def}, {@code defvar}, {@code defmacro} or {@code defcoroutine} form. */
+    private static Symbol definedName(Expr definition) {
+        Expr target = ((ListExpr) definition).get(1);
+        if (target instanceof ListExpr proto) target = proto.get(0); // (def (name args...) body)
+        return ((SymbolExpr) target).symbol;
+    }
+
     /**
      * Reads from the input stream until a complete Lisp form (balanced parentheses)
      * has been entered.
@@ -130,7 +221,7 @@ public final class ReplSession {
      * Standard main entry point for running the REPL as a standalone application.
      */
     public static void main(String[] args) throws Exception {
-        main(new Environment());
+        main(StandardLibrary.newEnvironment());
     }
     
     /**
@@ -146,10 +237,32 @@ public final class ReplSession {
      * starting a REPL from an already-running interpreter.
      */
     public static void main(Environment sharedEnv, List<Expr> initialForms) throws Exception {
-        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         // Create a REPL session that knows about the previous definitions.
         ReplSession repl = new ReplSession(sharedEnv, initialForms);
+        run(repl::eval);
+    }
 
+    /**
+     * Runs the REPL on this thread but evaluates every form in {@code session}
+     * on the frame thread, through {@code scheduler}. This is how a running
+     * game takes REPL input without racing its own frame.
+     */
+    public static void main(ReplSession session, FrameScheduler scheduler) throws Exception {
+        run(source -> {
+            try {
+                return scheduler.submit(session, source).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        });
+    }
+
+    private interface Evaluator {
+        Object eval(String source) throws Exception;
+    }
+
+    private static void run(Evaluator repl) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         System.out.println("LispJ REPL. Type :quit or press Ctrl-D to exit.");
 
         for (;;) {
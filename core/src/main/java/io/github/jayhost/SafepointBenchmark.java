@@ -0,0 +1,77 @@
+// ========================================================================
+// io/github/jayhost/SafepointBenchmark.java
+//
+// Measures what safepoints cost a call-heavy script, and shows a budget
+// aborting it and a suspended task finishing it over several "frames".
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.List;
+
+public class SafepointBenchmark {
+
+    private static final String FIB = "(def (fib n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))";
+    private static final long FRAME_BUDGET_NANOS = 4_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        LispCallable plain = compileFib(false);
+        LispCallable checked = compileFib(true);
+
+        System.out.println("\n--- Safepoint Benchmark ---");
+        System.out.println("fib(" + n + ")");
+        System.out.println("=====================================");
+        System.out.printf("no safepoints:          %8.2f ms%n", best(() -> plain.apply((double) n)));
+        System.out.printf("safepoints, no budget:  %8.2f ms%n", best(() -> checked.apply((double) n)));
+        System.out.printf("safepoints, in budget:  %8.2f ms%n",
+                best(() -> ScriptBudget.call(checked, Long.MAX_VALUE / 2, Long.MAX_VALUE, (double) n)));
+
+        // The first runs also pay for recompiling the budget checks; report a few.
+        for (int round = 1; round <= 5; round++) {
+            long start = System.nanoTime();
+            try {
+                ScriptBudget.call(checked, FRAME_BUDGET_NANOS, Long.MAX_VALUE, (double) n);
+                System.out.println("abort: finished within one frame budget");
+            } catch (BudgetExceededException e) {
+                System.out.printf("abort #%d: stopped after %.2f ms (budget %.1f ms)%n",
+                        round, (System.nanoTime() - start) / 1e6, FRAME_BUDGET_NANOS / 1e6);
+            }
+        }
+
+        for (int round = 1; round <= 3; round++) {
+            ScriptBudget.Task task = ScriptBudget.start(checked, (double) n);
+            long worstSlice = 0;
+            while (true) {
+                long sliceStart = System.nanoTime();
+                boolean done = task.resume(FRAME_BUDGET_NANOS);
+                worstSlice = Math.max(worstSlice, System.nanoTime() - sliceStart);
+                if (done) break;
+            }
+            System.out.printf("suspend #%d: fib = %s over %d frames, longest frame %.2f ms%n",
+                    round, task.result(), task.slices(), worstSlice / 1e6);
+        }
+        System.out.println("=====================================");
+    }
+
+    private static LispCallable compileFib(boolean safepoints) throws Exception {
+        Environment env = new Environment();
+        LispJitCompiler compiler = new LispJitCompiler(env);
+        compiler.setSafepoints(safepoints);
+        List<Expr> forms = new Parser(FIB + " fib").parseMultiple();
+        return (LispCallable) compiler.compile(forms).apply();
+    }
+
+    private interface Run {
+        Object run() throws Exception;
+    }
+
+    private static double best(Run run) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+}
@@ -0,0 +1,369 @@
+// ========================================================================
+// io/github/jayhost/SceneLoader.java
+//
+// Loads glTF models in the background, finishes them on the render thread
+// a little at a time, and keeps them in a reference-counted cache so that
+// every entity of a model shares one copy.
+// ========================================================================
+package io.github.jayhost;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import net.mgsx.gltf.loaders.glb.GLBAssetLoader;
+import net.mgsx.gltf.loaders.gltf.GLTFAssetLoader;
+import net.mgsx.gltf.scene3d.scene.SceneAsset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A thin layer over libGDX's {@link AssetManager} with the gdx-gltf asset
+ * loaders registered. Loading a model has two halves:
+ * <ul>
+ *   <li>reading the files, parsing the glTF and its buffers and decoding the
+ *   images into pixmaps, which the asset manager does on its loader
+ *   thread;</li>
+ *   <li>creating the textures and meshes, which needs the GL context and so
+ *   runs in {@link #update}, one step at a time, until the frame's upload
+ *   budget is spent.</li>
+ * </ul>
+ * {@link #acquire} and {@link #request} only queue a model, and the
+ * {@link Listener} hears about it from a later {@link #update} once it is
+ * ready or has failed. Everything except the background half runs on the
+ * render thread.
+ * <p>
+ * Each model is loaded once and shared. {@link #acquire} takes a reference
+ * for every scene built from it, ready or not, and {@link #release} gives it
+ * back. A model nobody references stays cached, in least recently released
+ * order, until the resident estimate exceeds the memory budget; then the
+ * oldest idle models are unloaded and their meshes and textures disposed.
+ * Referenced models are never evicted, so the budget can be overrun by what
+ * is actually on screen.
+ * <p>
+ * With a {@link MeshPipeline} set, a model the asset manager has finished
+ * is first copied out and processed on a background thread, and counts as
+ * loaded only once the results are installed.
+ * <p>
+ * Progress is published to {@link LispBridge#setLoadStatus}, so scripts can
+ * see whether a model they spawned is still on its way.
+ */
+public final class SceneLoader implements Disposable {
+    private static final long DEFAULT_UPLOAD_BUDGET_NANOS = 4_000_000;
+    private static final long DEFAULT_MEMORY_BUDGET = 512L << 20;
+    /** An update step shorter than this only polled the loader thread; nothing is left to upload. */
+    private static final long IDLE_STEP_NANOS = 50_000;
+
+    /** Told on the render thread when a requested model is ready or has failed. */
+    public interface Listener {
+        void loaded(String path, SceneAsset asset);
+
+        void failed(String path, Throwable error);
+    }
+
+    /** A cached model: loading while {@code asset} is null. */
+    private static final class Cached {
+        SceneAsset asset;
+        int refs;
+        long bytes;
+    }
+
+    private final AssetManager assets = new AssetManager(new InternalFileHandleResolver());
+    private final Listener listener;
+    private final HashMap<String, Cached> entries = new HashMap<>();
+    /** Requested and neither loaded nor failed yet. */
+    private final ArrayList<String> pending = new ArrayList<>();
+    /** Models the asset manager finished that the pipeline is still working on. */
+    private final ArrayList<MeshPipeline.Job> processing = new ArrayList<>();
+    private final ArrayList<CompletableFuture<Void>> processingDone = new ArrayList<>();
+    private MeshPipeline pipeline;
+    /** Loaded models without references, least recently released first. */
+    private final LinkedHashMap<String, Cached> idle = new LinkedHashMap<>();
+    private long uploadBudgetNanos = DEFAULT_UPLOAD_BUDGET_NANOS;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long residentBytes;
+    private long hits, misses, evictions;
+    /** Why each pending model failed during the current update, by its path. */
+    private final HashMap<String, Throwable> failures = new HashMap<>();
+
+    public SceneLoader(Listener listener) {
+        this.listener = listener;
+        assets.setLoader(SceneAsset.class, ".gltf", new GLTFAssetLoader());
+        assets.setLoader(SceneAsset.class, ".glb", new GLBAssetLoader());
+        // Errors are reported under the failing file, which may be a texture.
+        assets.setErrorListener((descriptor, error) -> recordFailure(descriptor.fileName, error));
+    }
+
+    /** Sets how long {@link #update} may spend creating GL resources per frame. */
+    public void setUploadBudgetNanos(long uploadBudgetNanos) {
+        this.uploadBudgetNanos = uploadBudgetNanos;
+    }
+
+    /** Sets the pipeline every model loaded from now on goes through, or null for none. */
+    public void setPipeline(MeshPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /** Sets how many bytes of models may stay resident before idle ones are evicted. */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+        evict();
+    }
+
+    /**
+     * Takes a reference to the model at {@code path}, starting to load it if
+     * it is not cached, and returns it if it is ready, or null. The
+     * reference holds either way; give it back with {@link #release} once
+     * the scene built from it is gone.
+     */
+    public SceneAsset acquire(String path) {
+        Cached entry = lookup(path);
+        if (entry.refs++ == 0 && entry.asset != null) idle.remove(path);
+        return entry.asset;
+    }
+
+    /** Gives back a reference taken by {@link #acquire}. */
+    public void release(String path) {
+        Cached entry = entries.get(path);
+        if (entry == null || entry.refs == 0) throw new IllegalStateException("Model was not acquired: " + path);
+        if (--entry.refs == 0 && entry.asset != null) {
+            idle.put(path, entry);
+            evict();
+        }
+    }
+
+    /**
+     * Like {@link #acquire}, but takes no reference: the model is loaded and
+     * cached, and may be evicted once nothing uses it. A model that failed
+     * is tried again.
+     */
+    public SceneAsset request(String path) {
+        Cached entry = lookup(path);
+        if (entry.asset != null && entry.refs == 0) {
+            // Counts as a use, so it moves to the back of the eviction order.
+            idle.remove(path);
+            idle.put(path, entry);
+        }
+        return entry.asset;
+    }
+
+    private Cached lookup(String path) {
+        Cached entry = entries.get(path);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        entry = new Cached();
+        entries.put(path, entry);
+        pending.add(path);
+        LispBridge.setLoadStatus(path, LispBridge.LOADING);
+        assets.load(path, SceneAsset.class);
+        return entry;
+    }
+
+    /** The model at {@code path} if it is ready, or null. Takes no reference. */
+    public SceneAsset get(String path) {
+        Cached entry = entries.get(path);
+        return entry != null ? entry.asset : null;
+    }
+
+    /** Number of models requested and not finished yet. */
+    public int pendingCount() {
+        return pending.size() + processing.size();
+    }
+
+    /** Lookups of a model that was already cached or loading. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Lookups that had to start a load. */
+    public long misses() {
+        return misses;
+    }
+
+    /** Idle models unloaded to stay within the memory budget. */
+    public long evictions() {
+        return evictions;
+    }
+
+    /** Estimated GPU bytes of every loaded model, referenced or idle. */
+    public long residentBytes() {
+        return residentBytes;
+    }
+
+    public long memoryBudget() {
+        return memoryBudget;
+    }
+
+    /** The counters in one line, for logs and the REPL. */
+    public String stats() {
+        return String.format("models %d (%d idle, %d loading), hits %d, misses %d, evictions %d, resident %.1f of %.1f MB",
+                entries.size(), idle.size(), pendingCount(), hits, misses, evictions,
+                residentBytes / 1048576.0, memoryBudget / 1048576.0)
+                + (pipeline != null ? "; " + pipeline.stats() : "");
+    }
+
+    /**
+     * Advances loading within the upload budget and reports every model that
+     * finished. Call it once per frame on the render thread. It returns early
+     * once a step finds nothing to upload, so a frame spends time here only
+     * while there is GL work to do.
+     */
+    public void update() {
+        if (!processing.isEmpty()) {
+            installProcessed();
+            evict();
+        }
+        if (pending.isEmpty()) return;
+        long deadline = System.nanoTime() + uploadBudgetNanos;
+        for (;;) {
+            long start = System.nanoTime();
+            if (assets.update()) break;
+            long now = System.nanoTime();
+            if (now - start < IDLE_STEP_NANOS || now - deadline >= 0) break;
+        }
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            String path = pending.get(i);
+            if (assets.isLoaded(path, SceneAsset.class)) {
+                pending.remove(i);
+                SceneAsset asset = assets.get(path, SceneAsset.class);
+                MeshPipeline.Job job = pipeline != null ? pipeline.prepare(path, asset) : null;
+                if (job == null) {
+                    loaded(path, asset);
+                } else {
+                    processing.add(job);
+                    processingDone.add(CompletableFuture.runAsync(job::process));
+                }
+            } else if (!assets.contains(path)) {
+                // The asset manager drops a model when it or one of its textures fails.
+                pending.remove(i);
+                entries.remove(path);
+                LispBridge.setLoadStatus(path, LispBridge.FAILED);
+                listener.failed(path, failures.get(path));
+            }
+        }
+        failures.clear();
+        evict();
+    }
+
+    /**
+     * Files {@code error} under the model it took down. The asset manager
+     * loads one model and its dependencies at a time and drops all of them
+     * before reporting, so when a dependency failed, the model is the one
+     * pending path it no longer holds that has no failure yet.
+     */
+    private void recordFailure(String file, Throwable error) {
+        if (pending.contains(file)) {
+            failures.put(file, error);
+            return;
+        }
+        for (String path : pending) {
+            if (!failures.containsKey(path) && !assets.contains(path)) {
+                failures.put(path, error);
+                return;
+            }
+        }
+    }
+
+    /** Installs what the pipeline has finished and reports those models loaded. */
+    private void installProcessed() {
+        for (int i = processing.size() - 1; i >= 0; i--) {
+            CompletableFuture<Void> done = processingDone.get(i);
+            if (!done.isDone()) continue;
+            MeshPipeline.Job job = processing.remove(i);
+            processingDone.remove(i);
+            String path = job.path();
+            if (done.isCompletedExceptionally()) {
+                // The model is still usable as it was loaded.
+                done.exceptionally(error -> {
+                    Gdx.app.error("SceneLoader", "Could not process " + path, error);
+                    return null;
+                });
+            } else {
+                Exception cacheError = job.install();
+                if (cacheError != null) Gdx.app.error("SceneLoader", "Could not cache the levels of " + path, cacheError);
+                for (String line : job.report()) Gdx.app.log("MeshPipeline", line);
+            }
+            loaded(path, assets.get(path, SceneAsset.class));
+        }
+    }
+
+    private void loaded(String path, SceneAsset asset) {
+        Cached entry = entries.get(path);
+        entry.asset = asset;
+        entry.bytes = sizeOf(path, asset);
+        residentBytes += entry.bytes;
+        if (entry.refs == 0) idle.put(path, entry);
+        LispBridge.setLoadStatus(path, LispBridge.READY);
+        listener.loaded(path, asset);
+    }
+
+    /** Unloads idle models, oldest first, until the resident estimate fits the budget. */
+    private void evict() {
+        for (Iterator<Map.Entry<String, Cached>> it = idle.entrySet().iterator();
+             residentBytes > memoryBudget && it.hasNext(); ) {
+            Map.Entry<String, Cached> oldest = it.next();
+            it.remove();
+            String path = oldest.getKey();
+            entries.remove(path);
+            residentBytes -= oldest.getValue().bytes;
+            evictions++;
+            if (pipeline != null) pipeline.forget(oldest.getValue().asset);
+            assets.unload(path);
+            LispBridge.setLoadStatus(path, LispBridge.NONE);
+        }
+    }
+
+    /**
+     * Estimates what a model holds on the GPU: its vertex and index buffers,
+     * and four bytes a texel for its textures, a third more when mipmapped.
+     * Textures the asset manager loaded as dependencies count as well.
+     */
+    private long sizeOf(String path, SceneAsset asset) {
+        long bytes = 0;
+        if (asset.meshes != null) {
+            for (Mesh mesh : asset.meshes) {
+                bytes += (long) mesh.getMaxVertices() * mesh.getVertexSize() + mesh.getMaxIndices() * 2L;
+            }
+        }
+        IdentityHashMap<Texture, Boolean> textures = new IdentityHashMap<>();
+        if (asset.textures != null) {
+            for (Texture texture : asset.textures) textures.put(texture, Boolean.TRUE);
+        }
+        Array<String> dependencies = assets.getDependencies(path);
+        if (dependencies != null) {
+            for (String dependency : dependencies) {
+                if (assets.getAssetType(dependency) == Texture.class) {
+                    textures.put(assets.get(dependency, Texture.class), Boolean.TRUE);
+                }
+            }
+        }
+        for (Texture texture : textures.keySet()) {
+            long texels = (long) texture.getWidth() * texture.getHeight();
+            bytes += texture.getMinFilter().isMipMap() ? texels * 16 / 3 : texels * 4;
+        }
+        return bytes;
+    }
+
+    /** Unloads every model and stops the loader thread. */
+    @Override
+    public void dispose() {
+        assets.dispose();
+        entries.clear();
+        pending.clear();
+        processing.clear();
+        processingDone.clear();
+        idle.clear();
+        residentBytes = 0;
+    }
+}
@@ -0,0 +1,296 @@
+// ========================================================================
+// io/github/jayhost/ScriptBudget.java
+//
+// Runs Lisp code under a time or call budget, so a runaway script cannot
+// stall the frame that called it.
+// ========================================================================
+package io.github.jayhost;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution budgets for code compiled with
+ * {@link LispJitCompiler#setSafepoints(boolean) safepoints}.
+ * <p>
+ * Such code calls {@link #safepoint()} on entry to every function. While no
+ * budget is active anywhere that is one field read and a branch the JIT
+ * predicts perfectly. Under a budget it counts the call and compares the
+ * clock with the deadline about every {@value #CLOCK_PERIOD_NANOS} ns: the
+ * number of calls between two looks is scaled from what the calls since the
+ * last look cost, between 1 and {@value #MAX_CLOCK_INTERVAL}.
+ * <p>
+ * The time budget is a soft limit. The script stops at the first safepoint
+ * past the deadline, so it overruns by up to one clock period plus whatever
+ * delays that safepoint: a long {@code java-call}, a garbage collection, the
+ * JIT recompiling the script, or the thread being descheduled. The call
+ * budget is exact.
+ * <p>
+ * A budget that runs out either aborts or suspends the script:
+ * <ul>
+ *   <li>{@link #call} runs the function on the calling thread and throws
+ *   {@link BudgetExceededException} out of it at the first safepoint past the
+ *   budget.</li>
+ *   <li>{@link #start} returns a {@link Task} that runs in slices, one per
+ *   {@link Task#resume} call, typically one per frame. The JVM cannot capture
+ *   a running stack, so the task runs on a pooled helper thread, and the
+ *   caller blocks while it runs; when the slice is used up the helper parks
+ *   at the safepoint and the caller continues. Only one of them runs at any
+ *   time, but the script is not on the render thread, so it must not touch
+ *   the GL context.</li>
+ * </ul>
+ * Java code called through {@code java-call} has no safepoints and cannot be
+ * interrupted.
+ */
+public final class ScriptBudget {
+    /** How long a script runs, roughly, between two looks at the clock. */
+    private static final long CLOCK_PERIOD_NANOS = 20_000;
+    /** Most calls between two looks at the clock, for functions that cost almost nothing. */
+    private static final int MAX_CLOCK_INTERVAL = 64;
+
+    /** Number of threads currently running under a budget. */
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static final ThreadLocal<ScriptBudget> CURRENT = new ThreadLocal<>();
+    /** Cancels the scripts of tasks dropped without finishing. */
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final ExecutorService HELPERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Lisp-Budget");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The suspendable script this budget belongs to, or null to abort. */
+    private final Script script;
+    private long deadline;
+    private long callsLeft;
+    private int sinceClock;
+    /** Calls until the next look at the clock, from the cost of the calls before. */
+    private int clockInterval;
+    private long lastClock;
+
+    private ScriptBudget(Script script) {
+        this.script = script;
+    }
+
+    private void reset(long maxNanos, long maxCalls) {
+        lastClock = System.nanoTime();
+        deadline = lastClock + maxNanos;
+        callsLeft = maxCalls;
+        sinceClock = 0;
+        // Look after the first call, then as often as the calls turn out to need.
+        clockInterval = 1;
+    }
+
+    /** Called by generated code on entry to every function. */
+    public static void safepoint() {
+        if (ACTIVE.get() != 0) poll();
+    }
+
+    private static void poll() {
+        ScriptBudget budget = CURRENT.get();
+        if (budget == null) return;
+        if (--budget.callsLeft < 0) {
+            budget.exceeded("call");
+        } else if (++budget.sinceClock >= budget.clockInterval) {
+            budget.checkClock();
+        }
+    }
+
+    private void checkClock() {
+        long now = System.nanoTime();
+        long perCall = Math.max(1, (now - lastClock) / sinceClock);
+        clockInterval = (int) Math.max(1, Math.min(MAX_CLOCK_INTERVAL, CLOCK_PERIOD_NANOS / perCall));
+        lastClock = now;
+        sinceClock = 0;
+        if (now - deadline > 0) exceeded("time");
+    }
+
+    private void exceeded(String kind) {
+        if (script == null) throw new BudgetExceededException("Script exceeded its " + kind + " budget");
+        script.suspend();
+    }
+
+    /**
+     * Runs {@code fn} on this thread and aborts it if it runs longer than
+     * {@code maxNanos}, a soft limit as described above, or makes more than
+     * {@code maxCalls} calls.
+     * @throws BudgetExceededException if the budget ran out.
+     */
+    public static Object call(LispCallable fn, long maxNanos, long maxCalls, Object... args) throws Exception {
+        ScriptBudget budget = new ScriptBudget(null);
+        budget.reset(maxNanos, maxCalls);
+        ScriptBudget outer = CURRENT.get();
+        CURRENT.set(budget);
+        ACTIVE.incrementAndGet();
+        try {
+            return fn.apply(args);
+        } finally {
+            ACTIVE.decrementAndGet();
+            CURRENT.set(outer);
+        }
+    }
+
+    /**
+     * Prepares {@code fn} to run in slices; nothing runs until the first
+     * {@link Task#resume}. A task should be resumed until it is done or be
+     * {@link Task#cancel cancelled}; one that is dropped half way is
+     * cancelled once it has been collected.
+     */
+    public static Task start(LispCallable fn, Object... args) {
+        return new Task(fn, args);
+    }
+
+    /**
+     * A script that runs a slice at a time. Its methods are for the host thread.
+     * <p>
+     * Between slices the script holds a helper thread parked at a safepoint.
+     * A parked script does not count as running under a budget, so it costs
+     * other scripts' safepoints nothing, but its thread stays taken until the
+     * script finishes or is cancelled. The helper only refers to the
+     * script's state, not to the task, so a task that is dropped without
+     * {@link #cancel} becomes unreachable and a {@link Cleaner} cancels it
+     * then; cancelling it directly frees the thread sooner.
+     */
+    public static final class Task {
+        private final Script script;
+
+        private Task(LispCallable fn, Object[] args) {
+            script = new Script(fn, args);
+            CLEANER.register(this, script::abandon);
+        }
+
+        /**
+         * Lets the script run for up to {@code maxNanos}, or until it has made
+         * {@code maxCalls} more calls, and returns whether it has finished.
+         */
+        public boolean resume(long maxNanos, long maxCalls) {
+            try {
+                return script.resume(maxNanos, maxCalls);
+            } finally {
+                // The task must not be cleaned while its script runs.
+                Reference.reachabilityFence(this);
+            }
+        }
+
+        /** Lets the script run for up to {@code maxNanos}. */
+        public boolean resume(long maxNanos) {
+            return resume(maxNanos, Long.MAX_VALUE);
+        }
+
+        /** Stops the script at its next safepoint and waits for it to unwind. */
+        public void cancel() {
+            try {
+                script.cancel();
+            } finally {
+                Reference.reachabilityFence(this);
+            }
+        }
+
+        public boolean isDone() {
+            return script.done;
+        }
+
+        /** Number of slices the script has been given so far. */
+        public int slices() {
+            return script.slices;
+        }
+
+        /**
+         * Returns the script's value once it is done.
+         * @throws Exception what the script threw, including a
+         *         {@link BudgetExceededException} if it was cancelled.
+         */
+        public Object result() throws Exception {
+            if (!script.done) throw new IllegalStateException("Task has not finished");
+            if (script.failure instanceof Exception e) throw e;
+            if (script.failure instanceof Error e) throw e;
+            return script.result;
+        }
+    }
+
+    /** The state of a {@link Task}, shared with the helper thread that runs it. */
+    private static final class Script {
+        private final LispCallable fn;
+        private final Object[] args;
+        private final ScriptBudget budget = new ScriptBudget(this);
+        private final Semaphore toScript = new Semaphore(0);
+        private final Semaphore toHost = new Semaphore(0);
+        private volatile boolean started;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private Object result;
+        private Throwable failure;
+        private int slices;
+
+        Script(LispCallable fn, Object[] args) {
+            this.fn = fn;
+            this.args = args;
+        }
+
+        boolean resume(long maxNanos, long maxCalls) {
+            if (done) return true;
+            budget.reset(maxNanos, maxCalls);
+            slices++;
+            if (!started) {
+                started = true;
+                HELPERS.execute(this::run);
+            } else {
+                toScript.release();
+            }
+            toHost.acquireUninterruptibly();
+            return done;
+        }
+
+        void cancel() {
+            if (done) return;
+            cancelled = true;
+            if (!started) {
+                done = true;
+                failure = new BudgetExceededException("Cancelled before it started");
+                return;
+            }
+            toScript.release();
+            toHost.acquireUninterruptibly();
+        }
+
+        /**
+         * Run by the cleaner once the task is unreachable: wakes a parked
+         * script to unwind, without waiting for it. The task can no longer be
+         * resumed, so the script is parked if it is not done.
+         */
+        void abandon() {
+            if (done || !started) return;
+            cancelled = true;
+            toScript.release();
+        }
+
+        private void run() {
+            CURRENT.set(budget);
+            ACTIVE.incrementAndGet();
+            try {
+                result = fn.apply(args);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                ACTIVE.decrementAndGet();
+                CURRENT.remove();
+                done = true;
+                toHost.release();
+            }
+        }
+
+        /** Called on the script's thread at a safepoint past the budget. */
+        private void suspend() {
+            // Parked scripts do not count, so they do not slow everyone else's safepoints.
+            ACTIVE.decrementAndGet();
+            toHost.release();
+            toScript.acquireUninterruptibly();
+            ACTIVE.incrementAndGet();
+            if (cancelled) throw new BudgetExceededException("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,378 @@
+// ========================================================================
+// io/github/jayhost/ScriptReloader.java
+//
+// Watches script files and, when one changes, recompiles only the
+// top-level definitions whose AST actually changed.
+// ========================================================================
+package io.github.jayhost;
+
+import java.io.CharArrayReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Hot reload for scripts that run against a live {@link Environment}.
+ * <p>
+ * Every global lives in a {@link GlobalCell}, and compiled code reaches other
+ * globals only through their cells, so a single definition can be recompiled
+ * on its own: storing the new function into its cell relinks every caller.
+ * The reloader therefore keeps the last version of each file and, on a
+ * change, compiles only the definitions that are new or whose tree differs,
+ * in one batch. A {@code defvar} that did not change is not evaluated again
+ * and keeps its current value, which is what lets running entities keep
+ * their state across a reload.
+ * <p>
+ * The new text is compared with the old one first: forms wholly before the
+ * first or after the last changed character keep their trees and are not
+ * even read. Apart from decoding and comparing the text and walking the list
+ * of forms, which are plain linear passes, reading, parsing, compiling and
+ * linking all follow the size of the edit rather than the size of the file.
+ * Forms in the edited region are compared with the old version structurally,
+ * ignoring source positions, so reformatting a definition does not recompile
+ * it. When a macro changes, the unchanged forms that mention it are
+ * recompiled as well, since their expansion is baked into their code.
+ * Top-level expressions run when they are new or changed. Removing a
+ * definition from the file leaves the global in place; there is no way to
+ * undefine one.
+ * <p>
+ * If a file fails to parse or compile, the error is reported and the running
+ * code stays as it was; the next save is diffed against the last good version.
+ */
+public final class ScriptReloader implements Closeable {
+
+    /** What one reload did. */
+    public record Result(Path file, int forms, int compiled, long nanos) {
+        @Override
+        public String toString() {
+            return String.format("%s: %d of %d forms recompiled in %.2f ms",
+                    file.getFileName(), compiled, forms, nanos / 1e6);
+        }
+    }
+
+    /** A top-level form and where it sits in the text of its file. */
+    private record Form(int start, int end, int line, Expr expr) {}
+
+    /** The last good version of a file. */
+    private static final class FileState {
+        static final FileState EMPTY = new FileState(new char[0], List.of());
+
+        final char[] text;
+        final List<Form> forms;
+        /** Definition forms by the global they define. */
+        final Map<Symbol, Expr> definitions = new HashMap<>();
+        /** Top-level expressions, so unchanged ones are not run again. */
+        final List<Expr> expressions = new ArrayList<>();
+
+        FileState(char[] text, List<Form> forms) {
+            this.text = text;
+            this.forms = forms;
+        }
+    }
+
+    private final ReplSession session;
+    private final Map<Path, FileState> files = new HashMap<>();
+    private WatchService watcher;
+    private Thread watchThread;
+
+    /**
+     * Creates a reloader that compiles into {@code env}. It uses a session of
+     * its own, so it can run on its own thread next to a REPL.
+     */
+    public ScriptReloader(Environment env) {
+        this.session = new ReplSession(env);
+    }
+
+    /**
+     * Loads {@code file}, or reloads it if it was loaded before, compiling only
+     * what changed since the last good version.
+     */
+    public synchronized Result reload(Path file) throws Exception {
+        long start = System.nanoTime();
+        Path key = file.toAbsolutePath().normalize();
+        char[] text = Files.readString(key).toCharArray();
+        FileState previous = files.getOrDefault(key, FileState.EMPTY);
+        List<Form> forms;
+        try {
+            forms = split(previous, text);
+        } catch (ParseException e) {
+            // The edit changed how the text around it reads; start over.
+            forms = split(FileState.EMPTY, text);
+        }
+        FileState next = new FileState(text, forms);
+
+        Set<Expr> selected = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Symbol> changedMacros = new HashSet<>();
+        Map<Integer, List<Expr>> oldExpressions = byHash(previous.expressions);
+        for (Form f : forms) {
+            Expr form = f.expr();
+            Symbol name = definedName(form);
+            if (name == null) {
+                next.expressions.add(form);
+                if (!removeSame(oldExpressions, form)) selected.add(form);
+                continue;
+            }
+            next.definitions.put(name, form);
+            if (!sameTree(form, previous.definitions.get(name))) {
+                selected.add(form);
+                if (Helpers.isSpecialForm(form, Symbols.DEFMACRO)) changedMacros.add(name);
+            }
+        }
+        if (!changedMacros.isEmpty()) {
+            // Forms that use a changed macro carry its old expansion.
+            for (Form f : forms) {
+                if (definedName(f.expr()) != null && mentions(f.expr(), changedMacros)) selected.add(f.expr());
+            }
+        }
+        List<Expr> changed = new ArrayList<>(selected.size());
+        for (Form f : forms) {
+            if (selected.contains(f.expr())) changed.add(f.expr());
+        }
+
+        // Bounded batches, as in ReplSession.load, keep each script class small.
+        for (int i = 0; i < changed.size(); i += ReplSession.LOAD_BATCH_SIZE) {
+            session.evalForms(changed.subList(i, Math.min(changed.size(), i + ReplSession.LOAD_BATCH_SIZE)));
+        }
+        files.put(key, next);
+        return new Result(key, forms.size(), changed.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Splits {@code text} into forms, reusing the forms of {@code previous}
+     * that lie wholly before the first or after the last changed character.
+     * Only the text in between is read and parsed.
+     */
+    private static List<Form> split(FileState previous, char[] text) throws Exception {
+        char[] old = previous.text;
+        List<Form> oldForms = previous.forms;
+        int prefix = Arrays.mismatch(old, text);
+        if (prefix < 0) return oldForms;
+        int suffix = commonSuffix(old, text, Math.min(old.length, text.length) - prefix);
+        int delta = text.length - old.length;
+
+        // Forms that end before the change read the same; keep one character
+        // of slack so an atom that the edit extends is read again.
+        List<Form> forms = new ArrayList<>(oldForms.size() + 8);
+        int head = 0;
+        while (head < oldForms.size() && oldForms.get(head).end() < prefix) forms.add(oldForms.get(head++));
+        int tail = head;
+        int changeEnd = old.length - suffix;
+        while (tail < oldForms.size() && oldForms.get(tail).start() <= changeEnd) tail++;
+
+        int from = 0, line = 1;
+        if (head > 0) {
+            Form last = oldForms.get(head - 1);
+            from = last.end();
+            line = last.line() + countLines(text, last.start(), from);
+        }
+        // Later forms can only be kept if the changed text ends cleanly at a
+        // line break: then no string, list, comment or atom runs into them.
+        int to = text.length;
+        if (tail < oldForms.size() && text[oldForms.get(tail).start() + delta - 1] == '\n') {
+            to = oldForms.get(tail).start() + delta;
+        } else {
+            tail = oldForms.size();
+        }
+
+        FormReader reader = new FormReader(new CharArrayReader(text, from, to - from), line);
+        for (String source = reader.nextSource(); source != null; source = reader.nextSource()) {
+            int start = from + (int) reader.getFormOffset();
+            Expr expr = new Parser(text, start, source.length(), reader.getFormLine()).parse();
+            forms.add(new Form(start, start + source.length(), reader.getFormLine(), expr));
+        }
+        if (tail < oldForms.size()) {
+            int lineShift = reader.getLine() - oldForms.get(tail).line();
+            for (int i = tail; i < oldForms.size(); i++) {
+                Form f = oldForms.get(i);
+                forms.add(new Form(f.start() + delta, f.end() + delta, f.line() + lineShift, f.expr()));
+            }
+        }
+        return forms;
+    }
+
+    /** Length of the common suffix of {@code a} and {@code b}, at most {@code max}. */
+    private static int commonSuffix(char[] a, char[] b, int max) {
+        // Compare in blocks with the vectorized mismatch, then find the exact
+        // boundary inside the first block that differs.
+        final int block = 4096;
+        int suffix = 0;
+        while (suffix < max) {
+            int n = Math.min(block, max - suffix);
+            int aEnd = a.length - suffix, bEnd = b.length - suffix;
+            if (Arrays.mismatch(a, aEnd - n, aEnd, b, bEnd - n, bEnd) >= 0) {
+                while (a[aEnd - 1] == b[bEnd - 1]) {
+                    aEnd--;
+                    bEnd--;
+                    suffix++;
+                }
+                return suffix;
+            }
+            suffix += n;
+        }
+        return suffix;
+    }
+
+    private static int countLines(char[] text, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (text[i] == '\n') lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Watches the {@code .lisp} files in {@code dir} on a daemon thread and
+     * reloads each one when it is saved. Files already there are loaded first.
+     */
+    public void watch(Path dir) throws IOException {
+        watch(dir, Runnable::run);
+    }
+
+    /**
+     * Like {@link #watch(Path)}, but each reload is handed to {@code executor}
+     * instead of running on the watching thread. A game passes its
+     * {@link FrameScheduler}, so new code goes live between two frames rather
+     * than in the middle of one.
+     */
+    public synchronized void watch(Path dir, Executor executor) throws IOException {
+        if (watcher != null) throw new IllegalStateException("Already watching");
+        try (var existing = Files.newDirectoryStream(dir, "*.lisp")) {
+            for (Path file : existing) reloadAndReport(file);
+        }
+        watcher = FileSystems.getDefault().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        WatchService service = watcher;
+        watchThread = new Thread(() -> {
+            try {
+                for (;;) {
+                    WatchKey key = service.take();
+                    // Editors often write a file in several steps; let them finish.
+                    Thread.sleep(50);
+                    Set<Path> touched = new HashSet<>();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path name && name.toString().endsWith(".lisp")) {
+                            touched.add(dir.resolve(name));
+                        }
+                    }
+                    key.reset();
+                    for (Path file : touched) {
+                        if (Files.isRegularFile(file)) executor.execute(() -> reloadAndReport(file));
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Closed; let the thread exit.
+            }
+        }, "Lisp-Reload");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) watcher.close();
+        if (watchThread != null) watchThread.interrupt();
+        watcher = null;
+        watchThread = null;
+    }
+
+    private void reloadAndReport(Path file) {
+        try {
+            Result result = reload(file);
+            if (result.compiled() > 0) System.out.println("[reload] " + result);
+        } catch (Exception e) {
+            System.err.println("[reload] " + file.getFileName() + " failed, keeping the running version: " + e);
+        }
+    }
+
+    private static Map<Integer, List<Expr>> byHash(List<Expr> forms) {
+        Map<Integer, List<Expr>> map = new HashMap<>();
+        for (Expr form : forms) map.computeIfAbsent(treeHash(form), h -> new ArrayList<>()).add(form);
+        return map;
+    }
+
+    /** Removes a form with the same tree as {@code form} from {@code candidates}, if there is one. */
+    private static boolean removeSame(Map<Integer, List<Expr>> candidates, Expr form) {
+        List<Expr> bucket = candidates.get(treeHash(form));
+        if (bucket == null) return false;
+        for (int i = 0; i < bucket.size(); i++) {
+            if (sameTree(bucket.get(i), form)) {
+                bucket.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Symbol definedName(Expr form) {
+        if (!Helpers.isSpecialForm(form, Symbols.DEF) && !Helpers.isSpecialForm(form, Symbols.DEFVAR)
+                && !Helpers.isSpecialForm(form, Symbols.DEFMACRO) && !Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE)) {
+            return null;
+        }
+        ListExpr list = (ListExpr) form;
+        if (list.size() < 2) return null;
+        Expr target = list.get(1);
+        if (target instanceof ListExpr proto && !proto.isEmpty()) target = proto.get(0);
+        return target instanceof SymbolExpr sym ? sym.symbol : null;
+    }
+
+    /**
+     * Structural equality that ignores source positions. Symbols and keywords
+     * are shared nodes, so identity decides for them.
+     */
+    static boolean sameTree(Expr a, Expr b) {
+        if (a == b) return true;
+        if (a == null || b == null || a.getClass() != b.getClass()) return false;
+        if (a instanceof NumberExpr n) {
+            return Double.doubleToLongBits(n.value) == Double.doubleToLongBits(((NumberExpr) b).value);
+        }
+        if (a instanceof StringExpr s) return s.value.equals(((StringExpr) b).value);
+        if (a instanceof ListExpr x) {
+            ListExpr y = (ListExpr) b;
+            if (x.size() != y.size()) return false;
+            for (int i = 0; i < x.size(); i++) {
+                if (!sameTree(x.get(i), y.get(i))) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** A hash consistent with {@link #sameTree}. */
+    static int treeHash(Expr expr) {
+        if (expr instanceof NumberExpr n) return Double.hashCode(n.value);
+        if (expr instanceof StringExpr s) return s.value.hashCode();
+        if (expr instanceof ListExpr list) {
+            int h = 1;
+            for (Expr item : list.elements()) h = 31 * h + treeHash(item);
+            return h;
+        }
+        return System.identityHashCode(expr);
+    }
+
+    private static boolean mentions(Expr expr, Set<Symbol> names) {
+        if (expr instanceof SymbolExpr sym) return names.contains(sym.symbol);
+        if (expr instanceof ListExpr list) {
+            for (Expr item : list.elements()) {
+                if (mentions(item, names)) return true;
+            }
+        }
+        return false;
+    }
+}
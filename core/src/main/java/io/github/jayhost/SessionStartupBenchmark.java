@@ -0,0 +1,60 @@
+// ========================================================================
+// io/github/jayhost/SessionStartupBenchmark.java
+//
+// Measures how long a new session takes until it can call the bridge
+// helpers: compiling them into an empty environment versus mounting the
+// shared standard library.
+// ========================================================================
+package io.github.jayhost;
+
+public class SessionStartupBenchmark {
+
+    private static final String PROBE = "(rem \"probe\")";
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        System.out.println("\n--- Session Startup Benchmark ---");
+        long libraryStart = System.nanoTime();
+        StandardLibrary.get();
+        System.out.printf("Standard library compiled once in %.2f ms%n",
+                (System.nanoTime() - libraryStart) / 1e6);
+
+        // Warm up both paths.
+        measure(false, 50);
+        measure(true, 50);
+
+        System.out.println("Sessions per strategy: " + sessions);
+        System.out.println("=====================================");
+        report("Compile helpers per session", measure(false, sessions));
+        report("Mount standard library", measure(true, sessions));
+        System.out.println("=====================================");
+    }
+
+    /** Returns {startup ns, first call ns} per session, averaged. */
+    private static double[] measure(boolean mount, int sessions) throws Exception {
+        long startup = 0, firstCall = 0;
+        for (int i = 0; i < sessions; i++) {
+            long t0 = System.nanoTime();
+            ReplSession session;
+            if (mount) {
+                session = new ReplSession(StandardLibrary.newEnvironment());
+            } else {
+                session = new ReplSession(new Environment());
+                session.eval(StandardLibrary.SOURCE);
+            }
+            long t1 = System.nanoTime();
+            session.eval(PROBE);
+            long t2 = System.nanoTime();
+            startup += t1 - t0;
+            firstCall += t2 - t1;
+        }
+        LispBridge.commands().drain((op, entity, target, x, y, z) -> { });
+        return new double[]{(double) startup / sessions, (double) firstCall / sessions};
+    }
+
+    private static void report(String label, double[] nanos) {
+        System.out.printf("%-28s startup %10.1f us, first eval %8.1f us%n",
+                label + ":", nanos[0] / 1e3, nanos[1] / 1e3);
+    }
+}
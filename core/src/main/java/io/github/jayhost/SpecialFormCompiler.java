@@ -7,11 +7,8 @@ package io.github.jayhost;
 
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -27,82 +24,91 @@ public class SpecialFormCompiler {
         this.ctx = ctx;
     }
 
-    public boolean compileSpecialForm(String op, ListExpr list, MethodVisitor mv) {
-        switch (op) {
-            case "if": compileIf(list, mv); return true;
-            case "let": compileLet(list, mv); return true;
-            case "lambda": compileLambda(list, mv); return true;
-            case "java-call":compileJavaCall(list, mv); return true; 
+    public boolean compileSpecialForm(Symbol op, ListExpr list, MethodVisitor mv) {
+        switch (op.id) {
+            case Symbols.IF: compileIf(list, mv); return true;
+            case Symbols.LET: compileLet(list, mv); return true;
+            case Symbols.LAMBDA: compileLambda(list, mv); return true;
+            case Symbols.JAVA_CALL: compileJavaCall(list, mv); return true;
+            case Symbols.YIELD:
+            case Symbols.WAIT_FRAMES:
+                throw new IllegalArgumentException(op + " is only allowed as a statement of a defcoroutine body,"
+                        + " on line " + list.line());
         }
         return false;
     }
 
     private void compileIf(ListExpr ifExpr, MethodVisitor mv) {
+        FrameTracker frames = ctx.frames;
         Label elseLbl = new Label();
         Label endLbl = new Label();
-        parent.compileExpression(ifExpr.elements.get(1), mv); // cond
-        mv.visitMethodInsn(INVOKESTATIC, parent.getRootClassName(), "isTruthy", "(Ljava/lang/Object;)Z", false);
-        mv.visitJumpInsn(IFEQ, elseLbl);
-        parent.compileExpression(ifExpr.elements.get(2), mv); // then
-        mv.visitJumpInsn(GOTO, endLbl);
-        mv.visitLabel(elseLbl);
-        if (ifExpr.elements.size() > 3) parent.compileExpression(ifExpr.elements.get(3), mv); // else
-        else mv.visitInsn(ACONST_NULL);
-        mv.visitLabel(endLbl);
+        parent.compileExpression(ifExpr.get(1), mv); // cond
+        mv.visitMethodInsn(INVOKESTATIC, ctx.className, "isTruthy", "(Ljava/lang/Object;)Z", false);
+        frames.invoke(INVOKESTATIC, "(Ljava/lang/Object;)Z");
+        frames.jump(mv, IFEQ, elseLbl);
+        parent.compileExpression(ifExpr.get(2), mv); // then
+        frames.jump(mv, GOTO, endLbl);
+        frames.pop(1); // the else branch starts without the then value
+        frames.label(mv, elseLbl, ctx.nextVarIndex);
+        if (ifExpr.size() > 3) parent.compileExpression(ifExpr.get(3), mv); // else
+        else { mv.visitInsn(ACONST_NULL); frames.push(NULL); }
+        frames.widenTop();
+        frames.label(mv, endLbl, ctx.nextVarIndex);
     }
 
     private void compileLet(ListExpr letExpr, MethodVisitor mv) {
-        Map<String, Integer> originalLocals = new HashMap<>(ctx.localVars);
+        int originalLocals = ctx.localVars.mark();
         int originalNextVarIndex = ctx.nextVarIndex;
 
-        ListExpr bindings = (ListExpr) letExpr.elements.get(1);
-        for (int i = 0; i < bindings.elements.size(); i += 2) {
-            parent.compileExpression(bindings.elements.get(i + 1), mv);
+        ListExpr bindings = (ListExpr) letExpr.get(1);
+        for (int i = 0; i < bindings.size(); i += 2) {
+            parent.compileExpression(bindings.get(i + 1), mv);
             mv.visitVarInsn(ASTORE, ctx.nextVarIndex);
-            ctx.localVars.put(((SymbolExpr) bindings.elements.get(i)).name, ctx.nextVarIndex++);
+            ctx.frames.store(ctx.nextVarIndex);
+            ctx.localVars.bind(((SymbolExpr) bindings.get(i)).symbol, ctx.nextVarIndex++);
         }
-        for (int i = 2; i < letExpr.elements.size(); i++) {
-            parent.compileExpression(letExpr.elements.get(i), mv);
-            if (i < letExpr.elements.size() - 1) mv.visitInsn(POP);
+        for (int i = 2; i < letExpr.size(); i++) {
+            parent.compileExpression(letExpr.get(i), mv);
+            if (i < letExpr.size() - 1) { mv.visitInsn(POP); ctx.frames.pop(1); }
         }
-        ctx.localVars.clear();
-        ctx.localVars.putAll(originalLocals);
+        ctx.localVars.reset(originalLocals);
         ctx.nextVarIndex = originalNextVarIndex;
     }
 
     private void compileLambda(ListExpr lambdaExpr, MethodVisitor mv) {
-        LambdaCompiler lambdaCompiler = new LambdaCompiler(parent.compiler);
-        // Pass an empty map for the parent scope. This forces the lambda to correctly
-        // analyze its own captures relative to its own parameters.
-        byte[] bytecode = lambdaCompiler.compileFunction(lambdaExpr, ctx.className, Collections.emptyMap());
+        LambdaCompiler lambdaCompiler = new LambdaCompiler(parent.compiler, ctx.env);
+        // The lambda analyzes its own captures relative to its own parameters.
+        String lambdaClassName = ctx.nextLambdaClassName();
+        lambdaCompiler.compileFunction(lambdaExpr, lambdaClassName, ctx.output);
 
-        String lambdaClassName = Helpers.getClassNameFromBytecode(bytecode);
-        parent.compiler.defineClass(lambdaClassName.replace('/', '.'), bytecode); // <-- FIXED
-        
-        mv.visitTypeInsn(NEW, lambdaClassName);
-        mv.visitInsn(DUP);
-        
         // Analyze captures at the call site to push constructor arguments
-        Set<String> lambdaScope = new HashSet<>();
-        ((ListExpr)lambdaExpr.elements.get(1)).elements.forEach(p -> lambdaScope.add(((SymbolExpr)p).name));
-        Set<String> captured = CaptureAnalyzer.findCapturedVars(lambdaExpr.elements.get(2), lambdaScope, parent.compiler);
+        List<SymbolExpr> params = new ArrayList<>();
+        ListExpr paramList = (ListExpr) lambdaExpr.get(1);
+        for (int i = 0; i < paramList.size(); i++) params.add((SymbolExpr) paramList.get(i));
+        Set<Symbol> captured = CaptureAnalyzer.findCapturedVars(lambdaExpr.get(2), params, ctx.env);
 
         StringBuilder ctorDesc = new StringBuilder("(");
-        for (String var : captured) {
-            ctorDesc.append("Ljava/lang/Object;");
-            // Compile the expression for the captured variable from the parent's context.
-            parent.compileExpression(new SymbolExpr(var, -1), mv);
-        }
+        for (int i = 0; i < captured.size(); i++) ctorDesc.append("Ljava/lang/Object;");
         ctorDesc.append(")V");
 
-        mv.visitMethodInsn(INVOKESPECIAL, lambdaClassName, "<init>", ctorDesc.toString(), false);
+        // The lambda's class is reached through a constructor handle, not by name.
+        String factory = ctx.linkField(Link.constructor(lambdaClassName, ctorDesc.toString()));
+        mv.visitFieldInsn(GETSTATIC, ctx.className, factory, Link.FACTORY_DESCRIPTOR);
+        ctx.frames.push("java/lang/invoke/MethodHandle");
+        for (Symbol var : captured) {
+            // Compile the expression for the captured variable from the parent's context.
+            parent.compileSymbol(var, mv);
+        }
+        String invokeDesc = ctorDesc.substring(0, ctorDesc.length() - 1) + "Lio/github/jayhost/LispCallable;";
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", invokeDesc, false);
+        ctx.frames.invoke(INVOKEVIRTUAL, invokeDesc);
     }
 
     private void compileJavaCall(ListExpr call, MethodVisitor mv) {
         try {
             /* ---------- parse form ---------- */
-            Expr   targetExpr = call.elements.get(1);     // class literal or instance expr
-            String member1    = ((StringExpr) call.elements.get(2)).value;
+            Expr   targetExpr = call.get(1);     // class literal or instance expr
+            String member1    = ((StringExpr) call.get(2)).value;
     
             int    idx        = 3;                         // cursor in elements list
     
@@ -113,20 +119,22 @@ public class SpecialFormCompiler {
                 String className = classLit.value;
                 Class<?> clazz   = Class.forName(className);
     
-                int argCount = call.elements.size() - idx; // remaining args
+                int argCount = call.size() - idx; // remaining args
     
                 /* ---------- 1. try static METHOD first ---------- */
                 Method m = tryFindMethod(clazz, member1, argCount, /*static*/true);
                 if (m != null) {
                     // compile arg expressions 1-by-1
-                    for (int i = idx; i < call.elements.size(); i++)
-                        parent.compileExpression(call.elements.get(i), mv);
+                    for (int i = idx; i < call.size(); i++)
+                        parent.compileExpression(call.get(i), mv);
     
+                    String desc = org.objectweb.asm.Type.getMethodDescriptor(m);
                     mv.visitMethodInsn(INVOKESTATIC,
                                        className.replace('.', '/'),
                                        member1,
-                                       org.objectweb.asm.Type.getMethodDescriptor(m),
+                                       desc,
                                        false);
+                    ctx.frames.invoke(INVOKESTATIC, desc);
                     boxAndPadReturn(mv, m.getReturnType());
                     return;
                 }
@@ -139,22 +147,23 @@ public class SpecialFormCompiler {
                                   className.replace('.', '/'),
                                   member1,
                                   org.objectweb.asm.Type.getDescriptor(f.getType()));
+                ctx.frames.push(FrameTracker.frameType(org.objectweb.asm.Type.getType(f.getType())));
     
                 /* (java-call "java.lang.System" "out")  → just returns PrintStream */
-                if (idx == call.elements.size()) {
+                if (idx == call.size()) {
                     boxAndPadReturn(mv, f.getType());
                     return;
                 }
     
                 /* But if more tokens follow, member2 must be an instance method */
-                Expr m2Expr = call.elements.get(idx++);
+                Expr m2Expr = call.get(idx++);
                 if (!(m2Expr instanceof StringExpr))
                     throw new RuntimeException("Expected instance-method name after field '" +
                                                member1 + '\'');
     
                 String   instMethod = ((StringExpr) m2Expr).value;
                 Class<?> instType   = f.getType();
-                int instArgCount    = call.elements.size() - idx;
+                int instArgCount    = call.size() - idx;
     
                 Method instM = tryFindMethod(instType, instMethod, instArgCount, /*static*/false);
                 if (instM == null)
@@ -163,14 +172,16 @@ public class SpecialFormCompiler {
                                                     instArgCount + " args");
     
                 // compile instance-method args
-                for (int i = idx; i < call.elements.size(); i++)
-                    parent.compileExpression(call.elements.get(i), mv);
+                for (int i = idx; i < call.size(); i++)
+                    parent.compileExpression(call.get(i), mv);
     
+                String instDesc = org.objectweb.asm.Type.getMethodDescriptor(instM);
                 mv.visitMethodInsn(INVOKEVIRTUAL,
                                    org.objectweb.asm.Type.getInternalName(instType),
                                    instMethod,
-                                   org.objectweb.asm.Type.getMethodDescriptor(instM),
+                                   instDesc,
                                    false);
+                ctx.frames.invoke(INVOKEVIRTUAL, instDesc);
                 boxAndPadReturn(mv, instM.getReturnType());
                 return;
             }
@@ -205,6 +216,7 @@ public class SpecialFormCompiler {
     private void boxAndPadReturn(MethodVisitor mv, Class<?> ret) {
         if (ret == Void.TYPE) {
             mv.visitInsn(ACONST_NULL);           // pad to produce an Object
+            ctx.frames.push(NULL);
         } else if (ret.isPrimitive()) {          // box primitives
             String wrapper, desc;
             if (ret == int.class)    { wrapper = "java/lang/Integer"; desc = "(I)Ljava/lang/Integer;";}
@@ -216,6 +228,7 @@ public class SpecialFormCompiler {
             else if (ret == byte.class){wrapper="java/lang/Byte";    desc="(B)Ljava/lang/Byte;";}
             else                     {wrapper="java/lang/Short";   desc="(S)Ljava/lang/Short;";}
             mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", desc, false);
+            ctx.frames.invoke(INVOKESTATIC, desc);
         }
     }
 }
@@ -0,0 +1,101 @@
+// ========================================================================
+// io/github/jayhost/StandardLibrary.java
+//
+// The Lisp definitions every session starts with, compiled once per JVM
+// and mounted read-only into any number of environments.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.List;
+
+/**
+ * Compiling the bridge helpers costs a few milliseconds of parsing, codegen
+ * and class definition per session, and each session used to end up with
+ * its own copy of the same classes. Instead the library is compiled and run
+ * once into a private {@link Environment}, and the resulting
+ * {@link Environment.Snapshot} becomes the starting version of every
+ * environment that mounts it. Mounting copies nothing, so a new session
+ * costs an object allocation, and every session calls the same warmed-up
+ * code through the same {@link GlobalCell}s.
+ * <p>
+ * Mounted globals are read-only: an environment that tries to redefine one
+ * fails at compile time rather than changing it under every other session.
+ */
+public final class StandardLibrary {
+
+    /**
+     * Helpers for talking to the engine through {@link LispBridge}, where
+     * {@code add-at} and {@code add} return the new entity's handle for
+     * {@code rem}, {@code move} and {@code rotate}, including
+     * {@code make-batch}, {@code batch-add} and {@code batch-submit} for
+     * spawning many entities through one {@link EntityBatch},
+     * {@code preload}, {@code load-status} and {@code loaded?} for models
+     * that load in the background, {@code asset-stats} for the model cache,
+     * {@code cull-stats} for the frustum and occlusion culling,
+     * {@code occluder} to let a model hide what is behind it,
+     * {@code go} to start a coroutine on {@link CoroutineScheduler#main()},
+     * and {@code on-frame}/{@code off-frame} for {@link FrameScheduler#main()}.
+     */
+    static final String SOURCE =
+            "(def (add-at path x y z) (java-call \"io.github.jayhost.LispBridge\" \"addEntityAt\" path x y z))\n" +
+            "(def (add path) (add-at path 0 0 0))\n" +
+            "(def (rem e) (java-call \"io.github.jayhost.LispBridge\" \"removeEntity\" e))\n" +
+            "(def (move e x y z) (java-call \"io.github.jayhost.LispBridge\" \"moveEntity\" e x y z))\n" +
+            "(def (rotate e yaw pitch roll) (java-call \"io.github.jayhost.LispBridge\" \"rotateEntity\" e yaw pitch roll))\n" +
+            "(def (preload path) (java-call \"io.github.jayhost.LispBridge\" \"preload\" path))\n" +
+            "(def (load-status path) (java-call \"io.github.jayhost.LispBridge\" \"loadStatus\" path))\n" +
+            "(def (loaded? path) (java-call \"io.github.jayhost.LispBridge\" \"isLoaded\" path))\n" +
+            "(def (asset-stats) (java-call \"io.github.jayhost.LispBridge\" \"assetStats\"))\n" +
+            "(def (cull-stats) (java-call \"io.github.jayhost.LispBridge\" \"cullStats\"))\n" +
+            "(def (occluder path) (java-call \"io.github.jayhost.LispBridge\" \"markOccluder\" path))\n" +
+            "(def (make-batch) (java-call \"io.github.jayhost.LispBridge\" \"newBatch\"))\n" +
+            // A macro, so filling a batch in a loop costs no function call per entity.
+            "(defmacro (batch-add b path x y z)" +
+            " `(java-call \"io.github.jayhost.LispBridge\" \"batchAdd\" ,b ,path ,x ,y ,z))\n" +
+            "(def (batch-submit b) (java-call \"io.github.jayhost.LispBridge\" \"submitBatch\" b))\n" +
+            "(def (go co) (java-call \"io.github.jayhost.CoroutineScheduler\" \"spawnOnMain\" co))\n" +
+            "(def (on-frame f) (java-call \"io.github.jayhost.FrameScheduler\" \"onFrameMain\" f))\n" +
+            "(def (off-frame f) (java-call \"io.github.jayhost.FrameScheduler\" \"offFrameMain\" f))\n";
+
+    private static final class Holder {
+        static final StandardLibrary INSTANCE = compile(SOURCE);
+    }
+
+    private final Environment.Snapshot snapshot;
+
+    private StandardLibrary(Environment.Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /** Returns the library, compiling it on first use. */
+    public static StandardLibrary get() {
+        return Holder.INSTANCE;
+    }
+
+    /** Returns a new environment with the standard library mounted. */
+    public static Environment newEnvironment() {
+        return get().mount();
+    }
+
+    /** Returns a new environment that starts out with this library's globals. */
+    public Environment mount() {
+        return new Environment(snapshot);
+    }
+
+    /** Whether {@code name} is one of the library's globals or macros. */
+    public boolean defines(Symbol name) {
+        return snapshot.isDefined(name) || snapshot.macro(name) != null;
+    }
+
+    /** Compiles and runs {@code source} into a fresh environment and freezes the result. */
+    static StandardLibrary compile(String source) {
+        try {
+            Environment env = new Environment();
+            List<Expr> forms = new Parser(source).parseMultiple();
+            new LispJitCompiler(env).compile(forms).apply();
+            return new StandardLibrary(env.snapshot());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to compile the standard library", e);
+        }
+    }
+}
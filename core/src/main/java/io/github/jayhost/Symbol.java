@@ -0,0 +1,50 @@
+// ========================================================================
+// io/github/jayhost/Symbol.java
+//
+// An interned symbol. Every occurrence of a name in every script shares one
+// Symbol, so symbols compare by identity and carry a dense integer id that
+// the compiler uses to index its tables.
+// ========================================================================
+package io.github.jayhost;
+
+/**
+ * A symbol interned in {@link SymbolTable#GLOBAL}.
+ * <p>
+ * Ids are handed out densely from zero in interning order; the names in
+ * {@link Symbols} are interned first so their ids are compile-time constants.
+ */
+public final class Symbol {
+    public final int id;
+    public final String name;
+    private volatile Keyword keyword;
+    private SymbolExpr expr;
+
+    Symbol(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /** Returns the keyword {@code :name}, creating it on first use. */
+    public Keyword keyword() {
+        Keyword k = keyword;
+        if (k == null) {
+            synchronized (this) {
+                k = keyword;
+                if (k == null) keyword = k = new Keyword(this);
+            }
+        }
+        return k;
+    }
+
+    /** The syntax node shared by every occurrence of this symbol. */
+    SymbolExpr expr() {
+        SymbolExpr e = expr;
+        if (e == null) expr = e = new SymbolExpr(this); // benign race: nodes are immutable
+        return e;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,128 @@
+// ========================================================================
+// io/github/jayhost/SymbolTable.java
+//
+// Interns symbol names straight out of the reader's character buffer, so
+// a symbol that occurs a thousand times in a script is allocated once and
+// gets one dense integer id.
+// ========================================================================
+package io.github.jayhost;
+
+/**
+ * The JVM-wide open-addressing intern table for {@link Symbol}s.
+ * <p>
+ * Lookups hash a {@code char[]} range in place and only allocate the first
+ * time a name is seen. Ids are dense, so the compiler and {@link Environment}
+ * can index plain arrays by {@link Symbol#id}. Interning is synchronized since
+ * the game thread and the REPL thread may parse at the same time; looking a
+ * symbol up by id is lock-free.
+ */
+public final class SymbolTable {
+
+    /** The one table all symbol ids refer to. */
+    public static final SymbolTable GLOBAL = new SymbolTable();
+
+    private Symbol[] slots = new Symbol[1024];
+    private int[] hashes = new int[1024];
+    private volatile Symbol[] byId = new Symbol[512];
+    private int size;
+
+    private SymbolTable() {
+        for (String name : Symbols.NAMES) {
+            intern(name);
+        }
+    }
+
+    /**
+     * Returns the symbol named by the characters {@code buf[off, off + len)}.
+     */
+    public synchronized Symbol intern(char[] buf, int off, int len) {
+        int h = hash(buf, off, len);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            Symbol s = slots[i];
+            if (s == null) {
+                return insert(i, new String(buf, off, len), h);
+            }
+            if (hashes[i] == h && matches(s.name, buf, off, len)) {
+                return s;
+            }
+        }
+    }
+
+    /**
+     * Returns the symbol called {@code name}.
+     */
+    public synchronized Symbol intern(String name) {
+        int h = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            Symbol s = slots[i];
+            if (s == null) {
+                return insert(i, name, h);
+            }
+            if (hashes[i] == h && s.name.equals(name)) {
+                return s;
+            }
+        }
+    }
+
+    /** Returns the symbol with the given id. */
+    public Symbol symbol(int id) {
+        return byId[id];
+    }
+
+    /** Number of distinct symbols interned so far; every id is below this. */
+    public synchronized int size() {
+        return size;
+    }
+
+    private Symbol insert(int slot, String name, int h) {
+        Symbol s = new Symbol(size, name);
+        slots[slot] = s;
+        hashes[slot] = h;
+        Symbol[] ids = byId;
+        if (size == ids.length) {
+            Symbol[] grown = new Symbol[ids.length * 2];
+            System.arraycopy(ids, 0, grown, 0, ids.length);
+            ids = grown;
+        }
+        ids[size] = s;
+        byId = ids; // volatile write publishes the new entry
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+        return s;
+    }
+
+    private void rehash() {
+        Symbol[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        slots = new Symbol[oldSlots.length * 2];
+        hashes = new int[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] == null) continue;
+            int i = oldHashes[j] & mask;
+            while (slots[i] != null) i = (i + 1) & mask;
+            slots[i] = oldSlots[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    /** Same function as {@link String#hashCode()}, so both intern paths agree. */
+    private static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h;
+    }
+
+    private static boolean matches(String s, char[] buf, int off, int len) {
+        if (s.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != buf[off + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+// ========================================================================
+// io/github/jayhost/Symbols.java
+//
+// Symbols the compiler dispatches on. They are interned before anything
+// else, so their ids are fixed and usable as switch labels.
+// ========================================================================
+package io.github.jayhost;
+
+final class Symbols {
+    static final int DEF = 0;
+    static final int DEFVAR = 1;
+    static final int IF = 2;
+    static final int LET = 3;
+    static final int LAMBDA = 4;
+    static final int JAVA_CALL = 5;
+    static final int ADD = 6;
+    static final int SUB = 7;
+    static final int MUL = 8;
+    static final int DIV = 9;
+    static final int LT = 10;
+    static final int GT = 11;
+    static final int STRING_CONCAT = 12;
+    static final int DEFMACRO = 13;
+    static final int QUOTE = 14;
+    static final int QUASIQUOTE = 15;
+    static final int UNQUOTE = 16;
+    static final int UNQUOTE_SPLICING = 17;
+    static final int DEFCOROUTINE = 18;
+    static final int YIELD = 19;
+    static final int WAIT_FRAMES = 20;
+
+    /** Names in id order; {@link SymbolTable} interns these first. */
+    static final String[] NAMES = {
+        "def", "defvar", "if", "let", "lambda", "java-call",
+        "+", "-", "*", "/", "<", ">", "string-concat",
+        "defmacro", "quote", "quasiquote", "unquote", "unquote-splicing",
+        "defcoroutine", "yield", "wait-frames"
+    };
+
+    private Symbols() {}
+
+    static boolean isBuiltInOperator(Symbol s) {
+        return s.id >= ADD && s.id <= STRING_CONCAT;
+    }
+}
@@ -1,80 +1,172 @@
 // ========================================================================
 // io/github/jayhost/TopLevelCompiler.java
 //
-// Handles the compilation of top-level `def` and `defvar` forms.
+// Handles the compilation of top-level `def`, `defcoroutine` and `defvar`
+// forms.
 // ========================================================================
 package io.github.jayhost;
 
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import static org.objectweb.asm.Opcodes.*;
 
 public class TopLevelCompiler {
+    /** Fewer definitions than this are compiled on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    /** Static method of the script class that stores every definition in its cell. */
+    static final String INIT_METHOD = "initGlobals";
+
     private final LispJitCompiler compiler;
-    private final ClassWriter cw;
     private final String mainClassName;
-    private MethodVisitor staticInitializerMv;
+    private final CompilationContext mainContext;
+    private MethodVisitor initializerMv;
 
-    public TopLevelCompiler(LispJitCompiler compiler, ClassWriter cw, String mainClassName) {
+    /**
+     * @param mainContext The context of the script class. Every class the
+     *                    compile produces is added to its {@code output}.
+     */
+    public TopLevelCompiler(LispJitCompiler compiler, CompilationContext mainContext) {
         this.compiler = compiler;
-        this.cw = cw;
-        this.mainClassName = mainClassName;
+        this.mainClassName = mainContext.className;
+        this.mainContext = mainContext;
+    }
+
+    /** Whether {@link #INIT_METHOD} was written and must be run. */
+    public boolean hasInitializer() {
+        return initializerMv != null;
     }
 
-    public Expr compileTopLevelForms(List<Expr> forms) {
-        Expr lastExpr = null;
+    /**
+     * Compiles the definitions into {@link #INIT_METHOD} and returns the
+     * remaining expressions, in source order, for the caller to evaluate.
+     * <p>
+     * Every {@code def} compiles to its own class and depends only on the
+     * environment filled in by pass 1, so the function bodies are generated
+     * on the compiler's fork-join pool. Class names are handed out up front
+     * and the results are collected and wired into the initializer in source
+     * order, so the output does not depend on scheduling.
+     */
+    public List<Expr> compileTopLevelForms(List<Expr> forms) {
+        List<Expr> expressions = new ArrayList<>();
+        List<ListExpr> defs = new ArrayList<>();
+        List<String> defClassNames = new ArrayList<>();
+        for (Expr form : forms) {
+            if (Helpers.isSpecialForm(form, Symbols.DEF)) {
+                ListExpr defList = (ListExpr) form;
+                defs.add(defList);
+                defClassNames.add(LambdaCompiler.classNameForDef(functionName(defList).name));
+            } else if (Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE)) {
+                ListExpr defList = (ListExpr) form;
+                defs.add(defList);
+                defClassNames.add(CoroutineCompiler.classNameFor(functionName(defList).name));
+            } else if (form != null && !Helpers.isSpecialForm(form, Symbols.DEFVAR)) {
+                expressions.add(form);
+            }
+        }
+
+        for (List<GeneratedClass> classes : compileDefs(defs, defClassNames)) {
+            mainContext.output.addAll(classes);
+        }
+
+        // Initialize globals in source order: a defvar may call a function
+        // defined above it, or read an earlier defvar.
+        int nextDef = 0;
         for (Expr form : forms) {
-            if (Helpers.isSpecialForm(form, "def")) {
-                compileTopLevelDef((ListExpr) form);
-            } else if (Helpers.isSpecialForm(form, "defvar")) {
+            if (Helpers.isSpecialForm(form, Symbols.DEF) || Helpers.isSpecialForm(form, Symbols.DEFCOROUTINE)) {
+                initializeDef(defs.get(nextDef), defClassNames.get(nextDef));
+                nextDef++;
+            } else if (Helpers.isSpecialForm(form, Symbols.DEFVAR)) {
                 compileTopLevelVar((ListExpr) form);
-            } else if (form != null) {
-                lastExpr = form;
             }
         }
-        if (staticInitializerMv != null) {
-            staticInitializerMv.visitInsn(RETURN);
-            staticInitializerMv.visitMaxs(0, 0);
-            staticInitializerMv.visitEnd();
+        if (initializerMv != null) {
+            initializerMv.visitInsn(RETURN);
+            mainContext.frames.visitMaxs(initializerMv);
+            initializerMv.visitEnd();
+        }
+        return expressions;
+    }
+
+    private List<List<GeneratedClass>> compileDefs(List<ListExpr> defs, List<String> classNames) {
+        List<List<GeneratedClass>> results = new ArrayList<>(defs.size());
+        ForkJoinPool pool = compiler.getCompilePool();
+        if (pool == null || pool.getParallelism() < 2 || defs.size() < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < defs.size(); i++) {
+                results.add(compileDef(defs.get(i), classNames.get(i)));
+            }
+            return results;
+        }
+
+        List<ForkJoinTask<List<GeneratedClass>>> tasks = new ArrayList<>(defs.size());
+        for (int i = 0; i < defs.size(); i++) {
+            ListExpr defList = defs.get(i);
+            String className = classNames.get(i);
+            tasks.add(pool.submit(() -> compileDef(defList, className)));
+        }
+        for (ForkJoinTask<List<GeneratedClass>> task : tasks) {
+            results.add(task.join());
         }
-        return lastExpr;
+        return results;
+    }
+
+    private List<GeneratedClass> compileDef(ListExpr defList, String className) {
+        List<GeneratedClass> classes = new ArrayList<>();
+        if (Helpers.isSpecialForm(defList, Symbols.DEFCOROUTINE)) {
+            new CoroutineCompiler(compiler, mainContext.env).compile(defList, className, classes);
+        } else {
+            new LambdaCompiler(compiler, mainContext.env).compileFunction(defList, className, classes);
+        }
+        return classes;
+    }
+
+    private static Symbol functionName(ListExpr defList) {
+        return ((SymbolExpr) ((ListExpr) defList.get(1)).get(0)).symbol;
     }
 
-    private void ensureClinit() {
-        if (staticInitializerMv == null) {
-            staticInitializerMv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
-            staticInitializerMv.visitCode();
+    private void ensureInitializer() {
+        if (initializerMv == null) {
+            initializerMv = mainContext.classWriter.visitMethod(ACC_PRIVATE | ACC_STATIC, INIT_METHOD, "()V", null, null);
+            initializerMv.visitCode();
+            mainContext.frames.begin(mainClassName, true);
         }
     }
 
     private void compileTopLevelVar(ListExpr varList) {
-        String varName = ((SymbolExpr) varList.elements.get(1)).name;
-        cw.visitField(ACC_PUBLIC | ACC_STATIC, varName, "Ljava/lang/Object;", null, null).visitEnd();
-        ensureClinit();
-        
-        ExpressionCompiler exprCompiler =
-        new ExpressionCompiler(compiler,
-        new CompilationContext(mainClassName, null, Collections.emptyMap(), Collections.emptySet()));
-        exprCompiler.compileExpression(varList.elements.get(2), staticInitializerMv);
-        
-        staticInitializerMv.visitFieldInsn(PUTSTATIC, mainClassName, varName, "Ljava/lang/Object;");
+        Symbol varName = ((SymbolExpr) varList.get(1)).symbol;
+        ensureInitializer();
+        loadCell(varName);
+
+        mainContext.nextVarIndex = 0; // the initializer has no receiver or arguments
+        new ExpressionCompiler(compiler, mainContext).compileExpression(varList.get(2), initializerMv);
+        storeCell();
+    }
+
+    private void initializeDef(ListExpr defList, String funcClassName) {
+        ensureInitializer();
+        loadCell(functionName(defList));
+
+        String factory = mainContext.linkField(Link.constructor(funcClassName, "()V"));
+        initializerMv.visitFieldInsn(GETSTATIC, mainClassName, factory, Link.FACTORY_DESCRIPTOR);
+        initializerMv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact",
+                "()Lio/github/jayhost/LispCallable;", false);
+        mainContext.frames.push("java/lang/invoke/MethodHandle");
+        mainContext.frames.invoke(INVOKEVIRTUAL, "()Lio/github/jayhost/LispCallable;");
+        storeCell();
+    }
+
+    private void loadCell(Symbol name) {
+        initializerMv.visitFieldInsn(GETSTATIC, mainClassName, mainContext.linkField(Link.global(name)),
+                Link.CELL_DESCRIPTOR);
+        mainContext.frames.push("io/github/jayhost/GlobalCell");
     }
 
-    private void compileTopLevelDef(ListExpr defList) {
-        String funcName = ((SymbolExpr) ((ListExpr) defList.elements.get(1)).elements.get(0)).name;
-        LambdaCompiler lambdaCompiler = new LambdaCompiler(compiler);
-        byte[] funcBytecode = lambdaCompiler.compileFunction(defList, mainClassName, Collections.emptyMap());
-        
-        String funcClassName = Helpers.getClassNameFromBytecode(funcBytecode);
-        compiler.defineClass(funcClassName.replace('/', '.'), funcBytecode); // <-- FIXED
-        
-        ensureClinit();
-        cw.visitField(ACC_PUBLIC | ACC_STATIC, funcName, "Lio/github/jayhost/LispCallable;", null, null).visitEnd();
-        staticInitializerMv.visitTypeInsn(NEW, funcClassName);
-        staticInitializerMv.visitInsn(DUP);
-        staticInitializerMv.visitMethodInsn(INVOKESPECIAL, funcClassName, "<init>", "()V", false);
-        staticInitializerMv.visitFieldInsn(PUTSTATIC, mainClassName, funcName, "Lio/github/jayhost/LispCallable;");
+    /** Stores the value on top of the stack into the cell under it. */
+    private void storeCell() {
+        initializerMv.visitMethodInsn(INVOKEVIRTUAL, "io/github/jayhost/GlobalCell", "set", "(Ljava/lang/Object;)V", false);
+        mainContext.frames.invoke(INVOKEVIRTUAL, "(Ljava/lang/Object;)V");
     }
 }
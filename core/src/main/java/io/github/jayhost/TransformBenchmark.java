@@ -0,0 +1,157 @@
+// ========================================================================
+// io/github/jayhost/TransformBenchmark.java
+//
+// Updates the transforms of 50,000 entities per frame, one Matrix4 at a
+// time as scenes did before, and through the TransformSystem on one
+// thread and in parallel.
+// ========================================================================
+package io.github.jayhost;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Quaternion;
+import com.badlogic.gdx.math.Vector3;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+public class TransformBenchmark {
+
+    private static final int ENTITIES = 50_000;
+    private static final int FRAMES = 200;
+    /** Rotations about Y for each whole degree, so neither side pays for trigonometry per entity. */
+    private static final float[] TURN = new float[360 * 4];
+
+    static {
+        Quaternion q = new Quaternion();
+        for (int degrees = 0; degrees < 360; degrees++) {
+            q.setEulerAngles(degrees, 0, 0);
+            TURN[degrees * 4] = q.x;
+            TURN[degrees * 4 + 1] = q.y;
+            TURN[degrees * 4 + 2] = q.z;
+            TURN[degrees * 4 + 3] = q.w;
+        }
+    }
+
+    public static void main(String[] args) {
+        EntityRegistry registry = new EntityRegistry();
+        int[] entities = new int[ENTITIES];
+        // What each entity's ModelInstance.transform would be.
+        Matrix4[] instances = new Matrix4[ENTITIES];
+        Matrix4[] bySlot = new Matrix4[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++) {
+            entities[i] = registry.reserve();
+            instances[i] = new Matrix4();
+            bySlot[EntityRegistry.slot(entities[i])] = instances[i];
+        }
+        TransformSystem.Sink copy = (entity, world, offset) ->
+                System.arraycopy(world, offset, bySlot[EntityRegistry.slot(entity)].val, 0, 16);
+
+        TransformSystem sequential = newSystem(entities, null);
+        TransformSystem parallel = newSystem(entities, ForkJoinPool.commonPool());
+
+        System.out.println("\n--- Transform Benchmark ---");
+        System.out.println(ENTITIES + " entities, best frame of " + FRAMES + ", "
+                + ForkJoinPool.commonPool().getParallelism() + " pool threads");
+        System.out.println("=====================================");
+        Vector3 position = new Vector3();
+        Quaternion rotation = new Quaternion();
+        Vector3 scale = new Vector3(1, 1, 1);
+        TransformSystem.Sink discard = (entity, world, offset) -> { };
+        report("Matrix4 per entity, all moving", measure(NOTHING, frame -> {
+            for (int i = 0; i < ENTITIES; i++) {
+                int t = (frame + i) % 360 * 4;
+                position.set(i, frame, 0);
+                rotation.set(TURN[t], TURN[t + 1], TURN[t + 2], TURN[t + 3]);
+                instances[i].set(position, rotation, scale);
+            }
+        }));
+        report("TransformSystem setters, all moving", measure(frame -> sequential.update(discard),
+                frame -> move(sequential, entities, frame, 1)));
+        report("TransformSystem update, 1 thread, all moving", measure(frame -> move(sequential, entities, frame, 1),
+                frame -> sequential.update(copy)));
+        report("TransformSystem update, parallel, all moving", measure(frame -> move(parallel, entities, frame, 1),
+                frame -> parallel.update(copy)));
+        report("TransformSystem update, parallel, 1 in 20 moving", measure(frame -> move(parallel, entities, frame, 20),
+                frame -> parallel.update(copy)));
+        report("TransformSystem update, nothing moving", measure(NOTHING, frame -> parallel.update(copy)));
+        System.out.printf("largest difference from Matrix4.set: %.2e%n", check(entities, bySlot));
+        System.out.println("=====================================");
+    }
+
+    private interface Frame {
+        void run(int frame);
+    }
+
+    private static final Frame NOTHING = frame -> { };
+
+    private static TransformSystem newSystem(int[] entities, ForkJoinPool pool) {
+        TransformSystem system = new TransformSystem();
+        system.setPool(pool);
+        for (int entity : entities) system.add(entity, 0, 0, 0);
+        system.update((entity, world, offset) -> { });
+        return system;
+    }
+
+    /** Sets a new position and rotation on every {@code stride}th entity. */
+    private static void move(TransformSystem system, int[] entities, int frame, int stride) {
+        for (int i = frame % stride; i < entities.length; i += stride) {
+            int t = (frame + i) % 360 * 4;
+            system.setPosition(entities[i], i, frame, 0);
+            system.setRotation(entities[i], TURN[t], TURN[t + 1], TURN[t + 2], TURN[t + 3]);
+        }
+    }
+
+    /**
+     * Runs {@code setup} and then {@code timed} once per frame, timing only the latter.
+     * @return {best ms per frame, bytes allocated per frame on this thread by either}.
+     */
+    private static double[] measure(Frame setup, Frame timed) {
+        for (int f = 0; f < FRAMES; f++) { // warm up
+            setup.run(f);
+            timed.run(f);
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = allocatedBytes();
+        for (int f = 0; f < FRAMES; f++) {
+            setup.run(f);
+            long start = System.nanoTime();
+            timed.run(f);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new double[]{best / 1e6, (double) (allocatedBytes() - allocated) / FRAMES};
+    }
+
+    private static void report(String name, double[] result) {
+        System.out.printf("%-50s %7.3f ms/frame, %8.0f bytes/frame%n", name, result[0], result[1]);
+    }
+
+    /** Compares what the last frame left in every instance with libGDX's own composition. */
+    private static double check(int[] entities, Matrix4[] bySlot) {
+        TransformSystem system = new TransformSystem();
+        Matrix4 expected = new Matrix4();
+        Quaternion rotation = new Quaternion();
+        double worst = 0;
+        for (int i = 0; i < entities.length; i++) {
+            float yaw = i * 7 % 360, pitch = i * 13 % 180 - 90, roll = i * 3 % 360;
+            system.add(entities[i], i, -i, 2 * i);
+            system.setEulerAngles(entities[i], yaw, pitch, roll);
+            system.setScale(entities[i], 1, 2, 3);
+        }
+        system.update((entity, world, offset) ->
+                System.arraycopy(world, offset, bySlot[EntityRegistry.slot(entity)].val, 0, 16));
+        for (int i = 0; i < entities.length; i++) {
+            float yaw = i * 7 % 360, pitch = i * 13 % 180 - 90, roll = i * 3 % 360;
+            rotation.setEulerAngles(yaw, pitch, roll);
+            expected.set(new Vector3(i, -i, 2 * i), rotation, new Vector3(1, 2, 3));
+            float[] actual = bySlot[EntityRegistry.slot(entities[i])].val;
+            for (int k = 0; k < 16; k++) {
+                double scale = Math.max(1, Math.abs(expected.val[k]));
+                worst = Math.max(worst, Math.abs(actual[k] - expected.val[k]) / scale);
+            }
+        }
+        return worst;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,259 @@
+// ========================================================================
+// io/github/jayhost/TransformSystem.java
+//
+// Positions, rotations, scales and world matrices of every entity in flat
+// float arrays, with the changed matrices recomputed in parallel once per
+// frame.
+// ========================================================================
+package io.github.jayhost;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transforms are stored column by column and indexed by the entity's
+ * {@link EntityRegistry#slot slot}, which does not move while the entity
+ * lives: three floats of position, a rotation quaternion, three floats of
+ * scale, and sixteen floats of world matrix at {@code slot * 16}, column
+ * major like libGDX's {@code Matrix4.val}, so a matrix can be copied
+ * straight into one.
+ * <p>
+ * Setters only write their columns and mark the entity dirty. Once per
+ * frame {@link #update} recomputes the world matrix of every dirty entity,
+ * splitting the work across a fork-join pool when there is enough of it,
+ * and then reports each changed matrix to a {@link Sink} on the calling
+ * thread. Entities nothing touched cost nothing.
+ * <p>
+ * Not thread-safe: everything but the parallel part of {@link #update}
+ * runs on the render thread.
+ */
+public final class TransformSystem {
+    /** Fewer dirty entities than this are recomputed on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /** Dirty entities per fork-join leaf task. */
+    private static final int CHUNK = 2048;
+
+    /** Receives the world matrix of each entity whose transform changed. */
+    @FunctionalInterface
+    public interface Sink {
+        /** {@code world[offset]} to {@code world[offset + 15]} is the new matrix of {@code entity}. */
+        void changed(int entity, float[] world, int offset);
+    }
+
+    private int[] handles = new int[64];
+    private float[] px = new float[64], py = new float[64], pz = new float[64];
+    private float[] qx = new float[64], qy = new float[64], qz = new float[64], qw = new float[64];
+    private float[] sx = new float[64], sy = new float[64], sz = new float[64];
+    private float[] world = new float[64 * 16];
+    private boolean[] dirty = new boolean[64];
+    /** Slots to recompute this frame, each once. */
+    private int[] dirtySlots = new int[64];
+    private int dirtyCount;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /** Sets the pool {@link #update} splits large frames across, or null to stay on the calling thread. */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Starts tracking {@code entity} at (x, y, z), unrotated and unscaled. */
+    public void add(int entity, float x, float y, float z) {
+        int slot = EntityRegistry.slot(entity);
+        if (slot >= handles.length) grow(slot + 1);
+        handles[slot] = entity;
+        px[slot] = x;
+        py[slot] = y;
+        pz[slot] = z;
+        qx[slot] = 0;
+        qy[slot] = 0;
+        qz[slot] = 0;
+        qw[slot] = 1;
+        sx[slot] = 1;
+        sy[slot] = 1;
+        sz[slot] = 1;
+        // The bottom row never changes, so update() does not write it.
+        int o = slot * 16;
+        world[o + 3] = 0;
+        world[o + 7] = 0;
+        world[o + 11] = 0;
+        world[o + 15] = 1;
+        markDirty(slot);
+    }
+
+    /** Stops tracking {@code entity}; a pending change to it is not reported. */
+    public void remove(int entity) {
+        int slot = slotOf(entity);
+        if (slot >= 0) handles[slot] = 0;
+    }
+
+    public boolean contains(int entity) {
+        return slotOf(entity) >= 0;
+    }
+
+    public void setPosition(int entity, float x, float y, float z) {
+        int slot = slotOf(entity);
+        if (slot < 0) return;
+        px[slot] = x;
+        py[slot] = y;
+        pz[slot] = z;
+        markDirty(slot);
+    }
+
+    public void setRotation(int entity, float x, float y, float z, float w) {
+        int slot = slotOf(entity);
+        if (slot < 0) return;
+        qx[slot] = x;
+        qy[slot] = y;
+        qz[slot] = z;
+        qw[slot] = w;
+        markDirty(slot);
+    }
+
+    /** Sets the rotation from yaw (around Y), pitch (around X) and roll (around Z), in degrees. */
+    public void setEulerAngles(int entity, float yaw, float pitch, float roll) {
+        double hy = Math.toRadians(yaw) * 0.5, hp = Math.toRadians(pitch) * 0.5, hr = Math.toRadians(roll) * 0.5;
+        double shy = Math.sin(hy), chy = Math.cos(hy);
+        double shp = Math.sin(hp), chp = Math.cos(hp);
+        double shr = Math.sin(hr), chr = Math.cos(hr);
+        double chyShp = chy * shp, shyChp = shy * chp, chyChp = chy * chp, shyShp = shy * shp;
+        setRotation(entity,
+                (float) (chyShp * chr + shyChp * shr),
+                (float) (shyChp * chr - chyShp * shr),
+                (float) (chyChp * shr - shyShp * chr),
+                (float) (chyChp * chr + shyShp * shr));
+    }
+
+    public void setScale(int entity, float x, float y, float z) {
+        int slot = slotOf(entity);
+        if (slot < 0) return;
+        sx[slot] = x;
+        sy[slot] = y;
+        sz[slot] = z;
+        markDirty(slot);
+    }
+
+    /** Reports {@code entity}'s current matrix again at the next {@link #update}, changed or not. */
+    public void touch(int entity) {
+        int slot = slotOf(entity);
+        if (slot >= 0) markDirty(slot);
+    }
+
+    /** The world matrices; {@code entity}'s starts at {@link #worldOffset}. Valid after {@link #update}. */
+    public float[] world() {
+        return world;
+    }
+
+    public int worldOffset(int entity) {
+        return EntityRegistry.slot(entity) * 16;
+    }
+
+    /** Entities waiting for the next {@link #update}. */
+    public int dirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Recomputes the world matrix of every entity changed since the last
+     * call and hands each one to {@code sink}.
+     * @return The number of matrices recomputed.
+     */
+    public int update(Sink sink) {
+        int n = dirtyCount;
+        if (n == 0) return 0;
+        if (pool != null && n >= PARALLEL_THRESHOLD && pool.getParallelism() > 1) {
+            pool.invoke(new Compose(0, n));
+        } else {
+            compose(0, n);
+        }
+        for (int i = 0; i < n; i++) {
+            int slot = dirtySlots[i];
+            dirty[slot] = false;
+            int entity = handles[slot];
+            if (entity != 0) sink.changed(entity, world, slot * 16);
+        }
+        dirtyCount = 0;
+        return n;
+    }
+
+    /** Splits a range of the dirty list until it is small enough to compute directly. */
+    private final class Compose extends RecursiveAction {
+        private final int from, to;
+
+        Compose(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                compose(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Compose(from, mid), new Compose(mid, to));
+        }
+    }
+
+    /** World = translation * rotation * scale, for dirty entries {@code from} to {@code to}. */
+    private void compose(int from, int to) {
+        // Locals, so the loop reads no fields.
+        int[] slots = dirtySlots;
+        float[] m = world;
+        float[] px = this.px, py = this.py, pz = this.pz;
+        float[] qx = this.qx, qy = this.qy, qz = this.qz, qw = this.qw;
+        float[] sx = this.sx, sy = this.sy, sz = this.sz;
+        for (int i = from; i < to; i++) {
+            int s = slots[i];
+            float x = qx[s], y = qy[s], z = qz[s], w = qw[s];
+            float xx = x * x, yy = y * y, zz = z * z;
+            float xy = x * y, xz = x * z, yz = y * z;
+            float xw = x * w, yw = y * w, zw = z * w;
+            float ax = sx[s], ay = sy[s], az = sz[s];
+            int o = s * 16;
+            m[o] = ax * (1 - 2 * (yy + zz));
+            m[o + 1] = ax * 2 * (xy + zw);
+            m[o + 2] = ax * 2 * (xz - yw);
+            m[o + 4] = ay * 2 * (xy - zw);
+            m[o + 5] = ay * (1 - 2 * (xx + zz));
+            m[o + 6] = ay * 2 * (yz + xw);
+            m[o + 8] = az * 2 * (xz + yw);
+            m[o + 9] = az * 2 * (yz - xw);
+            m[o + 10] = az * (1 - 2 * (xx + yy));
+            m[o + 12] = px[s];
+            m[o + 13] = py[s];
+            m[o + 14] = pz[s];
+        }
+    }
+
+    private int slotOf(int entity) {
+        int slot = EntityRegistry.slot(entity);
+        return entity > 0 && slot < handles.length && handles[slot] == entity ? slot : -1;
+    }
+
+    private void markDirty(int slot) {
+        if (dirty[slot]) return;
+        dirty[slot] = true;
+        if (dirtyCount == dirtySlots.length) dirtySlots = Arrays.copyOf(dirtySlots, dirtyCount * 2);
+        dirtySlots[dirtyCount++] = slot;
+    }
+
+    private void grow(int minimum) {
+        int capacity = Math.max(minimum, handles.length * 2);
+        handles = Arrays.copyOf(handles, capacity);
+        px = Arrays.copyOf(px, capacity);
+        py = Arrays.copyOf(py, capacity);
+        pz = Arrays.copyOf(pz, capacity);
+        qx = Arrays.copyOf(qx, capacity);
+        qy = Arrays.copyOf(qy, capacity);
+        qz = Arrays.copyOf(qz, capacity);
+        qw = Arrays.copyOf(qw, capacity);
+        sx = Arrays.copyOf(sx, capacity);
+        sy = Arrays.copyOf(sy, capacity);
+        sz = Arrays.copyOf(sz, capacity);
+        world = Arrays.copyOf(world, capacity * 16);
+        dirty = Arrays.copyOf(dirty, capacity);
+    }
+}
@@ -0,0 +1,84 @@
+// ========================================================================
+// io/github/jayhost/dynamic/HiddenClassDefiner.java
+//
+// Defines generated classes as hidden classes (JEP 371).
+// ========================================================================
+package io.github.jayhost.dynamic;
+
+import io.github.jayhost.ClassDefiner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+
+/**
+ * Defines each generated class with {@code Lookup.defineHiddenClass}. Hidden
+ * classes are not entered in any loader's name table, and each one can be
+ * unloaded as soon as it is unreachable, instead of waiting for a whole
+ * class loader. The JVM also trusts their final fields as constants.
+ * <p>
+ * A hidden class must be in the package of the lookup that defines it, which
+ * is why this class lives in the package generated code is named into. The
+ * API is reached reflectively so the class still loads on JVMs before 15.
+ */
+public final class HiddenClassDefiner implements ClassDefiner {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    /** {@code (byte[], boolean) -> Lookup}, bound to {@link #LOOKUP} with no class options. */
+    private static final MethodHandle DEFINE_HIDDEN_CLASS;
+    /** {@code (Class) -> Class}, bound to {@link #LOOKUP}. */
+    private static final MethodHandle ENSURE_INITIALIZED;
+
+    static {
+        MethodHandle define = null, ensure = null;
+        try {
+            Class<?> optionType = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object noOptions = Array.newInstance(optionType, 0);
+            define = LOOKUP.findVirtual(MethodHandles.Lookup.class, "defineHiddenClass",
+                    MethodType.methodType(MethodHandles.Lookup.class, byte[].class, boolean.class, noOptions.getClass()));
+            define = MethodHandles.insertArguments(define.bindTo(LOOKUP), 2, noOptions);
+            ensure = LOOKUP.findVirtual(MethodHandles.Lookup.class, "ensureInitialized",
+                    MethodType.methodType(Class.class, Class.class)).bindTo(LOOKUP);
+        } catch (ReflectiveOperationException e) {
+            define = null; // older JVM
+        }
+        DEFINE_HIDDEN_CLASS = define;
+        ENSURE_INITIALIZED = ensure;
+    }
+
+    /** Whether this JVM can define hidden classes. */
+    public static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    /**
+     * The name is ignored: a hidden class is named after the one in its
+     * bytecode, plus a suffix the JVM picks.
+     */
+    @Override
+    public Class<?> define(String name, byte[] bytecode) throws ReflectiveOperationException {
+        try {
+            return ((MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invokeExact(bytecode, false)).lookupClass();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    public void initialize(Class<?> cls) {
+        try {
+            Class<?> ignored = (Class<?>) ENSURE_INITIALIZED.invokeExact(cls);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    public MethodHandle constructor(Class<?> cls, MethodType type) throws ReflectiveOperationException {
+        return LOOKUP.findConstructor(cls, type);
+    }
+}